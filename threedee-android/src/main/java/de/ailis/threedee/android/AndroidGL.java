@@ -9,8 +9,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
 import javax.microedition.khronos.opengles.GL10;
 import javax.microedition.khronos.opengles.GL11;
@@ -31,9 +33,18 @@ import de.ailis.threedee.rendering.GL;
 
 public class AndroidGL implements GL
 {
+    /** The name of the extension for integer indices */
+    private static final String UINT_INDICES = "GL_OES_element_index_uint";
+
     /** The android GL context */
     private GL11 gl;
 
+    /** If integer indices are supported by the GL implementation */
+    private boolean uintIndices;
+
+    /** The buffer for converting integer indices to short indices */
+    private ShortBuffer shortIndices;
+
 
     /**
      * @see de.ailis.threedee.rendering.GL#init()
@@ -42,7 +53,9 @@ public class AndroidGL implements GL
     @Override
     public void init()
     {
-        // Empty
+        final String extensions = this.gl.glGetString(GL10.GL_EXTENSIONS);
+        this.uintIndices = extensions != null
+            && extensions.contains(UINT_INDICES);
     }
 
 
@@ -59,6 +72,20 @@ public class AndroidGL implements GL
     }
 
 
+    /**
+     * Checks if the GL implementation supports integer indices. OpenGL ES
+     * 1.x only guarantees short indices. This is only known after
+     * {@link #init()} has been called.
+     *
+     * @return True if integer indices are supported, false if not
+     */
+
+    public boolean isUintIndicesSupported()
+    {
+        return this.uintIndices;
+    }
+
+
     /**
      * @see GL#glColorPointer(int, int, java.nio.FloatBuffer)
      */
@@ -159,7 +186,45 @@ public class AndroidGL implements GL
     public void glDrawElements(final int mode, final int type,
             final Buffer indices)
     {
-        this.gl.glDrawElements(mode, indices.remaining(), type, indices);
+        if (type == GL.GL_UNSIGNED_INT && !this.uintIndices)
+            this.gl.glDrawElements(mode, indices.remaining(),
+                GL.GL_UNSIGNED_SHORT, toShortIndices((IntBuffer) indices));
+        else
+            this.gl.glDrawElements(mode, indices.remaining(), type, indices);
+    }
+
+
+    /**
+     * Converts the specified integer indices into short indices for GL
+     * implementations without support for integer indices.
+     *
+     * @param indices
+     *            The integer indices to convert
+     * @return The short indices
+     * @throws UnsupportedOperationException
+     *             When an index is too large for a short index
+     */
+
+    private ShortBuffer toShortIndices(final IntBuffer indices)
+    {
+        final int count = indices.remaining();
+        ShortBuffer buffer = this.shortIndices;
+        if (buffer == null || buffer.capacity() < count)
+            buffer = this.shortIndices = ByteBuffer.allocateDirect(count * 2)
+                .order(ByteOrder.nativeOrder()).asShortBuffer();
+        buffer.clear();
+        final int position = indices.position();
+        for (int i = 0; i < count; i++)
+        {
+            final int index = indices.get(position + i);
+            if ((index & 0xffff0000) != 0)
+                throw new UnsupportedOperationException("Index " + index
+                    + " requires " + UINT_INDICES
+                    + ". Build the mesh with GL_UNSIGNED_SHORT indices");
+            buffer.put((short) index);
+        }
+        buffer.flip();
+        return buffer;
     }
 
 
@@ -229,6 +294,17 @@ public class AndroidGL implements GL
     }
 
 
+    /**
+     * @see GL#glLoadMatrix(FloatBuffer)
+     */
+
+    @Override
+    public void glLoadMatrix(final FloatBuffer m)
+    {
+        this.gl.glLoadMatrixf(m);
+    }
+
+
     /**
      * @see GL#glMatrixMode(int)
      */
@@ -285,6 +361,17 @@ public class AndroidGL implements GL
     }
 
 
+    /**
+     * @see GL#glDepthMask(boolean)
+     */
+
+    @Override
+    public void glDepthMask(final boolean flag)
+    {
+        this.gl.glDepthMask(flag);
+    }
+
+
     /**
      * @see GL#glDisable(int)
      */
@@ -611,4 +698,169 @@ public class AndroidGL implements GL
     {
         this.gl.glTexEnvi(target, pname, param);
     }
+
+
+    /**
+     * @see GL#glGenBuffers(java.nio.IntBuffer)
+     */
+
+    @Override
+    public void glGenBuffers(final IntBuffer buffers)
+    {
+        this.gl.glGenBuffers(buffers.remaining(), buffers);
+    }
+
+
+    /**
+     * @see GL#glDeleteBuffers(java.nio.IntBuffer)
+     */
+
+    @Override
+    public void glDeleteBuffers(final IntBuffer buffers)
+    {
+        this.gl.glDeleteBuffers(buffers.remaining(), buffers);
+    }
+
+
+    /**
+     * @see GL#glBindBuffer(int, int)
+     */
+
+    @Override
+    public void glBindBuffer(final int target, final int buffer)
+    {
+        this.gl.glBindBuffer(target, buffer);
+    }
+
+
+    /**
+     * @see GL#glBufferData(int, int, java.nio.Buffer, int)
+     */
+
+    @Override
+    public void glBufferData(final int target, final int size,
+            final Buffer data, final int usage)
+    {
+        this.gl.glBufferData(target, size, data, usage);
+    }
+
+
+    /**
+     * @see GL#glBufferSubData(int, int, int, java.nio.Buffer)
+     */
+
+    @Override
+    public void glBufferSubData(final int target, final int offset,
+            final int size, final Buffer data)
+    {
+        this.gl.glBufferSubData(target, offset, size, data);
+    }
+
+
+    /**
+     * @see GL#glVertexPointer(int, int, int)
+     */
+
+    @Override
+    public void glVertexPointer(final int size, final int stride,
+            final int offset)
+    {
+        this.gl.glVertexPointer(size, GL10.GL_FLOAT, stride, offset);
+    }
+
+
+    /**
+     * @see GL#glNormalPointer(int, int)
+     */
+
+    @Override
+    public void glNormalPointer(final int stride, final int offset)
+    {
+        this.gl.glNormalPointer(GL10.GL_FLOAT, stride, offset);
+    }
+
+
+    /**
+     * @see GL#glTexCoordPointer(int, int, int)
+     */
+
+    @Override
+    public void glTexCoordPointer(final int size, final int stride,
+            final int offset)
+    {
+        this.gl.glTexCoordPointer(size, GL10.GL_FLOAT, stride, offset);
+    }
+
+
+    /**
+     * @see GL#glDrawElements(int, int, int, int)
+     */
+
+    @Override
+    public void glDrawElements(final int mode, final int count,
+            final int type, final int offset)
+    {
+        // Buffer objects can't be converted on the fly
+        if (type == GL.GL_UNSIGNED_INT && !this.uintIndices)
+            throw new UnsupportedOperationException("Integer indices "
+                + "require " + UINT_INDICES
+                + ". Build the mesh with GL_UNSIGNED_SHORT indices");
+        this.gl.glDrawElements(mode, count, type, offset);
+    }
+
+
+    /**
+     * @see GL#glGenLists(int)
+     */
+
+    @Override
+    public int glGenLists(final int range)
+    {
+        // OpenGL ES has no display lists so no names are generated
+        return 0;
+    }
+
+
+    /**
+     * @see GL#glNewList(int, int)
+     */
+
+    @Override
+    public void glNewList(final int list, final int mode)
+    {
+        // Display lists are not available in OpenGL ES
+    }
+
+
+    /**
+     * @see GL#glEndList()
+     */
+
+    @Override
+    public void glEndList()
+    {
+        // Display lists are not available in OpenGL ES
+    }
+
+
+    /**
+     * @see GL#glCallList(int)
+     */
+
+    @Override
+    public void glCallList(final int list)
+    {
+        // Display lists are not available in OpenGL ES
+    }
+
+
+    /**
+     * @see GL#glDeleteLists(int, int)
+     */
+
+    @Override
+    public void glDeleteLists(final int list, final int range)
+    {
+        // Display lists are not available in OpenGL ES
+    }
 }
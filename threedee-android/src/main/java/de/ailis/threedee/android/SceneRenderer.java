@@ -10,6 +10,9 @@ import javax.microedition.khronos.opengles.GL10;
 import javax.microedition.khronos.opengles.GL11;
 
 import android.opengl.GLSurfaceView;
+import de.ailis.threedee.builder.MeshBuilder;
+import de.ailis.threedee.rendering.GL;
+import de.ailis.threedee.rendering.StateCachingGL;
 import de.ailis.threedee.rendering.Viewport;
 
 
@@ -42,7 +45,7 @@ public class SceneRenderer implements GLSurfaceView.Renderer
     {
         this.view = view;
         this.gl = new AndroidGL();
-        this.viewport = new Viewport(view, this.gl);
+        this.viewport = new Viewport(view, new StateCachingGL(this.gl));
     }
 
 
@@ -55,6 +58,11 @@ public class SceneRenderer implements GLSurfaceView.Renderer
     {
         this.gl.setGL((GL11) gl);
         this.viewport.init();
+
+        // Meshes built from now on must only use integer indices if the
+        // GL implementation supports them
+        MeshBuilder.setDefaultMaxIndexType(this.gl.isUintIndicesSupported()
+            ? GL.GL_UNSIGNED_INT : GL.GL_UNSIGNED_SHORT);
     }
 
 
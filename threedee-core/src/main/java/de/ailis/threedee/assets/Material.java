@@ -175,6 +175,22 @@ public class Material extends Asset
     }
 
 
+    /**
+     * Checks if this material is transparent. This is the case if the
+     * diffuse color has an alpha value below 1 or if the diffuse texture is
+     * transparent.
+     *
+     * @return True if material is transparent, false if not
+     */
+
+    public boolean isTransparent()
+    {
+        return this.diffuseColor.getAlpha() < 1
+            || (this.diffuseTexture != null && this.diffuseTexture
+                .isTransparent());
+    }
+
+
     /**
      * @see java.lang.Object#toString()
      */
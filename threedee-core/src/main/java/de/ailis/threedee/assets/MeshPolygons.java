@@ -5,17 +5,31 @@
 
 package de.ailis.threedee.assets;
 
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
 import java.nio.ShortBuffer;
 
+import de.ailis.gramath.MutableVector2f;
 import de.ailis.gramath.MutableVector3f;
 import de.ailis.threedee.mathold.Bounds;
+import de.ailis.threedee.rendering.GL;
 import de.ailis.threedee.utils.BufferIterator;
+import de.ailis.threedee.utils.BufferUtils;
 
 
 /**
  * A group of mesh polygons.
  *
+ * The vertex data is either stored in separate buffers for vertices, normals
+ * and texture coordinates or interleaved in a single buffer where the
+ * vertex, the normal (if present) and the texture coordinate (if present) of
+ * each vertex are stored next to each other. In interleaved mode the buffers
+ * returned by {@link #getVertices()}, {@link #getNormals()} and
+ * {@link #getTexCoords()} are views into the interleaved buffer and
+ * consecutive elements are {@link #getStride()} bytes apart.
+ *
  * @author Klaus Reimer (k@ailis.de)
  */
 
@@ -25,7 +39,10 @@ public class MeshPolygons
     private final int material;
 
     /** The elements */
-    private final ShortBuffer indices;
+    private final Buffer indices;
+
+    /** The GL data type of the indices */
+    private final int indexType;
 
     /** The vertices used by the elements */
     private final FloatBuffer vertices;
@@ -36,6 +53,12 @@ public class MeshPolygons
     /** The normals */
     private final FloatBuffer normals;
 
+    /** The interleaved vertex data. Null if vertex data is not interleaved */
+    private final FloatBuffer data;
+
+    /** The number of floats per vertex in the interleaved data. 0 if none */
+    private final int components;
+
     /** The size of the polygons (1-3) */
     private final int size;
 
@@ -51,7 +74,8 @@ public class MeshPolygons
      * @param size
      *            The polygon size (1-3)
      * @param indices
-     *            The indices
+     *            The indices. Must be a byte, short or integer buffer. The
+     *            values are interpreted as unsigned
      * @param vertices
      *            The vertices
      * @param texCoords
@@ -61,27 +85,149 @@ public class MeshPolygons
      */
 
     public MeshPolygons(final int material, final int size,
-            final ShortBuffer indices, final FloatBuffer vertices,
+            final Buffer indices, final FloatBuffer vertices,
             final FloatBuffer texCoords, final FloatBuffer normals)
     {
         this.indices = indices;
+        this.indexType = getIndexType(indices);
         this.material = material;
         this.size = size;
         this.vertices = vertices;
         this.texCoords = texCoords;
         this.normals = normals;
+        this.data = null;
+        this.components = 0;
+        this.bounds = createBounds();
+    }
+
+
+    /**
+     * Constructs mesh polygons with interleaved vertex data. Each vertex
+     * consists of three vertex coordinates followed by three normal
+     * coordinates (if normals are present) followed by two texture
+     * coordinates (if texture coordinates are present).
+     *
+     * @param material
+     *            The material id
+     * @param size
+     *            The polygon size (1-3)
+     * @param indices
+     *            The indices. Must be a byte, short or integer buffer. The
+     *            values are interpreted as unsigned
+     * @param data
+     *            The interleaved vertex data
+     * @param hasNormals
+     *            If vertex data contains normals
+     * @param hasTexCoords
+     *            If vertex data contains texture coordinates
+     */
+
+    public MeshPolygons(final int material, final int size,
+            final Buffer indices, final FloatBuffer data,
+            final boolean hasNormals, final boolean hasTexCoords)
+    {
+        this.indices = indices;
+        this.indexType = getIndexType(indices);
+        this.material = material;
+        this.size = size;
+        this.data = data;
+        this.components = 3 + (hasNormals ? 3 : 0) + (hasTexCoords ? 2 : 0);
+        this.vertices = createView(0);
+        this.normals = hasNormals ? createView(3) : null;
+        this.texCoords = hasTexCoords ? createView(hasNormals ? 6 : 3) : null;
+        this.bounds = createBounds();
+    }
+
+
+    /**
+     * Returns the index type for the specified index buffer.
+     *
+     * @param indices
+     *            The index buffer
+     * @return The index type
+     */
 
-        // Create bounding box
-        this.bounds = new Bounds();
+    private static int getIndexType(final Buffer indices)
+    {
+        if (indices instanceof ShortBuffer) return GL.GL_UNSIGNED_SHORT;
+        if (indices instanceof IntBuffer) return GL.GL_UNSIGNED_INT;
+        if (indices instanceof ByteBuffer) return GL.GL_UNSIGNED_BYTE;
+        throw new IllegalArgumentException("Unsupported index buffer type: "
+            + indices.getClass());
+    }
+
+
+    /**
+     * Creates a view into the interleaved vertex data which starts at the
+     * specified float offset.
+     *
+     * @param offset
+     *            The float offset of the first element
+     * @return The view
+     */
+
+    private FloatBuffer createView(final int offset)
+    {
+        this.data.position(offset);
+        final FloatBuffer view = this.data.slice();
+        this.data.rewind();
+        return view;
+    }
+
+
+    /**
+     * Creates the bounding box of the vertices referenced by the indices.
+     *
+     * @return The bounding box
+     */
+
+    private Bounds createBounds()
+    {
+        final Bounds bounds = new Bounds();
         final BufferIterator iterator = new BufferIterator(this.indices);
         final MutableVector3f v = new MutableVector3f();
         while (iterator.hasNext())
+            bounds.update(getVertex(iterator.next().intValue(), v));
+        return bounds;
+    }
+
+
+    /**
+     * Returns a copy of these mesh polygons with interleaved vertex data. If
+     * the vertex data is already interleaved then this object is returned.
+     *
+     * @return The mesh polygons with interleaved vertex data
+     */
+
+    public MeshPolygons toInterleaved()
+    {
+        if (this.data != null) return this;
+
+        final boolean hasNormals = this.normals != null;
+        final boolean hasTexCoords = this.texCoords != null;
+        final int vertexCount = getVertexCount();
+        final FloatBuffer data = BufferUtils.createDirectFloatBuffer(
+            vertexCount * (3 + (hasNormals ? 3 : 0) + (hasTexCoords ? 2 : 0)));
+        for (int i = 0; i < vertexCount; i++)
         {
-            final int index = iterator.next().intValue();
-            this.bounds.update(v.set(this.vertices.get(index * 3),
-                    this.vertices.get(index * 3 + 1), this.vertices
-                            .get(index * 3 + 2)));
+            data.put(this.vertices.get(i * 3));
+            data.put(this.vertices.get(i * 3 + 1));
+            data.put(this.vertices.get(i * 3 + 2));
+            if (hasNormals)
+            {
+                data.put(this.normals.get(i * 3));
+                data.put(this.normals.get(i * 3 + 1));
+                data.put(this.normals.get(i * 3 + 2));
+            }
+            if (hasTexCoords)
+            {
+                data.put(this.texCoords.get(i * 2));
+                data.put(this.texCoords.get(i * 2 + 1));
+            }
         }
+        data.rewind();
+        return new MeshPolygons(this.material, this.size, getIndices(), data,
+            hasNormals, hasTexCoords);
     }
 
 
@@ -121,6 +267,132 @@ public class MeshPolygons
     }
 
 
+    /**
+     * Checks if the vertex data is interleaved.
+     *
+     * @return True if vertex data is interleaved, false if vertices, normals
+     *         and texture coordinates are stored in separate buffers
+     */
+
+    public boolean isInterleaved()
+    {
+        return this.data != null;
+    }
+
+
+    /**
+     * Returns the interleaved vertex data.
+     *
+     * @return The interleaved vertex data. Null if vertex data is not
+     *         interleaved
+     */
+
+    public FloatBuffer getInterleavedData()
+    {
+        if (this.data != null) this.data.rewind();
+        return this.data;
+    }
+
+
+    /**
+     * Returns the byte offset between consecutive elements in the vertex,
+     * normal and texture coordinate buffers. This value can be passed
+     * directly as stride to the pointer functions of the GL context.
+     *
+     * @return The stride in bytes. 0 if the elements are tightly packed
+     */
+
+    public int getStride()
+    {
+        return this.components * 4;
+    }
+
+
+    /**
+     * Returns the byte offset of the normal within a vertex of the
+     * interleaved vertex data.
+     *
+     * @return The normal offset. -1 if there are no normals
+     */
+
+    public int getNormalOffset()
+    {
+        return this.normals == null ? -1 : 3 * 4;
+    }
+
+
+    /**
+     * Returns the byte offset of the texture coordinate within a vertex of
+     * the interleaved vertex data.
+     *
+     * @return The texture coordinate offset. -1 if there are no texture
+     *         coordinates
+     */
+
+    public int getTexCoordOffset()
+    {
+        if (this.texCoords == null) return -1;
+        return this.normals == null ? 3 * 4 : 6 * 4;
+    }
+
+
+    /**
+     * Returns the vertex with the specified index.
+     *
+     * @param index
+     *            The vertex index
+     * @param result
+     *            The vector to store the vertex in
+     * @return The result vector for chaining
+     */
+
+    public MutableVector3f getVertex(final int index,
+        final MutableVector3f result)
+    {
+        final int offset = index * (this.data == null ? 3 : this.components);
+        return result.set(this.vertices.get(offset), this.vertices
+            .get(offset + 1), this.vertices.get(offset + 2));
+    }
+
+
+    /**
+     * Returns the normal of the vertex with the specified index.
+     *
+     * @param index
+     *            The vertex index
+     * @param result
+     *            The vector to store the normal in
+     * @return The result vector for chaining
+     */
+
+    public MutableVector3f getNormal(final int index,
+        final MutableVector3f result)
+    {
+        final int offset = index * (this.data == null ? 3 : this.components);
+        return result.set(this.normals.get(offset), this.normals
+            .get(offset + 1), this.normals.get(offset + 2));
+    }
+
+
+    /**
+     * Returns the texture coordinate of the vertex with the specified index.
+     *
+     * @param index
+     *            The vertex index
+     * @param result
+     *            The vector to store the texture coordinate in
+     * @return The result vector for chaining
+     */
+
+    public MutableVector2f getTexCoord(final int index,
+        final MutableVector2f result)
+    {
+        final int offset = index * (this.data == null ? 2 : this.components);
+        return result.set(this.texCoords.get(offset), this.texCoords
+            .get(offset + 1));
+    }
+
+
     /**
      * Returns the vertices.
      *
@@ -166,13 +438,73 @@ public class MeshPolygons
      * @return The indices
      */
 
-    public ShortBuffer getIndices()
+    public Buffer getIndices()
     {
         this.indices.rewind();
         return this.indices;
     }
 
 
+    /**
+     * Returns the type of the indices. This is the smallest type which can
+     * address all vertices of the polygon group.
+     *
+     * @return The index type (GL_UNSIGNED_BYTE, GL_UNSIGNED_SHORT or
+     *         GL_UNSIGNED_INT)
+     */
+
+    public int getIndexType()
+    {
+        return this.indexType;
+    }
+
+
+    /**
+     * Returns the number of bytes per index.
+     *
+     * @return The index size in bytes (1, 2 or 4)
+     */
+
+    public int getIndexSize()
+    {
+        switch (this.indexType)
+        {
+            case GL.GL_UNSIGNED_BYTE:
+                return 1;
+
+            case GL.GL_UNSIGNED_SHORT:
+                return 2;
+
+            default:
+                return 4;
+        }
+    }
+
+
+    /**
+     * Returns the index with the specified position.
+     *
+     * @param position
+     *            The position in the index buffer
+     * @return The vertex index
+     */
+
+    public int getIndex(final int position)
+    {
+        switch (this.indexType)
+        {
+            case GL.GL_UNSIGNED_BYTE:
+                return ((ByteBuffer) this.indices).get(position) & 0xff;
+
+            case GL.GL_UNSIGNED_SHORT:
+                return ((ShortBuffer) this.indices).get(position) & 0xffff;
+
+            default:
+                return ((IntBuffer) this.indices).get(position);
+        }
+    }
+
+
     /**
      * Returns the polygon size. This can be 1 (for points), 2 (for lines) or
      * 3 (for triangels). Nothing else is allowed.
@@ -206,6 +538,8 @@ public class MeshPolygons
 
     public int getVertexCount()
     {
+        if (this.data != null)
+            return this.data.rewind().remaining() / this.components;
         return this.vertices.rewind().remaining() / 3;
     }
 
@@ -16,6 +16,10 @@ import de.ailis.threedee.rendering.GL;
 
 public abstract class Texture extends Asset
 {
+    /** If the texture has an alpha channel which must be blended */
+    private boolean transparent = false;
+
+
     /**
      * Constructor
      *
@@ -29,6 +33,35 @@ public abstract class Texture extends Asset
     }
 
 
+    /**
+     * Checks if the texture has an alpha channel which must be blended.
+     * Materials with transparent textures are rendered in the transparent
+     * pass.
+     *
+     * @return True if texture is transparent, false if not
+     */
+
+    public boolean isTransparent()
+    {
+        return this.transparent;
+    }
+
+
+    /**
+     * Sets the transparent flag. Set this for RGBA textures with alpha
+     * values other than 1. Image textures set this automatically when the
+     * image has an alpha channel.
+     *
+     * @param transparent
+     *            True if texture is transparent, false if not
+     */
+
+    public void setTransparent(final boolean transparent)
+    {
+        this.transparent = transparent;
+    }
+
+
     /**
      * Load the texture into the specified GL context. This must call
      * the glTexImage2D command to update the texture data in video memory.
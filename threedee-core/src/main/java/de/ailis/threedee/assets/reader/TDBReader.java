@@ -143,6 +143,7 @@ public abstract class TDBReader<T extends Asset> extends AbstractAssetReader<T>
             throw new ReaderException("File format version is too old");
         if (version > this.maxVersion)
             throw new ReaderException("File format version is too new");
+        this.version = version;
     }
 
 
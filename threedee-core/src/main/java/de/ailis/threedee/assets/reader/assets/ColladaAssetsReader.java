@@ -374,8 +374,9 @@ public class ColladaAssetsReader implements AssetsReader
                     .getById(
                     instanceLight.getUrl().getFragment());
             final Light light = buildLight(colladaLight);
+
+            // The light is managed by the light manager of the scene
             sceneNode.appendChild(light);
-            this.scene.getRootNode().addLight(light);
         }
 
         // Process the cameras
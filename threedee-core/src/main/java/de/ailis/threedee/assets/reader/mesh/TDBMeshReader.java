@@ -6,8 +6,8 @@
 package de.ailis.threedee.assets.reader.mesh;
 
 import java.io.IOException;
+import java.nio.Buffer;
 import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -16,6 +16,7 @@ import de.ailis.threedee.assets.Assets;
 import de.ailis.threedee.assets.Mesh;
 import de.ailis.threedee.assets.MeshPolygons;
 import de.ailis.threedee.assets.reader.TDBReader;
+import de.ailis.threedee.exceptions.ReaderException;
 import de.ailis.threedee.utils.BufferUtils;
 
 
@@ -31,6 +32,9 @@ public class TDBMeshReader extends TDBReader<Mesh> implements
     /** The logger */
     private final static Log log = LogFactory.getLog(TDBMeshReader.class);
 
+    /** If vertex data should be interleaved */
+    private final boolean interleaved;
+
     /**
      * Constructor
      *
@@ -40,7 +44,24 @@ public class TDBMeshReader extends TDBReader<Mesh> implements
 
     public TDBMeshReader(final String id)
     {
-        super(id, (byte) 1, (byte) 1);
+        this(id, false);
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param id
+     *            The ID for the read asset.
+     * @param interleaved
+     *            If the vertex data of the read mesh polygons should be
+     *            stored interleaved in a single buffer
+     */
+
+    public TDBMeshReader(final String id, final boolean interleaved)
+    {
+        super(id, (byte) 1, (byte) 2);
+        this.interleaved = interleaved;
     }
 
 
@@ -120,13 +141,47 @@ public class TDBMeshReader extends TDBReader<Mesh> implements
                     .readFloatBuffer(vertexCount * 2));
         }
         final int indexCount = this.reader.readInt();
-        log.trace("      Loading indices (" + indexCount * 2 + " bytes)");
-        final ShortBuffer indices = BufferUtils
-            .convertToNativeEndian(this.reader
-                    .readShortBuffer(indexCount));
+        final Buffer indices = readIndices(indexCount);
         log.trace("      Creating mesh polygons object");
-        return new MeshPolygons(material, mode, indices, vertices, texCoords,
-            normals);
+        final MeshPolygons polygons = new MeshPolygons(material, mode,
+            indices, vertices, texCoords, normals);
+        if (this.interleaved) return polygons.toInterleaved();
+        return polygons;
+    }
+
+
+    /**
+     * Reads the indices of a group. Version 1 files always contain short
+     * indices. Newer versions specify the number of bytes per index.
+     *
+     * @param indexCount
+     *            The number of indices to read
+     * @return The indices
+     * @throws IOException
+     *             When indices could not be read
+     */
+
+    private Buffer readIndices(final int indexCount) throws IOException
+    {
+        final int indexSize = this.version < 2 ? 2 : this.reader.readByte();
+        log.trace("      Loading indices (" + indexCount * indexSize
+            + " bytes)");
+        switch (indexSize)
+        {
+            case 1:
+                return this.reader.readByteBuffer(indexCount);
+
+            case 2:
+                return BufferUtils.convertToNativeEndian(this.reader
+                    .readShortBuffer(indexCount));
+
+            case 4:
+                return BufferUtils.convertToNativeEndian(this.reader
+                    .readIntBuffer(indexCount));
+
+            default:
+                throw new ReaderException("Invalid index size: " + indexSize);
+        }
     }
 
 
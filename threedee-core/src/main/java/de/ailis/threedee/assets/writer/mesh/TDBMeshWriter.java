@@ -6,11 +6,19 @@
 package de.ailis.threedee.assets.writer.mesh;
 
 import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 
+import de.ailis.gramath.MutableVector2f;
+import de.ailis.gramath.MutableVector3f;
 import de.ailis.threedee.assets.Asset;
 import de.ailis.threedee.assets.Mesh;
 import de.ailis.threedee.assets.MeshPolygons;
 import de.ailis.threedee.assets.writer.TDBWriter;
+import de.ailis.threedee.builder.MeshOptimizer;
+import de.ailis.threedee.rendering.GL;
 
 
 /**
@@ -22,13 +30,32 @@ import de.ailis.threedee.assets.writer.TDBWriter;
 public class TDBMeshWriter extends TDBWriter<Mesh> implements
     MeshWriter
 {
+    /** The optimizer to run on written meshes. Null if none */
+    private final MeshOptimizer optimizer;
+
+
     /**
      * Constructor
      */
 
     public TDBMeshWriter()
     {
-        super((byte) 1);
+        this(null);
+    }
+
+
+    /**
+     * Constructs a mesh writer which optimizes the meshes for the vertex
+     * cache before writing them.
+     *
+     * @param optimizer
+     *            The mesh optimizer. Null to write meshes unmodified
+     */
+
+    public TDBMeshWriter(final MeshOptimizer optimizer)
+    {
+        super((byte) 2);
+        this.optimizer = optimizer;
     }
 
 
@@ -37,8 +64,10 @@ public class TDBMeshWriter extends TDBWriter<Mesh> implements
      */
 
     @Override
-    protected void writeAsset(final Mesh mesh) throws IOException
+    protected void writeAsset(final Mesh asset) throws IOException
     {
+        final Mesh mesh = this.optimizer == null ? asset : this.optimizer
+            .optimize(asset);
         final MeshPolygons[] groups = mesh.getPolygons();
         this.writer.writeShort(groups.length);
         for (final MeshPolygons group : groups)
@@ -75,12 +104,93 @@ public class TDBMeshWriter extends TDBWriter<Mesh> implements
         this.writer.writeByte((byte) polygons.getSize());
         final int vertexCount = polygons.getVertexCount();
         this.writer.writeInt(vertexCount);
-        this.writer.writeFloatBuffer(polygons.getVertices());
-        if (hasNormals)
-            this.writer.writeFloatBuffer(polygons.getNormals());
-        if (hasTexCoords)
-            this.writer.writeFloatBuffer(polygons.getTexCoords());
+        if (polygons.isInterleaved())
+            writeInterleavedData(polygons);
+        else
+        {
+            this.writer.writeFloatBuffer(polygons.getVertices());
+            if (hasNormals)
+                this.writer.writeFloatBuffer(polygons.getNormals());
+            if (hasTexCoords)
+                this.writer.writeFloatBuffer(polygons.getTexCoords());
+        }
         this.writer.writeInt(polygons.getIndexCount());
-        this.writer.writeShortBuffer(polygons.getIndices());
+        writeIndices(polygons);
+    }
+
+
+    /**
+     * Writes the indices of the specified mesh polygons. The number of bytes
+     * per index is written first, followed by the indices.
+     *
+     * @param polygons
+     *            The mesh polygons
+     * @throws IOException
+     *             When write fails
+     */
+
+    private void writeIndices(final MeshPolygons polygons) throws IOException
+    {
+        final Buffer indices = polygons.getIndices();
+        this.writer.writeByte(polygons.getIndexSize());
+        switch (polygons.getIndexType())
+        {
+            case GL.GL_UNSIGNED_BYTE:
+                this.writer.writeByteBuffer((ByteBuffer) indices);
+                break;
+
+            case GL.GL_UNSIGNED_SHORT:
+                this.writer.writeShortBuffer((ShortBuffer) indices);
+                break;
+
+            default:
+                this.writer.writeIntBuffer((IntBuffer) indices);
+        }
+    }
+
+
+    /**
+     * Writes the interleaved vertex data of the specified mesh polygons. The
+     * data is written in the same separated layout as non-interleaved data
+     * so the file format does not depend on the storage mode.
+     *
+     * @param polygons
+     *            The mesh polygons with interleaved vertex data
+     * @throws IOException
+     *             When write fails
+     */
+
+    private void writeInterleavedData(final MeshPolygons polygons)
+        throws IOException
+    {
+        final int vertexCount = polygons.getVertexCount();
+        final MutableVector3f v = new MutableVector3f();
+        for (int i = 0; i < vertexCount; i++)
+        {
+            polygons.getVertex(i, v);
+            this.writer.writeFloat(v.getX());
+            this.writer.writeFloat(v.getY());
+            this.writer.writeFloat(v.getZ());
+        }
+        if (polygons.hasNormals())
+        {
+            for (int i = 0; i < vertexCount; i++)
+            {
+                polygons.getNormal(i, v);
+                this.writer.writeFloat(v.getX());
+                this.writer.writeFloat(v.getY());
+                this.writer.writeFloat(v.getZ());
+            }
+        }
+        if (polygons.hasTexCoords())
+        {
+            final MutableVector2f t = new MutableVector2f(0, 0);
+            for (int i = 0; i < vertexCount; i++)
+            {
+                polygons.getTexCoord(i, t);
+                this.writer.writeFloat(t.getX());
+                this.writer.writeFloat(t.getY());
+            }
+        }
     }
 }
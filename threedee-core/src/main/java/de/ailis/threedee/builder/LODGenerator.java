@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.builder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.ailis.threedee.assets.AssetFormat;
+import de.ailis.threedee.assets.Mesh;
+import de.ailis.threedee.assets.writer.mesh.TDBMeshWriter;
+import de.ailis.threedee.exceptions.AssetIOException;
+
+
+/**
+ * Generates chains of decimated meshes for level-of-detail rendering with
+ * {@link de.ailis.threedee.scene.LODModel}. Each level is decimated from the
+ * previous one with the {@link MeshDecimator} until it reaches the
+ * configured ratio of the triangles of the original mesh.
+ *
+ * Several meshes (For example all meshes of a COLLADA library) are processed
+ * in parallel. The levels can be written as extra TDB meshes which are named
+ * like the original mesh with a "-lod" suffix and the level number (See
+ * {@link #getLevelId(String, int)}).
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class LODGenerator
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog(LODGenerator.class);
+
+    /** The triangle ratios of the levels */
+    private final float[] ratios;
+
+    /** The number of threads */
+    private final int threads;
+
+    /** The decimator */
+    private final MeshDecimator decimator = new MeshDecimator();
+
+    /** If written meshes are optimized for the vertex cache */
+    private boolean optimizing = true;
+
+
+    /**
+     * Constructs a generator which uses one thread per available processor.
+     *
+     * @param ratios
+     *            The ratios of triangles to keep for the levels 1 to n. Must
+     *            be descending values between 0 and 1
+     */
+
+    public LODGenerator(final float... ratios)
+    {
+        this(Runtime.getRuntime().availableProcessors(), ratios);
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param threads
+     *            The number of threads used for processing several meshes
+     * @param ratios
+     *            The ratios of triangles to keep for the levels 1 to n. Must
+     *            be descending values between 0 and 1
+     */
+
+    public LODGenerator(final int threads, final float... ratios)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("Invalid thread count: "
+                + threads);
+        float previous = 1;
+        for (final float ratio : ratios)
+        {
+            if (ratio <= 0 || ratio >= previous)
+                throw new IllegalArgumentException(
+                    "Ratios must be descending values between 0 and 1");
+            previous = ratio;
+        }
+        this.threads = threads;
+        this.ratios = ratios.clone();
+    }
+
+
+    /**
+     * Checks if written meshes are optimized for the vertex cache.
+     *
+     * @return True if meshes are optimized, false if not
+     */
+
+    public boolean isOptimizing()
+    {
+        return this.optimizing;
+    }
+
+
+    /**
+     * Enables or disables optimizing written meshes for the vertex cache.
+     * Enabled by default.
+     *
+     * @param optimizing
+     *            True to optimize meshes, false to write them unmodified
+     */
+
+    public void setOptimizing(final boolean optimizing)
+    {
+        this.optimizing = optimizing;
+    }
+
+
+    /**
+     * Returns the id of a level mesh.
+     *
+     * @param id
+     *            The id of the original mesh
+     * @param level
+     *            The level (Starting with 1)
+     * @return The id of the level mesh
+     */
+
+    public static String getLevelId(final String id, final int level)
+    {
+        return id + "-lod" + level;
+    }
+
+
+    /**
+     * Generates the levels of the specified mesh.
+     *
+     * @param mesh
+     *            The original mesh
+     * @return The level meshes. The first element is the level 1 mesh
+     */
+
+    public Mesh[] generate(final Mesh mesh)
+    {
+        final float[] ratios = this.ratios;
+        final Mesh[] levels = new Mesh[ratios.length];
+        Mesh previous = mesh;
+        float previousRatio = 1;
+        for (int i = 0; i < ratios.length; i++)
+        {
+            levels[i] = this.decimator.decimate(previous, ratios[i]
+                / previousRatio, getLevelId(mesh.getId(), i + 1));
+            previous = levels[i];
+            previousRatio = ratios[i];
+        }
+        return levels;
+    }
+
+
+    /**
+     * Generates the levels of the specified meshes in parallel.
+     *
+     * @param meshes
+     *            The original meshes
+     * @return The level meshes mapped to the ids of the original meshes
+     */
+
+    public Map<String, Mesh[]> generate(final Collection<Mesh> meshes)
+    {
+        final List<Callable<Mesh[]>> tasks = new ArrayList<Callable<Mesh[]>>(
+            meshes.size());
+        for (final Mesh mesh : meshes)
+        {
+            tasks.add(new Callable<Mesh[]>()
+            {
+                @Override
+                public Mesh[] call()
+                {
+                    return generate(mesh);
+                }
+            });
+        }
+        final List<Mesh[]> results = execute(tasks);
+        final Map<String, Mesh[]> levels = new LinkedHashMap<String, Mesh[]>();
+        int i = 0;
+        for (final Mesh mesh : meshes)
+            levels.put(mesh.getId(), results.get(i++));
+        return levels;
+    }
+
+
+    /**
+     * Generates the levels of the specified meshes in parallel and writes
+     * them as TDB files into the specified directory.
+     *
+     * @param meshes
+     *            The original meshes
+     * @param directory
+     *            The directory to write the level meshes to
+     */
+
+    public void write(final Collection<Mesh> meshes, final File directory)
+    {
+        final List<Callable<Mesh[]>> tasks = new ArrayList<Callable<Mesh[]>>(
+            meshes.size());
+        for (final Mesh mesh : meshes)
+        {
+            tasks.add(new Callable<Mesh[]>()
+            {
+                @Override
+                public Mesh[] call() throws IOException
+                {
+                    final Mesh[] levels = generate(mesh);
+                    final TDBMeshWriter writer = new TDBMeshWriter(
+                        LODGenerator.this.optimizing ? new MeshOptimizer()
+                            : null);
+                    for (final Mesh level : levels)
+                        write(writer, level, directory);
+                    return levels;
+                }
+            });
+        }
+        execute(tasks);
+    }
+
+
+    /**
+     * Writes a mesh into the specified directory.
+     *
+     * @param writer
+     *            The mesh writer
+     * @param mesh
+     *            The mesh to write
+     * @param directory
+     *            The directory to write the mesh to
+     * @throws IOException
+     *             When mesh could not be written
+     */
+
+    private static void write(final TDBMeshWriter writer, final Mesh mesh,
+        final File directory) throws IOException
+    {
+        final File file = new File(directory, mesh.getId()
+            + AssetFormat.TDB.getExtension());
+        final OutputStream stream = new FileOutputStream(file);
+        try
+        {
+            writer.write(mesh, stream);
+        }
+        finally
+        {
+            stream.close();
+        }
+        if (log.isDebugEnabled()) log.debug("Wrote " + file);
+    }
+
+
+    /**
+     * Executes the specified tasks in parallel and returns their results.
+     *
+     * @param <T>
+     *            The result type
+     * @param tasks
+     *            The tasks to execute
+     * @return The results in the order of the tasks
+     */
+
+    private <T> List<T> execute(final List<Callable<T>> tasks)
+    {
+        final ExecutorService executor = Executors.newFixedThreadPool(Math
+            .max(1, Math.min(this.threads, tasks.size())));
+        try
+        {
+            final List<Future<T>> futures = executor.invokeAll(tasks);
+            final List<T> results = new ArrayList<T>(futures.size());
+            for (final Future<T> future : futures)
+                results.add(future.get());
+            return results;
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new AssetIOException("LOD generation interrupted", e);
+        }
+        catch (final ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new AssetIOException(cause.toString(), cause);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -16,12 +16,15 @@ import de.ailis.gramath.Vector3f;
 import de.ailis.threedee.assets.Mesh;
 import de.ailis.threedee.assets.MeshPolygons;
 import de.ailis.threedee.exceptions.ModelBuilderException;
+import de.ailis.threedee.rendering.GL;
 import de.ailis.threedee.utils.FloatBufferBuilder;
-import de.ailis.threedee.utils.ShortBufferBuilder;
+import de.ailis.threedee.utils.IntBufferBuilder;
 
 
 /**
- * This builder builds model objects.
+ * This builder builds model objects. Element vertices with identical
+ * position, normal and texture coordinate are welded together so the built
+ * mesh polygons share vertices through their indices.
  *
  * @author Klaus Reimer (k@ailis.de)
  * @version $Revision: 84727 $
@@ -29,6 +32,9 @@ import de.ailis.threedee.utils.ShortBufferBuilder;
 
 public class MeshBuilder
 {
+    /** The maximum number of vertices per elements of new builders */
+    private static int defaultMaxVertices = Integer.MAX_VALUE;
+
     /** The vertex geometry vectors */
     private final List<MutableVector3f> vertices = new ArrayList<MutableVector3f>();
 
@@ -62,9 +68,6 @@ public class MeshBuilder
     /** The indices of the normal vectors used in next element */
     private int[] nextNormals;
 
-    /** The next index */
-    private int nextIndex = 0;
-
     /** If next element uses texture coordinates */
     private boolean useTexCoords = false;
 
@@ -80,12 +83,139 @@ public class MeshBuilder
     /** The builder to build normal vector float buffers */
     private final FloatBufferBuilder normalBuilder = new FloatBufferBuilder();
 
-    /** The builder to build index buffers */
-    private final ShortBufferBuilder indexBuilder = new ShortBufferBuilder();
+    /**
+     * The builder to build index buffers. It automatically uses the
+     * smallest index type which can hold all added indices.
+     */
+    private final IntBufferBuilder indexBuilder = new IntBufferBuilder();
+
+    /** The maximum number of vertices per elements */
+    private int maxVertices = defaultMaxVertices;
+
+    /** The optimizer to run on the built mesh. Null if none */
+    private MeshOptimizer optimizer;
+
+    /** The welder which merges identical vertices of the current elements */
+    private final VertexWelder welder = new VertexWelder();
+
+    /** The vertex data of the current element vertex used for welding */
+    private final float[] weldVertex = new float[8];
 
     /** The list of built elements */
     private final ArrayList<MeshPolygons> elements = new ArrayList<MeshPolygons>();
 
+    /** If vertex data is interleaved in a single buffer */
+    private boolean interleaved = false;
+
+
+    /**
+     * Enables or disables interleaved vertex data. When enabled then the
+     * vertices, normals and texture coordinates of the built mesh polygons
+     * are stored interleaved in a single buffer. This setting must be
+     * changed before the first element is added.
+     *
+     * @param interleaved
+     *            True to interleave the vertex data, false to store
+     *            vertices, normals and texture coordinates in separate
+     *            buffers
+     */
+
+    public void setInterleaved(final boolean interleaved)
+    {
+        this.interleaved = interleaved;
+    }
+
+
+    /**
+     * Sets the largest index type the built mesh polygons may use. Elements
+     * are split into multiple mesh polygons when they have more vertices
+     * than this type can address. The default is set with
+     * {@link #setDefaultMaxIndexType(int)}. Use GL_UNSIGNED_SHORT for meshes
+     * which are rendered by OpenGL ES implementations without support for
+     * integer indices.
+     *
+     * @param indexType
+     *            The maximum index type (GL_UNSIGNED_BYTE, GL_UNSIGNED_SHORT
+     *            or GL_UNSIGNED_INT)
+     */
+
+    public void setMaxIndexType(final int indexType)
+    {
+        this.maxVertices = getMaxVertices(indexType);
+    }
+
+
+    /**
+     * Sets the largest index type the mesh polygons of new mesh builders
+     * may use. The default is GL_UNSIGNED_INT. GL implementations which
+     * can't render integer indices set this to GL_UNSIGNED_SHORT.
+     *
+     * @param indexType
+     *            The maximum index type (GL_UNSIGNED_BYTE, GL_UNSIGNED_SHORT
+     *            or GL_UNSIGNED_INT)
+     */
+
+    public static void setDefaultMaxIndexType(final int indexType)
+    {
+        defaultMaxVertices = getMaxVertices(indexType);
+    }
+
+
+    /**
+     * Returns the maximum number of vertices addressable by the specified
+     * index type.
+     *
+     * @param indexType
+     *            The index type (GL_UNSIGNED_BYTE, GL_UNSIGNED_SHORT or
+     *            GL_UNSIGNED_INT)
+     * @return The maximum number of vertices
+     */
+
+    private static int getMaxVertices(final int indexType)
+    {
+        switch (indexType)
+        {
+            case GL.GL_UNSIGNED_BYTE:
+                return 0x100;
+
+            case GL.GL_UNSIGNED_SHORT:
+                return 0x10000;
+
+            case GL.GL_UNSIGNED_INT:
+                return Integer.MAX_VALUE;
+
+            default:
+                throw new IllegalArgumentException("Invalid index type: "
+                    + indexType);
+        }
+    }
+
+
+    /**
+     * Sets the optimizer which is used to optimize the built mesh for the
+     * vertex cache.
+     *
+     * @param optimizer
+     *            The mesh optimizer. Null to disable optimization
+     */
+
+    public void setOptimizer(final MeshOptimizer optimizer)
+    {
+        this.optimizer = optimizer;
+    }
+
+
+    /**
+     * Checks if vertex data is interleaved.
+     *
+     * @return True if vertex data is interleaved, false if not
+     */
+
+    public boolean isInterleaved()
+    {
+        return this.interleaved;
+    }
+
 
     /**
      * Adds a vertex.
@@ -261,14 +391,24 @@ public class MeshBuilder
         if (this.vertexBuilder.getSize() == 0) return;
 
         // Create elements and add them to list of elements
-        final FloatBuffer coordBuffer = this.vertexBuilder.build();
-        final FloatBuffer texCoordBuffer = this.useTexCoords
-                ? this.texCoordBuilder.build() : null;
-        final FloatBuffer normalBuffer = this.useNormals ? this.normalBuilder
-                .build() : null;
-        final MeshPolygons elements = new MeshPolygons(this.material,
-                this.size, this.indexBuilder.build(), coordBuffer,
-                texCoordBuffer, normalBuffer);
+        final MeshPolygons elements;
+        if (this.interleaved)
+        {
+            elements = new MeshPolygons(this.material, this.size,
+                this.indexBuilder.build(), this.vertexBuilder.build(),
+                this.useNormals, this.useTexCoords);
+        }
+        else
+        {
+            final FloatBuffer coordBuffer = this.vertexBuilder.build();
+            final FloatBuffer texCoordBuffer = this.useTexCoords
+                    ? this.texCoordBuilder.build() : null;
+            final FloatBuffer normalBuffer = this.useNormals
+                    ? this.normalBuilder.build() : null;
+            elements = new MeshPolygons(this.material, this.size,
+                this.indexBuilder.build(), coordBuffer, texCoordBuffer,
+                normalBuffer);
+        }
         this.elements.add(elements);
 
         // Reset builder for next elements
@@ -276,7 +416,7 @@ public class MeshBuilder
         this.normalBuilder.reset();
         this.texCoordBuilder.reset();
         this.indexBuilder.reset();
-        this.nextIndex = 0;
+        this.welder.reset();
         this.size = 3;
     }
 
@@ -327,8 +467,9 @@ public class MeshBuilder
             useNormals = true;
         }
 
-        // Finish current elements if mode has changed
-        if ((this.indexBuilder.getSize() + vertexCount) > 32768
+        // Finish current elements if mode has changed or if the element
+        // vertices may no longer be addressable with the maximum index type
+        if ((this.welder.getCount() + vertexCount) > this.maxVertices
                 || size != this.size || useTexCoords != this.useTexCoords
                 || useNormals != this.useNormals) finishElements();
 
@@ -344,29 +485,54 @@ public class MeshBuilder
         if (useNormals && vertexCount != this.nextNormals.length)
             throw new ModelBuilderException("Need " + vertexCount + " normals");
 
+        // Interleaved normals and texture coordinates are written into the
+        // vertex buffer right behind the vertex they belong to
+        final FloatBufferBuilder normalBuilder = this.interleaved
+                ? this.vertexBuilder : this.normalBuilder;
+        final FloatBufferBuilder texCoordBuilder = this.interleaved
+                ? this.vertexBuilder : this.texCoordBuilder;
+
         // Generate the vertices
+        final float[] vertex = this.weldVertex;
         for (int i = 0; i < vertexCount; i++)
         {
-            // Gather the indices together
+            // Gather the vertex data together
             final Vector3f coord = this.vertices.get(vertices[i]);
-            this.vertexBuilder.add(coord.getX(), coord.getY(), coord.getZ());
-
+            vertex[0] = coord.getX();
+            vertex[1] = coord.getY();
+            vertex[2] = coord.getZ();
+            int components = 3;
+            if (useNormals)
+            {
+                final Vector3f normal = this.normals.get(this.nextNormals[i]);
+                vertex[components++] = normal.getX();
+                vertex[components++] = normal.getY();
+                vertex[components++] = normal.getZ();
+            }
             if (useTexCoords)
             {
                 final Vector2f texCoord = this.texCoords
                         .get(this.nextTexCoords[i]);
-                this.texCoordBuilder.add(texCoord.getX(), texCoord.getY());
+                vertex[components++] = texCoord.getX();
+                vertex[components++] = texCoord.getY();
             }
 
-            if (useNormals)
+            // Reuse an identical vertex if there is one. Otherwise write
+            // the new vertex to the buffers
+            final int newIndex = this.welder.getCount();
+            final int index = this.welder.weld(vertex, components);
+            if (index == newIndex)
             {
-                final Vector3f normal = this.normals.get(this.nextNormals[i]);
-                this.normalBuilder.add(normal.getX(), normal.getY(), normal
-                        .getZ());
+                this.vertexBuilder.add(vertex[0], vertex[1], vertex[2]);
+                if (useNormals)
+                    normalBuilder.add(vertex[3], vertex[4], vertex[5]);
+                if (useTexCoords)
+                {
+                    final int offset = useNormals ? 6 : 3;
+                    texCoordBuilder.add(vertex[offset], vertex[offset + 1]);
+                }
             }
-
-            this.indexBuilder.add(this.nextIndex);
-            this.nextIndex++;
+            this.indexBuilder.add(index);
         }
 
         // Reset state
@@ -443,6 +609,7 @@ public class MeshBuilder
         final Mesh model = new Mesh(id,
             this.elements.toArray(new MeshPolygons[0]),
                 this.materials.toArray(new String[0]));
+        if (this.optimizer != null) return this.optimizer.optimize(model);
         return model;
     }
 }
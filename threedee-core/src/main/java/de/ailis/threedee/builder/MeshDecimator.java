@@ -0,0 +1,732 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.builder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.ailis.gramath.MutableVector3f;
+import de.ailis.threedee.assets.Mesh;
+import de.ailis.threedee.assets.MeshPolygons;
+
+
+/**
+ * Simplifies meshes with quadric error metrics (Garland and Heckbert). Edges
+ * are collapsed in the order of the smallest quadric error until the target
+ * number of triangles is reached.
+ *
+ * Collapses always move a vertex onto one of its neighbours (Half-edge
+ * collapse) so the attributes of the remaining vertices are never
+ * interpolated. Vertices on attribute seams (Positions which are used by
+ * several vertices with different normals or texture coordinates), on open
+ * borders and on material boundaries (Positions which are used by more than
+ * one polygon group) are never moved. Other vertices can still be collapsed
+ * onto them so seams and boundaries are preserved exactly.
+ *
+ * Polygon groups which do not consist of triangles are not modified. The
+ * decimator has no state so a single instance can be used by several
+ * threads at the same time.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class MeshDecimator
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog(MeshDecimator.class);
+
+
+    /**
+     * Decimates the specified mesh.
+     *
+     * @param mesh
+     *            The mesh to decimate
+     * @param ratio
+     *            The ratio of triangles to keep (0-1)
+     * @param id
+     *            The id of the decimated mesh
+     * @return The decimated mesh
+     */
+
+    public Mesh decimate(final Mesh mesh, final float ratio, final String id)
+    {
+        if (ratio <= 0 || ratio > 1)
+            throw new IllegalArgumentException("Invalid ratio: " + ratio);
+
+        final MeshPolygons[] groups = mesh.getPolygons();
+        final VertexWelder welder = new VertexWelder();
+        final boolean[] shared = findSharedPositions(groups, welder);
+        final MeshPolygons[] decimated = new MeshPolygons[groups.length];
+        int before = 0, after = 0;
+        for (int i = 0; i < groups.length; i++)
+        {
+            final MeshPolygons polygons = groups[i];
+            if (polygons.getSize() != 3 || ratio == 1)
+            {
+                decimated[i] = polygons;
+                continue;
+            }
+            final GroupDecimator decimator = new GroupDecimator(polygons,
+                welder, shared);
+            decimated[i] = decimator.decimate(ratio);
+            before += polygons.getIndexCount() / 3;
+            after += decimated[i].getIndexCount() / 3;
+        }
+
+        if (log.isDebugEnabled())
+            log.debug("Decimated mesh " + mesh.getId() + " to " + id + ": "
+                + before + " -> " + after + " triangles");
+        return new Mesh(id, decimated, mesh.getMaterials());
+    }
+
+
+    /**
+     * Finds the positions which are used by more than one polygon group.
+     * The positions are numbered by the specified welder.
+     *
+     * @param groups
+     *            The polygon groups
+     * @param welder
+     *            The welder used for numbering the positions
+     * @return Flags indicating which positions are shared
+     */
+
+    private static boolean[] findSharedPositions(final MeshPolygons[] groups,
+        final VertexWelder welder)
+    {
+        final MutableVector3f vertex = new MutableVector3f();
+        final float[] position = new float[3];
+        int[] owners = new int[256];
+        boolean[] shared = new boolean[256];
+        for (int g = 0; g < groups.length; g++)
+        {
+            final MeshPolygons polygons = groups[g];
+            final int vertexCount = polygons.getVertexCount();
+            for (int v = 0; v < vertexCount; v++)
+            {
+                polygons.getVertex(v, vertex);
+                position[0] = vertex.getX();
+                position[1] = vertex.getY();
+                position[2] = vertex.getZ();
+                final int count = welder.getCount();
+                final int p = welder.weld(position, 3);
+                if (p >= owners.length)
+                {
+                    owners = Arrays.copyOf(owners, owners.length * 2);
+                    shared = Arrays.copyOf(shared, shared.length * 2);
+                }
+                if (p == count)
+                    owners[p] = g;
+                else if (owners[p] != g) shared[p] = true;
+            }
+        }
+        return shared;
+    }
+
+
+    /**
+     * A collapse candidate. Moves a position onto a neighbour position.
+     */
+
+    private static final class Collapse implements Comparable<Collapse>
+    {
+        /** The quadric error of the collapse */
+        final double cost;
+
+        /** The position to remove */
+        final int from;
+
+        /** The position to move to */
+        final int to;
+
+        /** The stamp of the removed position when the collapse was created */
+        final int stamp;
+
+
+        /**
+         * Constructor
+         *
+         * @param cost
+         *            The quadric error of the collapse
+         * @param from
+         *            The position to remove
+         * @param to
+         *            The position to move to
+         * @param stamp
+         *            The stamp of the removed position
+         */
+
+        Collapse(final double cost, final int from, final int to,
+            final int stamp)
+        {
+            this.cost = cost;
+            this.from = from;
+            this.to = to;
+            this.stamp = stamp;
+        }
+
+
+        /**
+         * @see java.lang.Comparable#compareTo(java.lang.Object)
+         */
+
+        @Override
+        public int compareTo(final Collapse other)
+        {
+            return Double.compare(this.cost, other.cost);
+        }
+    }
+
+
+    /**
+     * Decimates a single polygon group.
+     */
+
+    private static final class GroupDecimator
+    {
+        /** The number of quadric coefficients per position */
+        private static final int QUADRIC_SIZE = 10;
+
+        /** The polygon group */
+        private final MeshPolygons polygons;
+
+        /** The vertex indices of the triangles */
+        private final int[] triangles;
+
+        /** If triangles are still present */
+        private final boolean[] alive;
+
+        /** The number of triangles which are still present */
+        private int aliveCount;
+
+        /** The position of each vertex */
+        private final int[] vertexPositions;
+
+        /** The vertex which is used by each position. -1 if seam */
+        private final int[] positionVertices;
+
+        /** The coordinates of the positions */
+        private final float[] coords;
+
+        /** The number of positions */
+        private final int positionCount;
+
+        /** If positions must not be moved */
+        private final boolean[] locked;
+
+        /** If positions were removed */
+        private final boolean[] removed;
+
+        /** The quadrics of the positions */
+        private final double[] quadrics;
+
+        /** The triangles which use each position */
+        private final int[][] positionTriangles;
+
+        /** The number of triangles in the position triangle lists */
+        private final int[] positionTriangleCounts;
+
+        /** Stamps incremented when the collapse candidates become stale */
+        private final int[] stamps;
+
+        /** The last collapse in which the candidates of a position were updated */
+        private final int[] updates;
+
+        /** The number of performed collapses */
+        private int collapses;
+
+        /** The collapse candidates */
+        private final PriorityQueue<Collapse> queue = new PriorityQueue<Collapse>();
+
+
+        /**
+         * Constructor
+         *
+         * @param polygons
+         *            The polygon group to decimate
+         * @param sharedWelder
+         *            The welder used for numbering the positions across
+         *            polygon groups
+         * @param shared
+         *            Flags indicating the positions which are used by more
+         *            than one polygon group
+         */
+
+        GroupDecimator(final MeshPolygons polygons,
+            final VertexWelder sharedWelder, final boolean[] shared)
+        {
+            this.polygons = polygons;
+
+            // Read the triangles
+            final int indexCount = polygons.getIndexCount();
+            final int triangleCount = indexCount / 3;
+            this.triangles = new int[indexCount];
+            for (int i = 0; i < indexCount; i++)
+                this.triangles[i] = polygons.getIndex(i);
+            this.alive = new boolean[triangleCount];
+            Arrays.fill(this.alive, true);
+            this.aliveCount = triangleCount;
+
+            // Weld vertices with identical positions
+            final int vertexCount = polygons.getVertexCount();
+            final VertexWelder welder = new VertexWelder();
+            final MutableVector3f vertex = new MutableVector3f();
+            final float[] position = new float[3];
+            this.vertexPositions = new int[vertexCount];
+            final int[] positionVertices = new int[vertexCount];
+            final float[] coords = new float[vertexCount * 3];
+            final boolean[] locked = new boolean[vertexCount];
+            for (int v = 0; v < vertexCount; v++)
+            {
+                polygons.getVertex(v, vertex);
+                position[0] = vertex.getX();
+                position[1] = vertex.getY();
+                position[2] = vertex.getZ();
+                final int count = welder.getCount();
+                final int p = welder.weld(position, 3);
+                this.vertexPositions[v] = p;
+                if (p == count)
+                {
+                    positionVertices[p] = v;
+                    System.arraycopy(position, 0, coords, p * 3, 3);
+                }
+                else
+                {
+                    // Position is used by several vertices with different
+                    // attributes
+                    positionVertices[p] = -1;
+                    locked[p] = true;
+                }
+
+                // Lock positions on material boundaries
+                final int sharedPosition = sharedWelder.weld(position, 3);
+                if (sharedPosition < shared.length && shared[sharedPosition])
+                    locked[p] = true;
+            }
+            this.positionCount = welder.getCount();
+            this.positionVertices = positionVertices;
+            this.coords = coords;
+            this.locked = locked;
+            this.removed = new boolean[this.positionCount];
+            this.stamps = new int[this.positionCount];
+            this.updates = new int[this.positionCount];
+            this.quadrics = new double[this.positionCount * QUADRIC_SIZE];
+
+            // Build the triangle lists of the positions
+            final int positionCount = this.positionCount;
+            this.positionTriangleCounts = new int[positionCount];
+            for (int i = 0; i < indexCount; i++)
+                this.positionTriangleCounts[this.vertexPositions[this.triangles[i]]]++;
+            this.positionTriangles = new int[positionCount][];
+            for (int p = 0; p < positionCount; p++)
+            {
+                this.positionTriangles[p] = new int[Math.max(
+                    this.positionTriangleCounts[p], 1)];
+                this.positionTriangleCounts[p] = 0;
+            }
+            for (int t = 0; t < triangleCount; t++)
+                for (int k = 0; k < 3; k++)
+                    addTriangle(getPosition(t, k), t);
+
+            lockBorders();
+            initQuadrics();
+        }
+
+
+        /**
+         * Returns the position of a triangle corner.
+         *
+         * @param triangle
+         *            The triangle
+         * @param corner
+         *            The corner (0-2)
+         * @return The position
+         */
+
+        private int getPosition(final int triangle, final int corner)
+        {
+            return this.vertexPositions[this.triangles[triangle * 3 + corner]];
+        }
+
+
+        /**
+         * Adds a triangle to the triangle list of a position.
+         *
+         * @param position
+         *            The position
+         * @param triangle
+         *            The triangle to add
+         */
+
+        private void addTriangle(final int position, final int triangle)
+        {
+            int[] list = this.positionTriangles[position];
+            final int count = this.positionTriangleCounts[position];
+            if (count == list.length)
+            {
+                list = Arrays.copyOf(list, count * 2);
+                this.positionTriangles[position] = list;
+            }
+            list[count] = triangle;
+            this.positionTriangleCounts[position] = count + 1;
+        }
+
+
+        /**
+         * Locks the positions on open borders. Border edges are used by only
+         * one triangle.
+         */
+
+        private void lockBorders()
+        {
+            final Map<Long, Integer> edges = new HashMap<Long, Integer>();
+            final int triangleCount = this.alive.length;
+            for (int t = 0; t < triangleCount; t++)
+            {
+                for (int k = 0; k < 3; k++)
+                {
+                    final Long edge = getEdgeKey(getPosition(t, k),
+                        getPosition(t, (k + 1) % 3));
+                    final Integer count = edges.get(edge);
+                    edges.put(edge, count == null ? 1 : count + 1);
+                }
+            }
+            for (final Map.Entry<Long, Integer> entry : edges.entrySet())
+            {
+                if (entry.getValue() != 2)
+                {
+                    final long edge = entry.getKey();
+                    this.locked[(int) (edge >>> 32)] = true;
+                    this.locked[(int) edge] = true;
+                }
+            }
+        }
+
+
+        /**
+         * Returns a key identifying the undirected edge between two
+         * positions.
+         *
+         * @param a
+         *            The first position
+         * @param b
+         *            The second position
+         * @return The edge key
+         */
+
+        private static Long getEdgeKey(final int a, final int b)
+        {
+            final long min = Math.min(a, b), max = Math.max(a, b);
+            return Long.valueOf((min << 32) | max);
+        }
+
+
+        /**
+         * Initializes the quadrics of the positions with the area-weighted
+         * planes of their triangles.
+         */
+
+        private void initQuadrics()
+        {
+            final float[] c = this.coords;
+            final double[] q = this.quadrics;
+            final int triangleCount = this.alive.length;
+            for (int t = 0; t < triangleCount; t++)
+            {
+                final int a = getPosition(t, 0) * 3;
+                final int b = getPosition(t, 1) * 3;
+                final int d = getPosition(t, 2) * 3;
+                final double ux = c[b] - c[a], uy = c[b + 1] - c[a + 1], uz = c[b + 2]
+                    - c[a + 2];
+                final double vx = c[d] - c[a], vy = c[d + 1] - c[a + 1], vz = c[d + 2]
+                    - c[a + 2];
+                double nx = uy * vz - uz * vy;
+                double ny = uz * vx - ux * vz;
+                double nz = ux * vy - uy * vx;
+                final double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+                if (length == 0) continue;
+                final double area = length / 2;
+                nx /= length;
+                ny /= length;
+                nz /= length;
+                final double w = -(nx * c[a] + ny * c[a + 1] + nz * c[a + 2]);
+                for (int k = 0; k < 3; k++)
+                {
+                    final int o = getPosition(t, k) * QUADRIC_SIZE;
+                    q[o] += area * nx * nx;
+                    q[o + 1] += area * nx * ny;
+                    q[o + 2] += area * nx * nz;
+                    q[o + 3] += area * nx * w;
+                    q[o + 4] += area * ny * ny;
+                    q[o + 5] += area * ny * nz;
+                    q[o + 6] += area * ny * w;
+                    q[o + 7] += area * nz * nz;
+                    q[o + 8] += area * nz * w;
+                    q[o + 9] += area * w * w;
+                }
+            }
+        }
+
+
+        /**
+         * Returns the error of moving a position onto another one.
+         *
+         * @param from
+         *            The position to remove
+         * @param to
+         *            The position to move to
+         * @return The quadric error
+         */
+
+        private double getCost(final int from, final int to)
+        {
+            final double[] q = this.quadrics;
+            final int a = from * QUADRIC_SIZE, b = to * QUADRIC_SIZE;
+            final double x = this.coords[to * 3];
+            final double y = this.coords[to * 3 + 1];
+            final double z = this.coords[to * 3 + 2];
+            return (q[a] + q[b]) * x * x + 2 * (q[a + 1] + q[b + 1]) * x * y
+                + 2 * (q[a + 2] + q[b + 2]) * x * z + 2 * (q[a + 3] + q[b + 3])
+                * x + (q[a + 4] + q[b + 4]) * y * y + 2 * (q[a + 5] + q[b + 5])
+                * y * z + 2 * (q[a + 6] + q[b + 6]) * y
+                + (q[a + 7] + q[b + 7]) * z * z + 2 * (q[a + 8] + q[b + 8]) * z
+                + q[a + 9] + q[b + 9];
+        }
+
+
+        /**
+         * Checks if a triangle contains the specified position.
+         *
+         * @param triangle
+         *            The triangle
+         * @param position
+         *            The position
+         * @return True if triangle contains the position
+         */
+
+        private boolean contains(final int triangle, final int position)
+        {
+            return getPosition(triangle, 0) == position
+                || getPosition(triangle, 1) == position
+                || getPosition(triangle, 2) == position;
+        }
+
+
+        /**
+         * Returns the vertex which the triangles around the collapsed edge use
+         * for the target position. Returns -1 if the collapse is not allowed
+         * because the triangles would flip or degenerate or because the
+         * target vertex is ambiguous.
+         *
+         * @param from
+         *            The position to remove
+         * @param to
+         *            The position to move to
+         * @return The target vertex or -1 if collapse is not allowed
+         */
+
+        private int getTargetVertex(final int from, final int to)
+        {
+            final float[] c = this.coords;
+            final int[] list = this.positionTriangles[from];
+            final int count = this.positionTriangleCounts[from];
+            int target = -1;
+            for (int i = 0; i < count; i++)
+            {
+                final int t = list[i];
+                if (!this.alive[t]) continue;
+                if (contains(t, to))
+                {
+                    for (int k = 0; k < 3; k++)
+                    {
+                        if (getPosition(t, k) != to) continue;
+                        final int vertex = this.triangles[t * 3 + k];
+                        if (target != -1 && target != vertex) return -1;
+                        target = vertex;
+                    }
+                    continue;
+                }
+
+                // Check that the remaining triangle does not flip
+                final int p0 = getPosition(t, 0) * 3;
+                final int p1 = getPosition(t, 1) * 3;
+                final int p2 = getPosition(t, 2) * 3;
+                final double ux = c[p1] - c[p0], uy = c[p1 + 1] - c[p0 + 1], uz = c[p1 + 2]
+                    - c[p0 + 2];
+                final double vx = c[p2] - c[p0], vy = c[p2 + 1] - c[p0 + 1], vz = c[p2 + 2]
+                    - c[p0 + 2];
+                final double nx = uy * vz - uz * vy;
+                final double ny = uz * vx - ux * vz;
+                final double nz = ux * vy - uy * vx;
+                final int q0 = (p0 == from * 3 ? to * 3 : p0);
+                final int q1 = (p1 == from * 3 ? to * 3 : p1);
+                final int q2 = (p2 == from * 3 ? to * 3 : p2);
+                final double sx = c[q1] - c[q0], sy = c[q1 + 1] - c[q0 + 1], sz = c[q1 + 2]
+                    - c[q0 + 2];
+                final double tx = c[q2] - c[q0], ty = c[q2 + 1] - c[q0 + 1], tz = c[q2 + 2]
+                    - c[q0 + 2];
+                final double mx = sy * tz - sz * ty;
+                final double my = sz * tx - sx * tz;
+                final double mz = sx * ty - sy * tx;
+                if (nx * mx + ny * my + nz * mz <= 0) return -1;
+            }
+            return target;
+        }
+
+
+        /**
+         * Calculates the cheapest allowed collapse of the specified position
+         * and puts it into the queue.
+         *
+         * @param position
+         *            The position
+         */
+
+        private void updateCollapse(final int position)
+        {
+            if (this.updates[position] == this.collapses) return;
+            this.updates[position] = this.collapses;
+            final int stamp = ++this.stamps[position];
+            if (this.locked[position] || this.removed[position]) return;
+            final int[] list = this.positionTriangles[position];
+            final int count = this.positionTriangleCounts[position];
+            double bestCost = Double.POSITIVE_INFINITY;
+            int bestTarget = -1;
+            for (int i = 0; i < count; i++)
+            {
+                final int t = list[i];
+                if (!this.alive[t]) continue;
+                for (int k = 0; k < 3; k++)
+                {
+                    final int neighbour = getPosition(t, k);
+                    if (neighbour == position) continue;
+                    final double cost = getCost(position, neighbour);
+                    if (cost < bestCost
+                        && getTargetVertex(position, neighbour) != -1)
+                    {
+                        bestCost = cost;
+                        bestTarget = neighbour;
+                    }
+                }
+            }
+            if (bestTarget != -1)
+                this.queue.add(new Collapse(bestCost, position, bestTarget,
+                    stamp));
+        }
+
+
+        /**
+         * Moves a position onto another one.
+         *
+         * @param from
+         *            The position to remove
+         * @param to
+         *            The position to move to
+         * @param vertex
+         *            The vertex to use for the target position
+         */
+
+        private void collapse(final int from, final int to, final int vertex)
+        {
+            final int[] list = this.positionTriangles[from];
+            final int count = this.positionTriangleCounts[from];
+            final int fromVertex = this.positionVertices[from];
+            for (int i = 0; i < count; i++)
+            {
+                final int t = list[i];
+                if (!this.alive[t]) continue;
+                if (contains(t, to))
+                {
+                    this.alive[t] = false;
+                    this.aliveCount--;
+                }
+                else
+                {
+                    for (int k = 0; k < 3; k++)
+                        if (this.triangles[t * 3 + k] == fromVertex)
+                            this.triangles[t * 3 + k] = vertex;
+                    addTriangle(to, t);
+                }
+            }
+            this.removed[from] = true;
+            this.collapses++;
+
+            // Merge the quadrics
+            final double[] q = this.quadrics;
+            for (int i = 0; i < QUADRIC_SIZE; i++)
+                q[to * QUADRIC_SIZE + i] += q[from * QUADRIC_SIZE + i];
+
+            // Update the collapses of all positions around the target and of
+            // the positions of the removed triangles
+            for (int i = 0; i < count; i++)
+            {
+                final int t = list[i];
+                for (int k = 0; k < 3; k++)
+                {
+                    final int p = getPosition(t, k);
+                    if (p != from) updateCollapse(p);
+                }
+            }
+            final int[] targetList = this.positionTriangles[to];
+            final int targetCount = this.positionTriangleCounts[to];
+            for (int i = 0; i < targetCount; i++)
+            {
+                final int t = targetList[i];
+                if (!this.alive[t]) continue;
+                for (int k = 0; k < 3; k++)
+                    updateCollapse(getPosition(t, k));
+            }
+        }
+
+
+        /**
+         * Decimates the polygon group.
+         *
+         * @param ratio
+         *            The ratio of triangles to keep
+         * @return The decimated polygon group
+         */
+
+        MeshPolygons decimate(final float ratio)
+        {
+            final int target = Math.max(1, (int) Math.ceil(this.alive.length
+                * ratio));
+            this.collapses = 1;
+            for (int p = 0; p < this.positionCount; p++)
+                updateCollapse(p);
+
+            final PriorityQueue<Collapse> queue = this.queue;
+            while (this.aliveCount > target && !queue.isEmpty())
+            {
+                final Collapse collapse = queue.poll();
+                final int from = collapse.from, to = collapse.to;
+                if (collapse.stamp != this.stamps[from] || this.removed[to])
+                    continue;
+                final int vertex = getTargetVertex(from, to);
+                if (vertex == -1) continue;
+                collapse(from, to, vertex);
+            }
+
+            // Collect the remaining triangles
+            final int[] indices = new int[this.aliveCount * 3];
+            int next = 0;
+            for (int t = 0; t < this.alive.length; t++)
+            {
+                if (!this.alive[t]) continue;
+                indices[next++] = this.triangles[t * 3];
+                indices[next++] = this.triangles[t * 3 + 1];
+                indices[next++] = this.triangles[t * 3 + 2];
+            }
+            return MeshOptimizer.reorderVertices(this.polygons, indices,
+                next, false);
+        }
+    }
+}
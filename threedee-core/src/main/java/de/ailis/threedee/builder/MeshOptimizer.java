@@ -0,0 +1,564 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.builder;
+
+import java.nio.FloatBuffer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.ailis.gramath.MutableVector2f;
+import de.ailis.gramath.MutableVector3f;
+import de.ailis.threedee.assets.Mesh;
+import de.ailis.threedee.assets.MeshPolygons;
+import de.ailis.threedee.utils.BufferUtils;
+import de.ailis.threedee.utils.IntBufferBuilder;
+
+
+/**
+ * Optimizes meshes for the post-transform vertex cache of the GPU. The
+ * triangles of each polygon group are reordered with Tom Forsyth's linear
+ * speed vertex cache optimization algorithm so vertices are reused while
+ * they are still in the cache. Afterwards the vertices are reordered in the
+ * order of their first use so they are fetched from memory sequentially.
+ *
+ * The optimization is measured with the average cache miss ratio (ACMR)
+ * which is the number of transformed vertices per triangle in a simulated
+ * FIFO cache. The ACMR of the last optimized mesh is logged and can be
+ * queried with {@link #getACMRBefore()} and {@link #getACMRAfter()}.
+ *
+ * Polygon groups which do not consist of triangles are not modified.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class MeshOptimizer
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog(MeshOptimizer.class);
+
+    /** The default size of the simulated vertex cache */
+    public static final int DEFAULT_CACHE_SIZE = 32;
+
+    /** The score decay exponent of the cache position */
+    private static final float CACHE_DECAY_POWER = 1.5f;
+
+    /** The score of the vertices used by the last triangle */
+    private static final float LAST_TRIANGLE_SCORE = 0.75f;
+
+    /** The scale of the valence boost */
+    private static final float VALENCE_BOOST_SCALE = 2.0f;
+
+    /** The exponent of the valence boost */
+    private static final float VALENCE_BOOST_POWER = -0.5f;
+
+    /** The size of the simulated vertex cache */
+    private final int cacheSize;
+
+    /** The number of triangles in the last optimized mesh */
+    private int triangles;
+
+    /** The number of cache misses before the last optimization */
+    private int missesBefore;
+
+    /** The number of cache misses after the last optimization */
+    private int missesAfter;
+
+
+    /**
+     * Constructs a new mesh optimizer with the default cache size.
+     */
+
+    public MeshOptimizer()
+    {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+
+    /**
+     * Constructs a new mesh optimizer.
+     *
+     * @param cacheSize
+     *            The size of the vertex cache to optimize for
+     */
+
+    public MeshOptimizer(final int cacheSize)
+    {
+        if (cacheSize < 4)
+            throw new IllegalArgumentException("Cache size too small: "
+                + cacheSize);
+        this.cacheSize = cacheSize;
+    }
+
+
+    /**
+     * Optimizes the specified mesh and returns the optimized mesh.
+     *
+     * @param mesh
+     *            The mesh to optimize
+     * @return The optimized mesh
+     */
+
+    public Mesh optimize(final Mesh mesh)
+    {
+        this.triangles = 0;
+        this.missesBefore = 0;
+        this.missesAfter = 0;
+
+        final MeshPolygons[] groups = mesh.getPolygons();
+        final MeshPolygons[] optimized = new MeshPolygons[groups.length];
+        for (int i = 0; i < groups.length; i++)
+            optimized[i] = optimizeGroup(groups[i]);
+
+        if (log.isDebugEnabled())
+            log.debug("Optimized mesh " + mesh.getId() + ": ACMR "
+                + getACMRBefore() + " -> " + getACMRAfter());
+        return new Mesh(mesh.getId(), optimized, mesh.getMaterials());
+    }
+
+
+    /**
+     * Returns the average cache miss ratio of the last optimized mesh
+     * before it was optimized.
+     *
+     * @return The ACMR before optimization. 0 if mesh had no triangles
+     */
+
+    public float getACMRBefore()
+    {
+        if (this.triangles == 0) return 0;
+        return (float) this.missesBefore / this.triangles;
+    }
+
+
+    /**
+     * Returns the average cache miss ratio of the last optimized mesh
+     * after it was optimized.
+     *
+     * @return The ACMR after optimization. 0 if mesh had no triangles
+     */
+
+    public float getACMRAfter()
+    {
+        if (this.triangles == 0) return 0;
+        return (float) this.missesAfter / this.triangles;
+    }
+
+
+    /**
+     * Calculates the average cache miss ratio of the specified polygon
+     * group for a FIFO vertex cache of the specified size.
+     *
+     * @param polygons
+     *            The polygon group
+     * @param cacheSize
+     *            The size of the vertex cache
+     * @return The ACMR. 0 if polygon group has no polygons
+     */
+
+    public static float calculateACMR(final MeshPolygons polygons,
+        final int cacheSize)
+    {
+        final int indexCount = polygons.getIndexCount();
+        if (indexCount == 0) return 0;
+        final int[] indices = getIndices(polygons);
+        return (float) countMisses(indices, polygons.getVertexCount(),
+            cacheSize)
+            / (indexCount / polygons.getSize());
+    }
+
+
+    /**
+     * Optimizes a single polygon group.
+     *
+     * @param polygons
+     *            The polygon group
+     * @return The optimized polygon group or the original one if it can't
+     *         be optimized
+     */
+
+    private MeshPolygons optimizeGroup(final MeshPolygons polygons)
+    {
+        if (polygons.getSize() != 3 || polygons.getIndexCount() < 6)
+            return polygons;
+
+        final int vertexCount = polygons.getVertexCount();
+        final int[] indices = getIndices(polygons);
+        final int before = countMisses(indices, vertexCount, this.cacheSize);
+        final int[] sorted = sortTriangles(indices, vertexCount);
+        final int after = countMisses(sorted, vertexCount, this.cacheSize);
+
+        // Keep the original order if it is not worse
+        this.triangles += indices.length / 3;
+        this.missesBefore += before;
+        if (after >= before)
+        {
+            this.missesAfter += before;
+            return polygons;
+        }
+        this.missesAfter += after;
+        return reorderVertices(polygons, sorted);
+    }
+
+
+    /**
+     * Returns the indices of the specified polygon group as an array.
+     *
+     * @param polygons
+     *            The polygon group
+     * @return The indices
+     */
+
+    private static int[] getIndices(final MeshPolygons polygons)
+    {
+        final int indexCount = polygons.getIndexCount();
+        final int[] indices = new int[indexCount];
+        for (int i = 0; i < indexCount; i++)
+            indices[i] = polygons.getIndex(i);
+        return indices;
+    }
+
+
+    /**
+     * Counts the vertex cache misses for the specified indices.
+     *
+     * @param indices
+     *            The indices
+     * @param vertexCount
+     *            The number of vertices
+     * @param cacheSize
+     *            The size of the simulated FIFO cache
+     * @return The number of cache misses
+     */
+
+    private static int countMisses(final int[] indices,
+        final int vertexCount, final int cacheSize)
+    {
+        // The cache stores the time stamp when a vertex was put into it
+        final int[] cacheTime = new int[vertexCount];
+        int time = 0;
+        int misses = 0;
+        for (final int index : indices)
+        {
+            if (cacheTime[index] == 0 || time - cacheTime[index] >= cacheSize)
+            {
+                misses++;
+                time++;
+                cacheTime[index] = time;
+            }
+        }
+        return misses;
+    }
+
+
+    /**
+     * Calculates the score of a vertex.
+     *
+     * @param cachePosition
+     *            The position of the vertex in the LRU cache. -1 if not in
+     *            cache
+     * @param valence
+     *            The number of not yet emitted triangles using the vertex
+     * @return The vertex score
+     */
+
+    private float getVertexScore(final int cachePosition, final int valence)
+    {
+        // Vertices which are no longer used get no score
+        if (valence == 0) return -1;
+
+        float score = 0;
+        if (cachePosition >= 0)
+        {
+            if (cachePosition < 3)
+            {
+                // Vertices of the last triangle get a fixed score so the
+                // algorithm does not prefer reusing them over the others
+                score = LAST_TRIANGLE_SCORE;
+            }
+            else
+            {
+                final float scale = 1.0f / (this.cacheSize - 3);
+                score = 1.0f - (cachePosition - 3) * scale;
+                score = (float) Math.pow(score, CACHE_DECAY_POWER);
+            }
+        }
+
+        // Boost vertices with few remaining triangles so lone triangles are
+        // not left behind
+        score += VALENCE_BOOST_SCALE
+            * (float) Math.pow(valence, VALENCE_BOOST_POWER);
+        return score;
+    }
+
+
+    /**
+     * Sorts the triangles for vertex cache locality.
+     *
+     * @param indices
+     *            The triangle indices
+     * @param vertexCount
+     *            The number of vertices
+     * @return The sorted triangle indices
+     */
+
+    private int[] sortTriangles(final int[] indices, final int vertexCount)
+    {
+        final int triangleCount = indices.length / 3;
+        final int cacheSize = this.cacheSize;
+
+        // Build the vertex to triangle adjacency
+        final int[] valence = new int[vertexCount];
+        for (final int index : indices)
+            valence[index]++;
+        final int[] adjacencyStart = new int[vertexCount + 1];
+        for (int v = 0; v < vertexCount; v++)
+            adjacencyStart[v + 1] = adjacencyStart[v] + valence[v];
+        final int[] adjacency = new int[indices.length];
+        final int[] fill = new int[vertexCount];
+        for (int i = 0; i < indices.length; i++)
+        {
+            final int v = indices[i];
+            adjacency[adjacencyStart[v] + fill[v]++] = i / 3;
+        }
+
+        // Calculate initial scores
+        final int[] cachePosition = new int[vertexCount];
+        final float[] vertexScore = new float[vertexCount];
+        for (int v = 0; v < vertexCount; v++)
+        {
+            cachePosition[v] = -1;
+            vertexScore[v] = getVertexScore(-1, valence[v]);
+        }
+        final float[] triangleScore = new float[triangleCount];
+        final boolean[] emitted = new boolean[triangleCount];
+        for (int t = 0; t < triangleCount; t++)
+            triangleScore[t] = vertexScore[indices[t * 3]]
+                + vertexScore[indices[t * 3 + 1]]
+                + vertexScore[indices[t * 3 + 2]];
+
+        // The LRU cache. It is three entries larger to hold the vertices of
+        // the emitted triangle before the oldest entries are dropped
+        int[] cache = new int[cacheSize + 3];
+        int[] newCache = new int[cacheSize + 3];
+        int cacheUsed = 0;
+
+        final int[] sorted = new int[indices.length];
+        int bestTriangle = -1;
+        int cursor = 0;
+        for (int n = 0; n < triangleCount; n++)
+        {
+            // If no candidate was found in the cache then continue with the
+            // next not yet emitted triangle
+            if (bestTriangle < 0)
+            {
+                while (emitted[cursor])
+                    cursor++;
+                bestTriangle = cursor;
+            }
+
+            // Emit the triangle
+            final int t = bestTriangle;
+            emitted[t] = true;
+            System.arraycopy(indices, t * 3, sorted, n * 3, 3);
+
+            // Remove the triangle from the adjacency of its vertices and
+            // put its vertices at the front of the new cache
+            int newCacheUsed = 0;
+            for (int i = 0; i < 3; i++)
+            {
+                final int v = indices[t * 3 + i];
+                final int start = adjacencyStart[v];
+                final int end = start + valence[v] - 1;
+                for (int a = start; a <= end; a++)
+                {
+                    if (adjacency[a] == t)
+                    {
+                        adjacency[a] = adjacency[end];
+                        break;
+                    }
+                }
+                valence[v]--;
+                newCache[newCacheUsed++] = v;
+            }
+
+            // Append the remaining old cache entries
+            for (int i = 0; i < cacheUsed; i++)
+            {
+                final int v = cache[i];
+                if (v != newCache[0] && v != newCache[1] && v != newCache[2])
+                    newCache[newCacheUsed++] = v;
+            }
+            final int[] tmp = cache;
+            cache = newCache;
+            newCache = tmp;
+            cacheUsed = newCacheUsed;
+
+            // Update scores of all vertices in the extended cache. Vertices
+            // beyond the cache size are dropped from the cache
+            for (int i = 0; i < cacheUsed; i++)
+            {
+                final int v = cache[i];
+                cachePosition[v] = i < cacheSize ? i : -1;
+                final float score = getVertexScore(cachePosition[v],
+                    valence[v]);
+                final float delta = score - vertexScore[v];
+                vertexScore[v] = score;
+                final int start = adjacencyStart[v];
+                final int end = start + valence[v];
+                for (int a = start; a < end; a++)
+                    triangleScore[adjacency[a]] += delta;
+            }
+            if (cacheUsed > cacheSize) cacheUsed = cacheSize;
+
+            // Find the best triangle using a vertex in the cache
+            bestTriangle = -1;
+            float bestScore = -1;
+            for (int i = 0; i < cacheUsed; i++)
+            {
+                final int v = cache[i];
+                final int start = adjacencyStart[v];
+                final int end = start + valence[v];
+                for (int a = start; a < end; a++)
+                {
+                    final int candidate = adjacency[a];
+                    if (triangleScore[candidate] > bestScore)
+                    {
+                        bestScore = triangleScore[candidate];
+                        bestTriangle = candidate;
+                    }
+                }
+            }
+        }
+        return sorted;
+    }
+
+
+    /**
+     * Reorders the vertices of the specified polygon group in the order of
+     * their first use in the specified indices and returns a new polygon
+     * group with the reordered vertices and the new indices. Vertices which
+     * are not used at all are moved to the end.
+     *
+     * @param polygons
+     *            The polygon group
+     * @param indices
+     *            The optimized indices
+     * @return The new polygon group
+     */
+
+    private static MeshPolygons reorderVertices(final MeshPolygons polygons,
+        final int[] indices)
+    {
+        return reorderVertices(polygons, indices, indices.length, true);
+    }
+
+
+    /**
+     * Reorders the vertices of the specified polygon group in the order of
+     * their first use in the specified indices and returns a new polygon
+     * group with the reordered vertices and the new indices.
+     *
+     * @param polygons
+     *            The polygon group
+     * @param indices
+     *            The new indices
+     * @param indexCount
+     *            The number of indices to use from the array
+     * @param keepUnused
+     *            True to move unused vertices to the end, false to drop them
+     * @return The new polygon group
+     */
+
+    static MeshPolygons reorderVertices(final MeshPolygons polygons,
+        final int[] indices, final int indexCount, final boolean keepUnused)
+    {
+        final int oldVertexCount = polygons.getVertexCount();
+
+        // Calculate the new vertex order
+        final int[] newIndex = new int[oldVertexCount];
+        final int[] oldIndex = new int[oldVertexCount];
+        for (int v = 0; v < oldVertexCount; v++)
+            newIndex[v] = -1;
+        int next = 0;
+        for (int i = 0; i < indexCount; i++)
+        {
+            final int index = indices[i];
+            if (newIndex[index] < 0)
+            {
+                oldIndex[next] = index;
+                newIndex[index] = next++;
+            }
+        }
+        if (keepUnused)
+        {
+            for (int v = 0; v < oldVertexCount; v++)
+            {
+                if (newIndex[v] < 0)
+                {
+                    oldIndex[next] = v;
+                    newIndex[v] = next++;
+                }
+            }
+        }
+        final int vertexCount = next;
+
+        // Build the new indices
+        final IntBufferBuilder indexBuilder = new IntBufferBuilder();
+        for (int i = 0; i < indexCount; i++)
+            indexBuilder.add(newIndex[indices[i]]);
+
+        // Copy interleaved vertex data
+        if (polygons.isInterleaved())
+        {
+            final int components = polygons.getStride() / 4;
+            final FloatBuffer data = polygons.getInterleavedData();
+            final FloatBuffer newData = BufferUtils
+                .createDirectFloatBuffer(vertexCount * components);
+            for (int v = 0; v < vertexCount; v++)
+            {
+                final int offset = oldIndex[v] * components;
+                for (int i = 0; i < components; i++)
+                    newData.put(data.get(offset + i));
+            }
+            newData.rewind();
+            return new MeshPolygons(polygons.getMaterial(),
+                polygons.getSize(), indexBuilder.build(), newData,
+                polygons.hasNormals(), polygons.hasTexCoords());
+        }
+
+        // Copy separate vertex data
+        final FloatBuffer vertices = BufferUtils
+            .createDirectFloatBuffer(vertexCount * 3);
+        final FloatBuffer normals = polygons.hasNormals() ? BufferUtils
+            .createDirectFloatBuffer(vertexCount * 3) : null;
+        final FloatBuffer texCoords = polygons.hasTexCoords() ? BufferUtils
+            .createDirectFloatBuffer(vertexCount * 2) : null;
+        final MutableVector3f vector = new MutableVector3f();
+        final MutableVector2f texCoord = new MutableVector2f(0, 0);
+        for (int v = 0; v < vertexCount; v++)
+        {
+            polygons.getVertex(oldIndex[v], vector);
+            vertices.put(vector.getX()).put(vector.getY()).put(vector.getZ());
+            if (normals != null)
+            {
+                polygons.getNormal(oldIndex[v], vector);
+                normals.put(vector.getX()).put(vector.getY()).put(
+                    vector.getZ());
+            }
+            if (texCoords != null)
+            {
+                polygons.getTexCoord(oldIndex[v], texCoord);
+                texCoords.put(texCoord.getX()).put(texCoord.getY());
+            }
+        }
+        vertices.rewind();
+        if (normals != null) normals.rewind();
+        if (texCoords != null) texCoords.rewind();
+        return new MeshPolygons(polygons.getMaterial(), polygons.getSize(),
+            indexBuilder.build(), vertices, texCoords, normals);
+    }
+}
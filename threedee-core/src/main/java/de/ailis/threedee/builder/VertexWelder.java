@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.builder;
+
+import java.util.Arrays;
+
+
+/**
+ * Welds identical vertices together. Each vertex is a tuple of floats (For
+ * example position, normal and texture coordinate). Vertices are compared
+ * bitwise and looked up in an open-addressing hash table so welding a
+ * vertex needs no object allocation.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+final class VertexWelder
+{
+    /** The initial number of vertices which can be stored */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /** The marker for empty hash table slots */
+    private static final int EMPTY = -1;
+
+    /** The number of floats per vertex. 0 if not yet known */
+    private int components;
+
+    /** The number of welded vertices */
+    private int count;
+
+    /** The vertex data */
+    private float[] data = new float[INITIAL_CAPACITY * 8];
+
+    /** The hash table containing vertex indices */
+    private int[] table = createTable(INITIAL_CAPACITY * 2);
+
+
+    /**
+     * Creates a new empty hash table.
+     *
+     * @param size
+     *            The table size. Must be a power of two
+     * @return The hash table
+     */
+
+    private static int[] createTable(final int size)
+    {
+        final int[] table = new int[size];
+        Arrays.fill(table, EMPTY);
+        return table;
+    }
+
+
+    /**
+     * Resets the welder so it can be used for a new set of vertices.
+     */
+
+    void reset()
+    {
+        if (this.count > 0) Arrays.fill(this.table, EMPTY);
+        this.count = 0;
+        this.components = 0;
+    }
+
+
+    /**
+     * Returns the number of welded vertices.
+     *
+     * @return The number of vertices
+     */
+
+    int getCount()
+    {
+        return this.count;
+    }
+
+
+    /**
+     * Welds a vertex. If an identical vertex was already welded then its
+     * index is returned. Otherwise the vertex is added and the new index
+     * (which is equal to the previous vertex count) is returned.
+     *
+     * @param vertex
+     *            The vertex data
+     * @param components
+     *            The number of floats per vertex. Must be the same for all
+     *            vertices until the welder is reset
+     * @return The vertex index
+     */
+
+    int weld(final float[] vertex, final int components)
+    {
+        if (this.components == 0)
+            this.components = components;
+        else if (this.components != components)
+            throw new IllegalArgumentException("Vertex has " + components
+                + " components but " + this.components + " are expected");
+
+        // Search the vertex
+        final int mask = this.table.length - 1;
+        int slot = hash(vertex, components) & mask;
+        int index;
+        while ((index = this.table[slot]) != EMPTY)
+        {
+            if (equals(index, vertex, components)) return index;
+            slot = (slot + 1) & mask;
+        }
+
+        // Add the vertex
+        index = this.count;
+        final int offset = index * components;
+        if (offset + components > this.data.length)
+            this.data = Arrays.copyOf(this.data, this.data.length * 2);
+        System.arraycopy(vertex, 0, this.data, offset, components);
+        this.table[slot] = index;
+        this.count++;
+
+        // Keep the load factor at 50% or below
+        if (this.count * 2 > this.table.length) rehash();
+        return index;
+    }
+
+
+    /**
+     * Checks if the stored vertex with the specified index is identical to
+     * the specified vertex.
+     *
+     * @param index
+     *            The index of the stored vertex
+     * @param vertex
+     *            The vertex to compare
+     * @param components
+     *            The number of floats per vertex
+     * @return True if vertices are identical, false if not
+     */
+
+    private boolean equals(final int index, final float[] vertex,
+        final int components)
+    {
+        final float[] data = this.data;
+        final int offset = index * components;
+        for (int i = 0; i < components; i++)
+        {
+            if (Float.floatToIntBits(data[offset + i]) != Float
+                .floatToIntBits(vertex[i])) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Doubles the hash table size and re-inserts all vertices.
+     */
+
+    private void rehash()
+    {
+        final int components = this.components;
+        final int[] table = createTable(this.table.length * 2);
+        final int mask = table.length - 1;
+        final float[] vertex = new float[components];
+        for (int index = 0; index < this.count; index++)
+        {
+            System.arraycopy(this.data, index * components, vertex, 0,
+                components);
+            int slot = hash(vertex, components) & mask;
+            while (table[slot] != EMPTY)
+                slot = (slot + 1) & mask;
+            table[slot] = index;
+        }
+        this.table = table;
+    }
+
+
+    /**
+     * Calculates the hash of a vertex.
+     *
+     * @param vertex
+     *            The vertex data
+     * @param components
+     *            The number of floats per vertex
+     * @return The hash
+     */
+
+    private static int hash(final float[] vertex, final int components)
+    {
+        int h = 0;
+        for (int i = 0; i < components; i++)
+            h = h * 31 + Float.floatToIntBits(vertex[i]);
+        h *= 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
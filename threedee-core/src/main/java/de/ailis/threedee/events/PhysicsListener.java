@@ -0,0 +1,28 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.events;
+
+import de.ailis.threedee.scene.physics.Physics;
+
+
+/**
+ * Listener interface for physics events.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public interface PhysicsListener
+{
+    /**
+     * Called when the motion of a physics has been changed with one of its
+     * setters.
+     *
+     * @param physics
+     *            The changed physics
+     */
+
+    public void motionChanged(Physics physics);
+}
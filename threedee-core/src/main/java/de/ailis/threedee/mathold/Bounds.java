@@ -5,6 +5,9 @@
 
 package de.ailis.threedee.mathold;
 
+import java.nio.FloatBuffer;
+
+import de.ailis.gramath.Matrix4f;
 import de.ailis.gramath.MutableVector3f;
 import de.ailis.gramath.Vector3f;
 
@@ -48,6 +51,7 @@ public class Bounds
         this.min = new MutableVector3f();
         this.max = new MutableVector3f();
         this.center = new MutableVector3f();
+        clear();
     }
 
 
@@ -126,11 +130,23 @@ public class Bounds
 
     public void update(final Vector3f v)
     {
-        float x, y, z;
+        update(v.getX(), v.getY(), v.getZ());
+    }
+
 
-        x = v.getX();
-        y = v.getY();
-        z = v.getZ();
+    /**
+     * Updates the bounds with the specified coordinates.
+     *
+     * @param x
+     *            The X coordinate
+     * @param y
+     *            The Y coordinate
+     * @param z
+     *            The Z coordinate
+     */
+
+    public void update(final float x, final float y, final float z)
+    {
         if (x < this.min.getX()) this.min.setX(x);
         if (x > this.max.getX()) this.max.setX(x);
         if (y < this.min.getY()) this.min.setY(y);
@@ -156,11 +172,133 @@ public class Bounds
 
     public void update(final Bounds box)
     {
+        if (box.isEmpty()) return;
         update(box.getMin());
         update(box.getMax());
     }
 
 
+    /**
+     * Updates this bounds with the specified bounds after transforming them
+     * with the specified matrix. The transformed box is not transformed
+     * corner by corner. Instead the center is transformed and the extents are
+     * projected onto the axes with the absolute matrix values which results
+     * in the same axis-aligned box with much less work.
+     *
+     * @param box
+     *            The bounds to update this one with
+     * @param transform
+     *            The transformation to apply to the specified bounds
+     */
+
+    public void update(final Bounds box, final Matrix4f transform)
+    {
+        if (box.isEmpty()) return;
+
+        final FloatBuffer m = transform.getBuffer();
+        final Vector3f boxMin = box.getMin();
+        final Vector3f boxMax = box.getMax();
+        final float cx = (boxMax.getX() + boxMin.getX()) / 2;
+        final float cy = (boxMax.getY() + boxMin.getY()) / 2;
+        final float cz = (boxMax.getZ() + boxMin.getZ()) / 2;
+        final float ex = (boxMax.getX() - boxMin.getX()) / 2;
+        final float ey = (boxMax.getY() - boxMin.getY()) / 2;
+        final float ez = (boxMax.getZ() - boxMin.getZ()) / 2;
+
+        final float x = m.get(0) * cx + m.get(4) * cy + m.get(8) * cz
+            + m.get(12);
+        final float y = m.get(1) * cx + m.get(5) * cy + m.get(9) * cz
+            + m.get(13);
+        final float z = m.get(2) * cx + m.get(6) * cy + m.get(10) * cz
+            + m.get(14);
+        final float dx = Math.abs(m.get(0)) * ex + Math.abs(m.get(4)) * ey
+            + Math.abs(m.get(8)) * ez;
+        final float dy = Math.abs(m.get(1)) * ex + Math.abs(m.get(5)) * ey
+            + Math.abs(m.get(9)) * ez;
+        final float dz = Math.abs(m.get(2)) * ex + Math.abs(m.get(6)) * ey
+            + Math.abs(m.get(10)) * ez;
+
+        update(x - dx, y - dy, z - dz);
+        update(x + dx, y + dy, z + dz);
+    }
+
+
+    /**
+     * Updates this bounds with the specified bounds after transforming them
+     * with the specified column-major matrix stored in a float array.
+     *
+     * @param box
+     *            The bounds to update this one with
+     * @param m
+     *            The array containing the transformation matrix
+     * @param offset
+     *            The array index of the first matrix element
+     * @see #update(Bounds, Matrix4f)
+     */
+
+    public void update(final Bounds box, final float[] m, final int offset)
+    {
+        if (box.isEmpty()) return;
+
+        final Vector3f boxMin = box.getMin();
+        final Vector3f boxMax = box.getMax();
+        final float cx = (boxMax.getX() + boxMin.getX()) / 2;
+        final float cy = (boxMax.getY() + boxMin.getY()) / 2;
+        final float cz = (boxMax.getZ() + boxMin.getZ()) / 2;
+        final float ex = (boxMax.getX() - boxMin.getX()) / 2;
+        final float ey = (boxMax.getY() - boxMin.getY()) / 2;
+        final float ez = (boxMax.getZ() - boxMin.getZ()) / 2;
+        final int o = offset;
+
+        final float x = m[o] * cx + m[o + 4] * cy + m[o + 8] * cz + m[o + 12];
+        final float y = m[o + 1] * cx + m[o + 5] * cy + m[o + 9] * cz
+            + m[o + 13];
+        final float z = m[o + 2] * cx + m[o + 6] * cy + m[o + 10] * cz
+            + m[o + 14];
+        final float dx = Math.abs(m[o]) * ex + Math.abs(m[o + 4]) * ey
+            + Math.abs(m[o + 8]) * ez;
+        final float dy = Math.abs(m[o + 1]) * ex + Math.abs(m[o + 5]) * ey
+            + Math.abs(m[o + 9]) * ez;
+        final float dz = Math.abs(m[o + 2]) * ex + Math.abs(m[o + 6]) * ey
+            + Math.abs(m[o + 10]) * ez;
+
+        update(x - dx, y - dy, z - dz);
+        update(x + dx, y + dy, z + dz);
+    }
+
+
+    /**
+     * Clears the bounds so they are empty. Empty bounds contain nothing, so
+     * the first update sets the minimum and maximum to the updated vector.
+     */
+
+    public void clear()
+    {
+        this.min.set(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY,
+            Float.POSITIVE_INFINITY);
+        this.max.set(Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY,
+            Float.NEGATIVE_INFINITY);
+        this.center.set(0, 0, 0);
+        this.width = 0;
+        this.height = 0;
+        this.depth = 0;
+        this.size = 0;
+    }
+
+
+    /**
+     * Checks if the bounds are empty. This is only the case after the bounds
+     * were cleared and have not been updated yet.
+     *
+     * @return True if bounds are empty, false if not
+     */
+
+    public boolean isEmpty()
+    {
+        return this.min.getX() > this.max.getX();
+    }
+
+
     /**
      * Returns the width of the bounds.
      *
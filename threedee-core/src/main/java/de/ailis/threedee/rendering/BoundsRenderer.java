@@ -51,6 +51,9 @@ public final class BoundsRenderer
 
     public static void render(final GL gl, final Bounds bounds)
     {
+        // Nothing to render if bounds are empty
+        if (bounds.isEmpty()) return;
+
         final Vector3f min = bounds.getMin();
         final Vector3f max = bounds.getMax();
         final float minX = min.getX();
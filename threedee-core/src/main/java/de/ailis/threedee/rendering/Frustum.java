@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.rendering;
+
+import java.nio.FloatBuffer;
+
+import de.ailis.gramath.Matrix4f;
+import de.ailis.gramath.Vector3f;
+import de.ailis.threedee.mathold.Bounds;
+
+
+/**
+ * The view frustum of a camera in scene coordinates. It is used to check if
+ * bounds are visible so invisible nodes can be skipped during rendering.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class Frustum
+{
+    /** Bounds are completely outside of the frustum */
+    public static final int OUTSIDE = 0;
+
+    /** Bounds are partly inside of the frustum */
+    public static final int INTERSECT = 1;
+
+    /** Bounds are completely inside of the frustum */
+    public static final int INSIDE = 2;
+
+    /** The number of frustum planes */
+    private static final int PLANES = 6;
+
+    /**
+     * The frustum planes (left, right, bottom, top, near, far). Each plane is
+     * stored as four values (a, b, c, d) with the normal pointing into the
+     * frustum.
+     */
+    private final float[] planes = new float[PLANES * 4];
+
+    /** If the frustum has been set up for the current frame */
+    private boolean valid = false;
+
+
+    /**
+     * Updates the frustum from the specified perspective projection and the
+     * specified camera transformation.
+     *
+     * @param fovY
+     *            The field of view angle, in degrees, in the y direction.
+     * @param aspectRatio
+     *            The aspect ratio (width/height)
+     * @param zNear
+     *            The distance from the viewer to the near clipping plane
+     * @param zFar
+     *            The distance from the viewer to the far clipping plane
+     * @param cameraTransform
+     *            The camera transformation (The inverted scene transformation
+     *            of the camera)
+     */
+
+    public void update(final float fovY, final float aspectRatio,
+        final float zNear, final float zFar, final Matrix4f cameraTransform)
+    {
+        final FloatBuffer m = cameraTransform.getBuffer();
+        final float f = (float) (1 / Math.tan(Math.toRadians(fovY) / 2));
+        final float sx = f / aspectRatio;
+        final float sz = (zFar + zNear) / (zNear - zFar);
+        final float tz = 2 * zFar * zNear / (zNear - zFar);
+
+        // Rows of the combined projection and camera matrix
+        final float r0x = sx * m.get(0), r0y = sx * m.get(4);
+        final float r0z = sx * m.get(8), r0w = sx * m.get(12);
+        final float r1x = f * m.get(1), r1y = f * m.get(5);
+        final float r1z = f * m.get(9), r1w = f * m.get(13);
+        final float r2x = sz * m.get(2), r2y = sz * m.get(6);
+        final float r2z = sz * m.get(10), r2w = sz * m.get(14) + tz;
+        final float r3x = -m.get(2), r3y = -m.get(6);
+        final float r3z = -m.get(10), r3w = -m.get(14);
+
+        setPlane(0, r3x + r0x, r3y + r0y, r3z + r0z, r3w + r0w);
+        setPlane(1, r3x - r0x, r3y - r0y, r3z - r0z, r3w - r0w);
+        setPlane(2, r3x + r1x, r3y + r1y, r3z + r1z, r3w + r1w);
+        setPlane(3, r3x - r1x, r3y - r1y, r3z - r1z, r3w - r1w);
+        setPlane(4, r3x + r2x, r3y + r2y, r3z + r2z, r3w + r2w);
+        setPlane(5, r3x - r2x, r3y - r2y, r3z - r2z, r3w - r2w);
+
+        this.valid = true;
+    }
+
+
+    /**
+     * Normalizes and stores a frustum plane.
+     *
+     * @param index
+     *            The plane index
+     * @param a
+     *            The X component of the plane normal
+     * @param b
+     *            The Y component of the plane normal
+     * @param c
+     *            The Z component of the plane normal
+     * @param d
+     *            The plane distance
+     */
+
+    private void setPlane(final int index, final float a, final float b,
+        final float c, final float d)
+    {
+        final float length = (float) Math.sqrt(a * a + b * b + c * c);
+        final int offset = index * 4;
+        this.planes[offset] = a / length;
+        this.planes[offset + 1] = b / length;
+        this.planes[offset + 2] = c / length;
+        this.planes[offset + 3] = d / length;
+    }
+
+
+    /**
+     * Checks where the specified bounds are located relative to the frustum.
+     *
+     * @param bounds
+     *            The bounds in scene coordinates
+     * @return OUTSIDE if bounds are completely invisible, INSIDE if bounds are
+     *         completely visible and INTERSECT if bounds are partly visible
+     */
+
+    public int classify(final Bounds bounds)
+    {
+        final Vector3f min = bounds.getMin();
+        final Vector3f max = bounds.getMax();
+        final float minX = min.getX(), minY = min.getY(), minZ = min.getZ();
+        final float maxX = max.getX(), maxY = max.getY(), maxZ = max.getZ();
+        final float[] planes = this.planes;
+        int result = INSIDE;
+
+        for (int i = 0; i < PLANES * 4; i += 4)
+        {
+            final float a = planes[i];
+            final float b = planes[i + 1];
+            final float c = planes[i + 2];
+            final float d = planes[i + 3];
+
+            // Check the box corner which is farthest inside the plane
+            if (a * (a >= 0 ? maxX : minX) + b * (b >= 0 ? maxY : minY) + c
+                * (c >= 0 ? maxZ : minZ) + d < 0) return OUTSIDE;
+
+            // Check the box corner which is farthest outside the plane
+            if (a * (a >= 0 ? minX : maxX) + b * (b >= 0 ? minY : maxY) + c
+                * (c >= 0 ? minZ : maxZ) + d < 0) result = INTERSECT;
+        }
+        return result;
+    }
+
+
+    /**
+     * Checks if the specified bounds are at least partly inside of the
+     * frustum.
+     *
+     * @param bounds
+     *            The bounds in scene coordinates
+     * @return True if bounds are visible, false if not
+     */
+
+    public boolean isVisible(final Bounds bounds)
+    {
+        return classify(bounds) != OUTSIDE;
+    }
+
+
+    /**
+     * Checks if the frustum has been set up for the current frame. When no
+     * camera has been applied then the frustum is invalid and must not be
+     * used for culling.
+     *
+     * @return True if frustum is valid, false if not
+     */
+
+    public boolean isValid()
+    {
+        return this.valid;
+    }
+
+
+    /**
+     * Invalidates the frustum. Called by the viewport at the beginning of
+     * each frame.
+     */
+
+    public void invalidate()
+    {
+        this.valid = false;
+    }
+}
@@ -194,6 +194,21 @@ public interface GL
     /** Spot cut-off */
     public static final int GL_SPOT_CUTOFF = 0x1206;
 
+    /** Constant attenuation */
+    public static final int GL_CONSTANT_ATTENUATION = 0x1207;
+
+    /** Linear attenuation */
+    public static final int GL_LINEAR_ATTENUATION = 0x1208;
+
+    /** Quadratic attenuation */
+    public static final int GL_QUADRATIC_ATTENUATION = 0x1209;
+
+    /** Display list compile mode */
+    public static final int GL_COMPILE = 0x1300;
+
+    /** Display list compile and execute mode */
+    public static final int GL_COMPILE_AND_EXECUTE = 0x1301;
+
     /** Unsigned byte */
     public static final int GL_UNSIGNED_BYTE = 0x1401;
 
@@ -344,6 +359,18 @@ public interface GL
     /** Max Texture Max Anisotropy */
     public static final int GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT = 0x84ff;
 
+    /** Array buffer */
+    public static final int GL_ARRAY_BUFFER = 0x8892;
+
+    /** Element array buffer */
+    public static final int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+
+    /** Static draw buffer usage */
+    public static final int GL_STATIC_DRAW = 0x88e4;
+
+    /** Dynamic draw buffer usage */
+    public static final int GL_DYNAMIC_DRAW = 0x88e8;
+
 
     /**
      * Perform implementation specific initializations.
@@ -558,6 +585,16 @@ public interface GL
     public void glLoadIdentity();
 
 
+    /**
+     * Replace the current matrix with the specified matrix
+     *
+     * @param m
+     *            The matrix to load (Column-major order)
+     */
+
+    public void glLoadMatrix(FloatBuffer m);
+
+
     /**
      * Force execution of GL commands in finite time.
      */
@@ -637,6 +674,17 @@ public interface GL
     public void glDepthFunc(int func);
 
 
+    /**
+     * Enable or disable writing into the depth buffer
+     *
+     * @param flag
+     *            Specifies whether the depth buffer is enabled for writing.
+     *            The initial value is true.
+     */
+
+    public void glDepthMask(boolean flag);
+
+
     /**
      * Specify implementation-specific hints
      *
@@ -1152,4 +1200,217 @@ public interface GL
      */
 
     public void glTexEnvi(int target, int pname, int param);
+
+
+    /**
+     * Generate buffer object names. As many names are generated as the
+     * specified buffer has remaining elements.
+     *
+     * @param buffers
+     *            Specifies a buffer in which the generated buffer object names
+     *            are stored.
+     */
+
+    public void glGenBuffers(IntBuffer buffers);
+
+
+    /**
+     * Delete named buffer objects. All remaining names of the specified
+     * buffer are deleted.
+     *
+     * @param buffers
+     *            Specifies a buffer of buffer objects to be deleted.
+     */
+
+    public void glDeleteBuffers(IntBuffer buffers);
+
+
+    /**
+     * Bind a named buffer object.
+     *
+     * @param target
+     *            Specifies the target to which the buffer object is bound.
+     *            Must be GL_ARRAY_BUFFER or GL_ELEMENT_ARRAY_BUFFER.
+     * @param buffer
+     *            Specifies the name of a buffer object. 0 unbinds the
+     *            currently bound buffer object.
+     */
+
+    public void glBindBuffer(int target, int buffer);
+
+
+    /**
+     * Creates and initializes a buffer object's data store.
+     *
+     * @param target
+     *            Specifies the target buffer object. Must be GL_ARRAY_BUFFER
+     *            or GL_ELEMENT_ARRAY_BUFFER.
+     * @param size
+     *            Specifies the size in bytes of the buffer object's new data
+     *            store.
+     * @param data
+     *            Specifies the data that will be copied into the data store
+     *            for initialization, or null if no data is to be copied.
+     * @param usage
+     *            Specifies the expected usage pattern of the data store. Must
+     *            be GL_STATIC_DRAW or GL_DYNAMIC_DRAW.
+     */
+
+    public void glBufferData(int target, int size, Buffer data, int usage);
+
+
+    /**
+     * Updates a subset of a buffer object's data store.
+     *
+     * @param target
+     *            Specifies the target buffer object. Must be GL_ARRAY_BUFFER
+     *            or GL_ELEMENT_ARRAY_BUFFER.
+     * @param offset
+     *            Specifies the offset into the buffer object's data store
+     *            where data replacement will begin, measured in bytes.
+     * @param size
+     *            Specifies the size in bytes of the data store region being
+     *            replaced.
+     * @param data
+     *            Specifies the new data that will be copied into the data
+     *            store.
+     */
+
+    public void glBufferSubData(int target, int offset, int size, Buffer data);
+
+
+    /**
+     * Define an array of vertex data stored in the currently bound array
+     * buffer object.
+     *
+     * @param size
+     *            Specifies the number of coordinates per vertex. Must be 2, 3,
+     *            or 4.
+     * @param stride
+     *            Specifies the byte offset between consecutive vertices. If
+     *            stride is 0, the vertices are understood to be tightly packed
+     *            in the array.
+     * @param offset
+     *            Specifies the byte offset of the first coordinate of the
+     *            first vertex in the buffer object.
+     */
+
+    public void glVertexPointer(int size, int stride, int offset);
+
+
+    /**
+     * Define an array of normals stored in the currently bound array buffer
+     * object.
+     *
+     * @param stride
+     *            Specifies the byte offset between consecutive normals. If
+     *            stride is 0, the normals are understood to be tightly packed
+     *            in the array.
+     * @param offset
+     *            Specifies the byte offset of the first coordinate of the
+     *            first normal in the buffer object.
+     */
+
+    public void glNormalPointer(int stride, int offset);
+
+
+    /**
+     * Define an array of texture coordinates stored in the currently bound
+     * array buffer object.
+     *
+     * @param size
+     *            Specifies the number of coordinates per array element. Must be
+     *            1, 2, 3, or 4.
+     * @param stride
+     *            Specifies the byte offset between consecutive texture
+     *            coordinate sets. If stride is 0, the array elements are
+     *            understood to be tightly packed.
+     * @param offset
+     *            Specifies the byte offset of the first coordinate of the
+     *            first texture coordinate set in the buffer object.
+     */
+
+    public void glTexCoordPointer(int size, int stride, int offset);
+
+
+    /**
+     * Render primitives from array data using the indices stored in the
+     * currently bound element array buffer object.
+     *
+     * @param mode
+     *            Specifies what kind of primitives to render. Symbolic
+     *            constants GL_POINTS, GL_LINE_STRIP, GL_LINE_LOOP, GL_LINES,
+     *            GL_TRIANGLE_STRIP, GL_TRIANGLE_FAN and GL_TRIANGLES are
+     *            accepted.
+     * @param count
+     *            Specifies the number of elements to be rendered.
+     * @param type
+     *            Specifies the type of the values in indices. Must be one of
+     *            GL_UNSIGNED_BYTE, GL_UNSIGNED_SHORT, or GL_UNSIGNED_INT.
+     * @param offset
+     *            Specifies the byte offset of the first index in the buffer
+     *            object.
+     */
+
+    public void glDrawElements(int mode, int count, int type, int offset);
+
+
+    /**
+     * Generate a contiguous set of empty display lists.
+     *
+     * @param range
+     *            Specifies the number of contiguous empty display lists to be
+     *            generated.
+     * @return The name of the first generated display list. 0 if display
+     *         lists are not supported by the GL implementation or if no
+     *         contiguous names are available.
+     */
+
+    public int glGenLists(int range);
+
+
+    /**
+     * Create or replace a display list. All following GL commands are
+     * recorded into the display list until {@link #glEndList()} is called.
+     *
+     * @param list
+     *            Specifies the display-list name.
+     * @param mode
+     *            Specifies the compilation mode, which can be GL_COMPILE or
+     *            GL_COMPILE_AND_EXECUTE.
+     */
+
+    public void glNewList(int list, int mode);
+
+
+    /**
+     * Ends the recording of the display list started with
+     * {@link #glNewList(int, int)}.
+     */
+
+    public void glEndList();
+
+
+    /**
+     * Execute a display list.
+     *
+     * @param list
+     *            Specifies the integer name of the display list to be
+     *            executed.
+     */
+
+    public void glCallList(int list);
+
+
+    /**
+     * Delete a contiguous group of display lists.
+     *
+     * @param list
+     *            Specifies the integer name of the first display list to
+     *            delete.
+     * @param range
+     *            Specifies the number of display lists to delete.
+     */
+
+    public void glDeleteLists(int list, int range);
 }
@@ -0,0 +1,492 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.rendering;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import de.ailis.gramath.Matrix4f;
+import de.ailis.gramath.MutableVector3f;
+import de.ailis.gramath.Vector3f;
+import de.ailis.threedee.assets.Mesh;
+import de.ailis.threedee.assets.MeshPolygons;
+import de.ailis.threedee.mathold.Bounds;
+
+
+/**
+ * A small CPU-side depth buffer used for occlusion culling. Occluder meshes
+ * are rasterized into the buffer with the current camera. Then a
+ * hierarchical depth pyramid is built in which each texel contains the
+ * farthest depth of the four texels below it. Bounds are occluded when the
+ * nearest depth of their screen-space rectangle is farther away than the
+ * farthest depth of all pyramid texels covering this rectangle.
+ *
+ * The buffer works completely without GL so it can be used with every GL
+ * implementation and can be tested headless. Occluder triangles which cross
+ * the near plane are skipped and bounds which cross the near plane are
+ * never occluded so the culling is always conservative.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class OcclusionBuffer
+{
+    /** The default width of the depth buffer */
+    public static final int DEFAULT_WIDTH = 256;
+
+    /** The default height of the depth buffer */
+    public static final int DEFAULT_HEIGHT = 128;
+
+    /** The minimum W coordinate of vertices in front of the camera */
+    private static final float MIN_W = 1e-5f;
+
+    /**
+     * The depth bias which bounds must be behind the occluders so occluders
+     * never hide their own bounds because of rounding errors
+     */
+    private static final float DEPTH_BIAS = 1e-6f;
+
+    /** The width of the depth buffer */
+    private final int width;
+
+    /** The height of the depth buffer */
+    private final int height;
+
+    /** The depth pyramid. Level 0 is the depth buffer itself */
+    private final float[][] levels;
+
+    /** The widths of the pyramid levels */
+    private final int[] levelWidths;
+
+    /** The heights of the pyramid levels */
+    private final int[] levelHeights;
+
+    /** The combined projection and camera matrix (Column-major order) */
+    private final float[] viewProjection = new float[16];
+
+    /** The combined view projection and model matrix of the current mesh */
+    private final float[] transform = new float[16];
+
+    /** The screen coordinates (x, y, depth, w) of the current mesh vertices */
+    private float[] screen = new float[256 * 4];
+
+    /** Temporary vertex */
+    private final MutableVector3f vertex = new MutableVector3f();
+
+    /** If the depth pyramid is up to date */
+    private boolean valid;
+
+    /** The number of bounds tested since the last begin */
+    private int testedCount;
+
+    /** The number of bounds found to be occluded since the last begin */
+    private int occludedCount;
+
+
+    /**
+     * Constructs an occlusion buffer with the default size.
+     */
+
+    public OcclusionBuffer()
+    {
+        this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param width
+     *            The width of the depth buffer
+     * @param height
+     *            The height of the depth buffer
+     */
+
+    public OcclusionBuffer(final int width, final int height)
+    {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Invalid size: " + width + "x"
+                + height);
+        this.width = width;
+        this.height = height;
+
+        int levelCount = 1;
+        while ((width >> (levelCount - 1)) > 1
+            || (height >> (levelCount - 1)) > 1)
+            levelCount++;
+        this.levels = new float[levelCount][];
+        this.levelWidths = new int[levelCount];
+        this.levelHeights = new int[levelCount];
+        for (int i = 0; i < levelCount; i++)
+        {
+            final int levelWidth = Math.max(1, (width + (1 << i) - 1) >> i);
+            final int levelHeight = Math.max(1, (height + (1 << i) - 1) >> i);
+            this.levelWidths[i] = levelWidth;
+            this.levelHeights[i] = levelHeight;
+            this.levels[i] = new float[levelWidth * levelHeight];
+        }
+    }
+
+
+    /**
+     * Returns the width of the depth buffer.
+     *
+     * @return The width
+     */
+
+    public int getWidth()
+    {
+        return this.width;
+    }
+
+
+    /**
+     * Returns the height of the depth buffer.
+     *
+     * @return The height
+     */
+
+    public int getHeight()
+    {
+        return this.height;
+    }
+
+
+    /**
+     * Clears the depth buffer and sets up the specified perspective
+     * projection and camera transformation for the next frame.
+     *
+     * @param fovY
+     *            The field of view angle, in degrees, in the y direction.
+     * @param aspectRatio
+     *            The aspect ratio (width/height)
+     * @param zNear
+     *            The distance from the viewer to the near clipping plane
+     * @param zFar
+     *            The distance from the viewer to the far clipping plane
+     * @param cameraTransform
+     *            The camera transformation (The inverted scene transformation
+     *            of the camera)
+     */
+
+    public void begin(final float fovY, final float aspectRatio,
+        final float zNear, final float zFar, final Matrix4f cameraTransform)
+    {
+        final FloatBuffer m = cameraTransform.getBuffer();
+        final float f = (float) (1 / Math.tan(Math.toRadians(fovY) / 2));
+        final float sx = f / aspectRatio;
+        final float sz = (zFar + zNear) / (zNear - zFar);
+        final float tz = 2 * zFar * zNear / (zNear - zFar);
+        final float[] vp = this.viewProjection;
+        for (int col = 0; col < 4; col++)
+        {
+            final int c = col * 4;
+            vp[c] = sx * m.get(c);
+            vp[c + 1] = f * m.get(c + 1);
+            vp[c + 2] = sz * m.get(c + 2) + tz * m.get(c + 3);
+            vp[c + 3] = -m.get(c + 2);
+        }
+
+        Arrays.fill(this.levels[0], 1);
+        this.valid = false;
+        this.testedCount = 0;
+        this.occludedCount = 0;
+    }
+
+
+    /**
+     * Rasterizes the triangles of the specified mesh into the depth buffer.
+     *
+     * @param mesh
+     *            The occluder mesh
+     * @param modelTransform
+     *            The scene transformation of the mesh
+     */
+
+    public void rasterize(final Mesh mesh, final Matrix4f modelTransform)
+    {
+        // Combine the view projection matrix with the model matrix
+        final FloatBuffer m = modelTransform.getBuffer();
+        final float[] vp = this.viewProjection;
+        final float[] t = this.transform;
+        for (int col = 0; col < 4; col++)
+        {
+            final int c = col * 4;
+            final float m0 = m.get(c), m1 = m.get(c + 1), m2 = m.get(c + 2), m3 = m
+                .get(c + 3);
+            for (int row = 0; row < 4; row++)
+                t[c + row] = vp[row] * m0 + vp[row + 4] * m1 + vp[row + 8]
+                    * m2 + vp[row + 12] * m3;
+        }
+
+        for (final MeshPolygons polygons : mesh.getPolygons())
+            if (polygons.getSize() == 3) rasterize(polygons);
+        this.valid = false;
+    }
+
+
+    /**
+     * Rasterizes the specified triangles with the current transform.
+     *
+     * @param polygons
+     *            The triangles
+     */
+
+    private void rasterize(final MeshPolygons polygons)
+    {
+        // Transform the vertices to screen coordinates
+        final int vertexCount = polygons.getVertexCount();
+        if (this.screen.length < vertexCount * 4)
+            this.screen = new float[vertexCount * 4];
+        final float[] s = this.screen;
+        final float[] t = this.transform;
+        final MutableVector3f v = this.vertex;
+        final float halfWidth = this.width * 0.5f;
+        final float halfHeight = this.height * 0.5f;
+        for (int i = 0; i < vertexCount; i++)
+        {
+            polygons.getVertex(i, v);
+            final float x = v.getX(), y = v.getY(), z = v.getZ();
+            final float cw = t[3] * x + t[7] * y + t[11] * z + t[15];
+            final int o = i * 4;
+            s[o + 3] = cw;
+            if (cw < MIN_W) continue;
+            final float cx = t[0] * x + t[4] * y + t[8] * z + t[12];
+            final float cy = t[1] * x + t[5] * y + t[9] * z + t[13];
+            final float cz = t[2] * x + t[6] * y + t[10] * z + t[14];
+            s[o] = (cx / cw + 1) * halfWidth;
+            s[o + 1] = (cy / cw + 1) * halfHeight;
+            s[o + 2] = (cz / cw + 1) * 0.5f;
+        }
+
+        // Rasterize the triangles
+        final int indexCount = polygons.getIndexCount();
+        for (int i = 0; i + 2 < indexCount; i += 3)
+        {
+            final int a = polygons.getIndex(i) * 4;
+            final int b = polygons.getIndex(i + 1) * 4;
+            final int c = polygons.getIndex(i + 2) * 4;
+
+            // Skip triangles crossing the near plane
+            if (s[a + 3] < MIN_W || s[b + 3] < MIN_W || s[c + 3] < MIN_W)
+                continue;
+            rasterizeTriangle(s[a], s[a + 1], s[a + 2], s[b], s[b + 1],
+                s[b + 2], s[c], s[c + 1], s[c + 2]);
+        }
+    }
+
+
+    /**
+     * Rasterizes a single triangle into the depth buffer. The depth of a
+     * pixel is only written if it is nearer than the current depth.
+     *
+     * @param x0
+     *            The X coordinate of the first vertex in pixels
+     * @param y0
+     *            The Y coordinate of the first vertex in pixels
+     * @param z0
+     *            The depth of the first vertex (0-1)
+     * @param x1
+     *            The X coordinate of the second vertex in pixels
+     * @param y1
+     *            The Y coordinate of the second vertex in pixels
+     * @param z1
+     *            The depth of the second vertex (0-1)
+     * @param x2
+     *            The X coordinate of the third vertex in pixels
+     * @param y2
+     *            The Y coordinate of the third vertex in pixels
+     * @param z2
+     *            The depth of the third vertex (0-1)
+     */
+
+    private void rasterizeTriangle(final float x0, final float y0,
+        final float z0, final float x1, final float y1, final float z1,
+        final float x2, final float y2, final float z2)
+    {
+        final float area = (x1 - x0) * (y2 - y0) - (x2 - x0) * (y1 - y0);
+        if (area == 0) return;
+
+        // Calculate the covered pixel rectangle
+        final int width = this.width, height = this.height;
+        final int minX = Math.max(0, (int) Math.floor(Math.min(x0, Math.min(
+            x1, x2))));
+        final int maxX = Math.min(width - 1, (int) Math.ceil(Math.max(x0, Math
+            .max(x1, x2))));
+        final int minY = Math.max(0, (int) Math.floor(Math.min(y0, Math.min(
+            y1, y2))));
+        final int maxY = Math.min(height - 1, (int) Math.ceil(Math.max(y0, Math
+            .max(y1, y2))));
+        if (minX > maxX || minY > maxY) return;
+
+        final float[] depth = this.levels[0];
+        final float invArea = 1 / area;
+        for (int y = minY; y <= maxY; y++)
+        {
+            final float py = y + 0.5f;
+            final int row = y * width;
+            for (int x = minX; x <= maxX; x++)
+            {
+                final float px = x + 0.5f;
+                final float w0 = ((x1 - px) * (y2 - py) - (x2 - px) * (y1 - py))
+                    * invArea;
+                final float w1 = ((x2 - px) * (y0 - py) - (x0 - px) * (y2 - py))
+                    * invArea;
+                final float w2 = 1 - w0 - w1;
+                if (w0 < 0 || w1 < 0 || w2 < 0) continue;
+                final float z = w0 * z0 + w1 * z1 + w2 * z2;
+                if (z < depth[row + x]) depth[row + x] = Math.max(z, 0);
+            }
+        }
+    }
+
+
+    /**
+     * Builds the depth pyramid. Must be called after all occluders have been
+     * rasterized and before bounds are tested.
+     */
+
+    public void buildPyramid()
+    {
+        final float[][] levels = this.levels;
+        for (int i = 1; i < levels.length; i++)
+        {
+            final float[] src = levels[i - 1];
+            final float[] dst = levels[i];
+            final int srcWidth = this.levelWidths[i - 1];
+            final int srcHeight = this.levelHeights[i - 1];
+            final int dstWidth = this.levelWidths[i];
+            final int dstHeight = this.levelHeights[i];
+            for (int y = 0; y < dstHeight; y++)
+            {
+                final int y0 = y * 2, y1 = Math.min(y0 + 1, srcHeight - 1);
+                for (int x = 0; x < dstWidth; x++)
+                {
+                    final int x0 = x * 2, x1 = Math.min(x0 + 1, srcWidth - 1);
+                    dst[y * dstWidth + x] = Math.max(Math.max(src[y0
+                        * srcWidth + x0], src[y0 * srcWidth + x1]), Math.max(
+                        src[y1 * srcWidth + x0], src[y1 * srcWidth + x1]));
+                }
+            }
+        }
+        this.valid = true;
+    }
+
+
+    /**
+     * Checks if the specified bounds are completely hidden behind the
+     * rasterized occluders. Always returns false when the depth pyramid has
+     * not been built since the last occluder was rasterized.
+     *
+     * @param bounds
+     *            The bounds in scene coordinates
+     * @return True if bounds are occluded, false if they may be visible
+     */
+
+    public boolean isOccluded(final Bounds bounds)
+    {
+        if (!this.valid || bounds.isEmpty()) return false;
+        this.testedCount++;
+
+        // Project the corners of the bounds to the screen
+        final Vector3f min = bounds.getMin();
+        final Vector3f max = bounds.getMax();
+        final float[] vp = this.viewProjection;
+        float minX = Float.POSITIVE_INFINITY, maxX = Float.NEGATIVE_INFINITY;
+        float minY = Float.POSITIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        float minZ = Float.POSITIVE_INFINITY;
+        for (int i = 0; i < 8; i++)
+        {
+            final float x = (i & 1) == 0 ? min.getX() : max.getX();
+            final float y = (i & 2) == 0 ? min.getY() : max.getY();
+            final float z = (i & 4) == 0 ? min.getZ() : max.getZ();
+            final float cw = vp[3] * x + vp[7] * y + vp[11] * z + vp[15];
+
+            // Bounds crossing the near plane are never occluded
+            if (cw < MIN_W) return false;
+
+            final float sx = (vp[0] * x + vp[4] * y + vp[8] * z + vp[12]) / cw;
+            final float sy = (vp[1] * x + vp[5] * y + vp[9] * z + vp[13]) / cw;
+            final float sz = (vp[2] * x + vp[6] * y + vp[10] * z + vp[14]) / cw;
+            minX = Math.min(minX, sx);
+            maxX = Math.max(maxX, sx);
+            minY = Math.min(minY, sy);
+            maxY = Math.max(maxY, sy);
+            minZ = Math.min(minZ, sz);
+        }
+        minZ = (minZ + 1) * 0.5f - DEPTH_BIAS;
+
+        // Calculate the covered pixel rectangle
+        final int width = this.width, height = this.height;
+        final int x0 = Math.max(0, (int) Math.floor((minX + 1) * 0.5f * width));
+        final int x1 = Math.min(width - 1, (int) Math.floor((maxX + 1) * 0.5f
+            * width));
+        final int y0 = Math.max(0, (int) Math.floor((minY + 1) * 0.5f * height));
+        final int y1 = Math.min(height - 1, (int) Math.floor((maxY + 1) * 0.5f
+            * height));
+        if (x0 > x1 || y0 > y1) return false;
+
+        // Select the pyramid level in which the rectangle covers at most two
+        // texels in each direction
+        int level = 0;
+        while (level < this.levels.length - 1
+            && ((x1 >> level) - (x0 >> level) > 1 || (y1 >> level)
+                - (y0 >> level) > 1))
+            level++;
+
+        // Bounds are occluded if they are behind all covered texels
+        final float[] depth = this.levels[level];
+        final int levelWidth = this.levelWidths[level];
+        for (int y = y0 >> level, maxTexelY = y1 >> level; y <= maxTexelY; y++)
+            for (int x = x0 >> level, maxTexelX = x1 >> level; x <= maxTexelX; x++)
+                if (minZ <= depth[y * levelWidth + x]) return false;
+
+        this.occludedCount++;
+        return true;
+    }
+
+
+    /**
+     * Returns the depth at the specified pixel of the depth buffer.
+     *
+     * @param x
+     *            The X coordinate (0 is left)
+     * @param y
+     *            The Y coordinate (0 is bottom)
+     * @return The depth (0 is near plane, 1 is far plane)
+     */
+
+    public float getDepth(final int x, final int y)
+    {
+        return this.levels[0][y * this.width + x];
+    }
+
+
+    /**
+     * Returns the number of bounds which were tested since the last call to
+     * begin().
+     *
+     * @return The number of tested bounds
+     */
+
+    public int getTestedCount()
+    {
+        return this.testedCount;
+    }
+
+
+    /**
+     * Returns the number of bounds which were found to be occluded since the
+     * last call to begin().
+     *
+     * @return The number of occluded bounds
+     */
+
+    public int getOccludedCount()
+    {
+        return this.occludedCount;
+    }
+}
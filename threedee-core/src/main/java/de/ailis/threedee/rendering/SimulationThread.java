@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.rendering;
+
+import de.ailis.threedee.scene.Scene;
+
+
+/**
+ * Thread which updates the scene of a viewport with a fixed tick rate and
+ * publishes a snapshot of the scene after each tick. The GL thread renders
+ * the snapshots so updating and rendering the scene can run in parallel.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+final class SimulationThread extends Thread
+{
+    /** The maximum number of ticks which are caught up after a delay */
+    private static final int MAX_CATCH_UP_TICKS = 5;
+
+    /** The viewport */
+    private final Viewport viewport;
+
+    /** The tick interval in nanoseconds */
+    private final long interval;
+
+    /** Mutex which is held while a tick is processed */
+    private final Object tickMutex = new Object();
+
+    /** If the thread is still running */
+    private volatile boolean running = true;
+
+    /** If the scene was changed during one of the last two ticks */
+    private volatile boolean animated = true;
+
+
+    /**
+     * Constructor
+     *
+     * @param viewport
+     *            The viewport
+     * @param ticksPerSecond
+     *            The number of scene updates per second
+     */
+
+    SimulationThread(final Viewport viewport, final int ticksPerSecond)
+    {
+        super("Simulation");
+        setDaemon(true);
+        this.viewport = viewport;
+        this.interval = 1000000000L / ticksPerSecond;
+    }
+
+
+    /**
+     * @see java.lang.Thread#run()
+     */
+
+    @Override
+    public void run()
+    {
+        final long interval = this.interval;
+        final float delta = interval / 1000000000f;
+        long next = System.nanoTime();
+        boolean changed = false;
+        while (this.running)
+        {
+            // Update the scene and publish the snapshot
+            boolean tickChanged = false;
+            synchronized (this.tickMutex)
+            {
+                final Scene scene = this.viewport.getScene();
+                if (scene != null)
+                {
+                    tickChanged = scene.update(delta);
+                    scene.recordSnapshot(next);
+                }
+            }
+            this.animated = tickChanged || changed;
+            if (tickChanged && !changed)
+                this.viewport.getViewComponent().requestRender();
+            changed = tickChanged;
+
+            // Wait for the next tick. Ticks which are delayed too much are
+            // dropped instead of being caught up.
+            next += interval;
+            final long now = System.nanoTime();
+            if (now - next > interval * MAX_CATCH_UP_TICKS) next = now;
+            final long wait = next - now;
+            if (wait > 0)
+            {
+                try
+                {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                }
+                catch (final InterruptedException e)
+                {
+                    // Stopped while waiting
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Returns the mutex which is held while a tick is processed.
+     *
+     * @return The tick mutex
+     */
+
+    Object getTickMutex()
+    {
+        return this.tickMutex;
+    }
+
+
+    /**
+     * Checks if the scene was changed during one of the last two ticks. As
+     * long as this is the case the viewport must be rendered continuously
+     * to show the interpolated transformations.
+     *
+     * @return True if scene is animated, false if not
+     */
+
+    boolean isAnimated()
+    {
+        return this.animated;
+    }
+
+
+    /**
+     * Stops the thread and waits until it has finished.
+     */
+
+    void shutdown()
+    {
+        this.running = false;
+        interrupt();
+        boolean interrupted = false;
+        while (isAlive())
+        {
+            try
+            {
+                join();
+            }
+            catch (final InterruptedException e)
+            {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+}
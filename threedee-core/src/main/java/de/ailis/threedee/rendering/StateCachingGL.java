@@ -0,0 +1,1666 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.rendering;
+
+import java.io.InputStream;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * GL implementation which wraps another GL implementation and keeps a copy of
+ * the GL state (enabled capabilities, client states, bound texture, material,
+ * light parameters, blend and depth state and some more). Calls which don't
+ * change the state are not passed to the wrapped implementation and
+ * glIsEnabled and glGet queries are answered from the copy if possible.
+ *
+ * State which is not known yet (Because it was never set through this
+ * wrapper) is queried from or passed to the wrapped implementation once. So
+ * the wrapper can be used on a GL context which is already in use. The
+ * cached state is forgotten when {@link #init()} is called because this
+ * happens when a new GL context has been created.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class StateCachingGL implements GL
+{
+    /** The number of cached lights */
+    private static final int MAX_LIGHTS = 8;
+
+    /**
+     * The number of cached light parameters (GL_AMBIENT to
+     * GL_QUADRATIC_ATTENUATION)
+     */
+    private static final int LIGHT_PARAMS = 10;
+
+    /** The number of cached material parameters */
+    private static final int MATERIAL_PARAMS = 5;
+
+    /** State category of the server-side capabilities */
+    private static final int CAPS = 1 << 0;
+
+    /** State category of the client-side capabilities */
+    private static final int CLIENT_CAPS = 1 << 1;
+
+    /** State category of the bound texture */
+    private static final int TEXTURE = 1 << 2;
+
+    /** State category of the bound buffer objects */
+    private static final int BUFFERS = 1 << 3;
+
+    /** State category of the material parameters */
+    private static final int MATERIAL = 1 << 4;
+
+    /** State category of the light parameters and the light model */
+    private static final int LIGHTS = 1 << 5;
+
+    /** State category of the blend, depth and shade model settings */
+    private static final int RASTER = 1 << 6;
+
+    /** State category of the matrix mode */
+    private static final int MATRIX_MODE = 1 << 7;
+
+    /** State category of the clear values */
+    private static final int CLEAR = 1 << 8;
+
+    /** State category of the array pointers */
+    private static final int POINTERS = 1 << 9;
+
+    /** All state categories */
+    private static final int ALL = (1 << 10) - 1;
+
+    /** The state categories changed by the recorded display lists */
+    private final Map<Integer, Integer> listChanges = new HashMap<Integer, Integer>();
+
+    /** The display list which is currently recorded. 0 if none */
+    private int recordingList;
+
+    /**
+     * The state categories changed by called display lists while recording
+     * another display list
+     */
+    private int recordingChanges;
+
+    /** The wrapped GL implementation */
+    private final GL gl;
+
+    /** The server-side capabilities */
+    private final CapabilityStates caps = new CapabilityStates();
+
+    /** The client-side capabilities */
+    private final CapabilityStates clientCaps = new CapabilityStates();
+
+    /** The currently bound 2D texture. -1 if unknown */
+    private int boundTexture = -1;
+
+    /** The currently bound array buffer. -1 if unknown */
+    private int boundArrayBuffer = -1;
+
+    /** The currently bound element array buffer. -1 if unknown */
+    private int boundElementBuffer = -1;
+
+    /** The material parameters (four floats per parameter) */
+    private final float[] material = new float[MATERIAL_PARAMS * 4];
+
+    /** Which material parameters are known */
+    private final boolean[] materialKnown = new boolean[MATERIAL_PARAMS];
+
+    /** The light parameters (four floats per parameter) */
+    private final float[] lights = new float[MAX_LIGHTS * LIGHT_PARAMS * 4];
+
+    /** Which light parameters are known */
+    private final boolean[] lightsKnown = new boolean[MAX_LIGHTS
+        * LIGHT_PARAMS];
+
+    /** The ambient light model color */
+    private final float[] lightModelAmbient = new float[4];
+
+    /** If ambient light model color is known */
+    private boolean lightModelAmbientKnown;
+
+    /** The blend source factor. -1 if unknown */
+    private int blendSourceFactor = -1;
+
+    /** The blend destination factor. -1 if unknown */
+    private int blendDestinationFactor = -1;
+
+    /** The depth function. -1 if unknown */
+    private int depthFunc = -1;
+
+    /** The depth mask. 1 for writing, 0 for not writing, -1 if unknown */
+    private int depthMask = -1;
+
+    /** The shade model. -1 if unknown */
+    private int shadeModel = -1;
+
+    /** The matrix mode. -1 if unknown */
+    private int matrixMode = -1;
+
+    /** The clear color */
+    private final float[] clearColor = new float[4];
+
+    /** If clear color is known */
+    private boolean clearColorKnown;
+
+    /** The clear depth. NaN if unknown */
+    private double clearDepth = Double.NaN;
+
+    /** The maximum number of lights. -1 if unknown */
+    private int maxLights = -1;
+
+    /** The current vertex pointer */
+    private final Pointer vertexPointer = new Pointer();
+
+    /** The current normal pointer */
+    private final Pointer normalPointer = new Pointer();
+
+    /** The current texture coordinate pointer */
+    private final Pointer texCoordPointer = new Pointer();
+
+    /** The current color pointer */
+    private final Pointer colorPointer = new Pointer();
+
+    /** The number of calls which have been filtered out */
+    private long filteredCalls;
+
+    /** The number of queries which have been answered from the cache */
+    private long answeredQueries;
+
+
+    /**
+     * Constructor.
+     *
+     * @param gl
+     *            The GL implementation to wrap
+     */
+
+    public StateCachingGL(final GL gl)
+    {
+        if (gl == null)
+            throw new IllegalArgumentException("gl must not be null");
+        this.gl = gl;
+    }
+
+
+    /**
+     * Returns the wrapped GL implementation.
+     *
+     * @return The wrapped GL implementation
+     */
+
+    public GL getGL()
+    {
+        return this.gl;
+    }
+
+
+    /**
+     * Returns the number of calls which have been filtered out because they
+     * didn't change the GL state.
+     *
+     * @return The number of filtered calls
+     */
+
+    public long getFilteredCalls()
+    {
+        return this.filteredCalls;
+    }
+
+
+    /**
+     * Returns the number of glIsEnabled and glGet queries which have been
+     * answered from the cached state.
+     *
+     * @return The number of answered queries
+     */
+
+    public long getAnsweredQueries()
+    {
+        return this.answeredQueries;
+    }
+
+
+    /**
+     * Resets the call counters.
+     */
+
+    public void resetCounters()
+    {
+        this.filteredCalls = 0;
+        this.answeredQueries = 0;
+    }
+
+
+    /**
+     * Forgets the cached GL state. Must be called when the state of the
+     * wrapped GL context was changed without going through this wrapper.
+     */
+
+    public void reset()
+    {
+        reset(ALL);
+        this.maxLights = -1;
+    }
+
+
+    /**
+     * Forgets the cached GL state of the specified categories.
+     *
+     * @param categories
+     *            The state categories to forget (Bit mask)
+     */
+
+    private void reset(final int categories)
+    {
+        if ((categories & CAPS) != 0) this.caps.clear();
+        if ((categories & CLIENT_CAPS) != 0) this.clientCaps.clear();
+        if ((categories & TEXTURE) != 0) this.boundTexture = -1;
+        if ((categories & BUFFERS) != 0)
+        {
+            this.boundArrayBuffer = -1;
+            this.boundElementBuffer = -1;
+        }
+        if ((categories & MATERIAL) != 0) invalidateMaterial();
+        if ((categories & LIGHTS) != 0)
+        {
+            for (int i = this.lightsKnown.length - 1; i >= 0; i--)
+                this.lightsKnown[i] = false;
+            this.lightModelAmbientKnown = false;
+        }
+        if ((categories & RASTER) != 0)
+        {
+            this.blendSourceFactor = -1;
+            this.blendDestinationFactor = -1;
+            this.depthFunc = -1;
+            this.depthMask = -1;
+            this.shadeModel = -1;
+        }
+        if ((categories & MATRIX_MODE) != 0) this.matrixMode = -1;
+        if ((categories & CLEAR) != 0)
+        {
+            this.clearColorKnown = false;
+            this.clearDepth = Double.NaN;
+        }
+        if ((categories & POINTERS) != 0)
+        {
+            this.vertexPointer.clear();
+            this.normalPointer.clear();
+            this.texCoordPointer.clear();
+            this.colorPointer.clear();
+        }
+    }
+
+
+    /**
+     * Returns the state categories which are currently known. Because the
+     * cache is reset when a display list is started this is the set of
+     * categories changed by the display list when called at its end.
+     *
+     * @return The known state categories (Bit mask)
+     */
+
+    private int getKnownCategories()
+    {
+        int categories = 0;
+        if (this.caps.size != 0) categories |= CAPS;
+        if (this.clientCaps.size != 0) categories |= CLIENT_CAPS;
+        if (this.boundTexture != -1) categories |= TEXTURE;
+        if (this.boundArrayBuffer != -1 || this.boundElementBuffer != -1)
+            categories |= BUFFERS;
+        for (int i = MATERIAL_PARAMS - 1; i >= 0; i--)
+            if (this.materialKnown[i]) categories |= MATERIAL;
+        if (this.lightModelAmbientKnown) categories |= LIGHTS;
+        for (int i = this.lightsKnown.length - 1; i >= 0; i--)
+            if (this.lightsKnown[i]) categories |= LIGHTS;
+        if (this.blendSourceFactor != -1 || this.depthFunc != -1
+            || this.depthMask != -1 || this.shadeModel != -1)
+            categories |= RASTER;
+        if (this.matrixMode != -1) categories |= MATRIX_MODE;
+        if (this.clearColorKnown || !Double.isNaN(this.clearDepth))
+            categories |= CLEAR;
+        if (this.vertexPointer.known || this.normalPointer.known
+            || this.texCoordPointer.known || this.colorPointer.known)
+            categories |= POINTERS;
+        return categories;
+    }
+
+
+    /**
+     * Forgets the cached material parameters.
+     */
+
+    private void invalidateMaterial()
+    {
+        for (int i = MATERIAL_PARAMS - 1; i >= 0; i--)
+            this.materialKnown[i] = false;
+    }
+
+
+    /**
+     * Copies values from a float buffer into a cache array.
+     *
+     * @param cache
+     *            The cache array
+     * @param offset
+     *            The offset in the cache array
+     * @param params
+     *            The float buffer. Values are read starting at the current
+     *            buffer position without modifying it
+     * @param count
+     *            The number of values to copy
+     * @param known
+     *            If the cached values are known
+     * @return True if the cached values have been changed, false if they
+     *         were already equal
+     */
+
+    private static boolean update(final float[] cache, final int offset,
+        final FloatBuffer params, final int count, final boolean known)
+    {
+        final int position = params.position();
+        boolean changed = !known;
+        for (int i = 0; i < count; i++)
+        {
+            final float value = params.get(position + i);
+            if (changed || cache[offset + i] != value)
+            {
+                cache[offset + i] = value;
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+
+    /**
+     * Returns the cache index of the specified material parameter.
+     *
+     * @param pname
+     *            The material parameter
+     * @return The cache index or -1 if parameter is not cached
+     */
+
+    private static int getMaterialIndex(final int pname)
+    {
+        switch (pname)
+        {
+            case GL_AMBIENT:
+                return 0;
+
+            case GL_DIFFUSE:
+                return 1;
+
+            case GL_SPECULAR:
+                return 2;
+
+            case GL_EMISSION:
+                return 3;
+
+            case GL_SHININESS:
+                return 4;
+
+            default:
+                return -1;
+        }
+    }
+
+
+    /**
+     * Returns the cache index of the specified light parameter. Position and
+     * spot direction are not cached because they are transformed by the
+     * current modelview matrix.
+     *
+     * @param light
+     *            The light
+     * @param pname
+     *            The light parameter
+     * @return The cache index or -1 if parameter is not cached
+     */
+
+    private static int getLightIndex(final int light, final int pname)
+    {
+        final int lightIndex = light - GL_LIGHT0;
+        final int paramIndex = pname - GL_AMBIENT;
+        if (lightIndex < 0 || lightIndex >= MAX_LIGHTS) return -1;
+        if (paramIndex < 0 || paramIndex >= LIGHT_PARAMS) return -1;
+        if (pname == GL_POSITION || pname == GL_SPOT_DIRECTION) return -1;
+        return lightIndex * LIGHT_PARAMS + paramIndex;
+    }
+
+
+    /**
+     * @see GL#init()
+     */
+
+    @Override
+    public void init()
+    {
+        reset();
+        this.gl.init();
+    }
+
+
+    /**
+     * @see GL#glColorPointer(int, int, FloatBuffer)
+     */
+
+    @Override
+    public void glColorPointer(final int size, final int stride,
+        final FloatBuffer pointer)
+    {
+        if (this.colorPointer.update(size, stride, pointer, this.boundArrayBuffer))
+            this.gl.glColorPointer(size, stride, pointer);
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glMaterial(int, int, FloatBuffer)
+     */
+
+    @Override
+    public void glMaterial(final int face, final int pname,
+        final FloatBuffer params)
+    {
+        final int index = getMaterialIndex(pname);
+        if (face != GL_FRONT_AND_BACK || index == -1)
+        {
+            // Front and back material may now differ so the cache is useless
+            invalidateMaterial();
+            this.gl.glMaterial(face, pname, params);
+            return;
+        }
+        final int count = pname == GL_SHININESS ? 1 : 4;
+        if (update(this.material, index * 4, params, count,
+            this.materialKnown[index]))
+        {
+            this.materialKnown[index] = true;
+            this.gl.glMaterial(face, pname, params);
+        }
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glMaterialf(int, int, float)
+     */
+
+    @Override
+    public void glMaterialf(final int face, final int pname, final float param)
+    {
+        final int index = getMaterialIndex(pname);
+        if (face != GL_FRONT_AND_BACK || index == -1)
+        {
+            invalidateMaterial();
+            this.gl.glMaterialf(face, pname, param);
+            return;
+        }
+        if (!this.materialKnown[index] || this.material[index * 4] != param)
+        {
+            this.material[index * 4] = param;
+            this.materialKnown[index] = true;
+            this.gl.glMaterialf(face, pname, param);
+        }
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glEnableClientState(int)
+     */
+
+    @Override
+    public void glEnableClientState(final int cap)
+    {
+        if (this.clientCaps.set(cap, true))
+            this.gl.glEnableClientState(cap);
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glDisableClientState(int)
+     */
+
+    @Override
+    public void glDisableClientState(final int cap)
+    {
+        if (this.clientCaps.set(cap, false))
+            this.gl.glDisableClientState(cap);
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glVertexPointer(int, int, FloatBuffer)
+     */
+
+    @Override
+    public void glVertexPointer(final int size, final int stride,
+        final FloatBuffer pointer)
+    {
+        if (this.vertexPointer.update(size, stride, pointer, this.boundArrayBuffer))
+            this.gl.glVertexPointer(size, stride, pointer);
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glNormalPointer(int, FloatBuffer)
+     */
+
+    @Override
+    public void glNormalPointer(final int stride, final FloatBuffer pointer)
+    {
+        if (this.normalPointer.update(3, stride, pointer,
+            this.boundArrayBuffer))
+            this.gl.glNormalPointer(stride, pointer);
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glTexCoordPointer(int, int, FloatBuffer)
+     */
+
+    @Override
+    public void glTexCoordPointer(final int size, final int stride,
+        final FloatBuffer pointer)
+    {
+        if (this.texCoordPointer.update(size, stride, pointer, this.boundArrayBuffer))
+            this.gl.glTexCoordPointer(size, stride, pointer);
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glDrawElements(int, int, Buffer)
+     */
+
+    @Override
+    public void glDrawElements(final int mode, final int type,
+        final Buffer indices)
+    {
+        this.gl.glDrawElements(mode, type, indices);
+    }
+
+
+    /**
+     * @see GL#glPushMatrix()
+     */
+
+    @Override
+    public void glPushMatrix()
+    {
+        this.gl.glPushMatrix();
+    }
+
+
+    /**
+     * @see GL#glMultMatrix(FloatBuffer)
+     */
+
+    @Override
+    public void glMultMatrix(final FloatBuffer m)
+    {
+        this.gl.glMultMatrix(m);
+    }
+
+
+    /**
+     * @see GL#glPopMatrix()
+     */
+
+    @Override
+    public void glPopMatrix()
+    {
+        this.gl.glPopMatrix();
+    }
+
+
+    /**
+     * @see GL#glClear(int)
+     */
+
+    @Override
+    public void glClear(final int mask)
+    {
+        this.gl.glClear(mask);
+    }
+
+
+    /**
+     * @see GL#glMatrixMode(int)
+     */
+
+    @Override
+    public void glMatrixMode(final int mode)
+    {
+        if (this.matrixMode != mode)
+        {
+            this.matrixMode = mode;
+            this.gl.glMatrixMode(mode);
+        }
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glLoadIdentity()
+     */
+
+    @Override
+    public void glLoadIdentity()
+    {
+        this.gl.glLoadIdentity();
+    }
+
+
+    /**
+     * @see GL#glLoadMatrix(FloatBuffer)
+     */
+
+    @Override
+    public void glLoadMatrix(final FloatBuffer m)
+    {
+        this.gl.glLoadMatrix(m);
+    }
+
+
+    /**
+     * @see GL#glFlush()
+     */
+
+    @Override
+    public void glFlush()
+    {
+        this.gl.glFlush();
+    }
+
+
+    /**
+     * @see GL#glClearColor(float, float, float, float)
+     */
+
+    @Override
+    public void glClearColor(final float red, final float green,
+        final float blue, final float alpha)
+    {
+        final float[] color = this.clearColor;
+        if (!this.clearColorKnown || color[0] != red || color[1] != green
+            || color[2] != blue || color[3] != alpha)
+        {
+            color[0] = red;
+            color[1] = green;
+            color[2] = blue;
+            color[3] = alpha;
+            this.clearColorKnown = true;
+            this.gl.glClearColor(red, green, blue, alpha);
+        }
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glShadeModel(int)
+     */
+
+    @Override
+    public void glShadeModel(final int mode)
+    {
+        if (this.shadeModel != mode)
+        {
+            this.shadeModel = mode;
+            this.gl.glShadeModel(mode);
+        }
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glClearDepth(double)
+     */
+
+    @Override
+    public void glClearDepth(final double depth)
+    {
+        if (this.clearDepth != depth)
+        {
+            this.clearDepth = depth;
+            this.gl.glClearDepth(depth);
+        }
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glEnable(int)
+     */
+
+    @Override
+    public void glEnable(final int cap)
+    {
+        if (this.caps.set(cap, true))
+            this.gl.glEnable(cap);
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glDisable(int)
+     */
+
+    @Override
+    public void glDisable(final int cap)
+    {
+        if (this.caps.set(cap, false))
+            this.gl.glDisable(cap);
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glDepthFunc(int)
+     */
+
+    @Override
+    public void glDepthFunc(final int func)
+    {
+        if (this.depthFunc != func)
+        {
+            this.depthFunc = func;
+            this.gl.glDepthFunc(func);
+        }
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glDepthMask(boolean)
+     */
+
+    @Override
+    public void glDepthMask(final boolean flag)
+    {
+        final int depthMask = flag ? 1 : 0;
+        if (this.depthMask != depthMask)
+        {
+            this.depthMask = depthMask;
+            this.gl.glDepthMask(flag);
+        }
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glHint(int, int)
+     */
+
+    @Override
+    public void glHint(final int target, final int mode)
+    {
+        this.gl.glHint(target, mode);
+    }
+
+
+    /**
+     * @see GL#glBlendFunc(int, int)
+     */
+
+    @Override
+    public void glBlendFunc(final int sfactor, final int dfactor)
+    {
+        if (this.blendSourceFactor != sfactor
+            || this.blendDestinationFactor != dfactor)
+        {
+            this.blendSourceFactor = sfactor;
+            this.blendDestinationFactor = dfactor;
+            this.gl.glBlendFunc(sfactor, dfactor);
+        }
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glLight(int, int, FloatBuffer)
+     */
+
+    @Override
+    public void glLight(final int light, final int pname,
+        final FloatBuffer param)
+    {
+        final int index = getLightIndex(light, pname);
+        if (index == -1)
+        {
+            this.gl.glLight(light, pname, param);
+            return;
+        }
+        final int count = pname <= GL_SPECULAR ? 4 : 1;
+        if (update(this.lights, index * 4, param, count,
+            this.lightsKnown[index]))
+        {
+            this.lightsKnown[index] = true;
+            this.gl.glLight(light, pname, param);
+        }
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glLightf(int, int, float)
+     */
+
+    @Override
+    public void glLightf(final int light, final int pname, final float param)
+    {
+        final int index = getLightIndex(light, pname);
+        if (index == -1)
+        {
+            this.gl.glLightf(light, pname, param);
+            return;
+        }
+        if (!this.lightsKnown[index] || this.lights[index * 4] != param)
+        {
+            this.lights[index * 4] = param;
+            this.lightsKnown[index] = true;
+            this.gl.glLightf(light, pname, param);
+        }
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glViewport(int, int, int, int)
+     */
+
+    @Override
+    public void glViewport(final int x, final int y, final int width,
+        final int height)
+    {
+        this.gl.glViewport(x, y, width, height);
+    }
+
+
+    /**
+     * @see GL#gluPerspective(float, float, float, float)
+     */
+
+    @Override
+    public void gluPerspective(final float fovy, final float aspect,
+        final float zNear, final float zFar)
+    {
+        this.gl.gluPerspective(fovy, aspect, zNear, zFar);
+    }
+
+
+    /**
+     * @see GL#glBindTexture(int, int)
+     */
+
+    @Override
+    public void glBindTexture(final int target, final int texture)
+    {
+        if (target != GL_TEXTURE_2D)
+        {
+            this.gl.glBindTexture(target, texture);
+            return;
+        }
+        if (this.boundTexture != texture)
+        {
+            this.boundTexture = texture;
+            this.gl.glBindTexture(target, texture);
+        }
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glDeleteTextures(IntBuffer)
+     */
+
+    @Override
+    public void glDeleteTextures(final IntBuffer textures)
+    {
+        // Deleting the bound texture reverts the binding to zero
+        for (int i = textures.position(), max = textures.limit(); i < max; i++)
+            if (textures.get(i) == this.boundTexture) this.boundTexture = 0;
+        this.gl.glDeleteTextures(textures);
+    }
+
+
+    /**
+     * @see GL#glGenTextures(IntBuffer)
+     */
+
+    @Override
+    public void glGenTextures(final IntBuffer textures)
+    {
+        this.gl.glGenTextures(textures);
+    }
+
+
+    /**
+     * @see GL#glTexParameteri(int, int, int)
+     */
+
+    @Override
+    public void glTexParameteri(final int target, final int pname,
+        final int param)
+    {
+        this.gl.glTexParameteri(target, pname, param);
+    }
+
+
+    /**
+     * @see GL#glTexParameterf(int, int, float)
+     */
+
+    @Override
+    public void glTexParameterf(final int target, final int pname,
+        final float param)
+    {
+        this.gl.glTexParameterf(target, pname, param);
+    }
+
+
+    /**
+     * @see GL#glTexImage2D(int, int, InputStream, int)
+     */
+
+    @Override
+    public void glTexImage2D(final int target, final int level,
+        final InputStream stream, final int border)
+    {
+        this.gl.glTexImage2D(target, level, stream, border);
+    }
+
+
+    /**
+     * @see GL#glTexSubImage2D(int, int, int, int, int, int, int, int, Buffer)
+     */
+
+    @Override
+    public void glTexSubImage2D(final int target, final int level,
+        final int xOffset, final int yOffset, final int width,
+        final int height, final int format, final int type, final Buffer data)
+    {
+        this.gl.glTexSubImage2D(target, level, xOffset, yOffset, width,
+            height, format, type, data);
+    }
+
+
+    /**
+     * @see GL#glTexImage2D(int, int, int, int, int, int, int, int, ByteBuffer)
+     */
+
+    @Override
+    public void glTexImage2D(final int target, final int level,
+        final int internalFormat, final int width, final int height,
+        final int border, final int format, final int type,
+        final ByteBuffer data)
+    {
+        this.gl.glTexImage2D(target, level, internalFormat, width, height,
+            border, format, type, data);
+    }
+
+
+    /**
+     * @see GL#glLightModelfv(int, FloatBuffer)
+     */
+
+    @Override
+    public void glLightModelfv(final int pname, final FloatBuffer params)
+    {
+        if (pname != GL_LIGHT_MODEL_AMBIENT)
+        {
+            this.gl.glLightModelfv(pname, params);
+            return;
+        }
+        if (update(this.lightModelAmbient, 0, params, 4,
+            this.lightModelAmbientKnown))
+        {
+            this.lightModelAmbientKnown = true;
+            this.gl.glLightModelfv(pname, params);
+        }
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glGetFloatv(int, FloatBuffer)
+     */
+
+    @Override
+    public void glGetFloatv(final int pname, final FloatBuffer params)
+    {
+        if (pname != GL_LIGHT_MODEL_AMBIENT)
+        {
+            this.gl.glGetFloatv(pname, params);
+            return;
+        }
+        final float[] ambient = this.lightModelAmbient;
+        final int position = params.position();
+        if (this.lightModelAmbientKnown)
+        {
+            for (int i = 0; i < 4; i++)
+                params.put(position + i, ambient[i]);
+            this.answeredQueries++;
+        }
+        else
+        {
+            this.gl.glGetFloatv(pname, params);
+            for (int i = 0; i < 4; i++)
+                ambient[i] = params.get(position + i);
+            this.lightModelAmbientKnown = true;
+        }
+    }
+
+
+    /**
+     * @see GL#glIsEnabled(int)
+     */
+
+    @Override
+    public boolean glIsEnabled(final int cap)
+    {
+        final int state = this.caps.get(cap);
+        if (state != CapabilityStates.UNKNOWN)
+        {
+            this.answeredQueries++;
+            return state == CapabilityStates.ENABLED;
+        }
+        final boolean enabled = this.gl.glIsEnabled(cap);
+        this.caps.set(cap, enabled);
+        return enabled;
+    }
+
+
+    /**
+     * @see GL#glGetIntegerv(int, IntBuffer)
+     */
+
+    @Override
+    public void glGetIntegerv(final int pname, final IntBuffer params)
+    {
+        if (pname != GL_MAX_LIGHTS)
+        {
+            this.gl.glGetIntegerv(pname, params);
+            return;
+        }
+        if (this.maxLights != -1)
+        {
+            params.put(params.position(), this.maxLights);
+            this.answeredQueries++;
+        }
+        else
+        {
+            this.gl.glGetIntegerv(pname, params);
+            this.maxLights = params.get(params.position());
+        }
+    }
+
+
+    /**
+     * @see GL#glTranslate(float, float, float)
+     */
+
+    @Override
+    public void glTranslate(final float x, final float y, final float z)
+    {
+        this.gl.glTranslate(x, y, z);
+    }
+
+
+    /**
+     * @see GL#glColorMaterial(int, int)
+     */
+
+    @Override
+    public void glColorMaterial(final int face, final int mode)
+    {
+        invalidateMaterial();
+        this.gl.glColorMaterial(face, mode);
+    }
+
+
+    /**
+     * @see GL#glRotatef(float, float, float, float)
+     */
+
+    @Override
+    public void glRotatef(final float angle, final float x, final float y,
+        final float z)
+    {
+        this.gl.glRotatef(angle, x, y, z);
+    }
+
+
+    /**
+     * @see GL#glScalef(float, float, float)
+     */
+
+    @Override
+    public void glScalef(final float x, final float y, final float z)
+    {
+        this.gl.glScalef(x, y, z);
+    }
+
+
+    /**
+     * @see GL#glPixelStorei(int, int)
+     */
+
+    @Override
+    public void glPixelStorei(final int pname, final int param)
+    {
+        this.gl.glPixelStorei(pname, param);
+    }
+
+
+    /**
+     * @see GL#glIsTexture(int)
+     */
+
+    @Override
+    public boolean glIsTexture(final int texture)
+    {
+        return this.gl.glIsTexture(texture);
+    }
+
+
+    /**
+     * @see GL#glTexEnvi(int, int, int)
+     */
+
+    @Override
+    public void glTexEnvi(final int target, final int pname, final int param)
+    {
+        this.gl.glTexEnvi(target, pname, param);
+    }
+
+
+    /**
+     * @see GL#glGenBuffers(IntBuffer)
+     */
+
+    @Override
+    public void glGenBuffers(final IntBuffer buffers)
+    {
+        this.gl.glGenBuffers(buffers);
+    }
+
+
+    /**
+     * @see GL#glDeleteBuffers(IntBuffer)
+     */
+
+    @Override
+    public void glDeleteBuffers(final IntBuffer buffers)
+    {
+        // Deleting a bound buffer reverts the binding to zero
+        for (int i = buffers.position(), max = buffers.limit(); i < max; i++)
+        {
+            final int buffer = buffers.get(i);
+            if (buffer == this.boundArrayBuffer) this.boundArrayBuffer = 0;
+            if (buffer == this.boundElementBuffer)
+                this.boundElementBuffer = 0;
+
+            // Pointers into a deleted buffer object are no longer valid
+            // even if a new buffer object gets the same name later
+            if (buffer == 0) continue;
+            this.vertexPointer.forget(buffer);
+            this.normalPointer.forget(buffer);
+            this.texCoordPointer.forget(buffer);
+            this.colorPointer.forget(buffer);
+        }
+        this.gl.glDeleteBuffers(buffers);
+    }
+
+
+    /**
+     * @see GL#glBindBuffer(int, int)
+     */
+
+    @Override
+    public void glBindBuffer(final int target, final int buffer)
+    {
+        if (target == GL_ARRAY_BUFFER)
+        {
+            if (this.boundArrayBuffer == buffer)
+            {
+                this.filteredCalls++;
+                return;
+            }
+            this.boundArrayBuffer = buffer;
+        }
+        else if (target == GL_ELEMENT_ARRAY_BUFFER)
+        {
+            if (this.boundElementBuffer == buffer)
+            {
+                this.filteredCalls++;
+                return;
+            }
+            this.boundElementBuffer = buffer;
+        }
+        this.gl.glBindBuffer(target, buffer);
+    }
+
+
+    /**
+     * @see GL#glBufferData(int, int, Buffer, int)
+     */
+
+    @Override
+    public void glBufferData(final int target, final int size,
+        final Buffer data, final int usage)
+    {
+        this.gl.glBufferData(target, size, data, usage);
+    }
+
+
+    /**
+     * @see GL#glBufferSubData(int, int, int, Buffer)
+     */
+
+    @Override
+    public void glBufferSubData(final int target, final int offset,
+        final int size, final Buffer data)
+    {
+        this.gl.glBufferSubData(target, offset, size, data);
+    }
+
+
+    /**
+     * @see GL#glVertexPointer(int, int, int)
+     */
+
+    @Override
+    public void glVertexPointer(final int size, final int stride,
+        final int offset)
+    {
+        if (this.vertexPointer.update(size, stride, offset,
+            this.boundArrayBuffer))
+            this.gl.glVertexPointer(size, stride, offset);
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glNormalPointer(int, int)
+     */
+
+    @Override
+    public void glNormalPointer(final int stride, final int offset)
+    {
+        if (this.normalPointer.update(3, stride, offset,
+            this.boundArrayBuffer))
+            this.gl.glNormalPointer(stride, offset);
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glTexCoordPointer(int, int, int)
+     */
+
+    @Override
+    public void glTexCoordPointer(final int size, final int stride,
+        final int offset)
+    {
+        if (this.texCoordPointer.update(size, stride, offset,
+            this.boundArrayBuffer))
+            this.gl.glTexCoordPointer(size, stride, offset);
+        else
+            this.filteredCalls++;
+    }
+
+
+    /**
+     * @see GL#glDrawElements(int, int, int, int)
+     */
+
+    @Override
+    public void glDrawElements(final int mode, final int count,
+        final int type, final int offset)
+    {
+        this.gl.glDrawElements(mode, count, type, offset);
+    }
+
+
+    /**
+     * @see GL#glGenLists(int)
+     */
+
+    @Override
+    public int glGenLists(final int range)
+    {
+        return this.gl.glGenLists(range);
+    }
+
+
+    /**
+     * @see GL#glNewList(int, int)
+     */
+
+    @Override
+    public void glNewList(final int list, final int mode)
+    {
+        // The list must contain all state changes it depends on and in
+        // GL_COMPILE mode the recorded calls don't change the state at all,
+        // so nothing is filtered based on the state outside of the list.
+        this.gl.glNewList(list, mode);
+        reset(ALL);
+        this.recordingList = list;
+        this.recordingChanges = 0;
+    }
+
+
+    /**
+     * @see GL#glEndList()
+     */
+
+    @Override
+    public void glEndList()
+    {
+        this.gl.glEndList();
+
+        // Remember which state categories the list changes so calling it
+        // only forgets these categories
+        if (this.recordingList != 0)
+            this.listChanges.put(Integer.valueOf(this.recordingList), Integer
+                .valueOf(getKnownCategories() | this.recordingChanges));
+        this.recordingList = 0;
+        reset(ALL);
+    }
+
+
+    /**
+     * @see GL#glCallList(int)
+     */
+
+    @Override
+    public void glCallList(final int list)
+    {
+        // Forget the state changed by the list. Lists which were not
+        // recorded through this wrapper may change any state.
+        this.gl.glCallList(list);
+        final Integer changes = this.listChanges.get(Integer.valueOf(list));
+        final int categories = changes == null ? ALL : changes.intValue();
+        if (this.recordingList != 0) this.recordingChanges |= categories;
+        reset(categories);
+    }
+
+
+    /**
+     * @see GL#glDeleteLists(int, int)
+     */
+
+    @Override
+    public void glDeleteLists(final int list, final int range)
+    {
+        this.gl.glDeleteLists(list, range);
+        for (int i = 0; i < range; i++)
+            this.listChanges.remove(Integer.valueOf(list + i));
+    }
+
+
+    /**
+     * Cached states of server-side or client-side capabilities. Only a
+     * handful of capabilities are used so they are stored in small arrays
+     * which are searched linearly.
+     */
+
+    private static final class CapabilityStates
+    {
+        /** State of unknown capabilities */
+        static final int UNKNOWN = -1;
+
+        /** State of disabled capabilities */
+        static final int DISABLED = 0;
+
+        /** State of enabled capabilities */
+        static final int ENABLED = 1;
+
+        /** The capabilities */
+        private int[] caps = new int[16];
+
+        /** The capability states */
+        private boolean[] states = new boolean[16];
+
+        /** The number of known capabilities */
+        private int size;
+
+
+        /**
+         * Returns the state of the specified capability.
+         *
+         * @param cap
+         *            The capability
+         * @return The state (UNKNOWN, DISABLED or ENABLED)
+         */
+
+        int get(final int cap)
+        {
+            final int[] caps = this.caps;
+            for (int i = this.size - 1; i >= 0; i--)
+                if (caps[i] == cap) return this.states[i] ? ENABLED : DISABLED;
+            return UNKNOWN;
+        }
+
+
+        /**
+         * Sets the state of the specified capability.
+         *
+         * @param cap
+         *            The capability
+         * @param enabled
+         *            The new state
+         * @return True if state has been changed or was unknown, false if the
+         *         capability already had this state
+         */
+
+        boolean set(final int cap, final boolean enabled)
+        {
+            final int[] caps = this.caps;
+            for (int i = this.size - 1; i >= 0; i--)
+            {
+                if (caps[i] == cap)
+                {
+                    if (this.states[i] == enabled) return false;
+                    this.states[i] = enabled;
+                    return true;
+                }
+            }
+            if (this.size == caps.length)
+            {
+                final int capacity = this.size * 2;
+                final int[] newCaps = new int[capacity];
+                final boolean[] newStates = new boolean[capacity];
+                System.arraycopy(caps, 0, newCaps, 0, this.size);
+                System.arraycopy(this.states, 0, newStates, 0, this.size);
+                this.caps = newCaps;
+                this.states = newStates;
+            }
+            this.caps[this.size] = cap;
+            this.states[this.size] = enabled;
+            this.size++;
+            return true;
+        }
+
+
+        /**
+         * Forgets all capability states.
+         */
+
+        void clear()
+        {
+            this.size = 0;
+        }
+    }
+
+
+    /**
+     * A cached array pointer. The pointer either points into a client-side
+     * buffer or to an offset in a buffer object.
+     */
+
+    private static final class Pointer
+    {
+        /** If the pointer is known */
+        private boolean known;
+
+        /** The client-side buffer. Null if a buffer object is used */
+        private Buffer buffer;
+
+        /** The buffer position or the buffer object offset */
+        private int position;
+
+        /** The buffer object which was bound when the pointer was set */
+        private int bufferObject;
+
+        /** The number of components per element */
+        private int size;
+
+        /** The stride */
+        private int stride;
+
+
+        /**
+         * Updates the pointer to a client-side buffer.
+         *
+         * @param size
+         *            The number of components per element
+         * @param stride
+         *            The stride
+         * @param buffer
+         *            The buffer
+         * @param bufferObject
+         *            The currently bound array buffer object. -1 if unknown
+         * @return True if pointer has been changed, false if it was already
+         *         set to the same values
+         */
+
+        boolean update(final int size, final int stride, final Buffer buffer,
+            final int bufferObject)
+        {
+            return update(size, stride, buffer, buffer.position(),
+                bufferObject);
+        }
+
+
+        /**
+         * Updates the pointer to an offset in a buffer object.
+         *
+         * @param size
+         *            The number of components per element
+         * @param stride
+         *            The stride
+         * @param offset
+         *            The offset in the buffer object
+         * @param bufferObject
+         *            The currently bound array buffer object. -1 if unknown
+         * @return True if pointer has been changed, false if it was already
+         *         set to the same values
+         */
+
+        boolean update(final int size, final int stride, final int offset,
+            final int bufferObject)
+        {
+            return update(size, stride, null, offset, bufferObject);
+        }
+
+
+        /**
+         * Updates the pointer.
+         *
+         * @param size
+         *            The number of components per element
+         * @param stride
+         *            The stride
+         * @param buffer
+         *            The client-side buffer. Null if buffer object is used
+         * @param position
+         *            The buffer position or buffer object offset
+         * @param bufferObject
+         *            The currently bound array buffer object. -1 if unknown
+         * @return True if pointer has been changed, false if it was already
+         *         set to the same values
+         */
+
+        private boolean update(final int size, final int stride,
+            final Buffer buffer, final int position, final int bufferObject)
+        {
+            if (bufferObject == -1)
+            {
+                clear();
+                return true;
+            }
+            if (this.known && this.buffer == buffer
+                && this.position == position
+                && this.bufferObject == bufferObject && this.size == size
+                && this.stride == stride) return false;
+            this.known = true;
+            this.buffer = buffer;
+            this.position = position;
+            this.bufferObject = bufferObject;
+            this.size = size;
+            this.stride = stride;
+            return true;
+        }
+
+
+        /**
+         * Forgets the pointer.
+         */
+
+        void clear()
+        {
+            this.known = false;
+            this.buffer = null;
+        }
+
+
+        /**
+         * Forgets the pointer if it points into the specified buffer object.
+         *
+         * @param bufferObject
+         *            The deleted buffer object
+         */
+
+        void forget(final int bufferObject)
+        {
+            if (this.known && this.bufferObject == bufferObject) clear();
+        }
+    }
+}
@@ -5,10 +5,18 @@
 
 package de.ailis.threedee.rendering;
 
+import java.nio.IntBuffer;
+
 import de.ailis.gramath.Color4f;
+import de.ailis.gramath.Matrix4f;
 import de.ailis.gramath.MutableColor4f;
+import de.ailis.gramath.MutableMatrix4f;
+import de.ailis.threedee.exceptions.LightException;
 import de.ailis.threedee.scene.Scene;
+import de.ailis.threedee.scene.buffers.BufferManager;
+import de.ailis.threedee.scene.commands.SceneCommandQueue;
 import de.ailis.threedee.scene.textures.TextureManager;
+import de.ailis.threedee.utils.BufferUtils;
 
 
 /**
@@ -32,7 +40,7 @@ public class Viewport
     private float aspectRatio;
 
     /** The currently set scene. Null if none. */
-    private Scene scene;
+    private volatile Scene scene;
 
     /** The view component. */
     private final ViewComponent viewComponent;
@@ -46,6 +54,37 @@ public class Viewport
     /** Mutex to synchronize scene changes. */
     private final Object sceneMutex = new Object();
 
+    /** The view frustum of the current frame */
+    private final Frustum frustum = new Frustum();
+
+    /** If frustum culling is enabled */
+    private boolean frustumCulling = true;
+
+    /** The view transformation of the current frame. Null if none */
+    private Matrix4f viewTransform;
+
+    /** Matrix used to calculate the modelview transformations */
+    private final MutableMatrix4f modelViewTransform = MutableMatrix4f
+        .identity();
+
+    /** The maximum number of lights of the GL context. -1 if not known yet */
+    private int maxLights = -1;
+
+    /** The number of currently claimed light slots */
+    private int usedLightSlots = 0;
+
+    /** The occlusion buffer of the current frame */
+    private final OcclusionBuffer occlusionBuffer = new OcclusionBuffer();
+
+    /** If occlusion culling is enabled */
+    private boolean occlusionCulling = false;
+
+    /** The number of scene updates per second of the simulation thread */
+    private int simulationRate = 0;
+
+    /** The simulation thread. Null if scene is updated by the GL thread */
+    private volatile SimulationThread simulationThread;
+
 
     /**
      * Constructs a new viewport.
@@ -73,6 +112,10 @@ public class Viewport
         // Create some shortcuts
         final GL gl = this.gl;
 
+        // Perform implementation specific initialization. This must be done
+        // first because it may reset cached GL state.
+        gl.init();
+
         // Set the color used for clearing the screen before rendering a frame
         gl.glEnable(GL.GL_TEXTURE_2D);
         gl.glShadeModel(GL.GL_SMOOTH);
@@ -84,9 +127,6 @@ public class Viewport
         gl.glEnable(GL.GL_BLEND);
         gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
 
-        // Perform implementation specific initialization
-        gl.init();
-
         // gl.glEnable(GL.GL_COLOR_MATERIAL);
         // gl.glColorMaterial(GL.GL_FRONT, GL.GL_AMBIENT_AND_DIFFUSE);
 
@@ -99,6 +139,9 @@ public class Viewport
 
         // Initialize the texture manager.
         TextureManager.getInstance(). clear(gl);
+
+        // Initialize the buffer manager.
+        BufferManager.getInstance().clear(gl);
     }
 
 
@@ -110,6 +153,10 @@ public class Viewport
     {
         synchronized (this.sceneMutex)
         {
+            // Apply the scene changes posted by other threads
+            final Scene scene = this.scene;
+            if (scene != null) synchronizeScene(scene);
+
             // Get the clear color
             final Color4f clearColor = this.clearColor;
 
@@ -119,11 +166,19 @@ public class Viewport
                     .getBlue(), clearColor.getAlpha());
             this.gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
 
+            // Frustum and view transformation are set up again by the camera
+            this.frustum.invalidate();
+            this.viewTransform = null;
+
+            // All lights are removed at the end of the previous frame
+            this.usedLightSlots = 0;
+
             // Draw the scene if present
-            if (this.scene != null) this.scene.render(this);
+            if (scene != null) scene.render(this);
 
-            // Clean-up unused textures
+            // Clean-up unused textures and buffers
             TextureManager.getInstance().cleanUp(this.gl);
+            BufferManager.getInstance().cleanUp(this.gl);
 
             // Finish renderering
             this.gl.glFlush();
@@ -131,6 +186,39 @@ public class Viewport
     }
 
 
+    /**
+     * Executes the commands queued in the command queue of the specified
+     * scene and uploads the changed dynamic textures. When a simulation
+     * thread is running then this is done between two simulation ticks so
+     * the textures are not uploaded while they are redrawn.
+     *
+     * @param scene
+     *            The scene
+     */
+
+    private void synchronizeScene(final Scene scene)
+    {
+        final SceneCommandQueue commandQueue = scene.getCommandQueue();
+        final TextureManager textureManager = TextureManager.getInstance();
+        if (commandQueue.isEmpty()
+            && !textureManager.hasPendingDynamicTextures()) return;
+        final SimulationThread simulationThread = this.simulationThread;
+        if (simulationThread != null)
+        {
+            synchronized (simulationThread.getTickMutex())
+            {
+                commandQueue.execute();
+                textureManager.uploadDynamicTextures(this.gl);
+            }
+        }
+        else
+        {
+            commandQueue.execute();
+            textureManager.uploadDynamicTextures(this.gl);
+        }
+    }
+
+
     /**
      * Updates the viewport.
      *
@@ -146,6 +234,10 @@ public class Viewport
         final float delta = ((now - this.lastUpdate)) / 1000000000f;
         this.lastUpdate = now;
 
+        // The simulation thread updates the scene if present
+        final SimulationThread simulationThread = this.simulationThread;
+        if (simulationThread != null) return simulationThread.isAnimated();
+
         // Do nothing more if no scene is set
         if (this.scene == null) return false;
 
@@ -207,6 +299,115 @@ public class Viewport
     }
 
 
+    /**
+     * Returns the view transformation of the current frame. It is set up by
+     * the camera of the rendered scene.
+     *
+     * @return The view transformation. Null if the scene has no camera
+     */
+
+    public Matrix4f getViewTransform()
+    {
+        return this.viewTransform;
+    }
+
+
+    /**
+     * Sets the view transformation of the current frame. The matrix is not
+     * copied so it must not be modified until the frame has been rendered.
+     *
+     * @param viewTransform
+     *            The view transformation to set. Null for none
+     */
+
+    public void setViewTransform(final Matrix4f viewTransform)
+    {
+        this.viewTransform = viewTransform;
+    }
+
+
+    /**
+     * Loads the specified scene transformation premultiplied with the view
+     * transformation of the current frame into the current matrix. This
+     * replaces the former matrix so no matrix stack operations are needed to
+     * position a node.
+     *
+     * @param transform
+     *            The scene transformation to load
+     */
+
+    public void loadTransform(final Matrix4f transform)
+    {
+        final Matrix4f viewTransform = this.viewTransform;
+        if (viewTransform == null)
+            this.gl.glLoadMatrix(transform.getBuffer());
+        else if (transform.isIdentity())
+            this.gl.glLoadMatrix(viewTransform.getBuffer());
+        else
+            this.gl.glLoadMatrix(this.modelViewTransform.set(viewTransform)
+                .multiply(transform).getBuffer());
+    }
+
+
+    /**
+     * Returns the maximum number of lights supported by the GL context.
+     *
+     * @return The maximum number of lights
+     */
+
+    public int getMaxLights()
+    {
+        if (this.maxLights == -1)
+        {
+            final IntBuffer buffer = BufferUtils.createDirectIntegerBuffer(1);
+            this.gl.glGetIntegerv(GL.GL_MAX_LIGHTS, buffer);
+            this.maxLights = buffer.get(0);
+        }
+        return this.maxLights;
+    }
+
+
+    /**
+     * Returns the number of light slots which are not claimed.
+     *
+     * @return The number of free light slots
+     */
+
+    public int getFreeLightSlots()
+    {
+        return getMaxLights() - this.usedLightSlots;
+    }
+
+
+    /**
+     * Claims the next free light slot. Slots are handed out like a stack so
+     * all lights claimed after a light must be released before the slot of
+     * this light can be handed out again.
+     *
+     * @return The claimed light (GL_LIGHT0 + slot)
+     * @throws LightException
+     *             When all light slots are claimed
+     */
+
+    public int claimLightSlot()
+    {
+        if (getFreeLightSlots() <= 0)
+            throw new LightException("Too many lights active (Max is "
+                + getMaxLights() + ")");
+        return GL.GL_LIGHT0 + this.usedLightSlots++;
+    }
+
+
+    /**
+     * Releases the last claimed light slot.
+     */
+
+    public void releaseLightSlot()
+    {
+        if (this.usedLightSlots > 0) this.usedLightSlots--;
+    }
+
+
     /**
      * Returns the aspect ratio (width/height).
      *
@@ -232,17 +433,17 @@ public class Viewport
         {
             synchronized (this.sceneMutex)
             {
-                // Detach old scene
-                if (this.scene != null)
+                final SimulationThread simulationThread = this.simulationThread;
+                if (simulationThread != null)
                 {
-                    final Scene oldScene = this.scene;
-                    this.scene = null;
-                    oldScene.setViewport(null);
+                    // Don't switch scenes in the middle of a tick
+                    synchronized (simulationThread.getTickMutex())
+                    {
+                        changeScene(scene);
+                    }
                 }
-
-                // Attach new scene
-                this.scene = scene;
-                if (this.scene != null) this.scene.setViewport(this);
+                else
+                    changeScene(scene);
 
                 // Request re-rendering
                 this.viewComponent.requestRender();
@@ -251,6 +452,108 @@ public class Viewport
     }
 
 
+    /**
+     * Detaches the old scene and attaches the new one.
+     *
+     * @param scene
+     *            The new scene. Null for none.
+     */
+
+    private void changeScene(final Scene scene)
+    {
+        // Detach old scene
+        if (this.scene != null)
+        {
+            final Scene oldScene = this.scene;
+            this.scene = null;
+            oldScene.setViewport(null);
+            oldScene.clearSnapshots();
+        }
+
+        // Attach new scene
+        this.scene = scene;
+        if (this.scene != null) this.scene.setViewport(this);
+    }
+
+
+    /**
+     * Sets the number of scene updates per second done by a separate
+     * simulation thread. The simulation thread updates the scene (Animations,
+     * physics and dynamic textures) with this fixed tick rate and publishes a
+     * snapshot of the scene transformations after each tick. The GL thread
+     * renders the scene with the transformations interpolated between the
+     * last two snapshots so updating and rendering run in parallel instead
+     * of one after the other. The rendered scene is one tick behind the
+     * simulation. The {@link #update()} method no longer updates the scene
+     * while the simulation thread is running.
+     *
+     * Specify 0 to stop the simulation thread and update the scene in the
+     * GL thread again. This is the default.
+     *
+     * @param ticksPerSecond
+     *            The number of scene updates per second. 0 to disable the
+     *            simulation thread
+     */
+
+    public void setSimulationRate(final int ticksPerSecond)
+    {
+        if (ticksPerSecond < 0)
+            throw new IllegalArgumentException(
+                "ticksPerSecond must not be negative");
+        if (ticksPerSecond == this.simulationRate) return;
+
+        // Stop the old simulation thread
+        final SimulationThread oldThread = this.simulationThread;
+        if (oldThread != null)
+        {
+            oldThread.shutdown();
+            synchronized (this.sceneMutex)
+            {
+                this.simulationThread = null;
+                if (this.scene != null) this.scene.clearSnapshots();
+                this.lastUpdate = System.nanoTime();
+            }
+        }
+
+        // Start the new simulation thread
+        this.simulationRate = ticksPerSecond;
+        if (ticksPerSecond > 0)
+        {
+            final SimulationThread thread = new SimulationThread(this,
+                ticksPerSecond);
+            this.simulationThread = thread;
+            thread.start();
+        }
+        this.viewComponent.requestRender();
+    }
+
+
+    /**
+     * Returns the number of scene updates per second done by the simulation
+     * thread.
+     *
+     * @return The number of scene updates per second. 0 if the simulation
+     *         thread is disabled and the scene is updated by the GL thread
+     */
+
+    public int getSimulationRate()
+    {
+        return this.simulationRate;
+    }
+
+
+    /**
+     * Returns the view component.
+     *
+     * @return The view component
+     */
+
+    ViewComponent getViewComponent()
+    {
+        return this.viewComponent;
+    }
+
+
     /**
      * Returns the currently displayed scene.
      *
@@ -290,4 +593,114 @@ public class Viewport
     {
         return this.clearColor.asImmutable();
     }
+
+
+    /**
+     * Returns the view frustum of the current frame. It is set up by the
+     * camera of the rendered scene and is invalid if the scene has no camera.
+     *
+     * @return The view frustum. Never null.
+     */
+
+    public Frustum getFrustum()
+    {
+        return this.frustum;
+    }
+
+
+    /**
+     * Checks if frustum culling is enabled. When enabled then scene nodes
+     * which are outside of the view frustum are not rendered.
+     *
+     * @return True if frustum culling is enabled, false if not
+     */
+
+    public boolean isFrustumCulling()
+    {
+        return this.frustumCulling;
+    }
+
+
+    /**
+     * Enables or disables frustum culling. It is enabled by default.
+     *
+     * @param frustumCulling
+     *            True to enable frustum culling, false to disable it
+     */
+
+    public void setFrustumCulling(final boolean frustumCulling)
+    {
+        this.frustumCulling = frustumCulling;
+        this.viewComponent.requestRender();
+    }
+
+
+    /**
+     * Returns the occlusion buffer. It is filled with the occluders of the
+     * rendered scene when occlusion culling is active.
+     *
+     * @return The occlusion buffer. Never null.
+     */
+
+    public OcclusionBuffer getOcclusionBuffer()
+    {
+        return this.occlusionBuffer;
+    }
+
+
+    /**
+     * Checks if occlusion culling is enabled. When enabled then scene nodes
+     * which are hidden behind occluder models are not rendered.
+     *
+     * @return True if occlusion culling is enabled, false if not
+     */
+
+    public boolean isOcclusionCulling()
+    {
+        return this.occlusionCulling;
+    }
+
+
+    /**
+     * Enables or disables occlusion culling. It is disabled by default. Only
+     * models marked as occluders hide other nodes. Occlusion culling is only
+     * active when frustum culling is active, too.
+     *
+     * @param occlusionCulling
+     *            True to enable occlusion culling, false to disable it
+     */
+
+    public void setOcclusionCulling(final boolean occlusionCulling)
+    {
+        this.occlusionCulling = occlusionCulling;
+        this.viewComponent.requestRender();
+    }
+
+
+    /**
+     * Checks if frustum culling is active for the current frame. This is the
+     * case when culling is enabled and the frustum has been set up by a
+     * camera.
+     *
+     * @return True if nodes should be culled, false if not
+     */
+
+    public boolean isCulling()
+    {
+        return this.frustumCulling && this.frustum.isValid();
+    }
+
+
+    /**
+     * Checks if occlusion culling is active for the current frame. This is
+     * the case when occlusion culling is enabled and frustum culling is
+     * active.
+     *
+     * @return True if occluded nodes should be culled, false if not
+     */
+
+    public boolean isOccluding()
+    {
+        return this.occlusionCulling && isCulling();
+    }
 }
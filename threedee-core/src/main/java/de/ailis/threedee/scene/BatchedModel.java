@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import de.ailis.threedee.assets.Material;
+import de.ailis.threedee.assets.Mesh;
+
+
+/**
+ * A model created by the {@link StaticBatcher} from the geometry of several
+ * static models. The ids of the merged models are registered as aliases of
+ * this node so they can still be found with {@link Scene#getNodeById(String)}.
+ * Clones of a batched model have no merged ids so they never take over the
+ * aliases of the original.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class BatchedModel extends Model
+{
+    /** The merged ids of cloned models */
+    private static final String[] NO_IDS = new String[0];
+
+    /** The ids of the merged models */
+    private final String[] mergedIds;
+
+
+    /**
+     * Constructor
+     *
+     * @param mesh
+     *            The batched mesh
+     * @param mergedIds
+     *            The ids of the merged models
+     */
+
+    public BatchedModel(final Mesh mesh, final String[] mergedIds)
+    {
+        super(mesh);
+        this.mergedIds = mergedIds;
+    }
+
+
+    /**
+     * Returns the ids of the models merged into this model.
+     *
+     * @return The merged ids
+     */
+
+    public String[] getMergedIds()
+    {
+        return this.mergedIds.clone();
+    }
+
+
+    /**
+     * @see SceneNode#getAliases()
+     */
+
+    @Override
+    String[] getAliases()
+    {
+        return this.mergedIds;
+    }
+
+
+    /**
+     * @see java.lang.Object#clone()
+     */
+
+    @Override
+    public BatchedModel clone()
+    {
+        final BatchedModel model = new BatchedModel(getMesh(), NO_IDS);
+        model.setTransform(getTransform());
+        model.setStatic(isStatic());
+        for (final String id : getMesh().getMaterials())
+        {
+            final Material material = getMaterial(id);
+            if (material != null) model.bindMaterial(id, material);
+        }
+        SceneNode child = getFirstChild();
+        while (child != null)
+        {
+            model.appendChild(child.clone());
+            child = child.getNextSibling();
+        }
+        return model;
+    }
+}
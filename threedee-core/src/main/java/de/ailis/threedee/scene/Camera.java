@@ -5,6 +5,8 @@
 
 package de.ailis.threedee.scene;
 
+import java.nio.FloatBuffer;
+
 import de.ailis.gramath.Matrix4f;
 import de.ailis.gramath.MutableMatrix4f;
 import de.ailis.threedee.rendering.GL;
@@ -22,6 +24,12 @@ public class Camera extends SceneNode
     /** The current camera transformation */
     private final MutableMatrix4f cameraTransform = MutableMatrix4f.identity();
 
+    /** The render transformation the camera transformation was created from */
+    private final float[] cameraSource = new float[16];
+
+    /** If the cached camera transformation is valid */
+    private boolean cameraTransformValid = false;
+
     /** The field of view angle, in degrees, in the y direction. */
     private float fovY;
 
@@ -216,14 +224,34 @@ public class Camera extends SceneNode
 
 
     /**
-     * Returns the camera transformation.
+     * Returns the camera transformation. This is the inverse of the render
+     * transformation of the camera node. It is cached and only inverted
+     * again when the camera has been moved.
      *
      * @return The camera transformation
      */
 
     public Matrix4f getCameraTransform()
     {
-        return this.cameraTransform.set(getSceneTransform()).invert();
+        final Matrix4f renderTransform = getRenderTransform();
+        final FloatBuffer buffer = renderTransform.getBuffer();
+        final float[] source = this.cameraSource;
+        boolean changed = !this.cameraTransformValid;
+        for (int i = 0; i < 16; i++)
+        {
+            final float value = buffer.get(i);
+            if (value != source[i])
+            {
+                source[i] = value;
+                changed = true;
+            }
+        }
+        if (changed)
+        {
+            this.cameraTransform.set(renderTransform).invert();
+            this.cameraTransformValid = true;
+        }
+        return this.cameraTransform;
     }
 
 
@@ -238,22 +266,32 @@ public class Camera extends SceneNode
     {
         // Create some shortcuts
         final GL gl = viewport.getGL();
+        final float aspectRatio = this.aspectRatio == null ? viewport
+            .getAspectRatio() : this.aspectRatio.floatValue();
 
         // Setup the coordinate system
         gl.glMatrixMode(GL.GL_PROJECTION);
         gl.glLoadIdentity();
-        gl.gluPerspective(this.fovY, this.aspectRatio == null ? viewport
-                .getAspectRatio() : this.aspectRatio.floatValue(),
-                this.zNear, this.zFar);
+        gl.gluPerspective(this.fovY, aspectRatio, this.zNear, this.zFar);
 
         // Set the viewport
         gl.glMatrixMode(GL.GL_MODELVIEW);
-        gl.glLoadIdentity();
         gl.glViewport(0, 0, viewport.getWidth(), viewport.getHeight());
 
-        // Apply camera transformation
-        gl.glPushMatrix();
-        gl.glMultMatrix(getCameraTransform().getBuffer());
+        // Apply camera transformation. Scene nodes load it premultiplied
+        // with their scene transformation.
+        final Matrix4f cameraTransform = getCameraTransform();
+        gl.glLoadMatrix(cameraTransform.getBuffer());
+        viewport.setViewTransform(cameraTransform);
+
+        // Set up the view frustum used for culling
+        viewport.getFrustum().update(this.fovY, aspectRatio, this.zNear,
+            this.zFar, cameraTransform);
+
+        // Set up the occlusion buffer if needed
+        if (viewport.isOccluding())
+            viewport.getOcclusionBuffer().begin(this.fovY, aspectRatio,
+                this.zNear, this.zFar, cameraTransform);
     }
 
 
@@ -266,7 +304,7 @@ public class Camera extends SceneNode
 
     public void remove(final Viewport viewport)
     {
-        viewport.getGL().glPopMatrix();
+        viewport.getGL().glLoadIdentity();
     }
 
 
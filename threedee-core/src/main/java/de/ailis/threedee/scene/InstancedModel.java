@@ -0,0 +1,613 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import java.nio.FloatBuffer;
+
+import de.ailis.gramath.Matrix4f;
+import de.ailis.gramath.MutableMatrix4f;
+import de.ailis.threedee.assets.Material;
+import de.ailis.threedee.assets.Mesh;
+import de.ailis.threedee.assets.MeshPolygons;
+import de.ailis.threedee.mathold.Bounds;
+import de.ailis.threedee.rendering.Frustum;
+import de.ailis.threedee.rendering.GL;
+import de.ailis.threedee.rendering.Viewport;
+import de.ailis.threedee.scene.buffers.BufferManager;
+import de.ailis.threedee.scene.buffers.BufferReference;
+import de.ailis.threedee.utils.BufferUtils;
+
+
+/**
+ * A model which renders the same mesh many times with different transforms.
+ * The instance transforms are stored as column-major matrices in a single
+ * packed float array relative to the node. Vertex arrays and materials are
+ * set up only once per polygon group and frame. The view, scene and
+ * instance transforms are combined on the CPU so each draw call only needs
+ * a single matrix load. Instances outside of the view frustum are culled
+ * individually.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class InstancedModel extends Model
+{
+    /** The number of floats per instance transform */
+    private static final int MATRIX_SIZE = 16;
+
+    /** The packed instance transforms */
+    private float[] transforms;
+
+    /** The number of instances */
+    private int instanceCount;
+
+    /** The indices of the instances which survived culling */
+    private int[] visibleInstances;
+
+    /** The number of instances which survived culling in the last frame */
+    private int visibleCount;
+
+    /** If the instances must be culled. Taken from the render queue */
+    private boolean culling;
+
+    /** The cached bounds of all instances in node space */
+    private final Bounds bounds = new Bounds();
+
+    /** If cached bounds are valid */
+    private boolean boundsValid;
+
+    /** Temporary bounds used for culling the instances */
+    private final Bounds instanceBounds = new Bounds();
+
+    /** Temporary matrix used for combining scene and instance transforms */
+    private final float[] combined = new float[MATRIX_SIZE];
+
+    /** The view transform premultiplied with the scene transform */
+    private final MutableMatrix4f modelViewTransform = MutableMatrix4f
+        .identity();
+
+    /** Direct buffer used for passing an instance transform to GL */
+    private final FloatBuffer matrixBuffer = BufferUtils
+        .createDirectFloatBuffer(MATRIX_SIZE);
+
+
+    /**
+     * Constructor
+     *
+     * @param mesh
+     *            The mesh to display
+     */
+
+    public InstancedModel(final Mesh mesh)
+    {
+        this(mesh, 16);
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param mesh
+     *            The mesh to display
+     * @param capacity
+     *            The initial number of instances to reserve space for
+     */
+
+    public InstancedModel(final Mesh mesh, final int capacity)
+    {
+        super(mesh);
+        this.transforms = new float[Math.max(capacity, 1) * MATRIX_SIZE];
+        this.visibleInstances = new int[Math.max(capacity, 1)];
+    }
+
+
+    /**
+     * Ensures that the transform array can hold the specified number of
+     * instances.
+     *
+     * @param capacity
+     *            The required number of instances
+     */
+
+    private void ensureCapacity(final int capacity)
+    {
+        if (capacity * MATRIX_SIZE <= this.transforms.length) return;
+        final int newCapacity = Math.max(capacity, this.transforms.length
+            / MATRIX_SIZE * 2);
+        final float[] transforms = new float[newCapacity * MATRIX_SIZE];
+        System.arraycopy(this.transforms, 0, transforms, 0,
+            this.instanceCount * MATRIX_SIZE);
+        this.transforms = transforms;
+        this.visibleInstances = new int[newCapacity];
+    }
+
+
+    /**
+     * Marks the instance bounds as changed.
+     */
+
+    private void instancesChanged()
+    {
+        this.boundsValid = false;
+        invalidateSceneBounds();
+    }
+
+
+    /**
+     * Adds a new instance.
+     *
+     * @param transform
+     *            The transform of the instance relative to this node
+     * @return The index of the new instance
+     */
+
+    public int addInstance(final Matrix4f transform)
+    {
+        final int index = this.instanceCount;
+        ensureCapacity(index + 1);
+        this.instanceCount++;
+        setInstanceTransform(index, transform);
+        return index;
+    }
+
+
+    /**
+     * Adds a new instance.
+     *
+     * @param matrix
+     *            The array containing the column-major transform of the
+     *            instance relative to this node
+     * @param offset
+     *            The array index of the first matrix element
+     * @return The index of the new instance
+     */
+
+    public int addInstance(final float[] matrix, final int offset)
+    {
+        final int index = this.instanceCount;
+        ensureCapacity(index + 1);
+        this.instanceCount++;
+        setInstanceTransform(index, matrix, offset);
+        return index;
+    }
+
+
+    /**
+     * Adds several instances at once.
+     *
+     * @param matrices
+     *            The array containing the packed column-major transforms of
+     *            the instances relative to this node
+     * @param offset
+     *            The array index of the first matrix element
+     * @param count
+     *            The number of instances to add
+     */
+
+    public void addInstances(final float[] matrices, final int offset,
+        final int count)
+    {
+        final int first = this.instanceCount;
+        ensureCapacity(first + count);
+        this.instanceCount += count;
+        setInstanceTransforms(first, matrices, offset, count);
+    }
+
+
+    /**
+     * Sets the transform of an instance.
+     *
+     * @param index
+     *            The instance index
+     * @param transform
+     *            The new transform relative to this node
+     */
+
+    public void setInstanceTransform(final int index, final Matrix4f transform)
+    {
+        checkIndex(index);
+        final FloatBuffer buffer = transform.getBuffer();
+        final float[] transforms = this.transforms;
+        final int base = index * MATRIX_SIZE;
+        for (int i = 0; i < MATRIX_SIZE; i++)
+            transforms[base + i] = buffer.get(i);
+        instancesChanged();
+    }
+
+
+    /**
+     * Sets the transform of an instance.
+     *
+     * @param index
+     *            The instance index
+     * @param matrix
+     *            The array containing the new column-major transform
+     *            relative to this node
+     * @param offset
+     *            The array index of the first matrix element
+     */
+
+    public void setInstanceTransform(final int index, final float[] matrix,
+        final int offset)
+    {
+        setInstanceTransforms(index, matrix, offset, 1);
+    }
+
+
+    /**
+     * Sets the transforms of several consecutive instances at once. This is
+     * the fastest way to animate many instances because bounds are only
+     * invalidated once.
+     *
+     * @param first
+     *            The index of the first instance to update
+     * @param matrices
+     *            The array containing the packed column-major transforms
+     * @param offset
+     *            The array index of the first matrix element
+     * @param count
+     *            The number of instances to update
+     */
+
+    public void setInstanceTransforms(final int first, final float[] matrices,
+        final int offset, final int count)
+    {
+        if (count == 0) return;
+        checkIndex(first);
+        checkIndex(first + count - 1);
+        System.arraycopy(matrices, offset, this.transforms,
+            first * MATRIX_SIZE, count * MATRIX_SIZE);
+        instancesChanged();
+    }
+
+
+    /**
+     * Copies the transform of an instance into the specified array.
+     *
+     * @param index
+     *            The instance index
+     * @param matrix
+     *            The array to copy the column-major transform to
+     * @param offset
+     *            The array index to copy the first matrix element to
+     */
+
+    public void getInstanceTransform(final int index, final float[] matrix,
+        final int offset)
+    {
+        checkIndex(index);
+        System.arraycopy(this.transforms, index * MATRIX_SIZE, matrix,
+            offset, MATRIX_SIZE);
+    }
+
+
+    /**
+     * Removes an instance. The last instance is moved into the freed slot so
+     * the index of the last instance changes to the removed index.
+     *
+     * @param index
+     *            The index of the instance to remove
+     */
+
+    public void removeInstance(final int index)
+    {
+        checkIndex(index);
+        final int last = this.instanceCount - 1;
+        if (index != last)
+            System.arraycopy(this.transforms, last * MATRIX_SIZE,
+                this.transforms, index * MATRIX_SIZE, MATRIX_SIZE);
+        this.instanceCount = last;
+        instancesChanged();
+    }
+
+
+    /**
+     * Removes all instances.
+     */
+
+    public void clearInstances()
+    {
+        this.instanceCount = 0;
+        this.visibleCount = 0;
+        instancesChanged();
+    }
+
+
+    /**
+     * Returns the number of instances.
+     *
+     * @return The number of instances
+     */
+
+    public int getInstanceCount()
+    {
+        return this.instanceCount;
+    }
+
+
+    /**
+     * Returns the number of instances which survived frustum culling in the
+     * last rendered frame.
+     *
+     * @return The number of visible instances
+     */
+
+    public int getVisibleInstanceCount()
+    {
+        return this.visibleCount;
+    }
+
+
+    /**
+     * Checks the specified instance index.
+     *
+     * @param index
+     *            The index to check
+     */
+
+    private void checkIndex(final int index)
+    {
+        if (index < 0 || index >= this.instanceCount)
+            throw new IndexOutOfBoundsException("Invalid instance index: "
+                + index);
+    }
+
+
+    /**
+     * Returns the bounds of all instances.
+     *
+     * @see SceneNode#getBounds()
+     */
+
+    @Override
+    public Bounds getBounds()
+    {
+        final Bounds bounds = this.bounds;
+        if (!this.boundsValid)
+        {
+            bounds.clear();
+            final Bounds meshBounds = getMesh().getBounds();
+            final float[] transforms = this.transforms;
+            for (int i = 0, max = this.instanceCount; i < max; i++)
+                bounds.update(meshBounds, transforms, i * MATRIX_SIZE);
+            this.boundsValid = true;
+        }
+        return bounds;
+    }
+
+
+    /**
+     * @see SceneNode#enqueue(RenderQueue)
+     */
+
+    @Override
+    protected void enqueue(final RenderQueue queue)
+    {
+        if (this.instanceCount == 0) return;
+        this.culling = queue.isCulling();
+        queue.add(this);
+    }
+
+
+    /**
+     * Instanced models can't be recorded because the instances are culled
+     * for the current view and the instance transforms are loaded including
+     * the view transform.
+     *
+     * @see SceneNode#isRecordable()
+     */
+
+    @Override
+    protected boolean isRecordable()
+    {
+        return false;
+    }
+
+
+    /**
+     * Culls the instances against the view frustum and records the indices
+     * of the visible ones.
+     *
+     * @param viewport
+     *            The viewport
+     * @return The number of visible instances
+     */
+
+    private int cullInstances(final Viewport viewport)
+    {
+        final int[] visible = this.visibleInstances;
+        final int instanceCount = this.instanceCount;
+        if (!this.culling)
+        {
+            for (int i = 0; i < instanceCount; i++)
+                visible[i] = i;
+            return instanceCount;
+        }
+
+        final Frustum frustum = viewport.getFrustum();
+        final Matrix4f scene = getRenderTransform();
+        final Bounds meshBounds = getMesh().getBounds();
+        final Bounds instanceBounds = this.instanceBounds;
+        final float[] transforms = this.transforms;
+        final float[] combined = this.combined;
+        int count = 0;
+        for (int i = 0; i < instanceCount; i++)
+        {
+            multiply(scene, transforms, i * MATRIX_SIZE, combined);
+            instanceBounds.clear();
+            instanceBounds.update(meshBounds, combined, 0);
+            if (frustum.isVisible(instanceBounds)) visible[count++] = i;
+        }
+        return count;
+    }
+
+
+    /**
+     * Multiplies the specified matrix with a column-major matrix stored in a
+     * float array and writes the result to another array.
+     *
+     * @param matrix
+     *            The left matrix
+     * @param b
+     *            The array containing the right matrix
+     * @param offset
+     *            The array index of the first element of the right matrix
+     * @param result
+     *            The array to write the result to
+     */
+
+    private static void multiply(final Matrix4f matrix, final float[] b,
+        final int offset, final float[] result)
+    {
+        final FloatBuffer a = matrix.getBuffer();
+        for (int col = 0; col < 4; col++)
+        {
+            final int c = offset + col * 4;
+            final float b0 = b[c], b1 = b[c + 1], b2 = b[c + 2], b3 = b[c + 3];
+            for (int row = 0; row < 4; row++)
+                result[col * 4 + row] = a.get(row) * b0 + a.get(row + 4) * b1
+                    + a.get(row + 8) * b2 + a.get(row + 12) * b3;
+        }
+    }
+
+
+    /**
+     * @see SceneNode#render(Viewport)
+     */
+
+    @Override
+    protected void render(final Viewport viewport)
+    {
+        final int count = cullInstances(viewport);
+        this.visibleCount = count;
+        if (count == 0) return;
+
+        final GL gl = viewport.getGL();
+        final Matrix4f viewTransform = viewport.getViewTransform();
+        final Matrix4f modelView = viewTransform == null
+            ? getRenderTransform() : this.modelViewTransform.set(
+                viewTransform).multiply(getRenderTransform());
+        for (final MeshPolygons polygons : getMesh().getPolygons())
+            renderInstances(gl, polygons, modelView, count);
+
+        // Restore the modelview matrix of the node
+        gl.glLoadMatrix(modelView.getBuffer());
+    }
+
+
+    /**
+     * Renders all visible instances of the specified polygon group. Vertex
+     * arrays and material are set up only once. The modelview matrix is
+     * replaced by the transform of the last instance.
+     *
+     * @param gl
+     *            The GL context
+     * @param polygons
+     *            The polygon group
+     * @param modelView
+     *            The view transform premultiplied with the scene transform
+     * @param count
+     *            The number of visible instances
+     */
+
+    private void renderInstances(final GL gl, final MeshPolygons polygons,
+        final Matrix4f modelView, final int count)
+    {
+        final BufferManager bufferManager = BufferManager.getInstance();
+        final BufferReference buffers = bufferManager.bind(gl, polygons);
+        final boolean normals = polygons.hasNormals();
+        final boolean texCoords = polygons.hasTexCoords();
+
+        // Set vertex arrays
+        gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+        if (normals) gl.glEnableClientState(GL.GL_NORMAL_ARRAY);
+        if (texCoords) gl.glEnableClientState(GL.GL_TEXTURE_COORD_ARRAY);
+        if (buffers != null)
+        {
+            final int stride = buffers.getStride();
+            gl.glVertexPointer(3, stride, buffers.getVertexOffset());
+            if (normals) gl.glNormalPointer(stride, buffers.getNormalOffset());
+            if (texCoords)
+                gl.glTexCoordPointer(2, stride, buffers.getTexCoordOffset());
+        }
+        else
+        {
+            final int stride = polygons.getStride();
+            gl.glVertexPointer(3, stride, polygons.getVertices());
+            if (normals) gl.glNormalPointer(stride, polygons.getNormals());
+            if (texCoords)
+                gl.glTexCoordPointer(2, stride, polygons.getTexCoords());
+        }
+
+        // Apply material
+        final Material material = getGroupMaterial(polygons);
+        boolean oldLighting = true;
+        if (!material.getLighting())
+        {
+            oldLighting = gl.glIsEnabled(GL.GL_LIGHTING);
+            gl.glDisable(GL.GL_LIGHTING);
+        }
+        applyMaterial(gl, material);
+
+        // Draw the instances
+        final int mode = getPolygonMode(polygons.getSize());
+        final int indexType = polygons.getIndexType();
+        final int[] visible = this.visibleInstances;
+        final float[] transforms = this.transforms;
+        final float[] combined = this.combined;
+        final FloatBuffer matrixBuffer = this.matrixBuffer;
+        for (int i = 0; i < count; i++)
+        {
+            multiply(modelView, transforms, visible[i] * MATRIX_SIZE,
+                combined);
+            matrixBuffer.clear();
+            matrixBuffer.put(combined);
+            matrixBuffer.rewind();
+            gl.glLoadMatrix(matrixBuffer);
+            if (buffers != null)
+                gl.glDrawElements(mode, buffers.getIndexCount(), indexType, 0);
+            else
+                gl.glDrawElements(mode, indexType, polygons.getIndices());
+        }
+
+        // Reset GL state
+        removeMaterial(gl, material);
+        if (oldLighting && !material.getLighting())
+            gl.glEnable(GL.GL_LIGHTING);
+        if (texCoords) gl.glDisableClientState(GL.GL_TEXTURE_COORD_ARRAY);
+        if (normals) gl.glDisableClientState(GL.GL_NORMAL_ARRAY);
+        gl.glDisableClientState(GL.GL_VERTEX_ARRAY);
+        if (buffers != null) bufferManager.unbind(gl);
+    }
+
+
+    /**
+     * @see java.lang.Object#clone()
+     */
+
+    @Override
+    public InstancedModel clone()
+    {
+        final Mesh mesh = getMesh();
+        final InstancedModel model = new InstancedModel(mesh,
+            this.instanceCount);
+        model.setTransform(getTransform());
+        for (final String id : mesh.getMaterials())
+        {
+            final Material material = getMaterial(id);
+            if (material != null) model.bindMaterial(id, material);
+        }
+        if (this.instanceCount > 0)
+            model.addInstances(this.transforms, 0, this.instanceCount);
+        SceneNode child = getFirstChild();
+        while (child != null)
+        {
+            model.appendChild(child.clone());
+            child = child.getNextSibling();
+        }
+        return model;
+    }
+}
@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.ailis.gramath.Vector3f;
+import de.ailis.threedee.assets.Material;
+import de.ailis.threedee.assets.Mesh;
+import de.ailis.threedee.assets.MeshPolygons;
+import de.ailis.threedee.mathold.Bounds;
+import de.ailis.threedee.rendering.Viewport;
+import de.ailis.threedee.scene.buffers.BufferManager;
+
+
+/**
+ * A model with several levels of detail. Level 0 is the mesh passed to the
+ * constructor and is rendered at full resolution. Coarser meshes are added
+ * with {@link #addLevel(Mesh, float)} together with the projected size (in
+ * pixels) of the model bounding sphere below which they are used. The level
+ * is selected each frame from the field of view of the scene camera and the
+ * viewport height. A hysteresis prevents flickering when the projected size
+ * is near a switch threshold.
+ *
+ * All levels share the materials bound to this model so the material slot
+ * ids of coarser meshes must also be used by the level 0 mesh. Textures are
+ * referenced once for the model and buffers are referenced for all levels,
+ * so switching levels never loads or unloads anything.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class LODModel extends Model
+{
+    /** The default hysteresis */
+    public static final float DEFAULT_HYSTERESIS = 0.1f;
+
+    /** The meshes of the levels */
+    private final List<Mesh> levels = new ArrayList<Mesh>();
+
+    /** The projected sizes below which the levels are used */
+    private final List<Float> pixelSizes = new ArrayList<Float>();
+
+    /** Maps the material indices of the levels to the model material indices */
+    private final List<int[]> materialIndices = new ArrayList<int[]>();
+
+    /** The hysteresis */
+    private float hysteresis = DEFAULT_HYSTERESIS;
+
+    /** The currently selected level */
+    private int level;
+
+    /** The projected size calculated in the last frame */
+    private float pixelSize;
+
+    /** Temporary bounds used for calculating the bounding sphere */
+    private final Bounds sphereBounds = new Bounds();
+
+
+    /**
+     * Constructor
+     *
+     * @param mesh
+     *            The level 0 mesh with full resolution
+     */
+
+    public LODModel(final Mesh mesh)
+    {
+        super(mesh);
+        this.levels.add(mesh);
+        this.pixelSizes.add(Float.POSITIVE_INFINITY);
+        this.materialIndices.add(null);
+    }
+
+
+    /**
+     * Adds a coarser level of detail.
+     *
+     * @param mesh
+     *            The mesh of the new level
+     * @param pixelSize
+     *            The projected diameter of the bounding sphere in pixels
+     *            below which the new level is used. Must be smaller than the
+     *            one of the previous level
+     */
+
+    public void addLevel(final Mesh mesh, final float pixelSize)
+    {
+        if (mesh == null)
+            throw new IllegalArgumentException("mesh must not be null");
+        if (!(pixelSize < this.pixelSizes.get(this.pixelSizes.size() - 1)))
+            throw new IllegalArgumentException(
+                "pixelSize must be smaller than the one of the previous level");
+
+        // Map the material slots of the new mesh to the model slots
+        final String[] ids = mesh.getMaterials();
+        final int[] indices = new int[ids.length];
+        for (int i = 0; i < ids.length; i++)
+        {
+            final int index = getMaterialIndex(ids[i]);
+            if (index == -1)
+                throw new IllegalArgumentException("Material slot " + ids[i]
+                    + " of mesh " + mesh.getId()
+                    + " is not used by the level 0 mesh");
+            indices[i] = index;
+        }
+
+        this.levels.add(mesh);
+        this.pixelSizes.add(pixelSize);
+        this.materialIndices.add(indices);
+
+        // Reference the buffers when scene is already viewed
+        if (isInScene() && getScene().hasViewport())
+            referenceBuffers(mesh);
+    }
+
+
+    /**
+     * Returns the number of levels (Including level 0).
+     *
+     * @return The number of levels
+     */
+
+    public int getLevelCount()
+    {
+        return this.levels.size();
+    }
+
+
+    /**
+     * Returns the mesh of the specified level.
+     *
+     * @param level
+     *            The level
+     * @return The mesh
+     */
+
+    public Mesh getLevelMesh(final int level)
+    {
+        return this.levels.get(level);
+    }
+
+
+    /**
+     * Returns the projected size below which the specified level is used.
+     *
+     * @param level
+     *            The level
+     * @return The projected size in pixels. Infinite for level 0
+     */
+
+    public float getLevelPixelSize(final int level)
+    {
+        return this.pixelSizes.get(level);
+    }
+
+
+    /**
+     * Returns the currently selected level.
+     *
+     * @return The current level
+     */
+
+    public int getLevel()
+    {
+        return this.level;
+    }
+
+
+    /**
+     * Returns the projected size of the bounding sphere calculated in the
+     * last frame.
+     *
+     * @return The projected size in pixels
+     */
+
+    public float getPixelSize()
+    {
+        return this.pixelSize;
+    }
+
+
+    /**
+     * Returns the hysteresis.
+     *
+     * @return The hysteresis
+     */
+
+    public float getHysteresis()
+    {
+        return this.hysteresis;
+    }
+
+
+    /**
+     * Sets the hysteresis. This is the relative amount by which the projected
+     * size must fall below a threshold before switching to a coarser level
+     * and must exceed it before switching back to a finer level. A value of
+     * 0.1 for example means 10 percent.
+     *
+     * @param hysteresis
+     *            The hysteresis to set
+     */
+
+    public void setHysteresis(final float hysteresis)
+    {
+        if (hysteresis < 0)
+            throw new IllegalArgumentException(
+                "hysteresis must not be negative");
+        this.hysteresis = hysteresis;
+    }
+
+
+    /**
+     * Calculates the projected diameter of the bounding sphere of the level
+     * 0 mesh in pixels.
+     *
+     * @param viewport
+     *            The viewport
+     * @return The projected size in pixels
+     */
+
+    private float calculatePixelSize(final Viewport viewport)
+    {
+        final Camera camera = getScene().getCameraNode();
+
+        // Calculate the bounding sphere in scene coordinates
+        final Bounds bounds = this.sphereBounds;
+        bounds.clear();
+        bounds.update(getMesh().getBounds(), getRenderTransform());
+        if (bounds.isEmpty()) return 0;
+        final Vector3f min = bounds.getMin();
+        final Vector3f max = bounds.getMax();
+        final float sx = max.getX() - min.getX();
+        final float sy = max.getY() - min.getY();
+        final float sz = max.getZ() - min.getZ();
+        final float radius = (float) Math.sqrt(sx * sx + sy * sy + sz * sz) / 2;
+
+        // Calculate the distance to the camera
+        final FloatBuffer m = camera.getRenderTransform().getBuffer();
+        final Vector3f center = bounds.getCenter();
+        final float dx = center.getX() - m.get(12);
+        final float dy = center.getY() - m.get(13);
+        final float dz = center.getZ() - m.get(14);
+        final float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+
+        // Camera is inside the bounding sphere
+        if (distance <= radius) return Float.POSITIVE_INFINITY;
+
+        final double halfFov = Math.toRadians(camera.getFovY()) / 2;
+        return (float) (radius * viewport.getHeight() / (distance * Math
+            .tan(halfFov)));
+    }
+
+
+    /**
+     * Selects the level to render for the specified projected size.
+     *
+     * @param pixelSize
+     *            The projected size in pixels
+     */
+
+    private void selectLevel(final float pixelSize)
+    {
+        final List<Float> pixelSizes = this.pixelSizes;
+        final int levelCount = pixelSizes.size();
+        final float hysteresis = this.hysteresis;
+        int level = Math.min(this.level, levelCount - 1);
+
+        // Switch to coarser levels
+        while (level + 1 < levelCount
+            && pixelSize < pixelSizes.get(level + 1) * (1 - hysteresis))
+            level++;
+
+        // Switch to finer levels
+        while (level > 0 && pixelSize >= pixelSizes.get(level) * (1 + hysteresis))
+            level--;
+
+        this.level = level;
+    }
+
+
+    /**
+     * Level of detail models can't be recorded because the level is selected
+     * for the current view.
+     *
+     * @see SceneNode#isRecordable()
+     */
+
+    @Override
+    protected boolean isRecordable()
+    {
+        return false;
+    }
+
+
+    /**
+     * @see Model#enqueue(RenderQueue)
+     */
+
+    @Override
+    protected void enqueue(final RenderQueue queue)
+    {
+        if (this.levels.size() > 1)
+        {
+            final float pixelSize = calculatePixelSize(queue.getViewport());
+            this.pixelSize = pixelSize;
+            selectLevel(pixelSize);
+        }
+        super.enqueue(queue);
+    }
+
+
+    /**
+     * @see Model#getRenderMesh()
+     */
+
+    @Override
+    Mesh getRenderMesh()
+    {
+        return this.levels.get(this.level);
+    }
+
+
+    /**
+     * @see Model#getGroupMaterial(MeshPolygons)
+     */
+
+    @Override
+    Material getGroupMaterial(final MeshPolygons polygons)
+    {
+        final int[] indices = this.materialIndices.get(this.level);
+        final int materialIndex = polygons.getMaterial();
+        if (indices == null || materialIndex == -1)
+            return super.getGroupMaterial(polygons);
+        return getMaterial(indices[materialIndex]);
+    }
+
+
+    /**
+     * @see Model#referenceBuffers()
+     */
+
+    @Override
+    void referenceBuffers()
+    {
+        super.referenceBuffers();
+        for (int i = 1, max = this.levels.size(); i < max; i++)
+            referenceBuffers(this.levels.get(i));
+    }
+
+
+    /**
+     * References the polygon groups of the specified mesh.
+     *
+     * @param mesh
+     *            The mesh
+     */
+
+    private static void referenceBuffers(final Mesh mesh)
+    {
+        final BufferManager manager = BufferManager.getInstance();
+        for (final MeshPolygons polygons : mesh.getPolygons())
+            manager.referencePolygons(polygons);
+    }
+
+
+    /**
+     * @see Model#dereferenceBuffers()
+     */
+
+    @Override
+    void dereferenceBuffers()
+    {
+        super.dereferenceBuffers();
+        for (int i = 1, max = this.levels.size(); i < max; i++)
+            dereferenceBuffers(this.levels.get(i));
+    }
+
+
+    /**
+     * Dereferences the polygon groups of the specified mesh.
+     *
+     * @param mesh
+     *            The mesh
+     */
+
+    private static void dereferenceBuffers(final Mesh mesh)
+    {
+        final BufferManager manager = BufferManager.getInstance();
+        for (final MeshPolygons polygons : mesh.getPolygons())
+            manager.dereferencePolygons(polygons);
+    }
+
+
+    /**
+     * @see java.lang.Object#clone()
+     */
+
+    @Override
+    public LODModel clone()
+    {
+        final Mesh mesh = getMesh();
+        final LODModel model = new LODModel(mesh);
+        model.setTransform(getTransform());
+        model.setHysteresis(this.hysteresis);
+        for (int i = 1, max = this.levels.size(); i < max; i++)
+            model.addLevel(this.levels.get(i), this.pixelSizes.get(i));
+        for (final String id : mesh.getMaterials())
+        {
+            final Material material = getMaterial(id);
+            if (material != null) model.bindMaterial(id, material);
+        }
+        SceneNode child = getFirstChild();
+        while (child != null)
+        {
+            model.appendChild(child.clone());
+            child = child.getNextSibling();
+        }
+        return model;
+    }
+}
@@ -6,10 +6,8 @@
 package de.ailis.threedee.scene;
 
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 
 import de.ailis.gramath.Color4f;
-import de.ailis.threedee.exceptions.LightException;
 import de.ailis.threedee.rendering.GL;
 import de.ailis.threedee.rendering.Viewport;
 import de.ailis.threedee.utils.BufferUtils;
@@ -23,15 +21,15 @@ import de.ailis.threedee.utils.BufferUtils;
 
 public abstract class Light extends SceneNode
 {
+    /**
+     * The attenuation below which a light is considered to have no
+     * influence anymore. Used to calculate the default range.
+     */
+    private static final float MIN_ATTENUATION = 1f / 256f;
+
     /** The currently associated light id */
     private int lightId = -1;
 
-    /** The next free light id */
-    private static int nextLightId = GL.GL_LIGHT0;
-
-    /** The maximum lights */
-    private static int maxLights = -1;
-
     /** Direction for a spot light */
     private static final FloatBuffer direction = (FloatBuffer) BufferUtils
             .createDirectFloatBuffer(3).put(0).put(0).put(-1).rewind();
@@ -45,6 +43,21 @@ public abstract class Light extends SceneNode
     /** The diffuse color of the light */
     private Color4f diffuseColor = Color4f.WHITE;
 
+    /** The constant attenuation factor */
+    private float constantAttenuation = 1;
+
+    /** The linear attenuation factor */
+    private float linearAttenuation = 0;
+
+    /** The quadratic attenuation factor */
+    private float quadraticAttenuation = 0;
+
+    /** The range of the light. Negative to calculate it from attenuation */
+    private float range = -1;
+
+    /** If the light is managed by the light manager of the scene */
+    private boolean managed = true;
+
     /** The light position */
     protected FloatBuffer position;
 
@@ -183,6 +196,145 @@ public abstract class Light extends SceneNode
     }
 
 
+    /**
+     * Returns the constant attenuation factor.
+     *
+     * @return The constant attenuation factor
+     */
+
+    public float getConstantAttenuation()
+    {
+        return this.constantAttenuation;
+    }
+
+
+    /**
+     * Returns the linear attenuation factor.
+     *
+     * @return The linear attenuation factor
+     */
+
+    public float getLinearAttenuation()
+    {
+        return this.linearAttenuation;
+    }
+
+
+    /**
+     * Returns the quadratic attenuation factor.
+     *
+     * @return The quadratic attenuation factor
+     */
+
+    public float getQuadraticAttenuation()
+    {
+        return this.quadraticAttenuation;
+    }
+
+
+    /**
+     * Sets the attenuation factors. The light intensity at distance d is
+     * divided by constant + linear * d + quadratic * d * d. The default is
+     * no attenuation (1, 0, 0).
+     *
+     * @param constant
+     *            The constant attenuation factor
+     * @param linear
+     *            The linear attenuation factor
+     * @param quadratic
+     *            The quadratic attenuation factor
+     */
+
+    public void setAttenuation(final float constant, final float linear,
+        final float quadratic)
+    {
+        if (constant < 0 || linear < 0 || quadratic < 0)
+            throw new IllegalArgumentException(
+                "Attenuation factors must not be negative");
+        this.constantAttenuation = constant;
+        this.linearAttenuation = linear;
+        this.quadraticAttenuation = quadratic;
+    }
+
+
+    /**
+     * Returns the range of the light. This is the distance beyond which the
+     * light is ignored by the light manager. If no range was set then it is
+     * the distance at which the attenuation drops below 1/256. Directional
+     * lights and lights without distance attenuation have an infinite range.
+     *
+     * @return The range of the light
+     */
+
+    public float getRange()
+    {
+        if (this.range >= 0) return this.range;
+        if (this.position.get(3) == 0) return Float.POSITIVE_INFINITY;
+        final float c = this.constantAttenuation - 1 / MIN_ATTENUATION;
+        final float l = this.linearAttenuation;
+        final float q = this.quadraticAttenuation;
+        if (c >= 0) return 0;
+        if (q > 0)
+            return (float) ((-l + Math.sqrt(l * l - 4 * q * c)) / (2 * q));
+        if (l > 0) return -c / l;
+        return Float.POSITIVE_INFINITY;
+    }
+
+
+    /**
+     * Sets the range of the light. Objects which are farther away from the
+     * light are not lit by it when the light is managed by the light
+     * manager of the scene.
+     *
+     * @param range
+     *            The range to set. Negative to calculate it from the
+     *            attenuation factors
+     */
+
+    public void setRange(final float range)
+    {
+        this.range = range;
+    }
+
+
+    /**
+     * Checks if the light is managed by the light manager of the scene.
+     *
+     * @return True if the light is managed, false if it only lights the
+     *         nodes it was added to with {@link SceneNode#addLight(Light)}
+     */
+
+    public boolean isManaged()
+    {
+        return this.managed;
+    }
+
+
+    /**
+     * Enables or disables the management of the light by the light manager
+     * of the scene. Managed lights are added to the light manager
+     * automatically when they are inserted into a scene, so they only light
+     * the nodes they influence most. This is the default. Lights added to a
+     * scene node with {@link SceneNode#addLight(Light)} are no longer
+     * managed and light all child nodes of this node instead.
+     *
+     * @param managed
+     *            True to manage the light, false to not manage it
+     */
+
+    public void setManaged(final boolean managed)
+    {
+        if (managed == this.managed) return;
+        this.managed = managed;
+        final Scene scene = getScene();
+        if (scene == null) return;
+        if (managed)
+            scene.getLightManager().addLight(this);
+        else
+            scene.getLightManager().removeLight(this);
+    }
+
+
     /**
      * Returns the cut off angle in degree. For a point light or a directional
      * light this always returns 180.
@@ -205,10 +357,25 @@ public abstract class Light extends SceneNode
 
     public void apply(final Viewport viewport)
     {
-        final GL gl = viewport.getGL();
-        final float cutOff = getCutOff();
+        if (this.lightId < 0) this.lightId = viewport.claimLightSlot();
+        apply(viewport.getGL(), this.lightId);
+    }
 
-        final int index = getLightId(gl);
+
+    /**
+     * Sets up the specified GL light with the parameters of this light and
+     * enables it. The modelview matrix must contain the transformation of
+     * the light.
+     *
+     * @param gl
+     *            The GL context
+     * @param index
+     *            The GL light (GL_LIGHT0 + slot)
+     */
+
+    void apply(final GL gl, final int index)
+    {
+        final float cutOff = getCutOff();
         gl.glLight(index, GL.GL_POSITION, this.position);
         if (cutOff < 180f)
         {
@@ -222,8 +389,12 @@ public abstract class Light extends SceneNode
         gl.glLight(index, GL.GL_AMBIENT, this.ambientColor.getBuffer());
         gl.glLight(index, GL.GL_DIFFUSE, this.diffuseColor.getBuffer());
         gl.glLight(index, GL.GL_SPECULAR, this.specularColor
-
                 .getBuffer());
+        gl.glLightf(index, GL.GL_CONSTANT_ATTENUATION,
+            this.constantAttenuation);
+        gl.glLightf(index, GL.GL_LINEAR_ATTENUATION, this.linearAttenuation);
+        gl.glLightf(index, GL.GL_QUADRATIC_ATTENUATION,
+            this.quadraticAttenuation);
         gl.glEnable(index);
     }
 
@@ -237,43 +408,9 @@ public abstract class Light extends SceneNode
 
     public void remove(final Viewport viewport)
     {
+        if (this.lightId < 0) return;
         viewport.getGL().glDisable(this.lightId);
+        viewport.releaseLightSlot();
         this.lightId = -1;
-        nextLightId--;
-    }
-
-
-    /**
-     * Returns the light id for this light. If it has none yet then a new
-     * one is reserved.
-     *
-     * @param gl
-     *            The GL context
-     * @return The light index
-     */
-
-    private int getLightId(final GL gl)
-    {
-        // If light has already a light id then return this one
-        int id = this.lightId;
-        if (id >= 0) return id;
-
-        // Get the maximum number of lights once
-        if (maxLights == -1)
-        {
-            final IntBuffer buffer = BufferUtils.createDirectIntegerBuffer(1);
-            gl.glGetIntegerv(GL.GL_MAX_LIGHTS, buffer);
-            maxLights = buffer.get(0);
-        }
-
-        // Check if there is a light index available
-        if (nextLightId >= maxLights + GL.GL_LIGHT0 -1)
-            throw new LightException("Too many lights active (Max is "
-                    + maxLights + ")");
-
-        // Claim light index and return it
-        id = nextLightId++;
-        this.lightId = id;
-        return id;
     }
 }
@@ -0,0 +1,930 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.ailis.gramath.Color4f;
+import de.ailis.gramath.Vector3f;
+import de.ailis.threedee.mathold.Bounds;
+import de.ailis.threedee.rendering.GL;
+import de.ailis.threedee.rendering.Viewport;
+
+
+/**
+ * Manages lights which only light the scene nodes they influence most.
+ * The managed lights are kept in a spatial index and for each rendered node
+ * only the most influential lights are selected by distance, attenuation
+ * and spot cone. So a scene can contain hundreds of lights while each node
+ * is rendered with a few of them. Lights are added to the light manager of
+ * their scene automatically when they are inserted into the scene. Only
+ * lights added to a scene node with {@link SceneNode#addLight(Light)} are
+ * not managed and light all child nodes of this node instead.
+ *
+ * The managed lights must be part of the scene graph so they are positioned
+ * by their scene transformation. Each frame the managed lights get the
+ * light slots which are not used by the lights of the render environment.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public final class LightManager
+{
+    /** The default maximum number of lights per node */
+    private static final int DEFAULT_MAX_LIGHTS = 8;
+
+    /** The default edge length of the grid cells */
+    private static final float DEFAULT_CELL_SIZE = 10;
+
+    /**
+     * The maximum number of grid cells covered by a light. Lights covering
+     * more cells are treated like lights with an infinite range
+     */
+    private static final int MAX_LIGHT_CELLS = 512;
+
+    /**
+     * The maximum number of grid cells checked for a node. For larger nodes
+     * all lights are checked instead
+     */
+    private static final int MAX_QUERY_CELLS = 64;
+
+    /** The maximum number of grid cells kept between frames */
+    private static final int MAX_CELLS = 16384;
+
+    /** The number of floats stored per light */
+    private static final int LIGHT_SIZE = 13;
+
+    /** Light data offset of the position (X, Y, Z, W) */
+    private static final int POSITION = 0;
+
+    /** Light data offset of the normalized spot direction (X, Y, Z) */
+    private static final int DIRECTION = 4;
+
+    /** Light data offset of the range */
+    private static final int RANGE = 7;
+
+    /** Light data offset of the spot cut off in radians. -1 for no spot */
+    private static final int CUT_OFF = 8;
+
+    /** Light data offset of the attenuation factors (C, L, Q) */
+    private static final int ATTENUATION = 9;
+
+    /** Light data offset of the intensity */
+    private static final int INTENSITY = 12;
+
+    /** The managed lights */
+    private final List<Light> lights = new ArrayList<Light>();
+
+    /** The maximum number of lights per node */
+    private int maxLights = DEFAULT_MAX_LIGHTS;
+
+    /** The edge length of the grid cells */
+    private float cellSize = DEFAULT_CELL_SIZE;
+
+    /** The number of lights indexed for the current frame */
+    private int lightCount;
+
+    /** The indexed lights of the current frame */
+    private Light[] indexedLights = new Light[16];
+
+    /** The light data of the current frame */
+    private float[] lightData = new float[16 * LIGHT_SIZE];
+
+    /** The query stamps of the lights to detect lights seen twice */
+    private int[] stamps = new int[16];
+
+    /** The current query stamp */
+    private int stamp;
+
+    /** The indices of the lights with infinite range */
+    private int[] globalLights = new int[16];
+
+    /** The number of lights with infinite range */
+    private int globalCount;
+
+    /** The indices of the lights with finite range */
+    private int[] localLights = new int[16];
+
+    /** The number of lights with finite range */
+    private int localCount;
+
+    /** The hash buckets of the grid cells */
+    private Cell[] buckets = new Cell[256];
+
+    /** All grid cells */
+    private final List<Cell> cells = new ArrayList<Cell>();
+
+    /** The light sets of the current frame */
+    private final Map<LightSet, LightSet> lightSets = new HashMap<LightSet, LightSet>();
+
+    /** Light sets which can be reused */
+    private final List<LightSet> setPool = new ArrayList<LightSet>();
+
+    /** The number of light sets taken from the pool in the current frame */
+    private int usedSets;
+
+    /** The light set used for looking up existing light sets */
+    private final LightSet probe = new LightSet();
+
+    /** The scores of the lights in the probe */
+    private float[] scores = new float[DEFAULT_MAX_LIGHTS];
+
+
+    /**
+     * Adds a light to the light manager.
+     *
+     * @param light
+     *            The light to add
+     */
+
+    public void addLight(final Light light)
+    {
+        if (light == null)
+            throw new IllegalArgumentException("light must not be null");
+        if (!this.lights.contains(light)) this.lights.add(light);
+    }
+
+
+    /**
+     * Removes a light from the light manager.
+     *
+     * @param light
+     *            The light to remove
+     */
+
+    public void removeLight(final Light light)
+    {
+        this.lights.remove(light);
+    }
+
+
+    /**
+     * Returns the managed lights.
+     *
+     * @return The managed lights. Never null.
+     */
+
+    public List<Light> getLights()
+    {
+        return Collections.unmodifiableList(this.lights);
+    }
+
+
+    /**
+     * Returns the maximum number of managed lights used for a single node.
+     *
+     * @return The maximum number of lights per node
+     */
+
+    public int getMaxLights()
+    {
+        return this.maxLights;
+    }
+
+
+    /**
+     * Sets the maximum number of managed lights used for a single node. Less
+     * lights are used if the GL context has not enough free light slots.
+     *
+     * @param maxLights
+     *            The maximum number of lights per node
+     */
+
+    public void setMaxLights(final int maxLights)
+    {
+        if (maxLights < 1)
+            throw new IllegalArgumentException("maxLights must be positive");
+        this.maxLights = maxLights;
+        this.scores = new float[maxLights];
+    }
+
+
+    /**
+     * Returns the edge length of the cells of the spatial light index.
+     *
+     * @return The cell size
+     */
+
+    public float getCellSize()
+    {
+        return this.cellSize;
+    }
+
+
+    /**
+     * Sets the edge length of the cells of the spatial light index. It
+     * should be roughly the typical range of the lights.
+     *
+     * @param cellSize
+     *            The cell size to set
+     */
+
+    public void setCellSize(final float cellSize)
+    {
+        if (!(cellSize > 0))
+            throw new IllegalArgumentException("cellSize must be positive");
+        this.cellSize = cellSize;
+    }
+
+
+    /**
+     * Rebuilds the spatial light index from the current render
+     * transformations of the lights. Must be called once per frame before
+     * lights are selected.
+     */
+
+    void update()
+    {
+        // Forget the light sets of the previous frame
+        this.lightSets.clear();
+        this.usedSets = 0;
+
+        // Empty the grid cells
+        if (this.cells.size() > MAX_CELLS)
+        {
+            this.cells.clear();
+            Arrays.fill(this.buckets, null);
+        }
+        for (final Cell cell : this.cells)
+            cell.size = 0;
+
+        final int count = this.lights.size();
+        if (count > this.indexedLights.length)
+        {
+            final int capacity = Math.max(count, this.indexedLights.length * 2);
+            this.indexedLights = new Light[capacity];
+            this.lightData = new float[capacity * LIGHT_SIZE];
+            this.stamps = new int[capacity];
+            this.globalLights = new int[capacity];
+            this.localLights = new int[capacity];
+        }
+        if (count < this.lightCount)
+            Arrays.fill(this.indexedLights, count, this.lightCount, null);
+        this.lightCount = count;
+        this.globalCount = 0;
+        this.localCount = 0;
+
+        final float[] data = this.lightData;
+        final float cellSize = this.cellSize;
+        for (int i = 0; i < count; i++)
+        {
+            final Light light = this.lights.get(i);
+            this.indexedLights[i] = light;
+            final int offset = i * LIGHT_SIZE;
+            record(light, data, offset);
+
+            // Lights with a (practically) infinite range are checked for
+            // every node, all others are put into the grid cells they reach
+            final float range = data[offset + RANGE];
+            final float x = data[offset + POSITION];
+            final float y = data[offset + POSITION + 1];
+            final float z = data[offset + POSITION + 2];
+            final int minX = cell(x - range, cellSize);
+            final int minY = cell(y - range, cellSize);
+            final int minZ = cell(z - range, cellSize);
+            final int maxX = cell(x + range, cellSize);
+            final int maxY = cell(y + range, cellSize);
+            final int maxZ = cell(z + range, cellSize);
+            if (data[offset + POSITION + 3] == 0
+                || Float.isInfinite(range)
+                || cellCount(minX, minY, minZ, maxX, maxY, maxZ) > MAX_LIGHT_CELLS)
+            {
+                this.globalLights[this.globalCount++] = i;
+                continue;
+            }
+            this.localLights[this.localCount++] = i;
+            for (int cx = minX; cx <= maxX; cx++)
+                for (int cy = minY; cy <= maxY; cy++)
+                    for (int cz = minZ; cz <= maxZ; cz++)
+                        getCell(cx, cy, cz).add(i);
+        }
+    }
+
+
+    /**
+     * Records the scene position, spot direction and the other parameters of
+     * a light needed to rate its influence.
+     *
+     * @param light
+     *            The light
+     * @param data
+     *            The light data array
+     * @param offset
+     *            The array index to write to
+     */
+
+    private static void record(final Light light, final float[] data,
+        final int offset)
+    {
+        final FloatBuffer m = light.getRenderTransform().getBuffer();
+        final FloatBuffer p = light.position;
+        final float px = p.get(0), py = p.get(1), pz = p.get(2), pw = p.get(3);
+        for (int row = 0; row < 4; row++)
+            data[offset + POSITION + row] = m.get(row) * px + m.get(4 + row)
+                * py + m.get(8 + row) * pz + m.get(12 + row) * pw;
+
+        final float cutOff = light.getCutOff();
+        if (cutOff < 180f)
+        {
+            final float dx = -m.get(8), dy = -m.get(9), dz = -m.get(10);
+            final float length = (float) Math.sqrt(dx * dx + dy * dy + dz
+                * dz);
+            data[offset + DIRECTION] = dx / length;
+            data[offset + DIRECTION + 1] = dy / length;
+            data[offset + DIRECTION + 2] = dz / length;
+            data[offset + CUT_OFF] = (float) Math.toRadians(cutOff);
+        }
+        else
+        {
+            data[offset + CUT_OFF] = -1;
+        }
+
+        data[offset + RANGE] = light.getRange();
+        data[offset + ATTENUATION] = light.getConstantAttenuation();
+        data[offset + ATTENUATION + 1] = light.getLinearAttenuation();
+        data[offset + ATTENUATION + 2] = light.getQuadraticAttenuation();
+        data[offset + INTENSITY] = luminance(light.getDiffuseColor())
+            + luminance(light.getAmbientColor());
+    }
+
+
+    /**
+     * Returns the luminance of a color.
+     *
+     * @param color
+     *            The color
+     * @return The luminance
+     */
+
+    private static float luminance(final Color4f color)
+    {
+        return 0.299f * color.getRed() + 0.587f * color.getGreen() + 0.114f
+            * color.getBlue();
+    }
+
+
+    /**
+     * Selects the most influential managed lights for the specified node.
+     * Nodes with the same environment and the same selected lights share
+     * the same light set.
+     *
+     * @param node
+     *            The scene node
+     * @param environment
+     *            The render environment of the node. Null if none
+     * @return The selected lights. Null if no light was selected
+     */
+
+    LightSet select(final SceneNode node, final RenderEnvironment environment)
+    {
+        if (this.lightCount == 0) return null;
+
+        // Determine the box to rate the lights against. Nodes without
+        // bounds are rated by their position
+        final float minX, minY, minZ, maxX, maxY, maxZ;
+        final Bounds bounds = node.getRenderBounds();
+        if (bounds.isEmpty())
+        {
+            final FloatBuffer m = node.getRenderTransform().getBuffer();
+            minX = maxX = m.get(12);
+            minY = maxY = m.get(13);
+            minZ = maxZ = m.get(14);
+        }
+        else
+        {
+            final Vector3f min = bounds.getMin();
+            final Vector3f max = bounds.getMax();
+            minX = min.getX();
+            minY = min.getY();
+            minZ = min.getZ();
+            maxX = max.getX();
+            maxY = max.getY();
+            maxZ = max.getZ();
+        }
+
+        final LightSet probe = this.probe;
+        probe.reset(environment, this.maxLights);
+
+        // Rate the lights with infinite range
+        for (int i = 0, max = this.globalCount; i < max; i++)
+            consider(this.globalLights[i], minX, minY, minZ, maxX, maxY, maxZ);
+
+        // Rate the lights in reach. They are looked up in the grid cells
+        // unless the node covers too many cells
+        final float cellSize = this.cellSize;
+        final int cellMinX = cell(minX, cellSize);
+        final int cellMinY = cell(minY, cellSize);
+        final int cellMinZ = cell(minZ, cellSize);
+        final int cellMaxX = cell(maxX, cellSize);
+        final int cellMaxY = cell(maxY, cellSize);
+        final int cellMaxZ = cell(maxZ, cellSize);
+        if (cellCount(cellMinX, cellMinY, cellMinZ, cellMaxX, cellMaxY,
+            cellMaxZ) > MAX_QUERY_CELLS)
+        {
+            for (int i = 0, max = this.localCount; i < max; i++)
+                consider(this.localLights[i], minX, minY, minZ, maxX, maxY,
+                    maxZ);
+        }
+        else
+        {
+            final int stamp = ++this.stamp;
+            final int[] stamps = this.stamps;
+            for (int cx = cellMinX; cx <= cellMaxX; cx++)
+                for (int cy = cellMinY; cy <= cellMaxY; cy++)
+                    for (int cz = cellMinZ; cz <= cellMaxZ; cz++)
+                    {
+                        final Cell cell = findCell(cx, cy, cz);
+                        if (cell == null) continue;
+                        final int[] cellLights = cell.lights;
+                        for (int i = 0, max = cell.size; i < max; i++)
+                        {
+                            final int light = cellLights[i];
+                            if (stamps[light] == stamp) continue;
+                            stamps[light] = stamp;
+                            consider(light, minX, minY, minZ, maxX, maxY,
+                                maxZ);
+                        }
+                    }
+        }
+        if (probe.size == 0) return null;
+
+        // Share light sets with the same content
+        probe.updateHash();
+        LightSet set = this.lightSets.get(probe);
+        if (set == null)
+        {
+            if (this.usedSets == this.setPool.size())
+                this.setPool.add(new LightSet());
+            set = this.setPool.get(this.usedSets++);
+            set.copy(probe);
+            this.lightSets.put(set, set);
+        }
+        return set;
+    }
+
+
+    /**
+     * Rates the influence of a light on the specified box and inserts it
+     * into the probe light set if it is one of the most influential lights.
+     *
+     * @param light
+     *            The light index
+     * @param minX
+     *            The minimum X coordinate of the box
+     * @param minY
+     *            The minimum Y coordinate of the box
+     * @param minZ
+     *            The minimum Z coordinate of the box
+     * @param maxX
+     *            The maximum X coordinate of the box
+     * @param maxY
+     *            The maximum Y coordinate of the box
+     * @param maxZ
+     *            The maximum Z coordinate of the box
+     */
+
+    private void consider(final int light, final float minX,
+        final float minY, final float minZ, final float maxX,
+        final float maxY, final float maxZ)
+    {
+        final float score = rate(this.lightData, light * LIGHT_SIZE, minX,
+            minY, minZ, maxX, maxY, maxZ);
+        if (score <= 0) return;
+
+        // Insert the light sorted by descending score
+        final LightSet probe = this.probe;
+        final float[] scores = this.scores;
+        final Light[] lights = probe.lights;
+        int index = probe.size;
+        if (index == this.maxLights)
+        {
+            if (score <= scores[index - 1]) return;
+            index--;
+        }
+        else
+        {
+            probe.size++;
+        }
+        while (index > 0 && scores[index - 1] < score)
+        {
+            scores[index] = scores[index - 1];
+            lights[index] = lights[index - 1];
+            index--;
+        }
+        scores[index] = score;
+        lights[index] = this.indexedLights[light];
+    }
+
+
+    /**
+     * Rates the influence of a light on the specified box.
+     *
+     * @param data
+     *            The light data array
+     * @param offset
+     *            The array index of the light data
+     * @param minX
+     *            The minimum X coordinate of the box
+     * @param minY
+     *            The minimum Y coordinate of the box
+     * @param minZ
+     *            The minimum Z coordinate of the box
+     * @param maxX
+     *            The maximum X coordinate of the box
+     * @param maxY
+     *            The maximum Y coordinate of the box
+     * @param maxZ
+     *            The maximum Z coordinate of the box
+     * @return The influence. 0 if the light has no influence on the box
+     */
+
+    private static float rate(final float[] data, final int offset, final float minX,
+        final float minY, final float minZ, final float maxX,
+        final float maxY, final float maxZ)
+    {
+        final float intensity = data[offset + INTENSITY];
+
+        // Directional lights are not attenuated
+        if (data[offset + POSITION + 3] == 0) return intensity;
+
+        // Calculate the distance from the light to the box
+        final float x = data[offset + POSITION];
+        final float y = data[offset + POSITION + 1];
+        final float z = data[offset + POSITION + 2];
+        final float dx = Math.max(Math.max(minX - x, x - maxX), 0);
+        final float dy = Math.max(Math.max(minY - y, y - maxY), 0);
+        final float dz = Math.max(Math.max(minZ - z, z - maxZ), 0);
+        final float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (distance > data[offset + RANGE]) return 0;
+
+        // Check if the bounding sphere of the box touches the spot cone
+        final float cutOff = data[offset + CUT_OFF];
+        if (cutOff >= 0)
+        {
+            final float vx = (minX + maxX) / 2 - x;
+            final float vy = (minY + maxY) / 2 - y;
+            final float vz = (minZ + maxZ) / 2 - z;
+            final float rx = (maxX - minX) / 2;
+            final float ry = (maxY - minY) / 2;
+            final float rz = (maxZ - minZ) / 2;
+            final double length = Math.sqrt(vx * vx + vy * vy + vz * vz);
+            final double radius = Math.sqrt(rx * rx + ry * ry + rz * rz);
+            if (length > radius)
+            {
+                final double cos = (vx * data[offset + DIRECTION] + vy
+                    * data[offset + DIRECTION + 1] + vz
+                    * data[offset + DIRECTION + 2])
+                    / length;
+                final double angle = Math.acos(Math.max(-1, Math.min(1, cos)));
+                if (angle - Math.asin(radius / length) > cutOff) return 0;
+            }
+        }
+
+        return intensity
+            / (data[offset + ATTENUATION] + data[offset + ATTENUATION + 1]
+                * distance + data[offset + ATTENUATION + 2] * distance
+                * distance);
+    }
+
+
+    /**
+     * Binds the lights of the specified light set to the free light slots
+     * of the viewport. Only one light set can be bound at a time.
+     *
+     * @param viewport
+     *            The viewport
+     * @param set
+     *            The light set to bind
+     */
+
+    static void bind(final Viewport viewport, final LightSet set)
+    {
+        final GL gl = viewport.getGL();
+        final int count = Math.min(set.size, viewport.getFreeLightSlots());
+        for (int i = 0; i < count; i++)
+        {
+            final Light light = set.lights[i];
+            final int index = viewport.claimLightSlot();
+            if (i == 0) set.firstLight = index;
+            viewport.loadTransform(light.getRenderTransform());
+            light.apply(gl, index);
+        }
+        set.boundLights = count;
+    }
+
+
+    /**
+     * Unbinds the lights of the specified light set.
+     *
+     * @param viewport
+     *            The viewport
+     * @param set
+     *            The light set to unbind
+     */
+
+    static void unbind(final Viewport viewport, final LightSet set)
+    {
+        final GL gl = viewport.getGL();
+        for (int i = set.boundLights - 1; i >= 0; i--)
+        {
+            gl.glDisable(set.firstLight + i);
+            viewport.releaseLightSlot();
+        }
+        set.boundLights = 0;
+    }
+
+
+    /**
+     * Returns the grid cell coordinate for the specified scene coordinate.
+     *
+     * @param value
+     *            The scene coordinate
+     * @param cellSize
+     *            The edge length of the grid cells
+     * @return The cell coordinate
+     */
+
+    private static int cell(final float value, final float cellSize)
+    {
+        return (int) Math.floor(value / cellSize);
+    }
+
+
+    /**
+     * Returns the number of grid cells in the specified cell range.
+     *
+     * @param minX
+     *            The minimum X cell coordinate
+     * @param minY
+     *            The minimum Y cell coordinate
+     * @param minZ
+     *            The minimum Z cell coordinate
+     * @param maxX
+     *            The maximum X cell coordinate
+     * @param maxY
+     *            The maximum Y cell coordinate
+     * @param maxZ
+     *            The maximum Z cell coordinate
+     * @return The number of cells
+     */
+
+    private static long cellCount(final int minX, final int minY,
+        final int minZ, final int maxX, final int maxY, final int maxZ)
+    {
+        return ((long) maxX - minX + 1) * ((long) maxY - minY + 1)
+            * ((long) maxZ - minZ + 1);
+    }
+
+
+    /**
+     * Returns the hash bucket index of the specified grid cell.
+     *
+     * @param x
+     *            The X cell coordinate
+     * @param y
+     *            The Y cell coordinate
+     * @param z
+     *            The Z cell coordinate
+     * @return The bucket index
+     */
+
+    private int bucket(final int x, final int y, final int z)
+    {
+        return (x * 73856093 ^ y * 19349663 ^ z * 83492791)
+            & (this.buckets.length - 1);
+    }
+
+
+    /**
+     * Returns the specified grid cell.
+     *
+     * @param x
+     *            The X cell coordinate
+     * @param y
+     *            The Y cell coordinate
+     * @param z
+     *            The Z cell coordinate
+     * @return The grid cell. Null if not present
+     */
+
+    private Cell findCell(final int x, final int y, final int z)
+    {
+        Cell cell = this.buckets[bucket(x, y, z)];
+        while (cell != null && (cell.x != x || cell.y != y || cell.z != z))
+            cell = cell.next;
+        return cell;
+    }
+
+
+    /**
+     * Returns the specified grid cell and creates it if not present yet.
+     *
+     * @param x
+     *            The X cell coordinate
+     * @param y
+     *            The Y cell coordinate
+     * @param z
+     *            The Z cell coordinate
+     * @return The grid cell. Never null
+     */
+
+    private Cell getCell(final int x, final int y, final int z)
+    {
+        Cell cell = findCell(x, y, z);
+        if (cell != null) return cell;
+
+        // Grow the hash table if needed
+        if (this.cells.size() >= this.buckets.length * 2)
+        {
+            this.buckets = new Cell[this.buckets.length * 2];
+            for (final Cell existing : this.cells)
+            {
+                final int bucket = bucket(existing.x, existing.y, existing.z);
+                existing.next = this.buckets[bucket];
+                this.buckets[bucket] = existing;
+            }
+        }
+
+        cell = new Cell(x, y, z);
+        final int bucket = bucket(x, y, z);
+        cell.next = this.buckets[bucket];
+        this.buckets[bucket] = cell;
+        this.cells.add(cell);
+        return cell;
+    }
+
+
+    /**
+     * A cell of the spatial light index.
+     */
+
+    private static final class Cell
+    {
+        /** The X cell coordinate */
+        final int x;
+
+        /** The Y cell coordinate */
+        final int y;
+
+        /** The Z cell coordinate */
+        final int z;
+
+        /** The next cell in the same hash bucket */
+        Cell next;
+
+        /** The indices of the lights reaching into this cell */
+        int[] lights = new int[4];
+
+        /** The number of lights reaching into this cell */
+        int size;
+
+
+        /**
+         * Constructor
+         *
+         * @param x
+         *            The X cell coordinate
+         * @param y
+         *            The Y cell coordinate
+         * @param z
+         *            The Z cell coordinate
+         */
+
+        Cell(final int x, final int y, final int z)
+        {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+        }
+
+
+        /**
+         * Adds a light to the cell.
+         *
+         * @param light
+         *            The light index
+         */
+
+        void add(final int light)
+        {
+            if (this.size == this.lights.length)
+                this.lights = Arrays.copyOf(this.lights, this.size * 2);
+            this.lights[this.size++] = light;
+        }
+    }
+
+
+    /**
+     * The lights selected for a node, sorted by descending influence,
+     * together with the render environment of the node. Draw items with
+     * equal light sets are sorted next to each other so the lights only need
+     * to be bound once for all of them.
+     */
+
+    static final class LightSet
+    {
+        /** The render environment. Null if none */
+        RenderEnvironment environment;
+
+        /** The selected lights */
+        Light[] lights = new Light[DEFAULT_MAX_LIGHTS];
+
+        /** The number of selected lights */
+        int size;
+
+        /** The hash code */
+        private int hash;
+
+        /** The GL light of the first bound light */
+        int firstLight;
+
+        /** The number of bound lights */
+        int boundLights;
+
+
+        /**
+         * Empties the light set.
+         *
+         * @param environment
+         *            The render environment
+         * @param maxLights
+         *            The maximum number of lights
+         */
+
+        void reset(final RenderEnvironment environment, final int maxLights)
+        {
+            Arrays.fill(this.lights, 0, this.size, null);
+            if (this.lights.length < maxLights)
+                this.lights = new Light[maxLights];
+            this.environment = environment;
+            this.size = 0;
+        }
+
+
+        /**
+         * Copies the content of the specified light set into this one.
+         *
+         * @param other
+         *            The light set to copy
+         */
+
+        void copy(final LightSet other)
+        {
+            reset(other.environment, other.size);
+            System.arraycopy(other.lights, 0, this.lights, 0, other.size);
+            this.size = other.size;
+            this.hash = other.hash;
+        }
+
+
+        /**
+         * Updates the hash code after the light set has been filled.
+         */
+
+        void updateHash()
+        {
+            int hash = System.identityHashCode(this.environment);
+            for (int i = 0; i < this.size; i++)
+                hash = hash * 31 + System.identityHashCode(this.lights[i]);
+            this.hash = hash;
+        }
+
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+
+        @Override
+        public int hashCode()
+        {
+            return this.hash;
+        }
+
+
+        /**
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+
+        @Override
+        public boolean equals(final Object obj)
+        {
+            if (obj == this) return true;
+            if (!(obj instanceof LightSet)) return false;
+            final LightSet other = (LightSet) obj;
+            if (other.environment != this.environment
+                || other.size != this.size) return false;
+            for (int i = 0; i < this.size; i++)
+                if (other.lights[i] != this.lights[i]) return false;
+            return true;
+        }
+    }
+}
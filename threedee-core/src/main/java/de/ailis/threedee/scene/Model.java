@@ -6,8 +6,8 @@
 package de.ailis.threedee.scene;
 
 import java.lang.ref.SoftReference;
+import java.nio.Buffer;
 import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -21,9 +21,13 @@ import de.ailis.threedee.assets.Texture;
 import de.ailis.threedee.builder.MeshBuilder;
 import de.ailis.threedee.events.NodeAdapter;
 import de.ailis.threedee.events.SceneAdapter;
+import de.ailis.threedee.mathold.Bounds;
 import de.ailis.threedee.rendering.BoundsRenderer;
+import de.ailis.threedee.rendering.Frustum;
 import de.ailis.threedee.rendering.GL;
 import de.ailis.threedee.rendering.Viewport;
+import de.ailis.threedee.scene.buffers.BufferManager;
+import de.ailis.threedee.scene.textures.DynamicTexture;
 import de.ailis.threedee.scene.textures.TextureManager;
 
 
@@ -61,8 +65,18 @@ public class Model extends SceneNode
     /** The bound textures */
     private final Map<String, Texture> textures = new HashMap<String, Texture>();
 
-    /** The last used diffuse texture */
-    private Texture diffuseTexture;
+    /** Temporary bounds used for culling the polygon groups */
+    private final Bounds groupBounds = new Bounds();
+
+    /**
+     * If the polygon groups must be culled when the model renders itself.
+     * Taken from the render queue because culling is disabled while
+     * recording display lists.
+     */
+    private boolean cullGroups;
+
+    /** The mesh rasterized for occlusion culling. Null if not an occluder */
+    private Mesh occluderMesh;
 
     /** The scene listener. */
     final SceneAdapter sceneAdapter = new SceneAdapter()
@@ -71,12 +85,14 @@ public class Model extends SceneNode
         public void sceneInsertedIntoViewport()
         {
             referenceTextures();
+            referenceBuffers();
         }
 
         @Override
         public void sceneRemovedFromViewport()
         {
             dereferenceTextures();
+            dereferenceBuffers();
         }
     };
 
@@ -102,11 +118,16 @@ public class Model extends SceneNode
                 // Connect scene listener
                 scene.addSceneListener(Model.this.sceneAdapter);
 
+                // Register occluder
+                if (Model.this.occluderMesh != null)
+                    scene.addOccluder(Model.this);
+
                 // Do nothing more if scene is not viewed
                 if (!scene.hasViewport()) return;
 
-                // Reference textures
+                // Reference textures and buffers
                 referenceTextures();
+                referenceBuffers();
             }
 
             @Override
@@ -117,11 +138,16 @@ public class Model extends SceneNode
                 // Remove scene listener
                 scene.removeSceneListener(Model.this.sceneAdapter);
 
+                // Unregister occluder
+                if (Model.this.occluderMesh != null)
+                    scene.removeOccluder(Model.this);
+
                 // Do nothing more if scene is not viewed
                 if (!scene.hasViewport()) return;
 
-                // Dereference textures
+                // Dereference textures and buffers
                 dereferenceTextures();
+                dereferenceBuffers();
             }
         });
     }
@@ -138,6 +164,7 @@ public class Model extends SceneNode
             manager.referenceTexture(texture);
         for (final Material material : this.materials)
         {
+            if (material == null) continue;
             final Texture texture = material.getDiffuseTexture();
             if (texture != null)
                 manager.referenceTexture(texture);
@@ -156,6 +183,7 @@ public class Model extends SceneNode
             manager.dereferenceTexture(texture);
         for (final Material material : this.materials)
         {
+            if (material == null) continue;
             final Texture texture = material.getDiffuseTexture();
             if (texture != null)
                 manager.dereferenceTexture(texture);
@@ -163,6 +191,30 @@ public class Model extends SceneNode
     }
 
 
+    /**
+     * References the polygon groups so they are kept in buffer objects.
+     */
+
+    void referenceBuffers()
+    {
+        final BufferManager manager = BufferManager.getInstance();
+        for (final MeshPolygons polygons : this.mesh.getPolygons())
+            manager.referencePolygons(polygons);
+    }
+
+
+    /**
+     * Dereferences the polygon groups.
+     */
+
+    void dereferenceBuffers()
+    {
+        final BufferManager manager = BufferManager.getInstance();
+        for (final MeshPolygons polygons : this.mesh.getPolygons())
+            manager.dereferencePolygons(polygons);
+    }
+
+
     /**
      * Binds a material to a material id.
      *
@@ -178,6 +230,7 @@ public class Model extends SceneNode
         final int index = getMaterialIndex(id);
         if (index == -1) return;
         this.materials[index] = material;
+        invalidateDisplayList();
         if (isInScene())
         {
             final Texture texture = material.getDiffuseTexture();
@@ -220,6 +273,7 @@ public class Model extends SceneNode
                 }
             }
             this.materials[index] = null;
+            invalidateDisplayList();
         }
     }
 
@@ -268,7 +322,7 @@ public class Model extends SceneNode
      * @return The material index or -1 if not found
      */
 
-    private int getMaterialIndex(final String id)
+    int getMaterialIndex(final String id)
     {
         final String[] indices = this.mesh.getMaterials();
         for (int index = indices.length - 1; index >= 0; --index)
@@ -303,6 +357,92 @@ public class Model extends SceneNode
     }
 
 
+    /**
+     * Returns the mesh which is currently rendered. This is the model mesh
+     * unless a sub class selects a different variant of it.
+     *
+     * @return The mesh to render
+     */
+
+    Mesh getRenderMesh()
+    {
+        return this.mesh;
+    }
+
+
+    /**
+     * Returns the bounds of the mesh.
+     *
+     * @see SceneNode#getBounds()
+     */
+
+    @Override
+    public Bounds getBounds()
+    {
+        return this.mesh.getBounds();
+    }
+
+
+    /**
+     * Returns the mesh which is rasterized for occlusion culling.
+     *
+     * @return The occluder mesh or null if model is not an occluder
+     */
+
+    public Mesh getOccluderMesh()
+    {
+        return this.occluderMesh;
+    }
+
+
+    /**
+     * Sets the mesh which is rasterized for occlusion culling. This is
+     * usually a simplified version of the model mesh which must not be larger
+     * than the model mesh. Models with an occluder mesh hide other nodes
+     * when occlusion culling is enabled in the viewport.
+     *
+     * @param occluderMesh
+     *            The occluder mesh. Null if model is not an occluder
+     */
+
+    public void setOccluderMesh(final Mesh occluderMesh)
+    {
+        if (isInScene())
+        {
+            final Scene scene = getScene();
+            if (this.occluderMesh != null) scene.removeOccluder(this);
+            if (occluderMesh != null) scene.addOccluder(this);
+        }
+        this.occluderMesh = occluderMesh;
+    }
+
+
+    /**
+     * Checks if this model is an occluder.
+     *
+     * @return True if model is an occluder, false if not
+     */
+
+    public boolean isOccluder()
+    {
+        return this.occluderMesh != null;
+    }
+
+
+    /**
+     * Marks this model as an occluder which uses its own mesh as occluder
+     * mesh.
+     *
+     * @param occluder
+     *            True to mark the model as occluder, false to unmark it
+     */
+
+    public void setOccluder(final boolean occluder)
+    {
+        setOccluderMesh(occluder ? this.mesh : null);
+    }
+
+
     /**
      * Returns the model offset.
      *
@@ -327,6 +467,117 @@ public class Model extends SceneNode
     }
 
 
+    /**
+     * @see SceneNode#enqueue(RenderQueue)
+     */
+
+    @Override
+    protected void enqueue(final RenderQueue queue)
+    {
+        // Models displaying debug information render themselves
+        if (this.showBounds || this.showNormals)
+        {
+            this.cullGroups = queue.isCulling();
+            queue.add(this);
+            return;
+        }
+
+        final Viewport viewport = queue.getViewport();
+        final MeshPolygons[] groups = getRenderMesh().getPolygons();
+
+        // Cull the single polygon groups if there is more than one group.
+        // Otherwise the scene node culling has already done the job.
+        if (groups.length > 1 && queue.isCulling())
+        {
+            final Frustum frustum = viewport.getFrustum();
+            final Bounds groupBounds = this.groupBounds;
+            for (final MeshPolygons polygons : groups)
+            {
+                groupBounds.clear();
+                groupBounds.update(polygons.getBounds(), getRenderTransform());
+                if (frustum.isVisible(groupBounds))
+                    queue.add(this, polygons, getGroupMaterial(polygons));
+            }
+        }
+        else
+        {
+            for (final MeshPolygons polygons : groups)
+                queue.add(this, polygons, getGroupMaterial(polygons));
+        }
+    }
+
+
+    /**
+     * Returns the material used for the specified polygon group.
+     *
+     * @param polygons
+     *            The polygon group
+     * @return The material. Never null
+     */
+
+    Material getGroupMaterial(final MeshPolygons polygons)
+    {
+        final int materialIndex = polygons.getMaterial();
+        return (materialIndex == -1) ? Material.DEFAULT
+                : getMaterial(materialIndex);
+    }
+
+
+    /**
+     * Models with dynamic textures can't be recorded because the texture
+     * updates would not be recorded. Models with transparent materials can't
+     * be recorded because they must be sorted with the rest of the scene.
+     *
+     * @see SceneNode#isRecordable()
+     */
+
+    @Override
+    protected boolean isRecordable()
+    {
+        for (final Material material : this.materials)
+            if (material != null
+                && material.getDiffuseTexture() instanceof DynamicTexture<?>)
+                return false;
+        return !isTransparent();
+    }
+
+
+    /**
+     * A model is transparent if one of its polygon groups uses a
+     * transparent material.
+     *
+     * @see SceneNode#isTransparent()
+     */
+
+    @Override
+    protected boolean isTransparent()
+    {
+        for (final MeshPolygons polygons : getRenderMesh().getPolygons())
+            if (getGroupMaterial(polygons).isTransparent()) return true;
+        return false;
+    }
+
+
+    /**
+     * Uploads the textures of the model so they are not uploaded while
+     * recording.
+     *
+     * @see SceneNode#prepareRecording(GL)
+     */
+
+    @Override
+    protected void prepareRecording(final GL gl)
+    {
+        final TextureManager manager = TextureManager.getInstance();
+        for (final Material material : this.materials)
+        {
+            if (material == null) continue;
+            final Texture texture = material.getDiffuseTexture();
+            if (texture != null) manager.load(gl, texture);
+        }
+    }
+
+
     /**
      * @see SceneNode#render(Viewport)
      */
@@ -335,9 +586,27 @@ public class Model extends SceneNode
     protected void render(final Viewport viewport)
     {
         final GL gl = viewport.getGL();
+        final MeshPolygons[] groups = getRenderMesh().getPolygons();
 
-        for (final MeshPolygons polygons : this.mesh.getPolygons())
-            renderMeshPolygon(gl, polygons);
+        // Cull the single polygon groups if there is more than one group.
+        // Otherwise the scene node culling has already done the job.
+        if (groups.length > 1 && this.cullGroups)
+        {
+            final Frustum frustum = viewport.getFrustum();
+            final Bounds groupBounds = this.groupBounds;
+            for (final MeshPolygons polygons : groups)
+            {
+                groupBounds.clear();
+                groupBounds.update(polygons.getBounds(), getRenderTransform());
+                if (frustum.isVisible(groupBounds))
+                    renderMeshPolygon(gl, polygons);
+            }
+        }
+        else
+        {
+            for (final MeshPolygons polygons : groups)
+                renderMeshPolygon(gl, polygons);
+        }
 
         // Render the mesh bounds if requested
         if (this.showBounds) renderBounds(gl);
@@ -381,31 +650,30 @@ public class Model extends SceneNode
         final FloatBuffer vertices = polygons.getVertices();
         final FloatBuffer normals = polygons.getNormals();
         final FloatBuffer texCoords = polygons.getTexCoords();
-        final ShortBuffer indices = polygons.getIndices();
-        final int materialIndex = polygons.getMaterial();
+        final Buffer indices = polygons.getIndices();
         final int mode = getPolygonMode(polygons.getSize());
+        final int stride = polygons.getStride();
 
         // Set vertex pointer
         gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
-        gl.glVertexPointer(3, 0, vertices);
+        gl.glVertexPointer(3, stride, vertices);
 
         // Set normal pointer (if normals are used)
         if (normals != null)
         {
             gl.glEnableClientState(GL.GL_NORMAL_ARRAY);
-            gl.glNormalPointer(0, normals);
+            gl.glNormalPointer(stride, normals);
         }
 
         // Set texture coordinate pointer (if used)
         if (texCoords != null)
         {
             gl.glEnableClientState(GL.GL_TEXTURE_COORD_ARRAY);
-            gl.glTexCoordPointer(2, 0, texCoords);
+            gl.glTexCoordPointer(2, stride, texCoords);
         }
 
         // Apply material
-        final Material material = (materialIndex == -1) ? Material.DEFAULT
-                : getMaterial(materialIndex);
+        final Material material = getGroupMaterial(polygons);
         boolean oldLighting = true;
         if (!material.getLighting())
         {
@@ -415,7 +683,7 @@ public class Model extends SceneNode
         applyMaterial(gl, material);
 
         // Draw polygons
-        gl.glDrawElements(mode, GL.GL_UNSIGNED_SHORT, indices);
+        gl.glDrawElements(mode, polygons.getIndexType(), indices);
 
         // Reset GL state
         removeMaterial(gl, material);
@@ -436,7 +704,7 @@ public class Model extends SceneNode
      * @return The polygon Mode (GL_POINTS, GL_LINES, GL_TRIANGLES)
      */
 
-    private int getPolygonMode(final int size)
+    static int getPolygonMode(final int size)
     {
         switch (size)
         {
@@ -465,18 +733,30 @@ public class Model extends SceneNode
      *            The material to apply
      */
 
-    private void applyMaterial(final GL gl, final Material material)
+    static void applyMaterial(final GL gl, final Material material)
     {
-        final de.ailis.threedee.assets.Texture diffuseTexture = material
-            .getDiffuseTexture();
-
+        final Texture diffuseTexture = material.getDiffuseTexture();
         if (diffuseTexture != null)
             TextureManager.getInstance().bind(gl, diffuseTexture);
-        this.diffuseTexture = diffuseTexture;
+        applyMaterialColors(gl, material);
+    }
+
+
+    /**
+     * Applies the material colors to the GL context. The diffuse color is
+     * replaced with white when the material has a diffuse texture.
+     *
+     * @param gl
+     *            The GL context
+     * @param material
+     *            The material to apply
+     */
 
+    static void applyMaterialColors(final GL gl, final Material material)
+    {
         gl.glMaterial(GL.GL_FRONT_AND_BACK, GL.GL_SPECULAR, material
                 .getSpecularColor().getBuffer());
-        if (diffuseTexture == null)
+        if (material.getDiffuseTexture() == null)
             gl.glMaterial(GL.GL_FRONT_AND_BACK, GL.GL_DIFFUSE, material
                     .getDiffuseColor().getBuffer());
         else
@@ -500,13 +780,10 @@ public class Model extends SceneNode
      *            The material to remove
      */
 
-    private void removeMaterial(final GL gl, final Material material)
+    static void removeMaterial(final GL gl, final Material material)
     {
-        if (this.diffuseTexture != null)
-        {
+        if (material.getDiffuseTexture() != null)
             TextureManager.getInstance().unbindTexture(gl);
-            this.diffuseTexture = null;
-        }
     }
 
 
@@ -556,16 +833,13 @@ public class Model extends SceneNode
             // Calculate a scale factor for the normals
             final float scale = polygons.getBounds().getSize() / 50;
 
-            final FloatBuffer normals = polygons.getNormals();
-            final FloatBuffer vertices = polygons.getVertices();
-            while (vertices.hasRemaining())
+            final int vertexCount = polygons.getVertexCount();
+            for (int i = 0; i < vertexCount; i++)
             {
-                final MutableVector3f a = new MutableVector3f(vertices.get(),
-                    vertices.get(),
-                        vertices.get());
-                final MutableVector3f b = new MutableVector3f(normals.get(),
-                    normals.get(),
-                        normals.get());
+                final MutableVector3f a = polygons.getVertex(i,
+                    new MutableVector3f());
+                final MutableVector3f b = polygons.getNormal(i,
+                    new MutableVector3f());
                 b.scale(scale);
                 b.add(a);
                 builder.addElement(2, builder.addVertex(a), builder
@@ -602,6 +876,7 @@ public class Model extends SceneNode
     public void setShowNormals(final boolean showNormals)
     {
         this.showNormals = showNormals;
+        invalidateDisplayList();
     }
 
 
@@ -627,6 +902,7 @@ public class Model extends SceneNode
     public void setShowBounds(final boolean showBounds)
     {
         this.showBounds = showBounds;
+        invalidateDisplayList();
     }
 
 
@@ -654,6 +930,7 @@ public class Model extends SceneNode
     public void setShowGroupBounds(final boolean showGroupBounds)
     {
         this.showGroupBounds = showGroupBounds;
+        invalidateDisplayList();
     }
 
 
@@ -690,6 +967,7 @@ public class Model extends SceneNode
     {
         final Model model = new Model(this.mesh);
         model.setTransform(getTransform());
+        model.setOccluderMesh(this.occluderMesh);
         for (final String id : this.mesh.getMaterials())
         {
             final Material material = this.materials[getMaterialIndex(id)];
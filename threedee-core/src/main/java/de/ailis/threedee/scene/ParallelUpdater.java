@@ -0,0 +1,469 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import de.ailis.threedee.scene.animation.Animation;
+import de.ailis.threedee.scene.animation.AnimationInputType;
+
+
+/**
+ * Updates the nodes and animations of a scene with a pool of threads. The
+ * scene tree is split into sub trees which don't contain more active nodes
+ * than a threshold and each batch of sub trees is updated by a separate
+ * task. Nodes with more active nodes in their sub trees are updated in the
+ * calling thread before their child nodes so parents are always updated
+ * first like in a sequential update. Sub trees without active nodes are
+ * skipped.
+ * Animations are grouped by the nodes they animate and independent groups
+ * are updated concurrently.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+final class ParallelUpdater
+{
+    /** The executor service */
+    private final ExecutorService executor;
+
+    /** The number of threads */
+    private final int threads;
+
+    /** The maximum number of active nodes updated by a single task */
+    private int threshold;
+
+    /** The tasks of the current update */
+    private final List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+
+    /** The batch of sub trees which is currently filled */
+    private List<SceneNode> batch;
+
+    /** The number of nodes in the current batch */
+    private int batchSize;
+
+
+    /**
+     * Constructor
+     *
+     * @param threads
+     *            The number of threads
+     * @param threshold
+     *            The maximum number of active nodes updated by a single task
+     */
+
+    ParallelUpdater(final int threads, final int threshold)
+    {
+        this.threads = threads;
+        this.threshold = threshold;
+        this.executor = Executors.newFixedThreadPool(threads,
+            new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(final Runnable runnable)
+                {
+                    final Thread thread = new Thread(runnable, "Scene update");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+
+    /**
+     * Returns the number of threads.
+     *
+     * @return The number of threads
+     */
+
+    int getThreads()
+    {
+        return this.threads;
+    }
+
+
+    /**
+     * Returns the maximum number of active nodes updated by a single task.
+     *
+     * @return The threshold
+     */
+
+    int getThreshold()
+    {
+        return this.threshold;
+    }
+
+
+    /**
+     * Sets the maximum number of active nodes updated by a single task.
+     *
+     * @param threshold
+     *            The threshold to set
+     */
+
+    void setThreshold(final int threshold)
+    {
+        this.threshold = threshold;
+    }
+
+
+    /**
+     * Updates the specified scene tree.
+     *
+     * @param rootNode
+     *            The root node of the scene tree
+     * @param delta
+     *            The time elapsed since the last scene update (in seconds)
+     * @return True if the scene needs to be rendered again, false if not
+     */
+
+    boolean updateNodes(final SceneNode rootNode, final float delta)
+    {
+        if (rootNode.getActiveCount() <= this.threshold)
+            return rootNode.update(delta);
+        final boolean changed = split(rootNode, delta);
+        flush(delta);
+        return execute() | changed;
+    }
+
+
+    /**
+     * Updates the specified animations.
+     *
+     * @param animations
+     *            The animations to update
+     * @param delta
+     *            The time elapsed since the last scene update (in seconds)
+     * @return True if the scene needs to be rendered again, false if not
+     */
+
+    boolean updateAnimations(final List<Animation> animations,
+        final float delta)
+    {
+        // Collect the time based animations
+        final List<Animation> timed = new ArrayList<Animation>(animations
+            .size());
+        for (final Animation animation : animations)
+            if (animation.getInputType() == AnimationInputType.TIME)
+                timed.add(animation);
+        final int count = timed.size();
+        if (count < 2)
+        {
+            boolean changed = false;
+            for (final Animation animation : timed)
+                changed |= animation.update(delta);
+            return changed;
+        }
+
+        // Merge animations which share animated nodes into the same group
+        final int[] groups = new int[count];
+        final Map<SceneNode, Integer> owners = new IdentityHashMap<SceneNode, Integer>();
+        for (int i = 0; i < count; i++)
+        {
+            groups[i] = i;
+            final List<SceneNode> nodes = new ArrayList<SceneNode>();
+            collectNodes(timed.get(i), nodes);
+            for (final SceneNode node : nodes)
+            {
+                final Integer owner = owners.put(node, i);
+                if (owner != null) union(groups, owner, i);
+            }
+        }
+
+        // Create one task per group. The animations of a group are updated
+        // in their original order.
+        final List<Callable<Boolean>> tasks = this.tasks;
+        final AnimationTask[] groupTasks = new AnimationTask[count];
+        for (int i = 0; i < count; i++)
+        {
+            final int group = find(groups, i);
+            AnimationTask task = groupTasks[group];
+            if (task == null)
+            {
+                task = groupTasks[group] = new AnimationTask(delta);
+                tasks.add(task);
+            }
+            task.animations.add(timed.get(i));
+        }
+        return execute();
+    }
+
+
+    /**
+     * Shuts down the threads.
+     */
+
+    void shutdown()
+    {
+        this.executor.shutdownNow();
+    }
+
+
+    /**
+     * Recursively splits the specified sub tree into tasks. Nodes with more
+     * active nodes in their sub trees than the threshold are updated
+     * directly.
+     *
+     * @param node
+     *            The root node of the sub tree
+     * @param delta
+     *            The time elapsed since the last scene update (in seconds)
+     * @return True if one of the directly updated nodes has changed
+     */
+
+    private boolean split(final SceneNode node, final float delta)
+    {
+        // Skip sub trees without active nodes
+        final int active = node.getActiveCount();
+        if (active == 0) return false;
+
+        // Batch sub trees with few active nodes or with custom update methods
+        if (active <= this.threshold
+            || SceneNode.overridesUpdate(node.getClass()))
+        {
+            List<SceneNode> batch = this.batch;
+            if (batch == null) batch = this.batch = new ArrayList<SceneNode>();
+            batch.add(node);
+            this.batchSize += active;
+            if (this.batchSize >= this.threshold) flush(delta);
+            return false;
+        }
+        boolean changed = node.updateSelf(delta);
+        SceneNode child = node.getFirstChild();
+        while (child != null)
+        {
+            changed |= split(child, delta);
+            child = child.getNextSibling();
+        }
+        return changed;
+    }
+
+
+    /**
+     * Turns the current batch into a task.
+     *
+     * @param delta
+     *            The time elapsed since the last scene update (in seconds)
+     */
+
+    private void flush(final float delta)
+    {
+        if (this.batch == null) return;
+        this.tasks.add(new NodeTask(this.batch, delta));
+        this.batch = null;
+        this.batchSize = 0;
+    }
+
+
+    /**
+     * Executes the collected tasks and reduces their results in task order.
+     *
+     * @return True if one of the tasks reported a change
+     */
+
+    private boolean execute()
+    {
+        final List<Callable<Boolean>> tasks = this.tasks;
+        try
+        {
+            // A single task is executed directly
+            if (tasks.size() == 1) return tasks.get(0).call().booleanValue();
+
+            boolean changed = false;
+            for (final Future<Boolean> future : this.executor.invokeAll(tasks))
+                changed |= future.get().booleanValue();
+            return changed;
+        }
+        catch (final InterruptedException e)
+        {
+            // Update was aborted. Report a change so the scene is rendered.
+            Thread.currentThread().interrupt();
+            return true;
+        }
+        catch (final ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new RuntimeException(cause.toString(), cause);
+        }
+        catch (final RuntimeException e)
+        {
+            throw e;
+        }
+        catch (final Exception e)
+        {
+            throw new RuntimeException(e.toString(), e);
+        }
+        finally
+        {
+            tasks.clear();
+        }
+    }
+
+
+    /**
+     * Recursively collects the nodes animated by the specified animation and
+     * its sub animations.
+     *
+     * @param animation
+     *            The animation
+     * @param nodes
+     *            The list to add the nodes to
+     */
+
+    private static void collectNodes(final Animation animation,
+        final List<SceneNode> nodes)
+    {
+        nodes.addAll(animation.getNodes());
+        for (final Animation subAnimation : animation.getAnimations())
+            collectNodes(subAnimation, nodes);
+    }
+
+
+    /**
+     * Returns the representative of the group the specified animation index
+     * belongs to.
+     *
+     * @param groups
+     *            The group links
+     * @param index
+     *            The animation index
+     * @return The representative animation index
+     */
+
+    private static int find(final int[] groups, final int index)
+    {
+        int root = index;
+        while (groups[root] != root)
+            root = groups[root];
+        int i = index;
+        while (groups[i] != root)
+        {
+            final int next = groups[i];
+            groups[i] = root;
+            i = next;
+        }
+        return root;
+    }
+
+
+    /**
+     * Merges the groups of the two specified animation indices. The lower
+     * index becomes the representative so grouping is deterministic.
+     *
+     * @param groups
+     *            The group links
+     * @param a
+     *            The first animation index
+     * @param b
+     *            The second animation index
+     */
+
+    private static void union(final int[] groups, final int a, final int b)
+    {
+        final int rootA = find(groups, a);
+        final int rootB = find(groups, b);
+        if (rootA < rootB)
+            groups[rootB] = rootA;
+        else if (rootB < rootA) groups[rootA] = rootB;
+    }
+
+
+    /**
+     * Task updating a batch of sub trees.
+     */
+
+    private static final class NodeTask implements Callable<Boolean>
+    {
+        /** The root nodes of the sub trees */
+        private final List<SceneNode> nodes;
+
+        /** The time delta */
+        private final float delta;
+
+
+        /**
+         * Constructor
+         *
+         * @param nodes
+         *            The root nodes of the sub trees
+         * @param delta
+         *            The time delta
+         */
+
+        NodeTask(final List<SceneNode> nodes, final float delta)
+        {
+            this.nodes = nodes;
+            this.delta = delta;
+        }
+
+
+        /**
+         * @see java.util.concurrent.Callable#call()
+         */
+
+        @Override
+        public Boolean call()
+        {
+            boolean changed = false;
+            for (final SceneNode node : this.nodes)
+                changed |= node.update(this.delta);
+            return Boolean.valueOf(changed);
+        }
+    }
+
+
+    /**
+     * Task updating a group of animations.
+     */
+
+    private static final class AnimationTask implements Callable<Boolean>
+    {
+        /** The animations to update */
+        final List<Animation> animations = new ArrayList<Animation>();
+
+        /** The time delta */
+        private final float delta;
+
+
+        /**
+         * Constructor
+         *
+         * @param delta
+         *            The time delta
+         */
+
+        AnimationTask(final float delta)
+        {
+            this.delta = delta;
+        }
+
+
+        /**
+         * @see java.util.concurrent.Callable#call()
+         */
+
+        @Override
+        public Boolean call()
+        {
+            boolean changed = false;
+            for (final Animation animation : this.animations)
+                changed |= animation.update(this.delta);
+            return Boolean.valueOf(changed);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import java.util.List;
+
+import de.ailis.threedee.rendering.GL;
+import de.ailis.threedee.rendering.Viewport;
+import de.ailis.threedee.scene.properties.NodeProperty;
+
+
+/**
+ * The render environment of a scene node which has lights or node properties.
+ * Environments are chained to the environment of the nearest parent node with
+ * lights or properties so the render queue can switch from one environment
+ * to another by only removing and applying the parts which differ.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+final class RenderEnvironment
+{
+    /** The parent environment. Null if this is a top-level environment */
+    private final RenderEnvironment parent;
+
+    /** The scene node providing the lights and properties */
+    private final SceneNode node;
+
+    /** The depth of this environment in the environment chain */
+    private final int depth;
+
+
+    /**
+     * Constructor.
+     *
+     * @param parent
+     *            The parent environment. Null if none
+     * @param node
+     *            The scene node providing the lights and properties
+     */
+
+    RenderEnvironment(final RenderEnvironment parent, final SceneNode node)
+    {
+        this.parent = parent;
+        this.node = node;
+        this.depth = parent == null ? 1 : parent.depth + 1;
+    }
+
+
+    /**
+     * Returns the parent environment.
+     *
+     * @return The parent environment. Null if none
+     */
+
+    RenderEnvironment getParent()
+    {
+        return this.parent;
+    }
+
+
+    /**
+     * Applies the node properties and the lights of this environment. The
+     * modelview matrix is replaced by the transformation of each light.
+     *
+     * @param viewport
+     *            The viewport
+     */
+
+    private void apply(final Viewport viewport)
+    {
+        final GL gl = viewport.getGL();
+        final List<NodeProperty> properties = this.node.getProperties();
+        final List<Light> lights = this.node.getLights();
+
+        // Apply node properties
+        if (properties != null) for (final NodeProperty property : properties)
+            property.apply(gl);
+
+        // Apply lights
+        if (lights != null)
+        {
+            for (final Light light : lights)
+            {
+                viewport.loadTransform(light.getRenderTransform());
+                light.apply(viewport);
+            }
+        }
+    }
+
+
+    /**
+     * Removes the node properties and the lights of this environment.
+     *
+     * @param viewport
+     *            The viewport
+     */
+
+    private void remove(final Viewport viewport)
+    {
+        final GL gl = viewport.getGL();
+        final List<NodeProperty> properties = this.node.getProperties();
+        final List<Light> lights = this.node.getLights();
+
+        // Remove lights
+        if (lights != null) for (final Light light : lights)
+            light.remove(viewport);
+
+        // Remove node properties
+        if (properties != null) for (final NodeProperty property : properties)
+            property.remove(gl);
+    }
+
+
+    /**
+     * Switches from one environment to another. Only the environments which
+     * are not shared by both chains are removed and applied.
+     *
+     * @param viewport
+     *            The viewport
+     * @param from
+     *            The currently active environment. Null if none
+     * @param to
+     *            The new environment. Null if none
+     */
+
+    static void change(final Viewport viewport, final RenderEnvironment from,
+        final RenderEnvironment to)
+    {
+        if (from == to) return;
+        if (to == null || (from != null && from.depth >= to.depth))
+        {
+            from.remove(viewport);
+            change(viewport, from.parent, to);
+        }
+        else
+        {
+            change(viewport, from, to.parent);
+            to.apply(viewport);
+        }
+    }
+}
@@ -0,0 +1,1233 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import de.ailis.gramath.Matrix4f;
+import de.ailis.gramath.MutableMatrix4f;
+import de.ailis.gramath.Vector3f;
+import de.ailis.threedee.assets.Material;
+import de.ailis.threedee.assets.MeshPolygons;
+import de.ailis.threedee.assets.Texture;
+import de.ailis.threedee.mathold.Bounds;
+import de.ailis.threedee.rendering.GL;
+import de.ailis.threedee.rendering.OcclusionBuffer;
+import de.ailis.threedee.rendering.Viewport;
+import de.ailis.threedee.scene.buffers.BufferManager;
+import de.ailis.threedee.scene.buffers.BufferReference;
+import de.ailis.threedee.scene.textures.TextureManager;
+
+
+/**
+ * The render queue collects the draw items of all visible scene nodes, sorts
+ * them by a packed 64 bit state key and then renders them while only changing
+ * the GL state when it differs from the state of the previous draw item.
+ *
+ * The draw items are rendered in two passes. The opaque pass comes first.
+ * Its state key contains (from most significant to least significant bits)
+ * the render environment (lights and node properties, combined with the
+ * lights selected by the light manager), a coarse view depth, the texture,
+ * the material, the geometry and a fine view depth. So environment switches
+ * are minimized first, then opaque geometry is drawn roughly front to back
+ * to reject hidden fragments early, then texture switches and material
+ * switches are minimized.
+ *
+ * The transparent pass follows with depth buffer writes disabled. Its
+ * state key starts with the inverted view depth so transparent draw items
+ * are blended back to front. The state is only used to group items at the
+ * same depth.
+ *
+ * The view depth is the depth of the bounds center of the scene node. It
+ * is quantized logarithmically between the near and far clipping plane so
+ * the keys can be sorted with a bucketed radix sort.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public final class RenderQueue
+{
+    /** The number of bits used for the environment */
+    private static final int ENVIRONMENT_BITS = 11;
+
+    /** The number of bits used for the texture */
+    private static final int TEXTURE_BITS = 13;
+
+    /** The number of bits used for the material */
+    private static final int MATERIAL_BITS = 13;
+
+    /** The number of bits used for the geometry of opaque draw items */
+    private static final int GEOMETRY_BITS = 15;
+
+    /** The number of bits used for the quantized view depth */
+    private static final int DEPTH_BITS = 16;
+
+    /** The maximum quantized view depth */
+    private static final int MAX_DEPTH = (1 << DEPTH_BITS) - 1;
+
+    /** The number of bits used for the fine depth of opaque draw items */
+    private static final int FINE_DEPTH_BITS = 8;
+
+    /** The number of bits used for the coarse depth of opaque draw items */
+    private static final int COARSE_DEPTH_BITS = 3;
+
+    /** The bit position of the geometry of opaque draw items */
+    private static final int GEOMETRY_SHIFT = FINE_DEPTH_BITS;
+
+    /** The bit position of the material of opaque draw items */
+    private static final int MATERIAL_SHIFT = GEOMETRY_SHIFT + GEOMETRY_BITS;
+
+    /** The bit position of the texture of opaque draw items */
+    private static final int TEXTURE_SHIFT = MATERIAL_SHIFT + MATERIAL_BITS;
+
+    /** The bit position of the coarse depth of opaque draw items */
+    private static final int COARSE_DEPTH_SHIFT = TEXTURE_SHIFT
+        + TEXTURE_BITS;
+
+    /** The bit position of the environment of opaque draw items */
+    private static final int ENVIRONMENT_SHIFT = COARSE_DEPTH_SHIFT
+        + COARSE_DEPTH_BITS;
+
+    /**
+     * The bit marking transparent draw items. This is the most significant
+     * bit so transparent draw items are sorted behind opaque ones.
+     */
+    private static final long TRANSPARENT_BIT = 1L << 63;
+
+    /** The number of bits used for the geometry of transparent draw items */
+    private static final int TRANSPARENT_GEOMETRY_BITS = 10;
+
+    /** The bit position of the material of transparent draw items */
+    private static final int TRANSPARENT_MATERIAL_SHIFT = TRANSPARENT_GEOMETRY_BITS;
+
+    /** The bit position of the texture of transparent draw items */
+    private static final int TRANSPARENT_TEXTURE_SHIFT = TRANSPARENT_MATERIAL_SHIFT
+        + MATERIAL_BITS;
+
+    /** The bit position of the environment of transparent draw items */
+    private static final int TRANSPARENT_ENVIRONMENT_SHIFT = TRANSPARENT_TEXTURE_SHIFT
+        + TEXTURE_BITS;
+
+    /** The bit position of the inverted depth of transparent draw items */
+    private static final int TRANSPARENT_DEPTH_SHIFT = TRANSPARENT_ENVIRONMENT_SHIFT
+        + ENVIRONMENT_BITS;
+
+    /**
+     * The state key bits of opaque nodes rendering themselves. These are
+     * sorted behind all other opaque draw items of the same environment.
+     */
+    private static final long CUSTOM_BITS = -1L >>> (64 - ENVIRONMENT_SHIFT);
+
+    /**
+     * The state key bits of transparent nodes rendering themselves. These are
+     * sorted behind all other transparent draw items of the same depth and
+     * environment.
+     */
+    private static final long TRANSPARENT_CUSTOM_BITS =
+        -1L >>> (64 - TRANSPARENT_ENVIRONMENT_SHIFT);
+
+    /** The default distance of the near clipping plane */
+    private static final float DEFAULT_Z_NEAR = 1;
+
+    /** The default distance of the far clipping plane */
+    private static final float DEFAULT_Z_FAR = 1000;
+
+    /** The initial capacity of the queue */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The viewport currently rendered */
+    private Viewport viewport;
+
+    /** The occlusion buffer used for culling. Null if not occluding */
+    private OcclusionBuffer occlusionBuffer;
+
+    /**
+     * The node to which the transformations of the draw items are relative.
+     * Null if the scene transformations are used
+     */
+    private SceneNode origin;
+
+    /** The inverted recording transformation of the origin node */
+    private final MutableMatrix4f originInverse = MutableMatrix4f.identity();
+
+    /** Matrix used to calculate transformations relative to the origin */
+    private final MutableMatrix4f relativeTransform = MutableMatrix4f
+        .identity();
+
+    /** The current render environment used for new draw items */
+    private RenderEnvironment environment;
+
+    /** The light manager selecting lights for the draw items. Null if none */
+    private LightManager lightManager;
+
+    /** The node for which lights were selected last */
+    private SceneNode lightNode;
+
+    /** The environment for which lights were selected last */
+    private RenderEnvironment lightEnvironment;
+
+    /** The lights selected last */
+    private LightManager.LightSet lightSet;
+
+    /** The distance of the near clipping plane */
+    private float zNear = DEFAULT_Z_NEAR;
+
+    /** The distance of the far clipping plane */
+    private float zFar = DEFAULT_Z_FAR;
+
+    /** The node for which the view depth was calculated last */
+    private SceneNode depthNode;
+
+    /** The quantized view depth calculated last */
+    private int depth;
+
+    /** The number of queued draw items */
+    private int size;
+
+    /** The state keys of the draw items */
+    private long[] keys = new long[INITIAL_CAPACITY];
+
+    /** The scene nodes of the draw items */
+    private SceneNode[] nodes = new SceneNode[INITIAL_CAPACITY];
+
+    /** The polygons of the draw items. Null for nodes rendering themselves */
+    private MeshPolygons[] polygons = new MeshPolygons[INITIAL_CAPACITY];
+
+    /** The materials of the draw items */
+    private Material[] materials = new Material[INITIAL_CAPACITY];
+
+    /** The render environments of the draw items */
+    private RenderEnvironment[] environments = new RenderEnvironment[INITIAL_CAPACITY];
+
+    /** The lights selected by the light manager for the draw items */
+    private LightManager.LightSet[] lightSets = new LightManager.LightSet[INITIAL_CAPACITY];
+
+    /** If the draw items are compiled nodes rendering their display list */
+    private boolean[] displayLists = new boolean[INITIAL_CAPACITY];
+
+    /** The sorted order of the draw items */
+    private int[] order = new int[INITIAL_CAPACITY];
+
+    /** Temporary order array used by the radix sort */
+    private int[] tempOrder = new int[INITIAL_CAPACITY];
+
+    /** The byte counts of all eight radix sort passes */
+    private final int[] counts = new int[8 * 256];
+
+    /** The environment IDs of the current frame */
+    private final IdentityIds environmentIds = new IdentityIds();
+
+    /** The texture IDs of the current frame */
+    private final IdentityIds textureIds = new IdentityIds();
+
+    /** The material IDs of the current frame */
+    private final IdentityIds materialIds = new IdentityIds();
+
+    /** The geometry IDs of the current frame */
+    private final IdentityIds geometryIds = new IdentityIds();
+
+    /** If the normal array is currently enabled */
+    private boolean normalArray;
+
+    /** If the texture coordinate array is currently enabled */
+    private boolean texCoordArray;
+
+    /** The currently bound buffer objects. Null if client arrays are used */
+    private BufferReference buffers;
+
+    /** The number of material switches during the last rendering */
+    private int materialChanges;
+
+    /** The number of texture switches during the last rendering */
+    private int textureChanges;
+
+    /** The number of environment switches during the last rendering */
+    private int environmentChanges;
+
+
+    /**
+     * Sets the light manager which selects the managed lights for the draw
+     * items. Queues recording display lists must not have one because the
+     * selected lights depend on the position of the nodes.
+     *
+     * @param lightManager
+     *            The light manager. Null for none
+     */
+
+    void setLightManager(final LightManager lightManager)
+    {
+        this.lightManager = lightManager;
+    }
+
+
+    /**
+     * Sets the depth range used for quantizing the view depth of the draw
+     * items. This is the range between the near and far clipping planes of
+     * the camera.
+     *
+     * @param zNear
+     *            The distance of the near clipping plane
+     * @param zFar
+     *            The distance of the far clipping plane
+     */
+
+    void setDepthRange(final float zNear, final float zFar)
+    {
+        this.zNear = zNear > 0 ? zNear : DEFAULT_Z_NEAR;
+        this.zFar = zFar > this.zNear ? zFar : this.zNear * 2;
+    }
+
+
+    /**
+     * Starts collecting draw items for the specified viewport.
+     *
+     * @param viewport
+     *            The viewport
+     */
+
+    void begin(final Viewport viewport)
+    {
+        begin(viewport, null);
+    }
+
+
+    /**
+     * Starts collecting draw items for the specified viewport. The
+     * transformations of the draw items are applied relative to the specified
+     * origin node instead of the scene. This is used to record the sub tree
+     * of a compiled node into a display list which is independent from the
+     * transformation of the compiled node. Culling is disabled in this mode
+     * because the display list must contain the whole sub tree.
+     *
+     * @param viewport
+     *            The viewport
+     * @param origin
+     *            The node to which the transformations are relative. Null to
+     *            use the scene transformations
+     */
+
+    void begin(final Viewport viewport, final SceneNode origin)
+    {
+        this.viewport = viewport;
+        this.origin = origin;
+        if (origin != null)
+            this.originInverse.set(origin.getRecordingTransform()).invert();
+        this.occlusionBuffer = origin == null && viewport.isOccluding()
+            ? viewport.getOcclusionBuffer() : null;
+        this.environment = null;
+        this.lightNode = null;
+        this.depthNode = null;
+        this.size = 0;
+    }
+
+
+    /**
+     * Returns the viewport which is currently rendered.
+     *
+     * @return The viewport
+     */
+
+    public Viewport getViewport()
+    {
+        return this.viewport;
+    }
+
+
+    /**
+     * Checks if nodes should cull their geometry against the view frustum.
+     *
+     * @return True if culling is active, false if not
+     */
+
+    public boolean isCulling()
+    {
+        return this.origin == null && this.viewport.isCulling();
+    }
+
+
+    /**
+     * Returns the occlusion buffer used for culling the nodes.
+     *
+     * @return The occlusion buffer or null if occlusion culling is not active
+     */
+
+    OcclusionBuffer getOcclusionBuffer()
+    {
+        return this.occlusionBuffer;
+    }
+
+
+    /**
+     * Returns the render environment used for new draw items.
+     *
+     * @return The render environment. Null if none
+     */
+
+    RenderEnvironment getEnvironment()
+    {
+        return this.environment;
+    }
+
+
+    /**
+     * Sets the render environment used for new draw items.
+     *
+     * @param environment
+     *            The render environment. Null for none
+     */
+
+    void setEnvironment(final RenderEnvironment environment)
+    {
+        this.environment = environment;
+    }
+
+
+    /**
+     * Returns the number of queued draw items.
+     *
+     * @return The number of queued draw items
+     */
+
+    public int getSize()
+    {
+        return this.size;
+    }
+
+
+    /**
+     * Returns the number of material switches during the last rendering.
+     *
+     * @return The number of material switches
+     */
+
+    public int getMaterialChanges()
+    {
+        return this.materialChanges;
+    }
+
+
+    /**
+     * Returns the number of texture switches during the last rendering.
+     *
+     * @return The number of texture switches
+     */
+
+    public int getTextureChanges()
+    {
+        return this.textureChanges;
+    }
+
+
+    /**
+     * Returns the number of environment switches during the last rendering.
+     *
+     * @return The number of environment switches
+     */
+
+    public int getEnvironmentChanges()
+    {
+        return this.environmentChanges;
+    }
+
+
+    /**
+     * Adds a scene node which renders itself. The render method of the node
+     * is called with the scene transformation of the node applied and with
+     * no material, texture or vertex arrays set. Nodes reporting transparent
+     * content are rendered in the transparent pass.
+     *
+     * @param node
+     *            The scene node to render
+     * @see SceneNode#isTransparent()
+     */
+
+    public void add(final SceneNode node)
+    {
+        final LightManager.LightSet lightSet = selectLights(node);
+        final int index = allocate();
+        if (node.isTransparent())
+            this.keys[index] = TRANSPARENT_BIT
+                | (long) (MAX_DEPTH - getDepth(node)) << TRANSPARENT_DEPTH_SHIFT
+                | environmentKey(lightSet, TRANSPARENT_ENVIRONMENT_SHIFT)
+                | TRANSPARENT_CUSTOM_BITS;
+        else
+            this.keys[index] = environmentKey(lightSet, ENVIRONMENT_SHIFT)
+                | CUSTOM_BITS;
+        this.nodes[index] = node;
+        this.polygons[index] = null;
+        this.materials[index] = null;
+        this.environments[index] = this.environment;
+        this.lightSets[index] = lightSet;
+        this.displayLists[index] = false;
+    }
+
+
+    /**
+     * Adds a compiled scene node which renders its sub tree with a display
+     * list. Like nodes rendering themselves the display list is called with
+     * the scene transformation of the node applied and with no material,
+     * texture or vertex arrays set. Display lists are always rendered in the
+     * opaque pass because sub trees with transparent content are not
+     * compiled.
+     *
+     * @param node
+     *            The compiled scene node
+     */
+
+    void addDisplayList(final SceneNode node)
+    {
+        final LightManager.LightSet lightSet = selectLights(node);
+        final int index = allocate();
+        this.keys[index] = environmentKey(lightSet, ENVIRONMENT_SHIFT)
+            | CUSTOM_BITS;
+        this.nodes[index] = node;
+        this.polygons[index] = null;
+        this.materials[index] = null;
+        this.environments[index] = this.environment;
+        this.lightSets[index] = lightSet;
+        this.displayLists[index] = true;
+    }
+
+
+    /**
+     * Checks if the queue contains draw items which are rendered in the
+     * transparent pass.
+     *
+     * @return True if transparent draw items are queued, false if not
+     */
+
+    boolean hasTransparentItems()
+    {
+        final long[] keys = this.keys;
+        for (int i = 0, max = this.size; i < max; i++)
+            if (keys[i] < 0) return true;
+        return false;
+    }
+
+
+    /**
+     * Adds a polygon group to render with the scene transformation of the
+     * specified node. Polygons with a transparent material are rendered in
+     * the transparent pass.
+     *
+     * @param node
+     *            The scene node
+     * @param polygons
+     *            The polygons to render
+     * @param material
+     *            The material to use
+     */
+
+    public void add(final SceneNode node, final MeshPolygons polygons,
+        final Material material)
+    {
+        final LightManager.LightSet lightSet = selectLights(node);
+        final Texture texture = material.getDiffuseTexture();
+        final int depth = getDepth(node);
+        final int index = allocate();
+        if (material.isTransparent())
+        {
+            this.keys[index] = TRANSPARENT_BIT
+                | (long) (MAX_DEPTH - depth) << TRANSPARENT_DEPTH_SHIFT
+                | environmentKey(lightSet, TRANSPARENT_ENVIRONMENT_SHIFT)
+                | id(this.textureIds, texture, TEXTURE_BITS,
+                    TRANSPARENT_TEXTURE_SHIFT)
+                | id(this.materialIds, material, MATERIAL_BITS,
+                    TRANSPARENT_MATERIAL_SHIFT)
+                | id(this.geometryIds, polygons, TRANSPARENT_GEOMETRY_BITS, 0);
+        }
+        else
+        {
+            final int opaqueDepth = depth >>> (DEPTH_BITS - COARSE_DEPTH_BITS
+                - FINE_DEPTH_BITS);
+            this.keys[index] = environmentKey(lightSet, ENVIRONMENT_SHIFT)
+                | (long) (opaqueDepth >>> FINE_DEPTH_BITS) << COARSE_DEPTH_SHIFT
+                | id(this.textureIds, texture, TEXTURE_BITS, TEXTURE_SHIFT)
+                | id(this.materialIds, material, MATERIAL_BITS, MATERIAL_SHIFT)
+                | id(this.geometryIds, polygons, GEOMETRY_BITS, GEOMETRY_SHIFT)
+                | (opaqueDepth & ((1 << FINE_DEPTH_BITS) - 1));
+        }
+        this.nodes[index] = node;
+        this.polygons[index] = polygons;
+        this.materials[index] = material;
+        this.environments[index] = this.environment;
+        this.lightSets[index] = lightSet;
+        this.displayLists[index] = false;
+    }
+
+
+    /**
+     * Selects the managed lights for the specified node. The selection is
+     * reused for consecutive draw items of the same node.
+     *
+     * @param node
+     *            The scene node
+     * @return The selected lights. Null if none
+     */
+
+    private LightManager.LightSet selectLights(final SceneNode node)
+    {
+        final LightManager lightManager = this.lightManager;
+        if (lightManager == null) return null;
+        if (node != this.lightNode || this.environment != this.lightEnvironment)
+        {
+            this.lightNode = node;
+            this.lightEnvironment = this.environment;
+            this.lightSet = lightManager.select(node, this.environment);
+        }
+        return this.lightSet;
+    }
+
+
+    /**
+     * Returns the quantized view depth of the specified node. This is the
+     * depth of the center of the render bounds (or the origin of nodes
+     * without bounds) mapped logarithmically from the range between the
+     * near and far clipping plane to the range 0 to MAX_DEPTH. The depth is
+     * reused for consecutive draw items of the same node.
+     *
+     * @param node
+     *            The scene node
+     * @return The quantized view depth
+     */
+
+    private int getDepth(final SceneNode node)
+    {
+        if (node == this.depthNode) return this.depth;
+
+        final float x, y, z;
+        final Bounds bounds = node.getRenderBounds();
+        if (bounds.isEmpty())
+        {
+            final FloatBuffer m = node.getRenderTransform().getBuffer();
+            x = m.get(12);
+            y = m.get(13);
+            z = m.get(14);
+        }
+        else
+        {
+            final Vector3f min = bounds.getMin();
+            final Vector3f max = bounds.getMax();
+            x = (min.getX() + max.getX()) / 2;
+            y = (min.getY() + max.getY()) / 2;
+            z = (min.getZ() + max.getZ()) / 2;
+        }
+
+        // The camera looks along the negative Z axis of the view space
+        final Matrix4f viewTransform = this.viewport.getViewTransform();
+        final float distance;
+        if (viewTransform == null)
+        {
+            distance = -z;
+        }
+        else
+        {
+            final FloatBuffer v = viewTransform.getBuffer();
+            distance = -(v.get(2) * x + v.get(6) * y + v.get(10) * z + v
+                .get(14));
+        }
+
+        final float zNear = this.zNear;
+        final int depth;
+        if (!(distance > zNear))
+            depth = 0;
+        else if (distance >= this.zFar)
+            depth = MAX_DEPTH;
+        else
+            depth = (int) (Math.log(distance / zNear)
+                / Math.log(this.zFar / zNear) * MAX_DEPTH);
+
+        this.depthNode = node;
+        this.depth = depth;
+        return depth;
+    }
+
+
+    /**
+     * Returns the state key bits of the current environment combined with
+     * the specified selected lights. Light sets already contain their
+     * environment so they are used as environment ID instead.
+     *
+     * @param lightSet
+     *            The selected lights. Null if none
+     * @param shift
+     *            The bit position of the environment
+     * @return The environment key bits
+     */
+
+    private long environmentKey(final LightManager.LightSet lightSet,
+        final int shift)
+    {
+        return id(this.environmentIds, lightSet != null ? lightSet
+            : this.environment, ENVIRONMENT_BITS, shift);
+    }
+
+
+    /**
+     * Returns the state key bits for the specified object. IDs which don't
+     * fit into the specified number of bits are clamped to the maximum ID.
+     * This only makes the sorting less effective, the rendering is still
+     * correct because state switches are detected by comparing the objects.
+     *
+     * @param ids
+     *            The ID map to use
+     * @param object
+     *            The object. May be null
+     * @param bits
+     *            The number of bits available for the ID
+     * @param shift
+     *            The bit position of the ID
+     * @return The state key bits
+     */
+
+    private static long id(final IdentityIds ids, final Object object,
+        final int bits, final int shift)
+    {
+        final int max = (1 << bits) - 1;
+        return (long) Math.min(ids.get(object), max) << shift;
+    }
+
+
+    /**
+     * Reserves the next draw item slot and grows the arrays if needed.
+     *
+     * @return The index of the reserved draw item
+     */
+
+    private int allocate()
+    {
+        final int index = this.size;
+        if (index == this.keys.length)
+        {
+            final int capacity = index * 2;
+            this.keys = Arrays.copyOf(this.keys, capacity);
+            this.nodes = Arrays.copyOf(this.nodes, capacity);
+            this.polygons = Arrays.copyOf(this.polygons, capacity);
+            this.materials = Arrays.copyOf(this.materials, capacity);
+            this.environments = Arrays.copyOf(this.environments, capacity);
+            this.lightSets = Arrays.copyOf(this.lightSets, capacity);
+            this.displayLists = Arrays.copyOf(this.displayLists, capacity);
+            this.order = new int[capacity];
+            this.tempOrder = new int[capacity];
+        }
+        this.size = index + 1;
+        return index;
+    }
+
+
+    /**
+     * Sorts the draw items by their state keys. This is a LSD radix sort
+     * processing one byte per pass. Passes in which all keys have the same
+     * byte value are skipped.
+     */
+
+    void sort()
+    {
+        final int size = this.size;
+        final long[] keys = this.keys;
+        final int[] counts = this.counts;
+        int[] order = this.order;
+        int[] tempOrder = this.tempOrder;
+
+        for (int i = 0; i < size; i++)
+            order[i] = i;
+        if (size < 2) return;
+
+        // Count the byte values of all passes at once
+        Arrays.fill(counts, 0);
+        for (int i = 0; i < size; i++)
+        {
+            final long key = keys[i];
+            for (int pass = 0; pass < 8; pass++)
+                counts[(pass << 8) + (int) ((key >>> (pass << 3)) & 0xff)]++;
+        }
+
+        for (int pass = 0; pass < 8; pass++)
+        {
+            final int offset = pass << 8;
+            final int shift = pass << 3;
+
+            // Skip pass if all keys have the same byte value
+            if (counts[offset + (int) ((keys[0] >>> shift) & 0xff)] == size)
+                continue;
+
+            // Convert counts into start positions
+            int position = 0;
+            for (int i = offset; i < offset + 256; i++)
+            {
+                final int count = counts[i];
+                counts[i] = position;
+                position += count;
+            }
+
+            // Distribute the items
+            for (int i = 0; i < size; i++)
+            {
+                final int item = order[i];
+                tempOrder[counts[offset + (int) ((keys[item] >>> shift) & 0xff)]++] = item;
+            }
+
+            final int[] tmp = order;
+            order = tempOrder;
+            tempOrder = tmp;
+        }
+
+        this.order = order;
+        this.tempOrder = tempOrder;
+    }
+
+
+    /**
+     * Returns the scene node of the draw item at the specified position of
+     * the last sort.
+     *
+     * @param position
+     *            The sorted position
+     * @return The scene node
+     */
+
+    SceneNode getSortedNode(final int position)
+    {
+        return this.nodes[this.order[position]];
+    }
+
+
+    /**
+     * Returns the material of the draw item at the specified position of the
+     * last sort.
+     *
+     * @param position
+     *            The sorted position
+     * @return The material. Null for nodes rendering themselves
+     */
+
+    Material getSortedMaterial(final int position)
+    {
+        return this.materials[this.order[position]];
+    }
+
+
+    /**
+     * Sorts and renders the queued draw items. The modelview matrix must
+     * contain the camera transformation. After rendering the queue is
+     * cleared.
+     */
+
+    void render()
+    {
+        final Viewport viewport = this.viewport;
+        final GL gl = viewport.getGL();
+        final TextureManager textureManager = TextureManager.getInstance();
+
+        sort();
+
+        RenderEnvironment currentEnvironment = null;
+        LightManager.LightSet currentLightSet = null;
+        Material currentMaterial = null;
+        Texture currentTexture = null;
+        MeshPolygons currentPolygons = null;
+        boolean unlit = false;
+        boolean lightingDisabled = false;
+        boolean transparentPass = false;
+        int materialChanges = 0, textureChanges = 0, environmentChanges = 0;
+
+        for (int i = 0, max = this.size; i < max; i++)
+        {
+            final int item = this.order[i];
+            final SceneNode node = this.nodes[item];
+            final MeshPolygons polygons = this.polygons[item];
+            final RenderEnvironment environment = this.environments[item];
+            final LightManager.LightSet lightSet = this.lightSets[item];
+
+            // Start the transparent pass when reaching the first transparent
+            // draw item. Transparent polygons must not hide each other
+            if (!transparentPass && this.keys[item] < 0)
+            {
+                gl.glDepthMask(false);
+                transparentPass = true;
+            }
+
+            // Switch the render environment if needed. Lighting must be
+            // restored first because node properties may depend on it. The
+            // managed lights are unbound first so the environment lights
+            // get the same light slots as without them
+            if (environment != currentEnvironment
+                || lightSet != currentLightSet)
+            {
+                if (lightingDisabled) gl.glEnable(GL.GL_LIGHTING);
+                lightingDisabled = false;
+                unlit = false;
+                currentMaterial = null;
+                if (currentLightSet != null)
+                    LightManager.unbind(viewport, currentLightSet);
+                RenderEnvironment.change(viewport, currentEnvironment,
+                    environment);
+                if (lightSet != null) LightManager.bind(viewport, lightSet);
+                currentEnvironment = environment;
+                currentLightSet = lightSet;
+                environmentChanges++;
+            }
+
+            // Let nodes render themselves with a clean state
+            if (polygons == null)
+            {
+                if (lightingDisabled) gl.glEnable(GL.GL_LIGHTING);
+                lightingDisabled = false;
+                unlit = false;
+                if (currentTexture != null)
+                    textureManager.unbindTexture(gl);
+                if (currentPolygons != null) resetArrays(gl);
+                currentMaterial = null;
+                currentTexture = null;
+                currentPolygons = null;
+
+                beginTransform(gl, node);
+                if (this.displayLists[item])
+                    node.renderDisplayList(viewport);
+                else
+                    node.render(viewport);
+                endTransform(gl);
+                continue;
+            }
+
+            // Apply material if needed
+            final Material material = this.materials[item];
+            if (material != currentMaterial)
+            {
+                if (material.getLighting() == unlit)
+                {
+                    unlit = !unlit;
+                    if (unlit)
+                    {
+                        lightingDisabled = gl.glIsEnabled(GL.GL_LIGHTING);
+                        if (lightingDisabled) gl.glDisable(GL.GL_LIGHTING);
+                    }
+                    else
+                    {
+                        if (lightingDisabled) gl.glEnable(GL.GL_LIGHTING);
+                        lightingDisabled = false;
+                    }
+                }
+
+                final Texture texture = material.getDiffuseTexture();
+                if (texture != currentTexture)
+                {
+                    if (texture != null)
+                        textureManager.bind(gl, texture);
+                    else
+                        textureManager.unbindTexture(gl);
+                    currentTexture = texture;
+                    textureChanges++;
+                }
+
+                Model.applyMaterialColors(gl, material);
+                currentMaterial = material;
+                materialChanges++;
+            }
+
+            // Set vertex arrays if needed
+            if (polygons != currentPolygons)
+            {
+                setArrays(gl, polygons, currentPolygons == null);
+                currentPolygons = polygons;
+            }
+
+            // Draw the polygons
+            beginTransform(gl, node);
+            final int mode = Model.getPolygonMode(polygons.getSize());
+            final BufferReference buffers = this.buffers;
+            final int indexType = polygons.getIndexType();
+            if (buffers != null)
+                gl.glDrawElements(mode, buffers.getIndexCount(), indexType, 0);
+            else
+                gl.glDrawElements(mode, indexType, polygons.getIndices());
+            endTransform(gl);
+        }
+
+        // Reset GL state
+        if (transparentPass) gl.glDepthMask(true);
+        if (lightingDisabled) gl.glEnable(GL.GL_LIGHTING);
+        if (currentTexture != null) textureManager.unbindTexture(gl);
+        if (currentPolygons != null) resetArrays(gl);
+        if (currentLightSet != null)
+            LightManager.unbind(viewport, currentLightSet);
+        RenderEnvironment.change(viewport, currentEnvironment, null);
+        if (this.origin == null && this.size > 0)
+        {
+            final Matrix4f viewTransform = viewport.getViewTransform();
+            if (viewTransform == null)
+                gl.glLoadIdentity();
+            else
+                gl.glLoadMatrix(viewTransform.getBuffer());
+        }
+
+        this.materialChanges = materialChanges;
+        this.textureChanges = textureChanges;
+        this.environmentChanges = environmentChanges;
+        clear();
+    }
+
+
+    /**
+     * Sets up the modelview matrix for drawing the specified node. Without
+     * an origin node the scene transformation of the node premultiplied with
+     * the view transformation is loaded directly. When recording a sub tree
+     * then the transformation relative to the origin node is pushed onto
+     * the matrix stack instead because the recorded commands must be
+     * independent of the position of the sub tree. The relative
+     * transformation is calculated from the not interpolated transformations
+     * of the current snapshot because the display list is only recorded
+     * again when a snapshot with a changed sub tree is adopted.
+     *
+     * @param gl
+     *            The GL context
+     * @param node
+     *            The scene node
+     */
+
+    private void beginTransform(final GL gl, final SceneNode node)
+    {
+        if (this.origin == null)
+        {
+            this.viewport.loadTransform(node.getRenderTransform());
+        }
+        else
+        {
+            gl.glPushMatrix();
+            if (node != this.origin)
+                gl.glMultMatrix(this.relativeTransform.set(
+                    this.originInverse).multiply(node.getRecordingTransform())
+                    .getBuffer());
+        }
+    }
+
+
+    /**
+     * Restores the modelview matrix after a node has been drawn.
+     *
+     * @param gl
+     *            The GL context
+     */
+
+    private void endTransform(final GL gl)
+    {
+        if (this.origin != null) gl.glPopMatrix();
+    }
+
+
+    /**
+     * Sets the vertex arrays for the specified polygons. The arrays are
+     * taken from buffer objects if the polygons are resident in the buffer
+     * manager. Otherwise the client-side buffers are used.
+     *
+     * @param gl
+     *            The GL context
+     * @param polygons
+     *            The polygons
+     * @param first
+     *            True if no vertex arrays are set yet
+     */
+
+    private void setArrays(final GL gl, final MeshPolygons polygons,
+        final boolean first)
+    {
+        final BufferReference buffers = BufferManager.getInstance().bind(gl,
+            polygons);
+        if (buffers == null && this.buffers != null)
+            BufferManager.getInstance().unbind(gl);
+        this.buffers = buffers;
+
+        if (first) gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+        final int stride = buffers != null ? buffers.getStride() : polygons
+            .getStride();
+        if (buffers != null)
+            gl.glVertexPointer(3, stride, buffers.getVertexOffset());
+        else
+            gl.glVertexPointer(3, stride, polygons.getVertices());
+
+        final boolean normalArray = polygons.hasNormals();
+        if (normalArray)
+        {
+            if (!this.normalArray)
+                gl.glEnableClientState(GL.GL_NORMAL_ARRAY);
+            if (buffers != null)
+                gl.glNormalPointer(stride, buffers.getNormalOffset());
+            else
+                gl.glNormalPointer(stride, polygons.getNormals());
+        }
+        else if (this.normalArray)
+            gl.glDisableClientState(GL.GL_NORMAL_ARRAY);
+        this.normalArray = normalArray;
+
+        final boolean texCoordArray = polygons.hasTexCoords();
+        if (texCoordArray)
+        {
+            if (!this.texCoordArray)
+                gl.glEnableClientState(GL.GL_TEXTURE_COORD_ARRAY);
+            if (buffers != null)
+                gl.glTexCoordPointer(2, stride, buffers
+                    .getTexCoordOffset());
+            else
+                gl.glTexCoordPointer(2, stride, polygons.getTexCoords());
+        }
+        else if (this.texCoordArray)
+            gl.glDisableClientState(GL.GL_TEXTURE_COORD_ARRAY);
+        this.texCoordArray = texCoordArray;
+    }
+
+
+    /**
+     * Disables the vertex arrays and unbinds the buffer objects.
+     *
+     * @param gl
+     *            The GL context
+     */
+
+    private void resetArrays(final GL gl)
+    {
+        if (this.texCoordArray)
+            gl.glDisableClientState(GL.GL_TEXTURE_COORD_ARRAY);
+        if (this.normalArray) gl.glDisableClientState(GL.GL_NORMAL_ARRAY);
+        gl.glDisableClientState(GL.GL_VERTEX_ARRAY);
+        if (this.buffers != null) BufferManager.getInstance().unbind(gl);
+        this.texCoordArray = false;
+        this.normalArray = false;
+        this.buffers = null;
+    }
+
+
+    /**
+     * Clears the queue and releases all references to scene nodes and
+     * assets.
+     */
+
+    void clear()
+    {
+        final int size = this.size;
+        Arrays.fill(this.nodes, 0, size, null);
+        Arrays.fill(this.polygons, 0, size, null);
+        Arrays.fill(this.materials, 0, size, null);
+        Arrays.fill(this.environments, 0, size, null);
+        Arrays.fill(this.lightSets, 0, size, null);
+        this.environmentIds.clear();
+        this.textureIds.clear();
+        this.materialIds.clear();
+        this.geometryIds.clear();
+        this.size = 0;
+        this.environment = null;
+        this.lightNode = null;
+        this.lightEnvironment = null;
+        this.lightSet = null;
+        this.viewport = null;
+        this.origin = null;
+        this.depthNode = null;
+        this.occlusionBuffer = null;
+    }
+
+
+    /**
+     * Assigns small consecutive IDs to objects by identity. ID 0 is reserved
+     * for null. The IDs are assigned in the order in which the objects are
+     * first seen so nearby scene nodes get nearby IDs.
+     */
+
+    private static final class IdentityIds
+    {
+        /** The hash table keys */
+        private Object[] objects = new Object[64];
+
+        /** The hash table values */
+        private int[] ids = new int[64];
+
+        /** The number of stored objects */
+        private int size;
+
+
+        /**
+         * Returns the ID of the specified object. Assigns a new ID if the
+         * object has none yet.
+         *
+         * @param object
+         *            The object. May be null
+         * @return The ID
+         */
+
+        int get(final Object object)
+        {
+            if (object == null) return 0;
+            final Object[] objects = this.objects;
+            final int mask = objects.length - 1;
+            int slot = hash(object) & mask;
+            while (true)
+            {
+                final Object current = objects[slot];
+                if (current == object) return this.ids[slot];
+                if (current == null) break;
+                slot = (slot + 1) & mask;
+            }
+            final int id = ++this.size;
+            objects[slot] = object;
+            this.ids[slot] = id;
+            if (id * 2 > objects.length) grow();
+            return id;
+        }
+
+
+        /**
+         * Returns the hash code of the specified object. The identity hash
+         * code is scrambled so the low bits are usable as table index.
+         *
+         * @param object
+         *            The object
+         * @return The hash code
+         */
+
+        private static int hash(final Object object)
+        {
+            final int hash = System.identityHashCode(object) * 0x9e3779b9;
+            return hash ^ (hash >>> 16);
+        }
+
+
+        /**
+         * Doubles the size of the hash table.
+         */
+
+        private void grow()
+        {
+            final Object[] oldObjects = this.objects;
+            final int[] oldIds = this.ids;
+            final Object[] objects = new Object[oldObjects.length * 2];
+            final int[] ids = new int[objects.length];
+            final int mask = objects.length - 1;
+            for (int i = 0; i < oldObjects.length; i++)
+            {
+                final Object object = oldObjects[i];
+                if (object == null) continue;
+                int slot = hash(object) & mask;
+                while (objects[slot] != null)
+                    slot = (slot + 1) & mask;
+                objects[slot] = object;
+                ids[slot] = oldIds[i];
+            }
+            this.objects = objects;
+            this.ids = ids;
+        }
+
+
+        /**
+         * Removes all objects.
+         */
+
+        void clear()
+        {
+            if (this.size == 0) return;
+            Arrays.fill(this.objects, null);
+            this.size = 0;
+        }
+    }
+}
@@ -9,13 +9,21 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReference;
 
 import de.ailis.threedee.assets.Asset;
 import de.ailis.threedee.assets.AssetType;
 import de.ailis.threedee.events.SceneListener;
+import de.ailis.threedee.mathold.Bounds;
+import de.ailis.threedee.rendering.Frustum;
+import de.ailis.threedee.rendering.GL;
+import de.ailis.threedee.rendering.OcclusionBuffer;
 import de.ailis.threedee.rendering.Viewport;
 import de.ailis.threedee.scene.animation.Animation;
 import de.ailis.threedee.scene.animation.AnimationInputType;
+import de.ailis.threedee.scene.commands.SceneCommandQueue;
 import de.ailis.threedee.scene.properties.Lighting;
 import de.ailis.threedee.scene.textures.TextureManager;
 
@@ -29,6 +37,9 @@ import de.ailis.threedee.scene.textures.TextureManager;
 
 public class Scene extends Asset
 {
+    /** The default maximum number of active nodes updated by a single task */
+    private static final int DEFAULT_UPDATE_THRESHOLD = 1024;
+
     /** The root scene node */
     private SceneNode rootNode;
 
@@ -47,6 +58,54 @@ public class Scene extends Asset
     /** The viewport this scene is currently connected to. */
     private Viewport viewport;
 
+    /** The render queue */
+    private final RenderQueue renderQueue = new RenderQueue();
+
+    /** The render queue used for recording display lists */
+    private final RenderQueue compileQueue = new RenderQueue();
+
+    /** The light manager */
+    private final LightManager lightManager = new LightManager();
+
+    /** The released display lists which must be deleted */
+    private final List<Integer> releasedDisplayLists = new ArrayList<Integer>();
+
+    /** The occluder models */
+    private final List<Model> occluders = new ArrayList<Model>();
+
+    /** The queue of scene changes posted by other threads */
+    private final SceneCommandQueue commandQueue = new SceneCommandQueue();
+
+    /** The generation of the last recorded snapshot */
+    private long snapshotGeneration;
+
+    /** The last published snapshot which was not taken for rendering yet */
+    private final AtomicReference<SceneSnapshot> publishedSnapshot = new AtomicReference<SceneSnapshot>();
+
+    /** Released snapshots which can be reused for recording */
+    private final Queue<SceneSnapshot> freeSnapshots = new ConcurrentLinkedQueue<SceneSnapshot>();
+
+    /** The previous snapshot used for rendering. Null if none */
+    private SceneSnapshot previousSnapshot;
+
+    /** The current snapshot used for rendering. Null if none */
+    private SceneSnapshot currentSnapshot;
+
+    /**
+     * The indices of the nodes of the current snapshot in the previous
+     * snapshot. -1 for nodes which are not in the previous snapshot
+     */
+    private int[] previousIndices = new int[0];
+
+    /** Temporary array for interpolating the render transformations */
+    private final float[] interpolated = new float[SceneSnapshot.MATRIX_SIZE];
+
+    /** The parallel updater. Null if scene is updated sequentially */
+    private ParallelUpdater parallelUpdater;
+
+    /** The maximum number of active nodes updated by a single task */
+    private int updateThreshold = DEFAULT_UPDATE_THRESHOLD;
+
 
     /**
      * Constructs a new scene.
@@ -60,6 +119,7 @@ public class Scene extends Asset
         super(id, AssetType.SCENE);
         setRootNode(createDefaultRootNode());
         this.cameraNode = createDefaultCamera();
+        this.renderQueue.setLightManager(this.lightManager);
     }
 
 
@@ -103,17 +163,31 @@ public class Scene extends Asset
         boolean changed = false;
 
         // Update nodes and update the changed-flag if needed
-        if (this.rootNode != null)
-            changed |= this.rootNode.update(delta);
+        final ParallelUpdater parallelUpdater = this.parallelUpdater;
+        if (this.rootNode != null && this.rootNode.getActiveCount() != 0)
+        {
+            if (parallelUpdater != null)
+                changed |= parallelUpdater.updateNodes(this.rootNode, delta);
+            else
+                changed |= this.rootNode.update(delta);
+        }
 
         // Update animations if present
         if (this.animations != null && !this.animations.isEmpty())
         {
-            for (final Animation animation : this.animations)
+            if (parallelUpdater != null)
+            {
+                changed |= parallelUpdater.updateAnimations(this.animations,
+                    delta);
+            }
+            else
             {
-                if (animation.getInputType() == AnimationInputType.TIME)
+                for (final Animation animation : this.animations)
                 {
-                    changed |= animation.update(delta);
+                    if (animation.getInputType() == AnimationInputType.TIME)
+                    {
+                        changed |= animation.update(delta);
+                    }
                 }
             }
         }
@@ -126,6 +200,239 @@ public class Scene extends Asset
     }
 
 
+    /**
+     * Sets the number of threads used for updating the scene. With more than
+     * one thread the scene tree is split into sub trees which are updated
+     * concurrently and animations which don't animate the same nodes are
+     * updated concurrently, too. Sub trees are only split at nodes which
+     * don't override {@link SceneNode#update(float)} themselves. Node
+     * updates, physics and animations must not access state shared with
+     * other sub trees when parallel updates are enabled.
+     *
+     * @param threads
+     *            The number of update threads. 1 updates the scene
+     *            sequentially in the calling thread
+     */
+
+    public void setUpdateThreads(final int threads)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("threads must be positive: "
+                + threads);
+        if (threads == getUpdateThreads()) return;
+        if (this.parallelUpdater != null) this.parallelUpdater.shutdown();
+        this.parallelUpdater = threads == 1 ? null : new ParallelUpdater(
+            threads, this.updateThreshold);
+    }
+
+
+    /**
+     * Returns the number of threads used for updating the scene.
+     *
+     * @return The number of update threads
+     */
+
+    public int getUpdateThreads()
+    {
+        return this.parallelUpdater == null ? 1 : this.parallelUpdater
+            .getThreads();
+    }
+
+
+    /**
+     * Sets the maximum number of active nodes updated by a single task when
+     * the scene is updated with multiple threads. Scenes with fewer active
+     * nodes are always updated sequentially.
+     *
+     * @param updateThreshold
+     *            The maximum number of active nodes per update task
+     */
+
+    public void setUpdateThreshold(final int updateThreshold)
+    {
+        if (updateThreshold < 1)
+            throw new IllegalArgumentException(
+                "updateThreshold must be positive: " + updateThreshold);
+        this.updateThreshold = updateThreshold;
+        if (this.parallelUpdater != null)
+            this.parallelUpdater.setThreshold(updateThreshold);
+    }
+
+
+    /**
+     * Returns the maximum number of active nodes updated by a single task
+     * when the scene is updated with multiple threads.
+     *
+     * @return The maximum number of active nodes per update task
+     */
+
+    public int getUpdateThreshold()
+    {
+        return this.updateThreshold;
+    }
+
+
+    /**
+     * Returns the command queue of this scene. Threads other than the
+     * rendering thread must post their changes of the scene graph to this
+     * queue instead of changing the scene directly. The viewport executes
+     * the queued commands at the start of each frame.
+     *
+     * @return The command queue. Never null
+     */
+
+    public SceneCommandQueue getCommandQueue()
+    {
+        return this.commandQueue;
+    }
+
+
+    /**
+     * Records the scene transformations and scene bounds of all nodes into
+     * a snapshot and publishes it for rendering. This is called by the
+     * simulation thread of the viewport after each update of the scene. As
+     * soon as a snapshot has been published the scene is rendered with the
+     * transformations interpolated between the last two snapshots.
+     *
+     * @param time
+     *            The time of the simulation tick (Nanosecond timestamp)
+     */
+
+    public void recordSnapshot(final long time)
+    {
+        final SceneNode rootNode = this.rootNode;
+        if (rootNode == null) return;
+        SceneSnapshot snapshot = this.freeSnapshots.poll();
+        if (snapshot == null) snapshot = new SceneSnapshot();
+        snapshot.record(rootNode, ++this.snapshotGeneration, time);
+
+        // Replace a published snapshot which was not rendered yet
+        final SceneSnapshot skipped = this.publishedSnapshot
+            .getAndSet(snapshot);
+        if (skipped != null) this.freeSnapshots.add(skipped);
+    }
+
+
+    /**
+     * Discards all snapshots so the scene is rendered with the current scene
+     * transformations again. This must be called when the simulation thread
+     * has been stopped.
+     */
+
+    public void clearSnapshots()
+    {
+        this.publishedSnapshot.set(null);
+        this.freeSnapshots.clear();
+        this.previousSnapshot = null;
+        this.currentSnapshot = null;
+    }
+
+
+    /**
+     * Returns the generation of the snapshot which is currently rendered.
+     *
+     * @return The snapshot generation. 0 if the scene is not rendered from
+     *         snapshots
+     */
+
+    long getSnapshotGeneration()
+    {
+        final SceneSnapshot snapshot = this.currentSnapshot;
+        return snapshot == null ? 0 : snapshot.generation;
+    }
+
+
+    /**
+     * Takes the last published snapshot (if any) and interpolates the render
+     * transformations of all nodes between the previous and the current
+     * snapshot. The scene is rendered one simulation tick behind so the
+     * frame lies between the two snapshots.
+     */
+
+    private void applySnapshots()
+    {
+        final SceneSnapshot published = this.publishedSnapshot.getAndSet(null);
+        if (published != null) adoptSnapshot(published);
+        final SceneSnapshot current = this.currentSnapshot;
+        if (current == null) return;
+        final SceneSnapshot previous = this.previousSnapshot;
+
+        // Calculate the interpolation factor
+        float alpha = 1;
+        if (previous != null)
+        {
+            final long interval = current.time - previous.time;
+            if (interval > 0)
+                alpha = Math.max(0, Math.min(1,
+                    (float) (System.nanoTime() - current.time) / interval));
+        }
+
+        // Interpolate the render transformations
+        final SceneNode[] nodes = current.nodes;
+        final int[] previousIndices = this.previousIndices;
+        final float[] to = current.transforms;
+        final float[] from = previous == null ? null : previous.transforms;
+        final float[] m = this.interpolated;
+        final int matrixSize = SceneSnapshot.MATRIX_SIZE;
+        for (int i = 0, max = current.size; i < max; i++)
+        {
+            final int offset = i * matrixSize;
+            final int previousIndex = previousIndices[i];
+            if (previousIndex < 0 || alpha == 1)
+                System.arraycopy(to, offset, m, 0, matrixSize);
+            else
+                SceneSnapshot.interpolate(from, previousIndex * matrixSize,
+                    to, offset, alpha, m);
+            nodes[i].setRenderTransform(m);
+        }
+    }
+
+
+    /**
+     * Makes the specified snapshot the current snapshot used for rendering.
+     * The previous snapshot is released for reuse and the current snapshot
+     * becomes the previous one. The render bounds of the nodes are set to
+     * the union of their scene bounds in both snapshots so culling is
+     * correct for all interpolated transformations.
+     *
+     * @param snapshot
+     *            The snapshot to adopt
+     */
+
+    private void adoptSnapshot(final SceneSnapshot snapshot)
+    {
+        if (this.previousSnapshot != null)
+            this.freeSnapshots.add(this.previousSnapshot);
+        final SceneSnapshot previous = this.previousSnapshot = this.currentSnapshot;
+        this.currentSnapshot = snapshot;
+
+        final int size = snapshot.size;
+        if (this.previousIndices.length < size)
+            this.previousIndices = new int[Math.max(size,
+                this.previousIndices.length * 2)];
+        final int[] previousIndices = this.previousIndices;
+        final long previousGeneration = previous == null ? 0
+            : previous.generation;
+        final SceneNode[] nodes = snapshot.nodes;
+        final float[] transforms = snapshot.transforms;
+        final int[] versions = snapshot.versions;
+        final float[] m = this.interpolated;
+        final int matrixSize = SceneSnapshot.MATRIX_SIZE;
+        for (int i = 0; i < size; i++)
+        {
+            final SceneNode node = nodes[i];
+            final int previousIndex = node.getSnapshotIndex(previousGeneration);
+            previousIndices[i] = previousIndex;
+            System.arraycopy(transforms, i * matrixSize, m, 0, matrixSize);
+            final Bounds bounds = node.adoptSnapshot(snapshot.generation, i,
+                m, versions[i]);
+            bounds.clear();
+            snapshot.updateBounds(i, bounds);
+            if (previousIndex >= 0) previous.updateBounds(previousIndex, bounds);
+        }
+    }
+
+
     /**
      * Sets the root scene node.
      *
@@ -190,6 +497,18 @@ public class Scene extends Asset
 
     public void render(final Viewport viewport)
     {
+        // Interpolate the transformations if rendering from snapshots
+        applySnapshots();
+
+        // Delete the display lists of removed or no longer compiled nodes
+        if (!this.releasedDisplayLists.isEmpty())
+        {
+            final GL gl = viewport.getGL();
+            for (final Integer displayList : this.releasedDisplayLists)
+                gl.glDeleteLists(displayList, 1);
+            this.releasedDisplayLists.clear();
+        }
+
         // Only process camera and nodes when a root node is set
         final SceneNode rootNode = this.rootNode;
         if (rootNode != null)
@@ -197,8 +516,20 @@ public class Scene extends Asset
             // Apply camera transformation if camera is present
             if (this.cameraNode != null) this.cameraNode.apply(viewport);
 
-            // Render root node
-            rootNode.renderAll(viewport);
+            // Rasterize the occluders if needed
+            if (viewport.isOccluding()) renderOccluders(viewport);
+
+            // Rebuild the spatial index of the managed lights
+            this.lightManager.update();
+
+            // Collect, sort and render the draw items of all visible nodes
+            final RenderQueue renderQueue = this.renderQueue;
+            if (this.cameraNode != null)
+                renderQueue.setDepthRange(this.cameraNode.getZNear(),
+                    this.cameraNode.getZFar());
+            renderQueue.begin(viewport);
+            rootNode.enqueueAll(renderQueue, viewport.isCulling());
+            renderQueue.render();
 
             // Remove camera transformation if camera is present
             if (this.cameraNode != null) this.cameraNode.remove(viewport);
@@ -207,7 +538,83 @@ public class Scene extends Asset
 
 
     /**
-     * Registers a node so it can be found with getElementById.
+     * Rasterizes the visible occluders into the occlusion buffer of the
+     * specified viewport.
+     *
+     * @param viewport
+     *            The viewport
+     */
+
+    private void renderOccluders(final Viewport viewport)
+    {
+        final OcclusionBuffer occlusionBuffer = viewport.getOcclusionBuffer();
+        final Frustum frustum = viewport.getFrustum();
+        for (final Model occluder : this.occluders)
+        {
+            if (frustum.isVisible(occluder.getRenderBounds()))
+                occlusionBuffer.rasterize(occluder.getOccluderMesh(), occluder
+                    .getRenderTransform());
+        }
+        occlusionBuffer.buildPyramid();
+    }
+
+
+    /**
+     * Returns the render queue used for recording the display lists of
+     * compiled nodes.
+     *
+     * @return The compile queue
+     */
+
+    RenderQueue getCompileQueue()
+    {
+        return this.compileQueue;
+    }
+
+
+    /**
+     * Releases a display list. It is deleted the next time the scene is
+     * rendered.
+     *
+     * @param displayList
+     *            The display list name
+     */
+
+    void releaseDisplayList(final int displayList)
+    {
+        this.releasedDisplayLists.add(displayList);
+    }
+
+
+    /**
+     * Registers an occluder model.
+     *
+     * @param occluder
+     *            The occluder to register
+     */
+
+    void addOccluder(final Model occluder)
+    {
+        this.occluders.add(occluder);
+    }
+
+
+    /**
+     * Unregisters an occluder model.
+     *
+     * @param occluder
+     *            The occluder to unregister
+     */
+
+    void removeOccluder(final Model occluder)
+    {
+        this.occluders.remove(occluder);
+    }
+
+
+    /**
+     * Registers a node so it can be found with getElementById. Managed
+     * lights are added to the light manager.
      *
      * @param node
      *            The node to register
@@ -217,6 +624,11 @@ public class Scene extends Asset
     {
         final String id = node.getId();
         if (id != null) this.nodes.put(id, node);
+        final String[] aliases = node.getAliases();
+        if (aliases != null) for (final String alias : aliases)
+            this.nodes.put(alias, node);
+        if (node instanceof Light && ((Light) node).isManaged())
+            this.lightManager.addLight((Light) node);
     }
 
 
@@ -231,6 +643,10 @@ public class Scene extends Asset
     {
         final String id = node.getId();
         if (id != null) this.nodes.remove(id);
+        final String[] aliases = node.getAliases();
+        if (aliases != null) for (final String alias : aliases)
+            if (this.nodes.get(alias) == node) this.nodes.remove(alias);
+        if (node instanceof Light) this.lightManager.removeLight((Light) node);
     }
 
 
@@ -418,6 +834,33 @@ public class Scene extends Asset
     }
 
 
+    /**
+     * Returns the render queue of this scene. It can be used to query
+     * statistics about the last rendered frame.
+     *
+     * @return The render queue
+     */
+
+    public RenderQueue getRenderQueue()
+    {
+        return this.renderQueue;
+    }
+
+
+    /**
+     * Returns the light manager of this scene. Lights added to it only
+     * light the scene nodes they influence most. Managed lights are added
+     * to it automatically when they are inserted into the scene.
+     *
+     * @return The light manager. Never null.
+     */
+
+    public LightManager getLightManager()
+    {
+        return this.lightManager;
+    }
+
+
     /**
      * Checks if scene is currently displayed in a viewport.
      *
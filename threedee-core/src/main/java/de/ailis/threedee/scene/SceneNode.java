@@ -5,18 +5,26 @@
 
 package de.ailis.threedee.scene;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import de.ailis.gramath.Matrix4f;
 import de.ailis.gramath.MutableMatrix4f;
 import de.ailis.gramath.Vector3f;
 import de.ailis.threedee.events.NodeListener;
+import de.ailis.threedee.events.PhysicsListener;
+import de.ailis.threedee.mathold.Bounds;
+import de.ailis.threedee.rendering.Frustum;
 import de.ailis.threedee.rendering.GL;
+import de.ailis.threedee.rendering.OcclusionBuffer;
 import de.ailis.threedee.rendering.Viewport;
 import de.ailis.threedee.scene.physics.Physics;
 import de.ailis.threedee.scene.properties.NodeProperty;
+import de.ailis.threedee.scene.textures.TextureManager;
 
 
 /**
@@ -29,6 +37,12 @@ import de.ailis.threedee.scene.properties.NodeProperty;
 
 public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
 {
+    /** Cache for the node classes which override the update method */
+    private static final Map<Class<?>, Boolean> UPDATE_OVERRIDES = new ConcurrentHashMap<Class<?>, Boolean>();
+
+    /** Lock for changing the active counts while nodes are updated in parallel */
+    private static final Object ACTIVITY_LOCK = new Object();
+
     /** The scene this node is currently connected to */
     private Scene scene;
 
@@ -56,8 +70,51 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     /** If cached scene transformation is valid */
     private boolean sceneTransformValid = false;
 
-    /** The physics of this node. */
-    private final Physics physics = new Physics();
+    /** The version of the local transformation */
+    private int transformVersion;
+
+    /** The version of the cached scene transformation */
+    private int sceneTransformVersion;
+
+    /** The local transformation version the scene transformation is based on */
+    private int sourceTransformVersion = -1;
+
+    /** The parent transformation version the scene transformation is based on */
+    private int sourceParentVersion = -1;
+
+    /** Cached scene bounds of this node and all its child nodes */
+    private final Bounds sceneBounds = new Bounds();
+
+    /** If cached scene bounds are valid */
+    private boolean sceneBoundsValid = false;
+
+    /** The transform store this node is stored in. Null if none */
+    private TransformStore transformStore;
+
+    /** The index of this node in the transform store. -1 if none */
+    private int transformIndex = -1;
+
+    /** The number of nodes in the sub tree of this node */
+    private int subtreeSize = 1;
+
+    /** If the node class overrides the update method */
+    private final boolean updateOverridden;
+
+    /** If this node itself must be updated */
+    private boolean active;
+
+    /** The number of active nodes in the sub tree of this node */
+    private int activeCount;
+
+    /** The physics of this node. Wakes up the node when it is changed */
+    private final Physics physics = new Physics(new PhysicsListener()
+    {
+        @Override
+        public void motionChanged(final Physics physics)
+        {
+            setActive(true);
+        }
+    });
 
     /** The lights which should illuminate this tree branch */
     private List<Light> lights;
@@ -65,12 +122,54 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     /** The node properties */
     private List<NodeProperty> properties;
 
+    /** The cached render environment of the lights and properties */
+    private RenderEnvironment environment;
+
     /** The list with node listeners */
     private List<NodeListener> nodeListeners;
 
     /** The node id */
     private String id;
 
+    /** If this node and its child nodes are static */
+    private boolean staticNode = false;
+
+    /** If this node and its child nodes are rendered with a display list */
+    private boolean compiled = false;
+
+    /** The display list name. 0 if no display list is allocated */
+    private int displayList;
+
+    /**
+     * The version of the sub tree. It is incremented whenever something
+     * changes which is recorded in the display list
+     */
+    private volatile int displayListVersion;
+
+    /** The version of the sub tree recorded in the display list. -1 if none */
+    private int recordedVersion = -1;
+
+    /** If the sub tree can't be rendered with a display list */
+    private boolean uncompilable;
+
+    /** The generation of the snapshot this node was rendered from last */
+    private long renderGeneration;
+
+    /** The index of this node in the snapshot it was rendered from last */
+    private int renderIndex;
+
+    /** The interpolated scene transformation used for rendering */
+    private MutableMatrix4f renderTransform;
+
+    /** The scene transformation in the snapshot it was rendered from last */
+    private MutableMatrix4f snapshotTransform;
+
+    /** The sub tree version in the snapshot it was rendered from last */
+    private int snapshotVersion;
+
+    /** The scene bounds used for culling when rendering from snapshots */
+    private Bounds renderBounds;
+
 
     /**
      * Constructs a new scene node.
@@ -78,7 +177,13 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
 
     public SceneNode()
     {
-        // Empty
+        // Nodes with a custom update method are always updated
+        this.updateOverridden = overridesUpdate(getClass());
+        if (this.updateOverridden)
+        {
+            this.active = true;
+            this.activeCount = 1;
+        }
     }
 
 
@@ -110,6 +215,11 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
         if (this.firstChild == null) this.firstChild = node;
         node.parentNode = this;
         node.setScene(this.scene);
+        updateSubtreeCounts(node.subtreeSize, node.activeCount);
+        node.invalidateSceneTransform();
+        invalidateSceneBounds();
+        invalidateDisplayList();
+        if (this.transformStore != null) this.transformStore.invalidate();
 
         // Inform node that it has been inserted
         node.fireNodeInserted();
@@ -238,6 +348,11 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
         newNode.nextSibling = referenceNode;
         newNode.parentNode = this;
         newNode.setScene(this.scene);
+        updateSubtreeCounts(newNode.subtreeSize, newNode.activeCount);
+        newNode.invalidateSceneTransform();
+        invalidateSceneBounds();
+        invalidateDisplayList();
+        if (this.transformStore != null) this.transformStore.invalidate();
 
         // Inform node that it has been inserted
         newNode.fireNodeInserted();
@@ -279,6 +394,11 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
         node.nextSibling = null;
         node.previousSibling = null;
         node.setScene(null);
+        updateSubtreeCounts(-node.subtreeSize, -node.activeCount);
+        node.invalidateSceneTransform();
+        invalidateSceneBounds();
+        invalidateDisplayList();
+        if (this.transformStore != null) this.transformStore.invalidate();
 
         return node;
     }
@@ -335,6 +455,46 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     }
 
 
+    /**
+     * Traverses the sub tree of this node (including this node) with the
+     * specified visitor. The nodes are visited in depth-first order without
+     * allocating any objects.
+     *
+     * @param visitor
+     *            The visitor
+     */
+
+    public final void accept(final SceneNodeVisitor visitor)
+    {
+        if (visitor == null)
+            throw new IllegalArgumentException("visitor must not be null");
+        SceneNode node = this;
+        while (true)
+        {
+            // Enter the node and descend into the child nodes if requested
+            if (visitor.enter(node) && node.firstChild != null)
+            {
+                node = node.firstChild;
+                continue;
+            }
+
+            // Leave nodes until a node with a next sibling is found
+            while (true)
+            {
+                visitor.leave(node);
+                if (node == this) return;
+                final SceneNode next = node.nextSibling;
+                if (next != null)
+                {
+                    node = next;
+                    break;
+                }
+                node = node.parentNode;
+            }
+        }
+    }
+
+
     /**
      * Updates the node with the specified time delta. Default implementation is
      * executing the connected node updaters and calling the update method of
@@ -347,16 +507,144 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
 
     public boolean update(final float delta)
     {
-        // Invalidate scene transformation cache
-        this.sceneTransformValid = false;
+        boolean changed = updateSelf(delta);
+        SceneNode child = this.firstChild;
+        while (child != null)
+        {
+            // Skip sub trees without active nodes
+            if (child.activeCount != 0) changed |= child.update(delta);
+            child = child.nextSibling;
+        }
+        return changed;
+    }
+
 
-        boolean changed = false;
-        if (this.physics != null) changed |= this.physics.update(this, delta);
+    /**
+     * Updates this node without its child nodes. This executes the physics
+     * of the node.
+     *
+     * @param delta
+     *            The time elapsed since the last scene update (in seconds)
+     * @return True if the scene needs to be rendered again, false if not
+     */
 
-        for (final SceneNode childNode : this)
-            changed |= childNode.update(delta);
+    final boolean updateSelf(final float delta)
+    {
+        if (!this.active) return false;
+        final boolean changed = this.physics.update(this, delta);
 
-                return changed;
+        // Deactivate the node when the physics came to rest
+        if (!this.updateOverridden && !this.physics.isActive())
+            setActive(false);
+        return changed;
+    }
+
+
+    /**
+     * Returns the number of nodes in the sub tree of this node which must be
+     * updated. Sub trees without active nodes are skipped when the scene is
+     * updated. A node is active while its physics is moving it or if its
+     * class overrides the update method.
+     *
+     * @return The number of active nodes in the sub tree
+     */
+
+    public final int getActiveCount()
+    {
+        return this.activeCount;
+    }
+
+
+    /**
+     * Sets the active state of this node and updates the active counts of
+     * the node and all its parent nodes.
+     *
+     * @param active
+     *            True if node must be updated, false if not
+     */
+
+    private void setActive(final boolean active)
+    {
+        synchronized (ACTIVITY_LOCK)
+        {
+            if (this.active == active) return;
+            this.active = active;
+            final int delta = active ? 1 : -1;
+            SceneNode node = this;
+            while (node != null)
+            {
+                node.activeCount += delta;
+                node = node.parentNode;
+            }
+        }
+    }
+
+
+    /**
+     * Checks if the specified node class overrides the update method.
+     *
+     * @param type
+     *            The node class
+     * @return True if the update method is overridden, false if not
+     */
+
+    static boolean overridesUpdate(final Class<?> type)
+    {
+        Boolean result = UPDATE_OVERRIDES.get(type);
+        if (result == null)
+        {
+            try
+            {
+                result = Boolean.valueOf(type.getMethod("update", float.class)
+                    .getDeclaringClass() != SceneNode.class);
+            }
+            catch (final NoSuchMethodException e)
+            {
+                result = Boolean.TRUE;
+            }
+            UPDATE_OVERRIDES.put(type, result);
+        }
+        return result.booleanValue();
+    }
+
+
+    /**
+     * Returns the number of nodes in the sub tree of this node. This
+     * includes the node itself and all its direct and indirect child nodes.
+     *
+     * @return The number of nodes in the sub tree
+     */
+
+    public final int getSubtreeSize()
+    {
+        return this.subtreeSize;
+    }
+
+
+    /**
+     * Adds the specified values to the sub tree size and the active count
+     * of this node and all its parent nodes.
+     *
+     * @param sizeDelta
+     *            The number of added (positive) or removed (negative) nodes
+     * @param activeDelta
+     *            The number of added (positive) or removed (negative) active
+     *            nodes
+     */
+
+    private void updateSubtreeCounts(final int sizeDelta,
+        final int activeDelta)
+    {
+        synchronized (ACTIVITY_LOCK)
+        {
+            SceneNode node = this;
+            while (node != null)
+            {
+                node.subtreeSize += sizeDelta;
+                node.activeCount += activeDelta;
+                node = node.parentNode;
+            }
+        }
     }
 
 
@@ -373,6 +661,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     public void rotate(final Vector3f v, final float r)
     {
         this.transform.rotate(v, r);
+        invalidateSceneTransform();
     }
 
 
@@ -387,6 +676,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     public void rotateX(final float r)
     {
         this.transform = this.transform.rotateX(r);
+        invalidateSceneTransform();
     }
 
 
@@ -401,6 +691,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     public void rotateY(final float r)
     {
         this.transform = this.transform.rotateY(r);
+        invalidateSceneTransform();
     }
 
 
@@ -415,6 +706,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     public void rotateZ(final float r)
     {
         this.transform = this.transform.rotateZ(r);
+        invalidateSceneTransform();
     }
 
 
@@ -432,6 +724,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     public void scale(final float sx, final float sy, final float sz)
     {
         this.transform = this.transform.scale(sx, sy, sz);
+        invalidateSceneTransform();
     }
 
 
@@ -446,6 +739,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     public void scale(final float s)
     {
         this.transform = this.transform.scale(s);
+        invalidateSceneTransform();
     }
 
 
@@ -459,6 +753,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     public void scaleX(final float s)
     {
         this.transform = this.transform.scaleX(s);
+        invalidateSceneTransform();
     }
 
 
@@ -472,6 +767,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     public void scaleY(final float s)
     {
         this.transform = this.transform.scaleY(s);
+        invalidateSceneTransform();
     }
 
 
@@ -485,6 +781,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     public void scaleZ(final float s)
     {
         this.transform = this.transform.scaleZ(s);
+        invalidateSceneTransform();
     }
 
 
@@ -502,6 +799,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     public void translate(final float tx, final float ty, final float tz)
     {
         this.transform = this.transform.translate(tx, ty, tz);
+        invalidateSceneTransform();
     }
 
 
@@ -515,6 +813,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     public void translateX(final float t)
     {
         this.transform = this.transform.translateX(t);
+        invalidateSceneTransform();
     }
 
 
@@ -528,6 +827,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     public void translateY(final float t)
     {
         this.transform = this.transform.translateY(t);
+        invalidateSceneTransform();
     }
 
 
@@ -541,16 +841,22 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     public void translateZ(final float t)
     {
         this.transform = this.transform.translateZ(t);
+        invalidateSceneTransform();
     }
 
 
     /**
-     * Returns the current transformation matrix.
+     * Returns the current transformation matrix. The returned matrix is a
+     * read-only view which reflects later changes of the transformation.
+     * The transformation must only be changed with the transformation
+     * methods of this node (Like {@link #setTransform(Matrix4f)}) so the
+     * cached scene transformations, bounds and display lists are
+     * invalidated.
      *
      * @return The current transformation matrix
      */
 
-    public final MutableMatrix4f getTransform()
+    public final Matrix4f getTransform()
     {
         return this.transform;
     }
@@ -558,7 +864,9 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
 
     /**
      * Returns the scene transformation of this node. This is the transformation
-     * matrix of the node relative to the scene.
+     * matrix of the node relative to the scene. When the node is stored in a
+     * transform store then the transformation is read from the store which
+     * is updated first if needed.
      *
      * @return The scene transformation
      */
@@ -568,19 +876,49 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
         // If a cached scene transformation is present then use that
         if (this.sceneTransformValid) return this.sceneTransform;
 
-        // If node has no parent node then the local transformation is the
-        // scene transformation
-        if (this.parentNode == null)
+        // Read the scene transformation from the transform store if present
+        final TransformStore store = getUpdatedTransformStore();
+        if (store != null)
         {
-            this.sceneTransform.set(this.transform);
+            store.getWorldTransform(this.transformIndex, this.sceneTransform);
+
+            // Force a recalculation when the node is removed from the store
+            this.sourceParentVersion = -1;
+            this.sceneTransformVersion++;
+            this.sceneTransformValid = true;
+            return this.sceneTransform;
         }
-        else
+
+        // Validate the parent scene transformation first so its version is
+        // up to date
+        final SceneNode parentNode = this.parentNode;
+        final Matrix4f parentTransform = parentNode == null ? null
+            : parentNode.getSceneTransform();
+        final int parentVersion = parentNode == null ? 0
+            : parentNode.sceneTransformVersion;
+
+        // Only recalculate the scene transformation if the local
+        // transformation or the parent scene transformation really changed
+        if (this.transformVersion != this.sourceTransformVersion
+            || parentVersion != this.sourceParentVersion)
         {
-            // Calculate the scene transformation by multiplying the parent
-            // scene transformation with the local transformation
-            this.sceneTransform.set(this.parentNode.getSceneTransform());
-            if (!this.transform.isIdentity())
-                this.sceneTransform.multiply(this.transform);
+            if (parentTransform == null)
+            {
+                // If node has no parent node then the local transformation
+                // is the scene transformation
+                this.sceneTransform.set(this.transform);
+            }
+            else
+            {
+                // Calculate the scene transformation by multiplying the
+                // parent scene transformation with the local transformation
+                this.sceneTransform.set(parentTransform);
+                if (!this.transform.isIdentity())
+                    this.sceneTransform.multiply(this.transform);
+            }
+            this.sourceTransformVersion = this.transformVersion;
+            this.sourceParentVersion = parentVersion;
+            this.sceneTransformVersion++;
         }
 
         // Mark scene transform cache as valid
@@ -591,6 +929,420 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     }
 
 
+    /**
+     * Copies the scene transformation of this node into the specified array.
+     * When the node is stored in a transform store then the transformation
+     * is copied directly from the store which is updated first if needed.
+     *
+     * @param matrix
+     *            The array to copy the matrix to (Column-major order)
+     * @param offset
+     *            The array index of the first matrix element
+     */
+
+    final void getSceneTransform(final float[] matrix, final int offset)
+    {
+        final TransformStore store = getUpdatedTransformStore();
+        if (store != null)
+        {
+            store.getWorldTransform(this.transformIndex, matrix, offset);
+            return;
+        }
+        final FloatBuffer buffer = getSceneTransform().getBuffer();
+        for (int i = 0; i < SceneSnapshot.MATRIX_SIZE; i++)
+            matrix[offset + i] = buffer.get(i);
+    }
+
+
+    /**
+     * Returns the transform store of this node after updating it. Only
+     * stores of whole scene trees are returned because the world
+     * transformations of a store are relative to the parent of its root
+     * node and therefore only match the scene transformations when the root
+     * node has no parent.
+     *
+     * @return The updated transform store or null if the node is not stored
+     *         in the transform store of a whole scene tree
+     */
+
+    private TransformStore getUpdatedTransformStore()
+    {
+        final TransformStore store = this.transformStore;
+        if (store == null || store.getRootNode().parentNode != null)
+            return null;
+        store.update();
+
+        // The update may have rebuilt the store without this node
+        return this.transformStore == store ? store : null;
+    }
+
+
+    /**
+     * Returns the version stamp of the scene transformation. The version
+     * changes whenever the scene transformation of this node is recalculated
+     * because the transformation of the node or of one of its parent nodes
+     * has been changed. It can be compared with a previously returned
+     * version to check if cached data derived from the scene transformation
+     * is still up to date.
+     *
+     * @return The scene transformation version
+     */
+
+    public final int getSceneTransformVersion()
+    {
+        getSceneTransform();
+        return this.sceneTransformVersion;
+    }
+
+
+    /**
+     * Returns the transform store this node is stored in.
+     *
+     * @return The transform store or null if none
+     */
+
+    public final TransformStore getTransformStore()
+    {
+        return this.transformStore;
+    }
+
+
+    /**
+     * Returns the index of this node in its transform store.
+     *
+     * @return The transform store index or -1 if node is not stored in a
+     *         transform store
+     */
+
+    public final int getTransformIndex()
+    {
+        return this.transformIndex;
+    }
+
+
+    /**
+     * Sets the transform store this node is stored in. Called by the
+     * transform store.
+     *
+     * @param transformStore
+     *            The transform store. Null if none
+     * @param transformIndex
+     *            The index in the transform store. -1 if none
+     */
+
+    final void setTransformStore(final TransformStore transformStore,
+        final int transformIndex)
+    {
+        this.transformStore = transformStore;
+        this.transformIndex = transformIndex;
+    }
+
+
+    /**
+     * Invalidates the cached scene transformation of this node and all its
+     * child nodes. The cached scene bounds of the node and all its parent
+     * nodes are invalidated, too. This must be called when the transformation
+     * of this node has been changed.
+     */
+
+    protected final void invalidateSceneTransform()
+    {
+        this.transformVersion++;
+        if (this.transformStore != null)
+            this.transformStore.markDirty(this.transformIndex);
+        invalidateSubTree();
+        invalidateSceneBounds();
+
+        // The transformation of a compiled node itself is not recorded in
+        // its display list so only the display lists of the parents are
+        // affected
+        if (this.parentNode != null) this.parentNode.invalidateDisplayList();
+    }
+
+
+    /**
+     * Invalidates the display lists of this node and all its parent nodes.
+     * This must be called when something changes which is recorded in the
+     * display list of a compiled node, for example the materials or the
+     * child nodes.
+     */
+
+    protected final void invalidateDisplayList()
+    {
+        SceneNode node = this;
+        while (node != null)
+        {
+            node.displayListVersion++;
+            node.uncompilable = false;
+            node = node.parentNode;
+        }
+    }
+
+
+    /**
+     * Recursively invalidates the cached scene transformations and scene
+     * bounds of this node and its child nodes.
+     */
+
+    private void invalidateSubTree()
+    {
+        // Nothing to do if caches are already invalid. Child nodes can't
+        // have valid caches then either.
+        if (!this.sceneTransformValid && !this.sceneBoundsValid) return;
+
+        this.sceneTransformValid = false;
+        this.sceneBoundsValid = false;
+        SceneNode child = this.firstChild;
+        while (child != null)
+        {
+            child.invalidateSubTree();
+            child = child.nextSibling;
+        }
+    }
+
+
+    /**
+     * Invalidates the cached scene bounds of this node and all its parent
+     * nodes. This must be called when the geometry of this node has been
+     * changed.
+     */
+
+    protected final void invalidateSceneBounds()
+    {
+        SceneNode node = this;
+        while (node != null && node.sceneBoundsValid)
+        {
+            node.sceneBoundsValid = false;
+            node = node.parentNode;
+        }
+    }
+
+
+    /**
+     * Returns the scene transformation used for rendering. This is the
+     * interpolated scene transformation when the scene is rendered from the
+     * snapshots of a simulation thread and the normal scene transformation
+     * otherwise. Only use this method while rendering.
+     *
+     * @return The render transformation
+     */
+
+    public final Matrix4f getRenderTransform()
+    {
+        if (isRenderedFromSnapshot()) return this.renderTransform;
+        return getSceneTransform();
+    }
+
+
+    /**
+     * Returns the scene transformation used for recording display lists.
+     * When the scene is rendered from the snapshots of a simulation thread
+     * then this is the not interpolated scene transformation of the current
+     * snapshot. The display list must not contain an interpolated state
+     * because it is only recorded again when the sub tree changes. Otherwise
+     * the normal scene transformation is returned.
+     *
+     * @return The recording transformation
+     */
+
+    final Matrix4f getRecordingTransform()
+    {
+        if (isRenderedFromSnapshot()) return this.snapshotTransform;
+        return getSceneTransform();
+    }
+
+
+    /**
+     * Returns the sub tree version which must be recorded in the display
+     * list. When the scene is rendered from the snapshots of a simulation
+     * thread then this is the version of the current snapshot so the display
+     * list is recorded again when a snapshot with a changed sub tree is
+     * adopted. Otherwise the current version is returned.
+     *
+     * @return The sub tree version
+     */
+
+    private int getRenderVersion()
+    {
+        if (isRenderedFromSnapshot()) return this.snapshotVersion;
+        return this.displayListVersion;
+    }
+
+
+    /**
+     * Returns the current version of the sub tree. It changes whenever
+     * something changes which is recorded in the display list of a compiled
+     * node.
+     *
+     * @return The sub tree version
+     */
+
+    final int getDisplayListVersion()
+    {
+        return this.displayListVersion;
+    }
+
+
+    /**
+     * Returns the scene bounds used for culling during rendering. When the
+     * scene is rendered from the snapshots of a simulation thread then these
+     * bounds enclose the scene bounds of the node in the two interpolated
+     * snapshots. Otherwise the normal scene bounds are returned. Only use
+     * this method while rendering.
+     *
+     * @return The render bounds. Never null. Do not modify them.
+     */
+
+    public final Bounds getRenderBounds()
+    {
+        if (isRenderedFromSnapshot()) return this.renderBounds;
+        return getSceneBounds();
+    }
+
+
+    /**
+     * Checks if this node is rendered from the current snapshot of the
+     * scene.
+     *
+     * @return True if rendered from snapshot, false if not
+     */
+
+    private boolean isRenderedFromSnapshot()
+    {
+        final Scene scene = this.scene;
+        return scene != null && this.renderGeneration != 0
+            && this.renderGeneration == scene.getSnapshotGeneration();
+    }
+
+
+    /**
+     * Checks if this node can be rendered. When the scene is rendered from
+     * snapshots then only nodes which are contained in the current snapshot
+     * are rendered. Nodes inserted after the snapshot was recorded appear
+     * with the next snapshot.
+     *
+     * @return True if node can be rendered, false if not
+     */
+
+    private boolean isRenderable()
+    {
+        final Scene scene = this.scene;
+        if (scene == null) return true;
+        final long generation = scene.getSnapshotGeneration();
+        return generation == 0 || generation == this.renderGeneration;
+    }
+
+
+    /**
+     * Returns the index of this node in the snapshot with the specified
+     * generation.
+     *
+     * @param generation
+     *            The snapshot generation
+     * @return The index or -1 if node is not in the snapshot
+     */
+
+    int getSnapshotIndex(final long generation)
+    {
+        if (generation == 0 || generation != this.renderGeneration) return -1;
+        return this.renderIndex;
+    }
+
+
+    /**
+     * Assigns this node to the snapshot which is rendered next.
+     *
+     * @param generation
+     *            The generation of the snapshot
+     * @param index
+     *            The index of this node in the snapshot
+     * @param transform
+     *            The scene transformation in the snapshot (Column-major
+     *            order)
+     * @param version
+     *            The sub tree version in the snapshot
+     * @return The render bounds which must be filled by the caller
+     */
+
+    Bounds adoptSnapshot(final long generation, final int index,
+        final float[] transform, final int version)
+    {
+        this.renderGeneration = generation;
+        this.renderIndex = index;
+        if (this.renderTransform == null)
+        {
+            this.renderTransform = MutableMatrix4f.identity();
+            this.snapshotTransform = MutableMatrix4f.identity();
+            this.renderBounds = new Bounds();
+        }
+        this.snapshotTransform.set(transform);
+        this.snapshotVersion = version;
+        return this.renderBounds;
+    }
+
+
+    /**
+     * Sets the interpolated scene transformation used for rendering.
+     *
+     * @param matrix
+     *            The transformation (Column-major order)
+     */
+
+    void setRenderTransform(final float[] matrix)
+    {
+        this.renderTransform.set(matrix);
+    }
+
+
+    /**
+     * Returns the bounds of the geometry rendered by this node itself (Not
+     * including child nodes) in local coordinates. Nodes which do not render
+     * anything return null. Nodes which render something must override this
+     * method or otherwise they may be culled.
+     *
+     * @return The local bounds or null if node renders nothing
+     */
+
+    public Bounds getBounds()
+    {
+        return null;
+    }
+
+
+    /**
+     * Returns the scene bounds of this node. These are the axis-aligned bounds
+     * of this node and all its child nodes in scene coordinates. The returned
+     * bounds are empty if neither this node nor any of its child nodes render
+     * anything.
+     *
+     * @return The scene bounds. Never null. Do not modify them.
+     */
+
+    public final Bounds getSceneBounds()
+    {
+        // If cached scene bounds are present then use them
+        final Bounds sceneBounds = this.sceneBounds;
+        if (this.sceneBoundsValid) return sceneBounds;
+
+        // Add the bounds of this node
+        sceneBounds.clear();
+        final Bounds bounds = getBounds();
+        if (bounds != null) sceneBounds.update(bounds, getSceneTransform());
+
+        // Add the bounds of the child nodes
+        SceneNode child = this.firstChild;
+        while (child != null)
+        {
+            sceneBounds.update(child.getSceneBounds());
+            child = child.nextSibling;
+        }
+
+        // Mark scene bounds cache as valid and return the bounds
+        this.sceneBoundsValid = true;
+        return sceneBounds;
+    }
+
+
     /**
      * Sets a new transformation matrix.
      *
@@ -603,6 +1355,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
         if (transform == null)
             throw new IllegalArgumentException("transform must not be null");
         this.transform.set(transform);
+        invalidateSceneTransform();
     }
 
 
@@ -618,6 +1371,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
         if (matrix == null)
             throw new IllegalArgumentException("matrix must not be null");
         this.transform.multiply(matrix);
+        invalidateSceneTransform();
     }
 
 
@@ -633,13 +1387,15 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
         if (matrix == null)
             throw new IllegalArgumentException("matrix must not be null");
         this.transform.multiply(matrix);
+        invalidateSceneTransform();
     }
 
 
     /**
-     * Returns the physics of this scene node.
+     * Returns the physics of this scene node. The setters of the physics
+     * activate the node so it is updated while the physics is moving it.
      *
-     * @return The physics or null if none set yet
+     * @return The physics
      */
 
     public Physics getPhysics()
@@ -660,6 +1416,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
         if (this.properties == null)
             this.properties = new ArrayList<NodeProperty>();
         this.properties.add(property);
+        invalidateDisplayList();
     }
 
 
@@ -687,97 +1444,302 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     {
         if (this.properties == null) return;
         this.properties.remove(property);
+        invalidateDisplayList();
+    }
+
+
+    /**
+     * Puts the draw items of this node and all its child nodes into the
+     * render queue. The lights and properties of the node are recorded as
+     * render environment of the draw items.
+     *
+     * @param queue
+     *            The render queue
+     * @param cull
+     *            If node must be checked against the view frustum. False if
+     *            node is known to be completely visible.
+     */
+
+    final void enqueueAll(final RenderQueue queue, final boolean cull)
+    {
+        // Skip nodes which are not in the rendered snapshot yet
+        if (!isRenderable()) return;
+
+        // Skip the whole branch if it is not visible
+        boolean cullChildren = cull;
+        final OcclusionBuffer occlusionBuffer = queue.getOcclusionBuffer();
+        if (cull || occlusionBuffer != null)
+        {
+            final Bounds bounds = getRenderBounds();
+            if (bounds.isEmpty()) return;
+            if (cull)
+            {
+                final int visibility = queue.getViewport().getFrustum()
+                    .classify(bounds);
+                if (visibility == Frustum.OUTSIDE) return;
+                cullChildren = visibility != Frustum.INSIDE;
+            }
+
+            // Skip the whole branch if it is hidden behind occluders
+            if (occlusionBuffer != null && occlusionBuffer.isOccluded(bounds))
+                return;
+        }
+
+        // Enter the render environment of this node if it has lights or
+        // properties. The environment is reused as long as the environment
+        // of the parent nodes doesn't change.
+        final RenderEnvironment parentEnvironment = queue.getEnvironment();
+        final boolean hasEnvironment = this.lights != null
+            || this.properties != null;
+        if (hasEnvironment)
+        {
+            RenderEnvironment environment = this.environment;
+            if (environment == null
+                || environment.getParent() != parentEnvironment)
+            {
+                environment = new RenderEnvironment(parentEnvironment, this);
+                this.environment = environment;
+            }
+            queue.setEnvironment(environment);
+        }
+
+        // Compiled nodes render the whole sub tree with a display list.
+        // Otherwise enqueue the node itself and the child nodes.
+        if (this.compiled && isCompilable())
+        {
+            queue.addDisplayList(this);
+        }
+        else
+        {
+            enqueue(queue);
+            SceneNode child = this.firstChild;
+            while (child != null)
+            {
+                child.enqueueAll(queue, cullChildren);
+                child = child.nextSibling;
+            }
+        }
+
+        // Leave the render environment of this node
+        if (hasEnvironment) queue.setEnvironment(parentEnvironment);
+    }
+
+
+    /**
+     * Puts the draw items of this node and all its child nodes into the
+     * render queue without culling them. This is used to record the sub tree
+     * of a compiled node into its display list.
+     *
+     * @param queue
+     *            The render queue
+     */
+
+    private void enqueueSubTree(final RenderQueue queue)
+    {
+        enqueue(queue);
+        SceneNode child = this.firstChild;
+        while (child != null)
+        {
+            child.enqueueSubTree(queue);
+            child = child.nextSibling;
+        }
+    }
+
+
+    /**
+     * Checks if the sub tree of this compiled node can be rendered with a
+     * display list. This is not possible if a child node has lights or
+     * properties because these are applied relative to the scene and not
+     * relative to the compiled node. It is also not possible if a node of
+     * the sub tree can't be recorded.
+     *
+     * @return True if the sub tree can be compiled, false if not
+     * @see #isRecordable()
+     */
+
+    private boolean isCompilable()
+    {
+        if (this.recordedVersion != getRenderVersion() && !this.uncompilable)
+            this.uncompilable = !isRecordable() || hasUncompilableChildren();
+        return !this.uncompilable;
+    }
+
+
+    /**
+     * Checks if any child node of this node has lights or properties or
+     * can't be recorded into a display list.
+     *
+     * @return True if a child node prevents the compilation, false if not
+     */
+
+    private boolean hasUncompilableChildren()
+    {
+        SceneNode child = this.firstChild;
+        while (child != null)
+        {
+            if (child.lights != null || child.properties != null
+                || !child.isRecordable() || child.hasUncompilableChildren())
+                return true;
+            child = child.nextSibling;
+        }
+        return false;
+    }
+
+
+    /**
+     * Checks if this node can be recorded into the display list of a
+     * compiled node. Nodes which render view dependent content or content
+     * which changes without invalidating the display list must return
+     * false. The default implementation returns true.
+     *
+     * @return True if the node can be recorded, false if not
+     */
+
+    protected boolean isRecordable()
+    {
+        return true;
+    }
+
+
+    /**
+     * Checks if the content rendered by the render method of this node is
+     * transparent. Transparent nodes are rendered in the transparent pass
+     * after all opaque content and sorted back to front. The default
+     * implementation returns false.
+     *
+     * @return True if the node renders transparent content, false if not
+     */
+
+    protected boolean isTransparent()
+    {
+        return false;
     }
 
 
     /**
-     * Recursively applies light transformation.
+     * Prepares the resources of this node before it is recorded into a
+     * display list, for example by uploading textures. Resource uploads must
+     * not end up in the display list because they would be repeated every
+     * time the list is called. The default implementation does nothing.
      *
      * @param gl
      *            The GL context
-     * @param node
-     *            The scene node the light node should illuminate
-     * @param light
-     *            The light node
      */
 
-    private void applyLightTransform(final GL gl, final SceneNode node,
-            final SceneNode light)
+    protected void prepareRecording(final GL gl)
     {
-        // Create some shortcuts
-        final SceneNode parentNode = light.getParentNode();
+        // Empty
+    }
 
-        // Apply next parent transform
-        if (parentNode != null && parentNode != node)
-            applyLightTransform(gl, node, parentNode);
 
-        // Apply current transform
-        gl.glMultMatrix(light.getTransform().getBuffer());
+    /**
+     * Prepares the resources of this node and all its child nodes before
+     * they are recorded into a display list.
+     *
+     * @param gl
+     *            The GL context
+     */
+
+    private void prepareSubTree(final GL gl)
+    {
+        prepareRecording(gl);
+        SceneNode child = this.firstChild;
+        while (child != null)
+        {
+            child.prepareSubTree(gl);
+            child = child.nextSibling;
+        }
     }
 
 
     /**
-     * Renders the node with all its properties and lights and child nodes.
+     * Renders the sub tree of this compiled node. The display list is
+     * called if it is still valid. Otherwise the sub tree is recorded into
+     * the display list and rendered at the same time. If the GL doesn't
+     * support display lists then the sub tree is rendered directly and the
+     * node is rendered like a normal node from now on. The scene
+     * transformation of the node is already applied.
      *
      * @param viewport
      *            The viewport
      */
 
-    final void renderAll(final Viewport viewport)
+    final void renderDisplayList(final Viewport viewport)
     {
-        // Get some shortcuts
+        // The version is read before recording so changes made by another
+        // thread during the recording are not lost
         final GL gl = viewport.getGL();
-        final List<NodeProperty> properties = this.properties;
-        final Matrix4f transform = this.transform;
-
-        boolean identity;
-
-        // Apply node properties
-        if (properties != null) for (final NodeProperty property : properties)
-            property.apply(gl);
-
-        // If transformation is used then apply it
-        identity = transform.isIdentity();
-        if (!identity)
+        final int version = getRenderVersion();
+        if (this.recordedVersion == version)
         {
-            gl.glPushMatrix();
-            gl.glMultMatrix(transform.getBuffer());
+            gl.glCallList(this.displayList);
+            return;
         }
 
-        // Apply lights
-        if (this.lights != null)
+        // Textures are loaded first so their transparency is known when the
+        // draw items are sorted
+        prepareSubTree(gl);
+        TextureManager.getInstance().unbindTexture(gl);
+        final RenderQueue queue = this.scene.getCompileQueue();
+        queue.begin(viewport, this);
+        enqueueSubTree(queue);
+
+        // Transparent content must be sorted with the rest of the scene so
+        // sub trees containing it are not compiled
+        if (queue.hasTransparentItems())
         {
-            for (final Light light : this.lights)
-            {
-                gl.glPushMatrix();
-                applyLightTransform(gl, this, light);
-                light.apply(viewport);
-                gl.glPopMatrix();
-            }
+            queue.render();
+            this.uncompilable = true;
+            return;
+        }
+        if (this.displayList == 0) this.displayList = gl.glGenLists(1);
+        if (this.displayList == 0)
+        {
+            queue.render();
+            this.uncompilable = true;
+            return;
         }
+        gl.glNewList(this.displayList, GL.GL_COMPILE_AND_EXECUTE);
+        queue.render();
+        gl.glEndList();
+        this.recordedVersion = version;
+    }
 
-        // Renders the node itself
-        render(viewport);
 
-        // Render the node and the child nodes
-        for (final SceneNode childNode : this)
-            childNode.renderAll(viewport);
+    /**
+     * Releases the display list of this node. It is deleted from the GL
+     * context the next time the scene is rendered.
+     */
+
+    private void releaseDisplayList()
+    {
+        if (this.displayList != 0 && this.scene != null)
+            this.scene.releaseDisplayList(this.displayList);
+        this.displayList = 0;
+        this.recordedVersion = -1;
+    }
 
-        // Remove lights
-        if (this.lights != null) for (final Light light : this.lights)
-            light.remove(viewport);
 
-        // If transformation is used then reset the old transformation
-        if (!identity) gl.glPopMatrix();
+    /**
+     * Puts the draw items of this node into the render queue. The default
+     * implementation does nothing. Nodes which render custom geometry can
+     * add themselves to the queue with {@link RenderQueue#add(SceneNode)} so
+     * their {@link #render(Viewport)} method is called.
+     *
+     * @param queue
+     *            The render queue
+     */
 
-        // Remove node properties
-        if (properties != null) for (final NodeProperty property : properties)
-            property.remove(gl);
+    protected void enqueue(final RenderQueue queue)
+    {
+        // Empty
     }
 
 
     /**
-     * Renders the node itself.
+     * Renders the node itself. This is only called when the node has added
+     * itself to the render queue. The scene transformation of the node is
+     * already applied.
      *
      * @param viewport
      *            The viewport
@@ -791,16 +1753,34 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
 
     /**
      * Adds a light so it illuminates this node and all child nodes (not the
-     * parent nodes).
+     * parent nodes). The light is no longer managed by the light manager of
+     * the scene. The number of these lights is limited by the number of
+     * light slots of the GL context.
      *
      * @param light
      *            The light to add
+     * @see Light#setManaged(boolean)
      */
 
     public void addLight(final Light light)
     {
+        light.setManaged(false);
         if (this.lights == null) this.lights = new ArrayList<Light>();
         this.lights.add(light);
+        invalidateDisplayList();
+    }
+
+
+    /**
+     * Returns the lights which illuminate this node and its child nodes. May
+     * be null if no lights have been added.
+     *
+     * @return The lights
+     */
+
+    public List<Light> getLights()
+    {
+        return this.lights;
     }
 
 
@@ -815,6 +1795,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     public void removeLight(final Light light)
     {
         this.lights.remove(light);
+        invalidateDisplayList();
     }
 
 
@@ -832,21 +1813,7 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
         // Do nothing if state has not been changed
         if (this.scene == scene) return;
 
-        if (scene == null)
-        {
-            this.scene.unregisterNode(this);
-            fireNodeRemovedFromScene();
-        }
-
-        for (final SceneNode node : this)
-            node.setScene(scene);
-        this.scene = scene;
-
-        if (scene != null)
-        {
-            this.scene.registerNode(this);
-            fireNodeInsertedIntoScene();
-        }
+        accept(new SceneAssigner(scene));
     }
 
 
@@ -1005,10 +1972,158 @@ public abstract class SceneNode implements Iterable<SceneNode>, Cloneable
     }
 
 
+    /**
+     * Returns additional ids under which this node can be found in the
+     * scene. The default implementation returns null.
+     *
+     * @return The additional ids or null if none
+     */
+
+    String[] getAliases()
+    {
+        return null;
+    }
+
+
+    /**
+     * Marks this node and all its child nodes as static or dynamic. Static
+     * nodes promise to never change their transformation, geometry or
+     * structure so they can be processed by the {@link StaticBatcher}.
+     *
+     * @param staticNode
+     *            True to mark the sub tree as static, false to mark it as
+     *            dynamic
+     */
+
+    public void setStatic(final boolean staticNode)
+    {
+        this.staticNode = staticNode;
+    }
+
+
+    /**
+     * Checks if this node and its child nodes are marked as static.
+     *
+     * @return True if static, false if dynamic
+     */
+
+    public boolean isStatic()
+    {
+        return this.staticNode;
+    }
+
+
+    /**
+     * Enables or disables the compilation of this node and all its child
+     * nodes. A compiled sub tree is recorded into a display list the first
+     * time it is rendered and the display list is replayed in the following
+     * frames. The display list is recorded again when a transformation, a
+     * material binding or a child node in the sub tree changes. The
+     * transformation of the compiled node itself can be changed without
+     * recording the display list again.
+     *
+     * Only static sub trees should be compiled because the nodes of the sub
+     * tree are not culled individually. Sub trees with lights or
+     * properties on child nodes and sub trees containing nodes which can't
+     * be recorded (like level of detail models, instanced models or models
+     * with dynamic textures) are rendered without a display list.
+     *
+     * @param compiled
+     *            True to compile the sub tree, false to render it normally
+     */
+
+    public void setCompiled(final boolean compiled)
+    {
+        if (compiled == this.compiled) return;
+        this.compiled = compiled;
+        this.uncompilable = false;
+        if (!compiled) releaseDisplayList();
+    }
+
+
+    /**
+     * Checks if this node and its child nodes are compiled into a display
+     * list.
+     *
+     * @return True if compiled, false if not
+     */
+
+    public boolean isCompiled()
+    {
+        return this.compiled;
+    }
+
+
     /**
      * @see java.lang.Object#clone()
      */
 
     @Override
     public abstract SceneNode clone();
+
+
+    /**
+     * Visitor which connects the visited nodes to a scene or disconnects
+     * them from their scene. Nodes are disconnected before and connected
+     * after their child nodes.
+     */
+
+    private static final class SceneAssigner implements SceneNodeVisitor
+    {
+        /** The scene to connect the nodes to. Null to disconnect them */
+        private final Scene scene;
+
+
+        /**
+         * Constructor
+         *
+         * @param scene
+         *            The scene to connect the nodes to. Null to disconnect
+         *            them
+         */
+
+        SceneAssigner(final Scene scene)
+        {
+            this.scene = scene;
+        }
+
+
+        /**
+         * @see SceneNodeVisitor#enter(SceneNode)
+         */
+
+        @Override
+        public boolean enter(final SceneNode node)
+        {
+            // Skip sub trees which are already connected to the scene
+            if (node.scene == this.scene) return false;
+
+            if (this.scene == null)
+            {
+                node.releaseDisplayList();
+                node.scene.unregisterNode(node);
+                node.fireNodeRemovedFromScene();
+            }
+            return true;
+        }
+
+
+        /**
+         * @see SceneNodeVisitor#leave(SceneNode)
+         */
+
+        @Override
+        public void leave(final SceneNode node)
+        {
+            // Skipped sub trees are already connected to the scene
+            if (node.scene == this.scene) return;
+
+            node.scene = this.scene;
+            if (this.scene != null)
+            {
+                this.scene.registerNode(node);
+                node.fireNodeInsertedIntoScene();
+            }
+        }
+    }
 }
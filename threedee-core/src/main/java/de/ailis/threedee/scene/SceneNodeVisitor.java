@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+
+/**
+ * Visitor for traversing a scene tree with {@link SceneNode#accept(SceneNodeVisitor)}.
+ * The traversal follows the child and sibling links of the nodes and does
+ * not allocate any objects so it can be used in every frame. The visitor
+ * must not add or remove nodes of the visited tree except for child nodes
+ * of a node whose children are skipped.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public interface SceneNodeVisitor
+{
+    /**
+     * Called when a node is entered, before its child nodes are visited
+     * (Pre-order).
+     *
+     * @param node
+     *            The entered node
+     * @return True to visit the child nodes, false to skip them
+     */
+
+    boolean enter(SceneNode node);
+
+
+    /**
+     * Called when a node is left, after its child nodes have been visited
+     * (Post-order). This is also called for nodes whose child nodes were
+     * skipped.
+     *
+     * @param node
+     *            The left node
+     */
+
+    void leave(SceneNode node);
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import java.util.Arrays;
+
+import de.ailis.gramath.Vector3f;
+import de.ailis.threedee.mathold.Bounds;
+
+
+/**
+ * Snapshot of the scene transformations and scene bounds of all nodes of a
+ * scene at the end of a simulation tick. Snapshots are recorded by the
+ * simulation thread and rendered by the GL thread. After a snapshot has been
+ * published it is no longer modified until the GL thread has released it
+ * again so both threads can work at the same time.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+final class SceneSnapshot implements SceneNodeVisitor
+{
+    /** The number of floats per transformation */
+    static final int MATRIX_SIZE = 16;
+
+    /** The number of floats per bounds */
+    static final int BOUNDS_SIZE = 6;
+
+    /** The initial capacity */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The generation of the snapshot. Each snapshot gets a new one */
+    long generation;
+
+    /** The time of the simulation tick (Nanosecond timestamp) */
+    long time;
+
+    /** The number of recorded nodes */
+    int size;
+
+    /** The recorded nodes in depth-first order */
+    SceneNode[] nodes = new SceneNode[INITIAL_CAPACITY];
+
+    /** The scene transformations of the nodes (Column-major order) */
+    float[] transforms = new float[INITIAL_CAPACITY * MATRIX_SIZE];
+
+    /** The display list versions of the sub trees of the nodes */
+    int[] versions = new int[INITIAL_CAPACITY];
+
+    /**
+     * The scene bounds of the nodes (Minimum and maximum X, Y, Z). Empty
+     * bounds have a minimum larger than the maximum.
+     */
+    float[] bounds = new float[INITIAL_CAPACITY * BOUNDS_SIZE];
+
+
+    /**
+     * Records the specified node and all its child nodes into the snapshot.
+     * Previous contents of the snapshot are discarded.
+     *
+     * @param rootNode
+     *            The root node of the scene
+     * @param generation
+     *            The generation of the snapshot
+     * @param time
+     *            The time of the simulation tick (Nanosecond timestamp)
+     */
+
+    void record(final SceneNode rootNode, final long generation,
+        final long time)
+    {
+        Arrays.fill(this.nodes, 0, this.size, null);
+        this.size = 0;
+        this.generation = generation;
+        this.time = time;
+        rootNode.accept(this);
+    }
+
+
+    /**
+     * Adds the specified node to the snapshot.
+     *
+     * @see SceneNodeVisitor#enter(SceneNode)
+     */
+
+    @Override
+    public boolean enter(final SceneNode node)
+    {
+        final int index = this.size;
+        if (index == this.nodes.length)
+        {
+            final int capacity = index * 2;
+            this.nodes = Arrays.copyOf(this.nodes, capacity);
+            this.transforms = Arrays.copyOf(this.transforms, capacity
+                * MATRIX_SIZE);
+            this.bounds = Arrays.copyOf(this.bounds, capacity * BOUNDS_SIZE);
+            this.versions = Arrays.copyOf(this.versions, capacity);
+        }
+        this.nodes[index] = node;
+        this.versions[index] = node.getDisplayListVersion();
+        this.size = index + 1;
+
+        node.getSceneTransform(this.transforms, index * MATRIX_SIZE);
+
+        final Bounds sceneBounds = node.getSceneBounds();
+        final Vector3f min = sceneBounds.getMin();
+        final Vector3f max = sceneBounds.getMax();
+        final float[] bounds = this.bounds;
+        final int boundsOffset = index * BOUNDS_SIZE;
+        bounds[boundsOffset] = min.getX();
+        bounds[boundsOffset + 1] = min.getY();
+        bounds[boundsOffset + 2] = min.getZ();
+        bounds[boundsOffset + 3] = max.getX();
+        bounds[boundsOffset + 4] = max.getY();
+        bounds[boundsOffset + 5] = max.getZ();
+        return true;
+    }
+
+
+    /**
+     * @see SceneNodeVisitor#leave(SceneNode)
+     */
+
+    @Override
+    public void leave(final SceneNode node)
+    {
+        // Nothing to do
+    }
+
+
+    /**
+     * Interpolates between two recorded scene transformations. The
+     * translation and the scale are interpolated linearly and the rotation is
+     * interpolated with a normalized linear quaternion interpolation. So
+     * rotating nodes keep their shape between the snapshots. Matrices which
+     * can't be decomposed into rotation and scale (Because they mirror or
+     * collapse the geometry) are interpolated element by element.
+     *
+     * @param from
+     *            The transformations to interpolate from
+     * @param fromOffset
+     *            The offset of the transformation in the from array
+     * @param to
+     *            The transformations to interpolate to
+     * @param toOffset
+     *            The offset of the transformation in the to array
+     * @param alpha
+     *            The interpolation factor (0 = from, 1 = to)
+     * @param result
+     *            The array to store the interpolated transformation in
+     */
+
+    static void interpolate(final float[] from, final int fromOffset,
+        final float[] to, final int toOffset, final float alpha,
+        final float[] result)
+    {
+        final float fromScaleX = getScale(from, fromOffset);
+        final float fromScaleY = getScale(from, fromOffset + 4);
+        final float fromScaleZ = getScale(from, fromOffset + 8);
+        final float toScaleX = getScale(to, toOffset);
+        final float toScaleY = getScale(to, toOffset + 4);
+        final float toScaleZ = getScale(to, toOffset + 8);
+
+        // Store the normalized rotations in the result array temporarily
+        if (!getRotation(from, fromOffset, fromScaleX, fromScaleY,
+            fromScaleZ, result, 0)
+            || !getRotation(to, toOffset, toScaleX, toScaleY, toScaleZ,
+                result, 4))
+        {
+            for (int i = 0; i < MATRIX_SIZE; i++)
+            {
+                final float a = from[fromOffset + i];
+                result[i] = a + (to[toOffset + i] - a) * alpha;
+            }
+            return;
+        }
+
+        // Interpolate the rotation along the shorter arc
+        final float sign = result[0] * result[4] + result[1] * result[5]
+            + result[2] * result[6] + result[3] * result[7] < 0 ? -1 : 1;
+        float x = result[0] + (sign * result[4] - result[0]) * alpha;
+        float y = result[1] + (sign * result[5] - result[1]) * alpha;
+        float z = result[2] + (sign * result[6] - result[2]) * alpha;
+        float w = result[3] + (sign * result[7] - result[3]) * alpha;
+        final float length = (float) Math.sqrt(x * x + y * y + z * z + w * w);
+        x /= length;
+        y /= length;
+        z /= length;
+        w /= length;
+
+        // Build the matrix from the rotation and the interpolated scale
+        final float scaleX = fromScaleX + (toScaleX - fromScaleX) * alpha;
+        final float scaleY = fromScaleY + (toScaleY - fromScaleY) * alpha;
+        final float scaleZ = fromScaleZ + (toScaleZ - fromScaleZ) * alpha;
+        result[0] = (1 - 2 * (y * y + z * z)) * scaleX;
+        result[1] = 2 * (x * y + z * w) * scaleX;
+        result[2] = 2 * (x * z - y * w) * scaleX;
+        result[4] = 2 * (x * y - z * w) * scaleY;
+        result[5] = (1 - 2 * (x * x + z * z)) * scaleY;
+        result[6] = 2 * (y * z + x * w) * scaleY;
+        result[8] = 2 * (x * z + y * w) * scaleZ;
+        result[9] = 2 * (y * z - x * w) * scaleZ;
+        result[10] = (1 - 2 * (x * x + y * y)) * scaleZ;
+        result[3] = result[7] = result[11] = 0;
+        for (int i = 12; i < 15; i++)
+        {
+            final float a = from[fromOffset + i];
+            result[i] = a + (to[toOffset + i] - a) * alpha;
+        }
+        result[15] = 1;
+    }
+
+
+    /**
+     * Returns the length of a column of the rotation and scale part of a
+     * transformation.
+     *
+     * @param m
+     *            The transformations
+     * @param offset
+     *            The offset of the column
+     * @return The length of the column
+     */
+
+    private static float getScale(final float[] m, final int offset)
+    {
+        final float x = m[offset], y = m[offset + 1], z = m[offset + 2];
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+
+    /**
+     * Calculates the rotation quaternion of a transformation.
+     *
+     * @param m
+     *            The transformations
+     * @param offset
+     *            The offset of the transformation
+     * @param scaleX
+     *            The length of the first column
+     * @param scaleY
+     *            The length of the second column
+     * @param scaleZ
+     *            The length of the third column
+     * @param q
+     *            The array to store the quaternion in (X, Y, Z, W)
+     * @param qOffset
+     *            The offset of the quaternion in the array
+     * @return True if the rotation has been calculated, false if the
+     *         transformation is no rotation combined with a scale
+     */
+
+    private static boolean getRotation(final float[] m, final int offset,
+        final float scaleX, final float scaleY, final float scaleZ,
+        final float[] q, final int qOffset)
+    {
+        if (m[offset + 3] != 0 || m[offset + 7] != 0 || m[offset + 11] != 0
+            || m[offset + 15] != 1) return false;
+        if (!(scaleX > 0) || !(scaleY > 0) || !(scaleZ > 0)) return false;
+        final float m00 = m[offset] / scaleX, m10 = m[offset + 1] / scaleX;
+        final float m20 = m[offset + 2] / scaleX;
+        final float m01 = m[offset + 4] / scaleY, m11 = m[offset + 5] / scaleY;
+        final float m21 = m[offset + 6] / scaleY;
+        final float m02 = m[offset + 8] / scaleZ, m12 = m[offset + 9] / scaleZ;
+        final float m22 = m[offset + 10] / scaleZ;
+
+        // Mirroring transformations have no rotation quaternion
+        if (m00 * (m11 * m22 - m12 * m21) - m01 * (m10 * m22 - m12 * m20)
+            + m02 * (m10 * m21 - m11 * m20) <= 0) return false;
+
+        final float trace = m00 + m11 + m22;
+        float x, y, z, w;
+        if (trace > 0)
+        {
+            final float s = (float) Math.sqrt(trace + 1) * 2;
+            w = s / 4;
+            x = (m21 - m12) / s;
+            y = (m02 - m20) / s;
+            z = (m10 - m01) / s;
+        }
+        else if (m00 > m11 && m00 > m22)
+        {
+            final float s = (float) Math.sqrt(1 + m00 - m11 - m22) * 2;
+            w = (m21 - m12) / s;
+            x = s / 4;
+            y = (m01 + m10) / s;
+            z = (m02 + m20) / s;
+        }
+        else if (m11 > m22)
+        {
+            final float s = (float) Math.sqrt(1 + m11 - m00 - m22) * 2;
+            w = (m02 - m20) / s;
+            x = (m01 + m10) / s;
+            y = s / 4;
+            z = (m12 + m21) / s;
+        }
+        else
+        {
+            final float s = (float) Math.sqrt(1 + m22 - m00 - m11) * 2;
+            w = (m10 - m01) / s;
+            x = (m02 + m20) / s;
+            y = (m12 + m21) / s;
+            z = s / 4;
+        }
+        q[qOffset] = x;
+        q[qOffset + 1] = y;
+        q[qOffset + 2] = z;
+        q[qOffset + 3] = w;
+        return true;
+    }
+
+
+    /**
+     * Extends the specified bounds with the recorded scene bounds of a node.
+     *
+     * @param index
+     *            The node index
+     * @param target
+     *            The bounds to extend
+     */
+
+    void updateBounds(final int index, final Bounds target)
+    {
+        final float[] bounds = this.bounds;
+        final int offset = index * BOUNDS_SIZE;
+        if (bounds[offset] > bounds[offset + 3]) return;
+        target.update(bounds[offset], bounds[offset + 1], bounds[offset + 2]);
+        target.update(bounds[offset + 3], bounds[offset + 4],
+            bounds[offset + 5]);
+    }
+}
@@ -0,0 +1,484 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.ailis.gramath.MutableMatrix4f;
+import de.ailis.gramath.MutableVector2f;
+import de.ailis.gramath.MutableVector3f;
+import de.ailis.threedee.assets.Material;
+import de.ailis.threedee.assets.Mesh;
+import de.ailis.threedee.assets.MeshPolygons;
+import de.ailis.threedee.utils.FloatBufferBuilder;
+import de.ailis.threedee.utils.IntBufferBuilder;
+
+
+/**
+ * Merges the models of static sub trees into a few batched models. The
+ * vertices and normals of the models are transformed into the coordinate
+ * system of the static sub tree root and all polygon groups using the same
+ * material are merged into combined polygon groups. So instead of hundreds
+ * of small models with their own transformation only one model per material
+ * must be rendered.
+ *
+ * Models are only merged when they render nothing but their mesh and when
+ * no lights or node properties are attached to them or to any node between
+ * them and the sub tree root. Merged models are removed from the scene.
+ * Merged models which have child nodes are replaced by groups so the child
+ * nodes keep their position. Groups which are empty after merging are
+ * removed as well. The ids of removed nodes remain resolvable through
+ * {@link Scene#getNodeById(String)} because they are registered as
+ * aliases of the batched models.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public final class StaticBatcher
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog(StaticBatcher.class);
+
+    /** The root node of the static sub tree */
+    private final SceneNode root;
+
+    /** The inverse scene transformation of the root node */
+    private final MutableMatrix4f rootInverse;
+
+    /** The found models which can be merged */
+    private final List<Model> models = new ArrayList<Model>();
+
+    /** The batches */
+    private final List<Batch> batches = new ArrayList<Batch>();
+
+    /** The ids of removed groups */
+    private final List<String> groupIds = new ArrayList<String>();
+
+
+    /**
+     * A batch of polygon groups which can be merged.
+     */
+
+    private static final class Batch
+    {
+        /** The material */
+        final Material material;
+
+        /** The polygon size (1-3) */
+        final int size;
+
+        /** If batch has normals */
+        final boolean normals;
+
+        /** If batch has texture coordinates */
+        final boolean texCoords;
+
+        /** The vertex builder */
+        final FloatBufferBuilder vertexBuilder = new FloatBufferBuilder();
+
+        /** The normal builder */
+        final FloatBufferBuilder normalBuilder = new FloatBufferBuilder();
+
+        /** The texture coordinate builder */
+        final FloatBufferBuilder texCoordBuilder = new FloatBufferBuilder();
+
+        /** The index builder */
+        final IntBufferBuilder indexBuilder = new IntBufferBuilder();
+
+        /** The number of vertices in the batch */
+        int vertexCount;
+
+        /** The ids of the models merged into this batch */
+        final List<String> ids = new ArrayList<String>();
+
+
+        /**
+         * Constructor
+         *
+         * @param material
+         *            The material
+         * @param polygons
+         *            The first polygon group of the batch
+         */
+
+        Batch(final Material material, final MeshPolygons polygons)
+        {
+            this.material = material;
+            this.size = polygons.getSize();
+            this.normals = polygons.hasNormals();
+            this.texCoords = polygons.hasTexCoords();
+        }
+
+
+        /**
+         * Checks if the specified polygon group fits into this batch.
+         *
+         * @param material
+         *            The material of the polygon group
+         * @param polygons
+         *            The polygon group
+         * @return True if polygon group fits into the batch, false if not
+         */
+
+        boolean accepts(final Material material, final MeshPolygons polygons)
+        {
+            return material == this.material
+                && polygons.getSize() == this.size
+                && polygons.hasNormals() == this.normals
+                && polygons.hasTexCoords() == this.texCoords;
+        }
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param root
+     *            The root node of the static sub tree
+     */
+
+    private StaticBatcher(final SceneNode root)
+    {
+        this.root = root;
+        this.rootInverse = MutableMatrix4f.identity();
+        this.rootInverse.set(root.getSceneTransform()).invert();
+    }
+
+
+    /**
+     * Batches all static sub trees in the specified node (including the
+     * node itself).
+     *
+     * @param node
+     *            The node to search for static sub trees
+     * @return The number of merged models
+     */
+
+    public static int batch(final SceneNode node)
+    {
+        if (node.isStatic()) return new StaticBatcher(node).batch();
+
+        int merged = 0;
+        SceneNode child = node.getFirstChild();
+        while (child != null)
+        {
+            final SceneNode next = child.getNextSibling();
+            merged += batch(child);
+            child = next;
+        }
+        return merged;
+    }
+
+
+    /**
+     * Batches the static sub tree.
+     *
+     * @return The number of merged models
+     */
+
+    private int batch()
+    {
+        // Find the models and merge their geometry into batches
+        collectModels(this.root, true);
+        if (this.models.size() < 2) return 0;
+        for (final Model model : this.models)
+            mergeModel(model);
+
+        // Remove the merged models and empty groups
+        for (final Model model : this.models)
+            removeModel(model);
+        removeEmptyGroups(this.root);
+
+        // Create one batched model per material
+        final List<Material> materials = new ArrayList<Material>();
+        for (final Batch batch : this.batches)
+            if (!materials.contains(batch.material))
+                materials.add(batch.material);
+        int index = 0;
+        for (final Material material : materials)
+        {
+            final BatchedModel model = createModel(material, index++);
+            model.setStatic(true);
+            this.root.appendChild(model);
+        }
+
+        log.debug("Merged " + this.models.size() + " models into "
+            + materials.size() + " batched models");
+        return this.models.size();
+    }
+
+
+    /**
+     * Recursively collects the models which can be merged.
+     *
+     * @param node
+     *            The node to search
+     * @param mergeable
+     *            If no lights or properties were found between the static
+     *            root and the specified node
+     */
+
+    private void collectModels(final SceneNode node, final boolean mergeable)
+    {
+        SceneNode child = node.getFirstChild();
+        while (child != null)
+        {
+            final boolean childMergeable = mergeable
+                && child.getLights() == null && child.getProperties() == null;
+            if (childMergeable && child.getClass() == Model.class)
+            {
+                final Model model = (Model) child;
+                if (!model.isShowBounds() && !model.isShowNormals())
+                    this.models.add(model);
+            }
+            collectModels(child, childMergeable);
+            child = child.getNextSibling();
+        }
+    }
+
+
+    /**
+     * Returns the batch for the specified polygon group. A new batch is
+     * created if needed.
+     *
+     * @param material
+     *            The material of the polygon group
+     * @param polygons
+     *            The polygon group
+     * @return The batch
+     */
+
+    private Batch getBatch(final Material material, final MeshPolygons polygons)
+    {
+        for (final Batch batch : this.batches)
+            if (batch.accepts(material, polygons)) return batch;
+        final Batch batch = new Batch(material, polygons);
+        this.batches.add(batch);
+        return batch;
+    }
+
+
+    /**
+     * Merges the geometry of the specified model into the batches.
+     *
+     * @param model
+     *            The model to merge
+     */
+
+    private void mergeModel(final Model model)
+    {
+        // Calculate the transformation relative to the static root
+        final MutableMatrix4f transform = MutableMatrix4f.identity();
+        transform.set(this.rootInverse).multiply(model.getSceneTransform());
+        final FloatBuffer m = transform.getBuffer();
+        final float[] matrix = new float[16];
+        for (int i = 0; i < 16; i++)
+            matrix[i] = m.get(i);
+
+        // Calculate the cofactor matrix of the rotation part which is used
+        // to transform the normals. The determinant sign is needed to keep
+        // normals pointing outwards and triangles facing forward when the
+        // transformation mirrors the geometry.
+        final float[] normalMatrix = new float[9];
+        final float determinant = getNormalMatrix(matrix, normalMatrix);
+        final boolean mirrored = determinant < 0;
+
+        final MutableVector3f v = new MutableVector3f();
+        final MutableVector2f t = new MutableVector2f(0, 0);
+        boolean first = true;
+        for (final MeshPolygons polygons : model.getMesh().getPolygons())
+        {
+            final int materialIndex = polygons.getMaterial();
+            final Material material = materialIndex == -1 ? Material.DEFAULT
+                : model.getMaterial(materialIndex);
+            final Batch batch = getBatch(material, polygons);
+            // The id of a model with child nodes is kept by the group
+            // which replaces it
+            if (first && model.getId() != null && !model.hasChildNodes())
+                batch.ids.add(model.getId());
+            first = false;
+
+            // Append the vertex data
+            final int vertexCount = polygons.getVertexCount();
+            for (int i = 0; i < vertexCount; i++)
+            {
+                polygons.getVertex(i, v);
+                final float x = v.getX(), y = v.getY(), z = v.getZ();
+                batch.vertexBuilder.add(
+                    matrix[0] * x + matrix[4] * y + matrix[8] * z + matrix[12],
+                    matrix[1] * x + matrix[5] * y + matrix[9] * z + matrix[13],
+                    matrix[2] * x + matrix[6] * y + matrix[10] * z
+                        + matrix[14]);
+                if (batch.normals)
+                {
+                    polygons.getNormal(i, v);
+                    final float nx = v.getX(), ny = v.getY(), nz = v.getZ();
+                    v.set(normalMatrix[0] * nx + normalMatrix[1] * ny
+                        + normalMatrix[2] * nz, normalMatrix[3] * nx
+                        + normalMatrix[4] * ny + normalMatrix[5] * nz,
+                        normalMatrix[6] * nx + normalMatrix[7] * ny
+                            + normalMatrix[8] * nz);
+                    if (mirrored) v.scale(-1);
+                    v.normalize();
+                    batch.normalBuilder.add(v.getX(), v.getY(), v.getZ());
+                }
+                if (batch.texCoords)
+                {
+                    polygons.getTexCoord(i, t);
+                    batch.texCoordBuilder.add(t.getX(), t.getY());
+                }
+            }
+
+            // Append the indices. Triangle winding is reversed for mirrored
+            // geometry
+            final int indexCount = polygons.getIndexCount();
+            final int offset = batch.vertexCount;
+            final boolean flip = mirrored && polygons.getSize() == 3;
+            for (int i = 0; i < indexCount; i++)
+            {
+                int index = i;
+                if (flip && i % 3 != 0) index += i % 3 == 1 ? 1 : -1;
+                batch.indexBuilder.add(polygons.getIndex(index) + offset);
+            }
+            batch.vertexCount += vertexCount;
+        }
+    }
+
+
+    /**
+     * Calculates the matrix for transforming normals with the specified
+     * transformation. This is the cofactor matrix of the upper 3x3 part of
+     * the transformation which is the transposed inverse multiplied by the
+     * determinant. The normals must be normalized after transformation.
+     *
+     * @param m
+     *            The column-major transformation matrix
+     * @param normalMatrix
+     *            The row-major 3x3 array to store the normal matrix in
+     * @return The determinant of the upper 3x3 part of the transformation
+     */
+
+    private static float getNormalMatrix(final float[] m,
+        final float[] normalMatrix)
+    {
+        // Row-major access: a(r, c) = m[c * 4 + r]
+        final float a00 = m[0], a01 = m[4], a02 = m[8];
+        final float a10 = m[1], a11 = m[5], a12 = m[9];
+        final float a20 = m[2], a21 = m[6], a22 = m[10];
+        normalMatrix[0] = a11 * a22 - a12 * a21;
+        normalMatrix[1] = a12 * a20 - a10 * a22;
+        normalMatrix[2] = a10 * a21 - a11 * a20;
+        normalMatrix[3] = a02 * a21 - a01 * a22;
+        normalMatrix[4] = a00 * a22 - a02 * a20;
+        normalMatrix[5] = a01 * a20 - a00 * a21;
+        normalMatrix[6] = a01 * a12 - a02 * a11;
+        normalMatrix[7] = a02 * a10 - a00 * a12;
+        normalMatrix[8] = a00 * a11 - a01 * a10;
+        return a00 * normalMatrix[0] + a01 * normalMatrix[1] + a02
+            * normalMatrix[2];
+    }
+
+
+    /**
+     * Removes a merged model from the scene. If the model has child nodes
+     * then it is replaced by a group with the same transformation and id.
+     *
+     * @param model
+     *            The model to remove
+     */
+
+    private void removeModel(final Model model)
+    {
+        final SceneNode parent = model.getParentNode();
+        if (model.hasChildNodes())
+        {
+            final Group group = new Group();
+            group.setTransform(model.getTransform());
+            group.setStatic(true);
+            while (model.hasChildNodes())
+                group.appendChild(model.getFirstChild());
+            final String id = model.getId();
+            model.setId(null);
+            group.setId(id);
+            parent.replaceChild(model, group);
+        }
+        else
+        {
+            parent.removeChild(model);
+        }
+    }
+
+
+    /**
+     * Recursively removes empty groups without lights and properties.
+     *
+     * @param node
+     *            The node to search for empty groups
+     */
+
+    private void removeEmptyGroups(final SceneNode node)
+    {
+        SceneNode child = node.getFirstChild();
+        while (child != null)
+        {
+            final SceneNode next = child.getNextSibling();
+            removeEmptyGroups(child);
+            if (child.getClass() == Group.class && !child.hasChildNodes()
+                && child.getLights() == null && child.getProperties() == null)
+            {
+                if (child.getId() != null) this.groupIds.add(child.getId());
+                node.removeChild(child);
+            }
+            child = next;
+        }
+    }
+
+
+    /**
+     * Creates a batched model containing all batches with the specified
+     * material.
+     *
+     * @param material
+     *            The material
+     * @param index
+     *            The index of the batched model
+     * @return The batched model
+     */
+
+    private BatchedModel createModel(final Material material, final int index)
+    {
+        final List<MeshPolygons> groups = new ArrayList<MeshPolygons>();
+        final List<String> ids = new ArrayList<String>();
+        for (final Batch batch : this.batches)
+        {
+            if (batch.material != material) continue;
+            groups.add(new MeshPolygons(0, batch.size, batch.indexBuilder
+                .build(), batch.vertexBuilder.build(), batch.texCoords
+                ? batch.texCoordBuilder.build() : null, batch.normals
+                ? batch.normalBuilder.build() : null));
+            ids.addAll(batch.ids);
+        }
+
+        // Ids of removed groups are assigned to the first batched model
+        if (index == 0) ids.addAll(this.groupIds);
+
+        final String rootId = this.root.getId();
+        final String meshId = (rootId == null ? "static" : rootId)
+            + "-batch-" + index;
+        final Mesh mesh = new Mesh(meshId, groups
+            .toArray(new MeshPolygons[groups.size()]),
+            new String[] { "material" });
+        final BatchedModel model = new BatchedModel(mesh, ids
+            .toArray(new String[ids.size()]));
+        model.bindMaterial("material", material);
+        return model;
+    }
+}
@@ -0,0 +1,467 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import de.ailis.gramath.MutableMatrix4f;
+
+
+/**
+ * Stores the local and world transformations of a scene tree in flat float
+ * arrays. The nodes are stored in parent-before-child order so all world
+ * transformations can be updated in a single linear pass over the arrays
+ * instead of recursively walking up the parent nodes. The world
+ * transformations are relative to the parent of the root node.
+ *
+ * Transformation changes of the nodes are tracked automatically. Structural
+ * changes of the tree cause a rebuild of the store during the next update.
+ * Call {@link #update()} in the thread which updates the scene, after the
+ * scene update and before reading world transformations.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public final class TransformStore
+{
+    /** The number of floats per matrix */
+    private static final int MATRIX_SIZE = 16;
+
+    /** The initial capacity */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /** The root node */
+    private final SceneNode rootNode;
+
+    /** The stored nodes in parent-before-child order */
+    private SceneNode[] nodes = new SceneNode[INITIAL_CAPACITY];
+
+    /** The parent indices. -1 for the root node */
+    private int[] parents = new int[INITIAL_CAPACITY];
+
+    /** The local transformations (Column-major order) */
+    private float[] locals = new float[INITIAL_CAPACITY * MATRIX_SIZE];
+
+    /** The world transformations (Column-major order) */
+    private float[] worlds = new float[INITIAL_CAPACITY * MATRIX_SIZE];
+
+    /** The flags of the nodes with changed transformations */
+    private boolean[] changed = new boolean[INITIAL_CAPACITY];
+
+    /** The indices of the nodes with changed local transformations */
+    private int[] dirty = new int[INITIAL_CAPACITY];
+
+    /** The number of dirty nodes */
+    private int dirtyCount;
+
+    /** The number of stored nodes */
+    private int size;
+
+    /** If the stored tree structure is up to date */
+    private boolean structureValid;
+
+    /** The visitor which collects the nodes */
+    private final Collector collector = new Collector();
+
+
+    /**
+     * Constructs a new transform store for the specified scene tree.
+     *
+     * @param rootNode
+     *            The root node of the tree to store
+     */
+
+    public TransformStore(final SceneNode rootNode)
+    {
+        if (rootNode == null)
+            throw new IllegalArgumentException("rootNode must not be null");
+        this.rootNode = rootNode;
+        rebuild();
+    }
+
+
+    /**
+     * Returns the root node.
+     *
+     * @return The root node
+     */
+
+    public SceneNode getRootNode()
+    {
+        return this.rootNode;
+    }
+
+
+    /**
+     * Returns the number of stored nodes.
+     *
+     * @return The number of stored nodes
+     */
+
+    public int getSize()
+    {
+        return this.size;
+    }
+
+
+    /**
+     * Returns the node with the specified index.
+     *
+     * @param index
+     *            The node index
+     * @return The node
+     */
+
+    public SceneNode getNode(final int index)
+    {
+        checkIndex(index);
+        return this.nodes[index];
+    }
+
+
+    /**
+     * Returns the index of the parent of the node with the specified index.
+     *
+     * @param index
+     *            The node index
+     * @return The parent index or -1 for the root node
+     */
+
+    public int getParentIndex(final int index)
+    {
+        checkIndex(index);
+        return this.parents[index];
+    }
+
+
+    /**
+     * Copies the world transformation of the node with the specified index
+     * into the specified array.
+     *
+     * @param index
+     *            The node index
+     * @param matrix
+     *            The array to copy the matrix to (Column-major order)
+     * @param offset
+     *            The array index of the first matrix element
+     */
+
+    public void getWorldTransform(final int index, final float[] matrix,
+        final int offset)
+    {
+        checkIndex(index);
+        System.arraycopy(this.worlds, index * MATRIX_SIZE, matrix, offset,
+            MATRIX_SIZE);
+    }
+
+
+    /**
+     * Copies the world transformation of the node with the specified index
+     * into the specified matrix.
+     *
+     * @param index
+     *            The node index
+     * @param matrix
+     *            The matrix to copy the world transformation to
+     */
+
+    public void getWorldTransform(final int index,
+        final MutableMatrix4f matrix)
+    {
+        checkIndex(index);
+        final float[] w = this.worlds;
+        final int i = index * MATRIX_SIZE;
+        matrix.set(w[i], w[i + 1], w[i + 2], w[i + 3], w[i + 4], w[i + 5],
+            w[i + 6], w[i + 7], w[i + 8], w[i + 9], w[i + 10], w[i + 11],
+            w[i + 12], w[i + 13], w[i + 14], w[i + 15]);
+    }
+
+
+    /**
+     * Copies the local transformation of the node with the specified index
+     * into the specified array.
+     *
+     * @param index
+     *            The node index
+     * @param matrix
+     *            The array to copy the matrix to (Column-major order)
+     * @param offset
+     *            The array index of the first matrix element
+     */
+
+    public void getLocalTransform(final int index, final float[] matrix,
+        final int offset)
+    {
+        checkIndex(index);
+        System.arraycopy(this.locals, index * MATRIX_SIZE, matrix, offset,
+            MATRIX_SIZE);
+    }
+
+
+    /**
+     * Returns the array with all world transformations. The world
+     * transformation of the node with index i starts at array index i * 16.
+     * The array is replaced when the store grows so do not keep it across
+     * updates. Do not modify it.
+     *
+     * @return The world transformations (Column-major order)
+     */
+
+    public float[] getWorldTransforms()
+    {
+        return this.worlds;
+    }
+
+
+    /**
+     * Marks the local transformation of the node with the specified index as
+     * changed. Called by the node when its transformation has been changed.
+     * Synchronized because nodes may be updated in parallel.
+     *
+     * @param index
+     *            The node index
+     */
+
+    synchronized void markDirty(final int index)
+    {
+        final boolean[] changed = this.changed;
+        if (changed[index]) return;
+        changed[index] = true;
+        this.dirty[this.dirtyCount++] = index;
+    }
+
+
+    /**
+     * Marks the stored tree structure as outdated. Called by the nodes when
+     * child nodes have been added or removed. The store is rebuilt during
+     * the next update.
+     */
+
+    void invalidate()
+    {
+        this.structureValid = false;
+    }
+
+
+    /**
+     * Updates the world transformations of all nodes whose transformation
+     * or whose parent transformation has changed since the last update.
+     */
+
+    public void update()
+    {
+        if (!this.structureValid) rebuild();
+        final int dirtyCount = this.dirtyCount;
+        if (dirtyCount == 0) return;
+
+        // Copy the changed local transformations from the nodes and
+        // determine where the linear pass must start
+        final SceneNode[] nodes = this.nodes;
+        final int[] dirty = this.dirty;
+        int first = this.size;
+        for (int i = 0; i < dirtyCount; i++)
+        {
+            final int index = dirty[i];
+            copyLocal(nodes[index], index);
+            if (index < first) first = index;
+        }
+        this.dirtyCount = 0;
+
+        // Calculate the world transformations in parent-before-child order.
+        // A node must be updated when its own or its parent transformation
+        // has changed.
+        final int[] parents = this.parents;
+        final boolean[] changed = this.changed;
+        final float[] locals = this.locals;
+        final float[] worlds = this.worlds;
+        for (int index = first, max = this.size; index < max; index++)
+        {
+            final int parent = parents[index];
+            if (!changed[index])
+            {
+                if (parent < 0 || !changed[parent]) continue;
+                changed[index] = true;
+            }
+            final int offset = index * MATRIX_SIZE;
+            if (parent < 0)
+                System.arraycopy(locals, offset, worlds, offset, MATRIX_SIZE);
+            else
+                multiply(worlds, parent * MATRIX_SIZE, locals, offset,
+                    worlds, offset);
+        }
+        Arrays.fill(changed, first, this.size, false);
+    }
+
+
+    /**
+     * Rebuilds the store from the current tree structure.
+     */
+
+    private void rebuild()
+    {
+        // Detach previously stored nodes unless they have been moved into
+        // another store in the meantime
+        final SceneNode[] oldNodes = this.nodes;
+        for (int i = 0, max = this.size; i < max; i++)
+        {
+            if (oldNodes[i].getTransformStore() == this)
+                oldNodes[i].setTransformStore(null, -1);
+            oldNodes[i] = null;
+        }
+        Arrays.fill(this.changed, 0, this.size, false);
+        this.size = 0;
+        this.dirtyCount = 0;
+
+        // Collect the nodes in depth-first order so parents always come
+        // before their children
+        this.rootNode.accept(this.collector);
+
+        // Mark all nodes as changed so the next update calculates all world
+        // transformations
+        for (int i = 0, max = this.size; i < max; i++)
+            markDirty(i);
+        this.structureValid = true;
+    }
+
+
+    /**
+     * Adds a node to the store.
+     *
+     * @param node
+     *            The node to add
+     * @param parent
+     *            The index of the parent node. -1 for the root node
+     * @return The index of the added node
+     */
+
+    private int add(final SceneNode node, final int parent)
+    {
+        final int index = this.size;
+        if (index == this.nodes.length)
+        {
+            final int capacity = index * 2;
+            this.nodes = Arrays.copyOf(this.nodes, capacity);
+            this.parents = Arrays.copyOf(this.parents, capacity);
+            this.locals = Arrays.copyOf(this.locals, capacity * MATRIX_SIZE);
+            this.worlds = Arrays.copyOf(this.worlds, capacity * MATRIX_SIZE);
+            this.changed = Arrays.copyOf(this.changed, capacity);
+            this.dirty = Arrays.copyOf(this.dirty, capacity);
+        }
+        this.nodes[index] = node;
+        this.parents[index] = parent;
+        this.size = index + 1;
+        node.setTransformStore(this, index);
+        return index;
+    }
+
+
+    /**
+     * Copies the local transformation of the specified node into the local
+     * transformations array.
+     *
+     * @param node
+     *            The node
+     * @param index
+     *            The node index
+     */
+
+    private void copyLocal(final SceneNode node, final int index)
+    {
+        final FloatBuffer buffer = node.getTransform().getBuffer();
+        final float[] locals = this.locals;
+        final int offset = index * MATRIX_SIZE;
+        for (int i = 0; i < MATRIX_SIZE; i++)
+            locals[offset + i] = buffer.get(i);
+    }
+
+
+    /**
+     * Multiplies two column-major matrices. The result must not overlap with
+     * the first matrix.
+     *
+     * @param a
+     *            The array with the left matrix
+     * @param ai
+     *            The index of the left matrix
+     * @param b
+     *            The array with the right matrix
+     * @param bi
+     *            The index of the right matrix
+     * @param r
+     *            The array for the result
+     * @param ri
+     *            The index of the result
+     */
+
+    private static void multiply(final float[] a, final int ai,
+        final float[] b, final int bi, final float[] r, final int ri)
+    {
+        final float a0 = a[ai], a1 = a[ai + 1], a2 = a[ai + 2], a3 = a[ai + 3];
+        final float a4 = a[ai + 4], a5 = a[ai + 5], a6 = a[ai + 6];
+        final float a7 = a[ai + 7], a8 = a[ai + 8], a9 = a[ai + 9];
+        final float a10 = a[ai + 10], a11 = a[ai + 11], a12 = a[ai + 12];
+        final float a13 = a[ai + 13], a14 = a[ai + 14], a15 = a[ai + 15];
+        for (int c = 0; c < MATRIX_SIZE; c += 4)
+        {
+            final float b0 = b[bi + c], b1 = b[bi + c + 1];
+            final float b2 = b[bi + c + 2], b3 = b[bi + c + 3];
+            r[ri + c] = a0 * b0 + a4 * b1 + a8 * b2 + a12 * b3;
+            r[ri + c + 1] = a1 * b0 + a5 * b1 + a9 * b2 + a13 * b3;
+            r[ri + c + 2] = a2 * b0 + a6 * b1 + a10 * b2 + a14 * b3;
+            r[ri + c + 3] = a3 * b0 + a7 * b1 + a11 * b2 + a15 * b3;
+        }
+    }
+
+
+    /**
+     * Checks the specified node index.
+     *
+     * @param index
+     *            The node index to check
+     */
+
+    private void checkIndex(final int index)
+    {
+        if (index < 0 || index >= this.size)
+            throw new IndexOutOfBoundsException("Invalid node index: "
+                + index);
+    }
+
+
+    /**
+     * Visitor which adds the visited nodes to the store.
+     */
+
+    private final class Collector implements SceneNodeVisitor
+    {
+        /** The index of the current parent node. -1 for none */
+        private int parent = -1;
+
+
+        /**
+         * @see SceneNodeVisitor#enter(SceneNode)
+         */
+
+        @Override
+        public boolean enter(final SceneNode node)
+        {
+            this.parent = add(node, this.parent);
+            return true;
+        }
+
+
+        /**
+         * @see SceneNodeVisitor#leave(SceneNode)
+         */
+
+        @Override
+        public void leave(final SceneNode node)
+        {
+            this.parent = TransformStore.this.parents[this.parent];
+        }
+    }
+}
@@ -45,7 +45,7 @@ public class TransformAnimation extends Animation
     @Override
     public void animate(final SceneNode sceneNode, final float time)
     {
-        sceneNode.getTransform().set(this.sampler.getSample(time));
+        sceneNode.setTransform(this.sampler.getSample(time));
     }
 
 
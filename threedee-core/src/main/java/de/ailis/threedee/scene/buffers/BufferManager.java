@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene.buffers;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.ailis.threedee.assets.MeshPolygons;
+import de.ailis.threedee.rendering.GL;
+
+
+/**
+ * The buffer manager. It keeps the polygon groups of all viewed models
+ * resident in GPU buffer objects so the geometry is uploaded only once
+ * instead of being copied by the driver in every frame. Polygon groups are
+ * reference counted like textures in the texture manager: They are
+ * referenced when their scene is attached to a viewport, uploaded when they
+ * are rendered for the first time and freed by the clean-up after the last
+ * reference is gone.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public final class BufferManager
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog(BufferManager.class);
+
+    /** Singleton instance of the buffer manager */
+    private static final BufferManager instance = new BufferManager();
+
+    /** The buffer references */
+    private final Map<MeshPolygons, BufferReference> buffers = new ConcurrentHashMap<MeshPolygons, BufferReference>();
+
+
+    /**
+     * Private constructor to prevent instantiation from outside
+     */
+
+    private BufferManager()
+    {
+        // Empty
+    }
+
+
+    /**
+     * Returns the singleton instance of the buffer manager.
+     *
+     * @return The buffer manager.
+     */
+
+    public static BufferManager getInstance()
+    {
+        return instance;
+    }
+
+
+    /**
+     * Unloads all currently loaded buffers from the manager.
+     *
+     * @param gl
+     *            The OpenGL context
+     */
+
+    public void clear(final GL gl)
+    {
+        for (final BufferReference ref : this.buffers.values())
+        {
+            if (ref.isLoaded()) ref.unload(gl);
+        }
+    }
+
+
+    /**
+     * References a polygon group.
+     *
+     * @param polygons
+     *            The polygon group to reference
+     */
+
+    public void referencePolygons(final MeshPolygons polygons)
+    {
+        BufferReference ref = this.buffers.get(polygons);
+        if (ref == null)
+        {
+            ref = new BufferReference(polygons);
+            this.buffers.put(polygons, ref);
+        }
+        ref.addReference();
+    }
+
+
+    /**
+     * Dereferences a polygon group.
+     *
+     * @param polygons
+     *            The polygon group to dereference
+     */
+
+    public void dereferencePolygons(final MeshPolygons polygons)
+    {
+        final BufferReference ref = this.buffers.get(polygons);
+        if (ref == null)
+            throw new IllegalStateException(
+                    "Tried to dereference unknown polygons");
+        ref.removeReference();
+    }
+
+
+    /**
+     * Binds the buffer objects of the specified polygon group. The buffers
+     * are uploaded first if not already done.
+     *
+     * @param gl
+     *            The OpenGL context
+     * @param polygons
+     *            The polygon group
+     * @return The buffer reference with the layout of the bound buffers or
+     *         null if the polygon group is not managed by the buffer manager.
+     *         Nothing is bound in this case.
+     */
+
+    public BufferReference bind(final GL gl, final MeshPolygons polygons)
+    {
+        final BufferReference ref = this.buffers.get(polygons);
+        if (ref == null) return null;
+
+        // If buffers are not loaded then load them now.
+        if (!ref.isLoaded()) ref.load(gl);
+
+        // Bind buffers
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, ref.getArrayBufferId());
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, ref.getElementBufferId());
+        return ref;
+    }
+
+
+    /**
+     * Unbinds the currently bound buffers from the specified GL context.
+     *
+     * @param gl
+     *            The OpenGL context
+     */
+
+    public void unbind(final GL gl)
+    {
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+    }
+
+
+    /**
+     * Clean-up the buffers. This removes unreferenced polygon groups from
+     * the manager (And also unloads their buffers from the OpenGL context if
+     * still loaded). This method should be called once during rendering.
+     *
+     * @param gl
+     *            The OpenGL context
+     */
+
+    public void cleanUp(final GL gl)
+    {
+        final Iterator<BufferReference> iterator = this.buffers.values()
+                .iterator();
+        while (iterator.hasNext())
+        {
+            final BufferReference ref = iterator.next();
+            if (!ref.isReferenced())
+            {
+                if (ref.isLoaded()) ref.unload(gl);
+                iterator.remove();
+                log.debug("Removed buffers");
+            }
+        }
+    }
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene.buffers;
+
+import java.nio.Buffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import de.ailis.threedee.assets.MeshPolygons;
+import de.ailis.threedee.rendering.GL;
+import de.ailis.threedee.utils.BufferUtils;
+
+
+/**
+ * A reference to the buffer objects of a polygon group. The vertices,
+ * normals and texture coordinates are stored one after another in a single
+ * array buffer (Or as a single interleaved block if the vertex data of the
+ * polygon group is interleaved), the indices are stored in an element array
+ * buffer.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public final class BufferReference
+{
+    /** The logger */
+    private static final Log log = LogFactory.getLog(BufferReference.class);
+
+    /** The polygon group */
+    private final MeshPolygons polygons;
+
+    /** The currently active references to the polygon group */
+    private int references = 0;
+
+    /** If buffers are loaded or not */
+    private boolean loaded = false;
+
+    /** Buffer containing the array buffer ID and the element buffer ID */
+    private final IntBuffer bufferIds = BufferUtils
+            .createDirectIntegerBuffer(2);
+
+    /** The byte offset between consecutive vertices. 0 if tightly packed */
+    private int stride;
+
+    /** The byte offset of the normals in the array buffer. -1 if none */
+    private int normalOffset = -1;
+
+    /** The byte offset of the texture coordinates in the array buffer */
+    private int texCoordOffset = -1;
+
+    /** The number of indices */
+    private int indexCount;
+
+
+    /**
+     * Constructs a new buffer reference.
+     *
+     * @param polygons
+     *            The polygon group
+     */
+
+    BufferReference(final MeshPolygons polygons)
+    {
+        this.polygons = polygons;
+    }
+
+
+    /**
+     * Adds a reference.
+     */
+
+    void addReference()
+    {
+        this.references++;
+    }
+
+
+    /**
+     * Removes a reference.
+     */
+
+    void removeReference()
+    {
+        if (this.references == 0)
+            throw new IllegalStateException("Polygons are not referenced");
+        this.references--;
+    }
+
+
+    /**
+     * Checks if the polygon group is referenced.
+     *
+     * @return True if polygon group is referenced, false if not
+     */
+
+    boolean isReferenced()
+    {
+        return this.references > 0;
+    }
+
+
+    /**
+     * Checks if the buffers are currently loaded.
+     *
+     * @return True if buffers are loaded, false if not
+     */
+
+    boolean isLoaded()
+    {
+        return this.loaded;
+    }
+
+
+    /**
+     * Uploads the polygon group into buffer objects.
+     *
+     * @param gl
+     *            The OpenGL context
+     */
+
+    void load(final GL gl)
+    {
+        if (this.loaded)
+            throw new IllegalStateException("Buffers are already loaded");
+
+        // Create some shortcuts
+        final MeshPolygons polygons = this.polygons;
+        final Buffer indices = polygons.getIndices();
+        this.indexCount = indices.remaining();
+
+        // Generate the buffer ids
+        this.bufferIds.rewind();
+        gl.glGenBuffers(this.bufferIds);
+
+        // Upload the vertex data
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, this.bufferIds.get(0));
+        final int size;
+        if (polygons.isInterleaved())
+            size = loadInterleaved(gl, polygons);
+        else
+            size = loadSeparate(gl, polygons);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+
+        // Upload the indices
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, this.bufferIds.get(1));
+        gl.glBufferData(GL.GL_ELEMENT_ARRAY_BUFFER, this.indexCount
+            * polygons.getIndexSize(), indices, GL.GL_STATIC_DRAW);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+
+        // Remember that we have loaded the buffers
+        this.loaded = true;
+        log.debug("Loaded buffers for " + size + " bytes of vertex data");
+    }
+
+
+    /**
+     * Uploads the interleaved vertex data of the specified polygon group as
+     * a single block into the currently bound array buffer.
+     *
+     * @param gl
+     *            The OpenGL context
+     * @param polygons
+     *            The polygon group
+     * @return The number of uploaded bytes
+     */
+
+    private int loadInterleaved(final GL gl, final MeshPolygons polygons)
+    {
+        final FloatBuffer data = polygons.getInterleavedData();
+        final int size = data.remaining() * 4;
+        this.stride = polygons.getStride();
+        this.normalOffset = polygons.getNormalOffset();
+        this.texCoordOffset = polygons.getTexCoordOffset();
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, size, data, GL.GL_STATIC_DRAW);
+        return size;
+    }
+
+
+    /**
+     * Uploads the separate vertex, normal and texture coordinate buffers of
+     * the specified polygon group one after another into the currently
+     * bound array buffer.
+     *
+     * @param gl
+     *            The OpenGL context
+     * @param polygons
+     *            The polygon group
+     * @return The number of uploaded bytes
+     */
+
+    private int loadSeparate(final GL gl, final MeshPolygons polygons)
+    {
+        final FloatBuffer vertices = polygons.getVertices();
+        final FloatBuffer normals = polygons.getNormals();
+        final FloatBuffer texCoords = polygons.getTexCoords();
+
+        // Calculate the layout of the array buffer
+        final int vertexSize = vertices.remaining() * 4;
+        int size = vertexSize;
+        this.stride = 0;
+        this.normalOffset = -1;
+        if (normals != null)
+        {
+            this.normalOffset = size;
+            size += normals.remaining() * 4;
+        }
+        this.texCoordOffset = -1;
+        if (texCoords != null)
+        {
+            this.texCoordOffset = size;
+            size += texCoords.remaining() * 4;
+        }
+
+        // Upload the data
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, size, null, GL.GL_STATIC_DRAW);
+        gl.glBufferSubData(GL.GL_ARRAY_BUFFER, 0, vertexSize, vertices);
+        if (normals != null)
+            gl.glBufferSubData(GL.GL_ARRAY_BUFFER, this.normalOffset, normals
+                .remaining() * 4, normals);
+        if (texCoords != null)
+            gl.glBufferSubData(GL.GL_ARRAY_BUFFER, this.texCoordOffset,
+                texCoords.remaining() * 4, texCoords);
+        return size;
+    }
+
+
+    /**
+     * Unloads the buffers.
+     *
+     * @param gl
+     *            The OpenGL context
+     */
+
+    void unload(final GL gl)
+    {
+        if (!this.loaded)
+            throw new IllegalStateException("Buffers are already unloaded");
+
+        // Remove buffers from GL context
+        this.bufferIds.rewind();
+        gl.glDeleteBuffers(this.bufferIds);
+        this.bufferIds.put(0, 0);
+        this.bufferIds.put(1, 0);
+
+        // Remember that buffers are now unloaded
+        this.loaded = false;
+        log.debug("Unloaded buffers");
+    }
+
+
+    /**
+     * Returns the ID of the array buffer containing the vertex data.
+     *
+     * @return The array buffer ID
+     */
+
+    public int getArrayBufferId()
+    {
+        return this.bufferIds.get(0);
+    }
+
+
+    /**
+     * Returns the ID of the element array buffer containing the indices.
+     *
+     * @return The element array buffer ID
+     */
+
+    public int getElementBufferId()
+    {
+        return this.bufferIds.get(1);
+    }
+
+
+    /**
+     * Returns the byte offset between consecutive vertices, normals and
+     * texture coordinates in the array buffer.
+     *
+     * @return The stride. 0 if the data is tightly packed
+     */
+
+    public int getStride()
+    {
+        return this.stride;
+    }
+
+
+    /**
+     * Returns the byte offset of the vertices in the array buffer.
+     *
+     * @return The vertex offset
+     */
+
+    public int getVertexOffset()
+    {
+        return 0;
+    }
+
+
+    /**
+     * Returns the byte offset of the normals in the array buffer.
+     *
+     * @return The normal offset. -1 if polygons have no normals
+     */
+
+    public int getNormalOffset()
+    {
+        return this.normalOffset;
+    }
+
+
+    /**
+     * Returns the byte offset of the texture coordinates in the array buffer.
+     *
+     * @return The texture coordinate offset. -1 if polygons have no texture
+     *         coordinates
+     */
+
+    public int getTexCoordOffset()
+    {
+        return this.texCoordOffset;
+    }
+
+
+    /**
+     * Returns the number of indices in the element array buffer.
+     *
+     * @return The number of indices
+     */
+
+    public int getIndexCount()
+    {
+        return this.indexCount;
+    }
+}
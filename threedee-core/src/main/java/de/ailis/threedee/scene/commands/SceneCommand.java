@@ -0,0 +1,25 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene.commands;
+
+
+/**
+ * A change of the scene graph which is posted to the command queue of a
+ * scene by any thread and executed by the rendering thread at the start of
+ * the next frame.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public interface SceneCommand
+{
+    /**
+     * Executes the command. This is called by the rendering thread when no
+     * rendering is in progress.
+     */
+
+    public void execute();
+}
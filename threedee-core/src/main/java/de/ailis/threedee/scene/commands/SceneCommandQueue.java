@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene.commands;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import de.ailis.gramath.Matrix4f;
+import de.ailis.gramath.MutableMatrix4f;
+import de.ailis.threedee.assets.Material;
+import de.ailis.threedee.scene.Model;
+import de.ailis.threedee.scene.SceneNode;
+
+
+/**
+ * Queue of scene commands. Any number of threads can post commands without
+ * blocking because the queue is lock-free. The viewport executes the queued
+ * commands at the start of each frame so the rendering never sees
+ * half-applied changes and changes never have to wait for the rendering.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public final class SceneCommandQueue
+{
+    /** The queued commands */
+    private final Queue<SceneCommand> commands = new ConcurrentLinkedQueue<SceneCommand>();
+
+
+    /**
+     * Posts a command. It is executed at the start of the next frame.
+     *
+     * @param command
+     *            The command to post
+     */
+
+    public void post(final SceneCommand command)
+    {
+        if (command == null)
+            throw new IllegalArgumentException("command must not be null");
+        this.commands.add(command);
+    }
+
+
+    /**
+     * Posts a command which appends a child node to a parent node.
+     *
+     * @param parent
+     *            The parent node
+     * @param child
+     *            The child node to append
+     * @see SceneNode#appendChild(SceneNode)
+     */
+
+    public void appendChild(final SceneNode parent, final SceneNode child)
+    {
+        post(new AppendChild(parent, child));
+    }
+
+
+    /**
+     * Posts a command which removes a child node from its parent node.
+     *
+     * @param parent
+     *            The parent node
+     * @param child
+     *            The child node to remove
+     * @see SceneNode#removeChild(SceneNode)
+     */
+
+    public void removeChild(final SceneNode parent, final SceneNode child)
+    {
+        post(new RemoveChild(parent, child));
+    }
+
+
+    /**
+     * Posts a command which sets the transformation of a node. The
+     * transformation is copied so the specified matrix can be reused
+     * afterwards. Use a {@link TransformBatch} to update the transformations
+     * of many nodes at once.
+     *
+     * @param node
+     *            The node to transform
+     * @param transform
+     *            The new transformation
+     * @see SceneNode#setTransform(Matrix4f)
+     */
+
+    public void setTransform(final SceneNode node, final Matrix4f transform)
+    {
+        post(new SetTransform(node, transform));
+    }
+
+
+    /**
+     * Posts a command which binds a material to a material id of a model.
+     *
+     * @param model
+     *            The model
+     * @param id
+     *            The material id
+     * @param material
+     *            The material to bind
+     * @see Model#bindMaterial(String, Material)
+     */
+
+    public void bindMaterial(final Model model, final String id,
+        final Material material)
+    {
+        post(new BindMaterial(model, id, material));
+    }
+
+
+    /**
+     * Checks if there are no queued commands.
+     *
+     * @return True if queue is empty, false if not
+     */
+
+    public boolean isEmpty()
+    {
+        return this.commands.isEmpty();
+    }
+
+
+    /**
+     * Executes the queued commands in the order in which they were posted.
+     * Only the commands which are queued when this method is called are
+     * executed. Commands which are posted while executing (By other threads
+     * or by the commands themselves) are executed the next time so producers
+     * posting faster than the commands are executed can't stall the
+     * rendering. Must only be called by the rendering thread while no
+     * rendering is in progress.
+     *
+     * @return The number of executed commands
+     */
+
+    public int execute()
+    {
+        final Queue<SceneCommand> commands = this.commands;
+        final int size = commands.size();
+        int count = 0;
+        SceneCommand command;
+        while (count < size && (command = commands.poll()) != null)
+        {
+            command.execute();
+            count++;
+        }
+        return count;
+    }
+
+
+    /**
+     * Command appending a child node.
+     */
+
+    private static final class AppendChild implements SceneCommand
+    {
+        /** The parent node */
+        private final SceneNode parent;
+
+        /** The child node */
+        private final SceneNode child;
+
+
+        /**
+         * Constructor
+         *
+         * @param parent
+         *            The parent node
+         * @param child
+         *            The child node
+         */
+
+        AppendChild(final SceneNode parent, final SceneNode child)
+        {
+            if (parent == null)
+                throw new IllegalArgumentException("parent must not be null");
+            if (child == null)
+                throw new IllegalArgumentException("child must not be null");
+            this.parent = parent;
+            this.child = child;
+        }
+
+
+        /**
+         * @see SceneCommand#execute()
+         */
+
+        @Override
+        public void execute()
+        {
+            this.parent.appendChild(this.child);
+        }
+    }
+
+
+    /**
+     * Command removing a child node.
+     */
+
+    private static final class RemoveChild implements SceneCommand
+    {
+        /** The parent node */
+        private final SceneNode parent;
+
+        /** The child node */
+        private final SceneNode child;
+
+
+        /**
+         * Constructor
+         *
+         * @param parent
+         *            The parent node
+         * @param child
+         *            The child node
+         */
+
+        RemoveChild(final SceneNode parent, final SceneNode child)
+        {
+            if (parent == null)
+                throw new IllegalArgumentException("parent must not be null");
+            if (child == null)
+                throw new IllegalArgumentException("child must not be null");
+            this.parent = parent;
+            this.child = child;
+        }
+
+
+        /**
+         * @see SceneCommand#execute()
+         */
+
+        @Override
+        public void execute()
+        {
+            this.parent.removeChild(this.child);
+        }
+    }
+
+
+    /**
+     * Command setting the transformation of a node.
+     */
+
+    private static final class SetTransform implements SceneCommand
+    {
+        /** The node */
+        private final SceneNode node;
+
+        /** The copied transformation */
+        private final MutableMatrix4f transform;
+
+
+        /**
+         * Constructor
+         *
+         * @param node
+         *            The node
+         * @param transform
+         *            The transformation to copy
+         */
+
+        SetTransform(final SceneNode node, final Matrix4f transform)
+        {
+            if (node == null)
+                throw new IllegalArgumentException("node must not be null");
+            if (transform == null)
+                throw new IllegalArgumentException(
+                    "transform must not be null");
+            this.node = node;
+            this.transform = MutableMatrix4f.identity();
+            this.transform.set(transform);
+        }
+
+
+        /**
+         * @see SceneCommand#execute()
+         */
+
+        @Override
+        public void execute()
+        {
+            this.node.setTransform(this.transform);
+        }
+    }
+
+
+    /**
+     * Command binding a material.
+     */
+
+    private static final class BindMaterial implements SceneCommand
+    {
+        /** The model */
+        private final Model model;
+
+        /** The material id */
+        private final String id;
+
+        /** The material */
+        private final Material material;
+
+
+        /**
+         * Constructor
+         *
+         * @param model
+         *            The model
+         * @param id
+         *            The material id
+         * @param material
+         *            The material
+         */
+
+        BindMaterial(final Model model, final String id,
+            final Material material)
+        {
+            if (model == null)
+                throw new IllegalArgumentException("model must not be null");
+            this.model = model;
+            this.id = id;
+            this.material = material;
+        }
+
+
+        /**
+         * @see SceneCommand#execute()
+         */
+
+        @Override
+        public void execute()
+        {
+            this.model.bindMaterial(this.id, this.material);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene.commands;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+
+import de.ailis.gramath.Matrix4f;
+import de.ailis.gramath.MutableMatrix4f;
+import de.ailis.threedee.scene.SceneNode;
+
+
+/**
+ * A batch of transformation updates which is posted as a single command.
+ * All transformations of the batch are applied in the same frame. The batch
+ * must not be modified after it has been posted.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public final class TransformBatch implements SceneCommand
+{
+    /** The number of floats per transformation */
+    private static final int MATRIX_SIZE = 16;
+
+    /** The initial capacity */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The nodes to transform */
+    private SceneNode[] nodes;
+
+    /** The new transformations of the nodes (Column-major order) */
+    private float[] transforms;
+
+    /** The number of transformation updates */
+    private int size;
+
+    /** Temporary matrix used while executing the batch */
+    private MutableMatrix4f matrix;
+
+
+    /**
+     * Constructs a new empty transform batch.
+     */
+
+    public TransformBatch()
+    {
+        this(INITIAL_CAPACITY);
+    }
+
+
+    /**
+     * Constructs a new empty transform batch with the specified initial
+     * capacity.
+     *
+     * @param capacity
+     *            The initial number of transformation updates which fit into
+     *            the batch without growing it
+     */
+
+    public TransformBatch(final int capacity)
+    {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.nodes = new SceneNode[capacity];
+        this.transforms = new float[capacity * MATRIX_SIZE];
+    }
+
+
+    /**
+     * Adds a transformation update. The transformation is copied so the
+     * specified matrix can be reused afterwards.
+     *
+     * @param node
+     *            The node to transform
+     * @param transform
+     *            The new transformation of the node
+     */
+
+    public void add(final SceneNode node, final Matrix4f transform)
+    {
+        if (transform == null)
+            throw new IllegalArgumentException("transform must not be null");
+        final int offset = allocate(node) * MATRIX_SIZE;
+        final FloatBuffer buffer = transform.getBuffer();
+        final float[] transforms = this.transforms;
+        for (int i = 0; i < MATRIX_SIZE; i++)
+            transforms[offset + i] = buffer.get(i);
+    }
+
+
+    /**
+     * Adds a transformation update. The transformation is copied so the
+     * specified array can be reused afterwards.
+     *
+     * @param node
+     *            The node to transform
+     * @param transform
+     *            The array containing the new transformation of the node
+     *            (Column-major order)
+     * @param offset
+     *            The array index of the first matrix element
+     */
+
+    public void add(final SceneNode node, final float[] transform,
+        final int offset)
+    {
+        if (transform == null)
+            throw new IllegalArgumentException("transform must not be null");
+        final int index = allocate(node);
+        System.arraycopy(transform, offset, this.transforms, index
+            * MATRIX_SIZE, MATRIX_SIZE);
+    }
+
+
+    /**
+     * Reserves the next transformation update slot and grows the arrays if
+     * needed.
+     *
+     * @param node
+     *            The node to transform
+     * @return The index of the reserved slot
+     */
+
+    private int allocate(final SceneNode node)
+    {
+        if (node == null)
+            throw new IllegalArgumentException("node must not be null");
+        final int index = this.size;
+        if (index == this.nodes.length)
+        {
+            final int capacity = index * 2;
+            this.nodes = Arrays.copyOf(this.nodes, capacity);
+            this.transforms = Arrays.copyOf(this.transforms, capacity
+                * MATRIX_SIZE);
+        }
+        this.nodes[index] = node;
+        this.size = index + 1;
+        return index;
+    }
+
+
+    /**
+     * Returns the number of transformation updates in this batch.
+     *
+     * @return The number of transformation updates
+     */
+
+    public int getSize()
+    {
+        return this.size;
+    }
+
+
+    /**
+     * Removes all transformation updates so the batch can be filled again.
+     * Only call this when the batch was already executed.
+     */
+
+    public void clear()
+    {
+        Arrays.fill(this.nodes, 0, this.size, null);
+        this.size = 0;
+    }
+
+
+    /**
+     * @see SceneCommand#execute()
+     */
+
+    @Override
+    public void execute()
+    {
+        MutableMatrix4f matrix = this.matrix;
+        if (matrix == null) matrix = this.matrix = MutableMatrix4f.identity();
+        final SceneNode[] nodes = this.nodes;
+        final float[] transforms = this.transforms;
+        final float[] elements = new float[MATRIX_SIZE];
+        for (int i = 0, max = this.size; i < max; i++)
+        {
+            System.arraycopy(transforms, i * MATRIX_SIZE, elements, 0,
+                MATRIX_SIZE);
+            matrix.set(elements);
+            nodes[i].setTransform(matrix);
+        }
+    }
+}
@@ -7,14 +7,21 @@ package de.ailis.threedee.scene.physics;
 
 import java.io.Serializable;
 
-import de.ailis.gramath.MutableMatrix4f;
 import de.ailis.gramath.MutableVector3f;
+import de.ailis.gramath.Vector3f;
+import de.ailis.threedee.events.PhysicsListener;
 import de.ailis.threedee.scene.SceneNode;
 
 
 /**
  * Physics.
  *
+ * The motion can only be changed with the setters like
+ * {@link #setVelocity(float, float, float)} because they notify the
+ * listener of the physics. A scene node uses this to wake up when its
+ * physics starts moving it again. The motion vectors returned by the
+ * getters are read-only views for this reason.
+ *
  * @author Klaus Reimer (k@ailis.de)
  */
 
@@ -61,31 +68,104 @@ public class Physics implements Serializable
     /** The spin deceleration. */
     private final MutableVector3f spinDeceleration = new MutableVector3f();
 
+    /** The listener notified about motion changes. Null if none */
+    private final transient PhysicsListener listener;
+
+
+    /**
+     * Constructs a new physics without listener.
+     */
+
+    public Physics()
+    {
+        this(null);
+    }
+
+
+    /**
+     * Constructs a new physics.
+     *
+     * @param listener
+     *            The listener notified when the motion is changed with one
+     *            of the setters. Null for none
+     */
+
+    public Physics(final PhysicsListener listener)
+    {
+        this.listener = listener;
+    }
+
+
+    /**
+     * Notifies the listener about a changed motion.
+     */
+
+    private void motionChanged()
+    {
+        if (this.listener != null) this.listener.motionChanged(this);
+    }
+
 
     /**
      * Returns the spin velocity.
      *
-     * @return The spin velocity.
+     * @return The spin velocity (Read-only)
      */
 
-    public MutableVector3f getSpinVelocity()
+    public Vector3f getSpinVelocity()
     {
         return this.spinVelocity;
     }
 
 
+    /**
+     * Sets the spin velocity.
+     *
+     * @param x
+     *            The spin velocity around the X axis
+     * @param y
+     *            The spin velocity around the Y axis
+     * @param z
+     *            The spin velocity around the Z axis
+     */
+
+    public void setSpinVelocity(final float x, final float y, final float z)
+    {
+        this.spinVelocity.set(x, y, z);
+        motionChanged();
+    }
+
+
     /**
      * Returns the velocity.
      *
-     * @return The velocity.
+     * @return The velocity (Read-only)
      */
 
-    public MutableVector3f getVelocity()
+    public Vector3f getVelocity()
     {
         return this.velocity;
     }
 
 
+    /**
+     * Sets the velocity.
+     *
+     * @param x
+     *            The X velocity
+     * @param y
+     *            The Y velocity
+     * @param z
+     *            The Z velocity
+     */
+
+    public void setVelocity(final float x, final float y, final float z)
+    {
+        this.velocity.set(x, y, z);
+        motionChanged();
+    }
+
+
     /**
      * Returns the min velocity.
      *
@@ -113,15 +193,33 @@ public class Physics implements Serializable
     /**
      * Returns the acceleration.
      *
-     * @return The acceleration
+     * @return The acceleration (Read-only)
      */
 
-    public MutableVector3f getAcceleration()
+    public Vector3f getAcceleration()
     {
         return this.acceleration;
     }
 
 
+    /**
+     * Sets the acceleration.
+     *
+     * @param x
+     *            The X acceleration
+     * @param y
+     *            The Y acceleration
+     * @param z
+     *            The Z acceleration
+     */
+
+    public void setAcceleration(final float x, final float y, final float z)
+    {
+        this.acceleration.set(x, y, z);
+        motionChanged();
+    }
+
+
     /**
      * Returns the deceleration.
      *
@@ -161,15 +259,34 @@ public class Physics implements Serializable
     /**
      * Returns the spin acceleration.
      *
-     * @return The spin acceleration.
+     * @return The spin acceleration (Read-only)
      */
 
-    public MutableVector3f getSpinAcceleration()
+    public Vector3f getSpinAcceleration()
     {
         return this.spinAcceleration;
     }
 
 
+    /**
+     * Sets the spin acceleration.
+     *
+     * @param x
+     *            The spin acceleration around the X axis
+     * @param y
+     *            The spin acceleration around the Y axis
+     * @param z
+     *            The spin acceleration around the Z axis
+     */
+
+    public void setSpinAcceleration(final float x, final float y,
+        final float z)
+    {
+        this.spinAcceleration.set(x, y, z);
+        motionChanged();
+    }
+
+
     /**
      * Returns the spin deceleration.
      *
@@ -196,17 +313,16 @@ public class Physics implements Serializable
     {
         float tmp;
 
-        final MutableMatrix4f matrix = node.getTransform();
-
         // Get the spin values
         float x = this.spinVelocity.getX();
         float y = this.spinVelocity.getY();
         float z = this.spinVelocity.getZ();
 
         // Apply the spin
-        if (x != 0) matrix.rotateX(x * delta);
-        if (y != 0) matrix.rotateY(y * delta);
-        if (z != 0) matrix.rotateZ(z * delta);
+        final boolean moved = x != 0 || y != 0 || z != 0;
+        if (x != 0) node.rotateX(x * delta);
+        if (y != 0) node.rotateY(y * delta);
+        if (z != 0) node.rotateZ(z * delta);
 
         // Apply spin acceleration
         tmp = this.spinAcceleration.getX();
@@ -245,8 +361,9 @@ public class Physics implements Serializable
         // Set the values
         this.spinVelocity.set(x, y, z);
 
-        // Check if there is still movement
-        return !this.spinVelocity.isNull() || !this.spinAcceleration.isNull();
+        // Check if node has been moved or if there is still movement
+        return moved || !this.spinVelocity.isNull()
+            || !this.spinAcceleration.isNull();
     }
 
 
@@ -264,15 +381,14 @@ public class Physics implements Serializable
     {
         float tmp;
 
-        final MutableMatrix4f matrix = node.getTransform();
-
         // Get velocity values
         float x = this.velocity.getX();
         float y = this.velocity.getY();
         float z = this.velocity.getZ();
 
         // Apply the velocity
-        matrix.translate(x * delta, y * delta, z * delta);
+        final boolean moved = x != 0 || y != 0 || z != 0;
+        if (moved) node.translate(x * delta, y * delta, z * delta);
 
         // Apply acceleration
         tmp = this.acceleration.getX();
@@ -291,10 +407,25 @@ public class Physics implements Serializable
         // Set new velocity
         this.velocity.set(x, y, z);
 
-        // Check if there is still movement
-        return !this.velocity.isNull() || !this.acceleration.isNull();
+        // Check if node has been moved or if there is still movement
+        return moved || !this.velocity.isNull()
+            || !this.acceleration.isNull();
     }
 
+
+    /**
+     * Checks if this physics is moving or accelerating a node.
+     *
+     * @return True if the physics is active, false if not
+     */
+
+    public boolean isActive()
+    {
+        return !this.velocity.isNull() || !this.acceleration.isNull()
+            || !this.spinVelocity.isNull() || !this.spinAcceleration.isNull();
+    }
+
+
     /**
      * Updates the specified node with this physics data.
      *
@@ -5,6 +5,8 @@
 
 package de.ailis.threedee.scene.textures;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -18,7 +20,9 @@ import de.ailis.threedee.rendering.GL;
 
 
 /**
- * Texture based on a static image.
+ * Texture based on a static image. The texture is marked as transparent
+ * when it is loaded from a PNG image with an alpha channel or with a
+ * transparent color so it is rendered in the transparent pass.
  *
  * @author Klaus Reimer (k@ailis.de)
  */
@@ -28,6 +32,24 @@ public class ImageTexture extends Texture
     /** The logger. */
     private static final Log log = LogFactory.getLog(ImageTexture.class);
 
+    /** The signature of PNG images */
+    private static final long PNG_SIGNATURE = 0x89504e470d0a1a0aL;
+
+    /** The chunk type of the PNG header chunk */
+    private static final int PNG_IHDR = 0x49484452;
+
+    /** The chunk type of the PNG transparency chunk */
+    private static final int PNG_TRNS = 0x74524e53;
+
+    /** The chunk type of the first PNG image data chunk */
+    private static final int PNG_IDAT = 0x49444154;
+
+    /** The PNG color type flag for images with alpha channel */
+    private static final int PNG_ALPHA = 4;
+
+    /** The maximum number of bytes read for detecting the alpha channel */
+    private static final int HEADER_LIMIT = 65536;
+
 
     /**
      * Creates a new texture.
@@ -52,11 +74,12 @@ public class ImageTexture extends Texture
         // Produce a texture from the bitmap
         try
         {
-            final InputStream stream = resourceProvider
-                    .openInputStream(this.type, this.id);
+            final InputStream stream = new BufferedInputStream(
+                resourceProvider.openInputStream(this.type, this.id));
             try
             {
                 log.trace("Started loading texture " + this.id);
+                if (hasAlpha(stream)) setTransparent(true);
                 gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, stream, 0);
                 log.trace("Finished loading texture");
             }
@@ -71,4 +94,58 @@ public class ImageTexture extends Texture
                     + this.id + "': " + e, e);
         }
     }
+
+
+    /**
+     * Checks if the specified stream contains a PNG image with an alpha
+     * channel or with a transparent color. The stream is reset to its
+     * current position afterwards.
+     *
+     * @param stream
+     *            The stream to check. Must support marks
+     * @return True if the image has transparent pixels, false if not or if
+     *         this can't be determined
+     * @throws IOException
+     *             When the stream could not be read
+     */
+
+    private static boolean hasAlpha(final InputStream stream)
+        throws IOException
+    {
+        stream.mark(HEADER_LIMIT);
+        try
+        {
+            final DataInputStream data = new DataInputStream(stream);
+            if (data.readLong() != PNG_SIGNATURE) return false;
+            int read = 8;
+            while (true)
+            {
+                final int length = data.readInt();
+                final int type = data.readInt();
+                if (type == PNG_TRNS) return true;
+                if (type == PNG_IDAT) return false;
+                read += 8 + length + 4;
+                if (read >= HEADER_LIMIT) return false;
+                if (type == PNG_IHDR)
+                {
+                    // Skip width, height and bit depth
+                    data.skipBytes(9);
+                    if ((data.readUnsignedByte() & PNG_ALPHA) != 0)
+                        return true;
+                    data.skipBytes(length - 10 + 4);
+                }
+                else
+                    data.skipBytes(length + 4);
+            }
+        }
+        catch (final IOException e)
+        {
+            // Truncated or unknown image. The decoder reports real errors.
+            return false;
+        }
+        finally
+        {
+            stream.reset();
+        }
+    }
 }
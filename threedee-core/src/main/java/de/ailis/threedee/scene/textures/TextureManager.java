@@ -200,7 +200,9 @@ public final class TextureManager
 
 
     /**
-     * Updates the textures.
+     * Updates the dynamic textures. This is called by the thread which
+     * updates the scene. The changed textures are uploaded by the GL thread
+     * with {@link #uploadDynamicTextures(GL)}.
      *
      * @param delta
      *            The time delta in seconds
@@ -235,26 +237,105 @@ public final class TextureManager
 
     public void bind(final GL gl, final Texture texture)
     {
-        final String id = texture.getId();
-        final TextureReference ref = this.textures.get(id);
-        if (ref == null)
+        final TextureReference ref = loadReference(gl, texture);
+
+        // Bind texture. Changed dynamic textures are already uploaded by
+        // uploadDynamicTextures()
+        gl.glBindTexture(GL.GL_TEXTURE_2D, ref.getTextureId());
+    }
+
+
+    /**
+     * Checks if there are dynamic textures which must be uploaded with
+     * {@link #uploadDynamicTextures(GL)} because they are not loaded yet or
+     * have been changed.
+     *
+     * @return True if dynamic textures must be uploaded, false if not
+     */
+
+    public boolean hasPendingDynamicTextures()
+    {
+        for (final DynamicTexture<?> texture : this.dynamicTextures.values())
         {
-            throw new IllegalStateException("Tried to bind unknown texture: "
-                    + id);
+            if (!texture.isValid()) return true;
+            final TextureReference ref = this.textures.get(texture.getId());
+            if (ref != null && !ref.isLoaded()) return true;
         }
+        return false;
+    }
 
-        // If texture is not loaded then load it now.
-        if (!ref.isLoaded()) ref.load(gl, this.resourceProvider);
 
-        // Bind texture
-        gl.glBindTexture(GL.GL_TEXTURE_2D, ref.getTextureId());
+    /**
+     * Uploads the dynamic textures which are not loaded yet or have been
+     * changed since the last upload. Dynamic textures are redrawn by the
+     * thread which updates the scene so this must be called while the scene
+     * is not updated and before the scene is rendered. Afterwards no texture
+     * is bound.
+     *
+     * @param gl
+     *            The OpenGL context
+     */
+
+    public void uploadDynamicTextures(final GL gl)
+    {
+        boolean bound = false;
+        for (final DynamicTexture<?> texture : this.dynamicTextures.values())
+        {
+            final TextureReference ref = this.textures.get(texture.getId());
+            if (ref == null) continue;
+            if (!ref.isLoaded())
+            {
+                ref.load(gl, this.resourceProvider);
+            }
+            else if (!texture.isValid())
+            {
+                gl.glBindTexture(GL.GL_TEXTURE_2D, ref.getTextureId());
+                texture.reload(gl);
+                bound = true;
+            }
+        }
+        if (bound) gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+    }
 
-        // Re-render the texture if needed.
-        if (texture instanceof DynamicTexture<?>)
+
+    /**
+     * Uploads the specified texture into the specified GL context if it is
+     * not already loaded. The binding of the GL context may be changed.
+     *
+     * @param gl
+     *            The OpenGL context
+     * @param texture
+     *            The texture to load
+     */
+
+    public void load(final GL gl, final Texture texture)
+    {
+        loadReference(gl, texture);
+    }
+
+
+    /**
+     * Uploads the specified texture into the specified GL context if it is
+     * not already loaded and returns its reference.
+     *
+     * @param gl
+     *            The OpenGL context
+     * @param texture
+     *            The texture to load
+     * @return The texture reference
+     */
+
+    private TextureReference loadReference(final GL gl, final Texture texture)
+    {
+        final String id = texture.getId();
+        final TextureReference ref = this.textures.get(id);
+        if (ref == null)
         {
-            final DynamicTexture<?> dynTexture = (DynamicTexture<?>) texture;
-            if (!dynTexture.isValid()) dynTexture.reload(gl);
+            throw new IllegalStateException("Tried to load unknown texture: "
+                    + id);
         }
+        if (!ref.isLoaded()) ref.load(gl, this.resourceProvider);
+        return ref;
     }
 
 
@@ -84,7 +84,7 @@ public class BufferIterator implements Iterator<Number>
     {
         if (this.byteBuffer != null) return this.byteBuffer.get() & 0xff;
         if (this.shortBuffer != null) return this.shortBuffer.get() & 0xffff;
-        if (this.intBuffer != null) return this.intBuffer.get() % 0xffffffff;
+        if (this.intBuffer != null) return this.intBuffer.get();
         throw new IllegalStateException();
     }
 
@@ -118,7 +118,8 @@ public class BufferUtils
             log.trace("Converting endianess of " + buffer.capacity()
                 + " floats");
 
-        final ByteBuffer bytes = ByteBuffer.allocateDirect(buffer.capacity());
+        final ByteBuffer bytes = ByteBuffer
+            .allocateDirect(buffer.capacity() * 4);
         bytes.order(ByteOrder.nativeOrder());
         final FloatBuffer floats = bytes.asFloatBuffer();
         floats.put(buffer).rewind();
@@ -140,7 +141,8 @@ public class BufferUtils
     {
         if (buffer.order() == ByteOrder.nativeOrder()) return buffer;
 
-        final ByteBuffer bytes = ByteBuffer.allocateDirect(buffer.capacity());
+        final ByteBuffer bytes = ByteBuffer
+            .allocateDirect(buffer.capacity() * 2);
         bytes.order(ByteOrder.nativeOrder());
         final ShortBuffer shorts = bytes.asShortBuffer();
         shorts.put(buffer).rewind();
@@ -163,7 +165,8 @@ public class BufferUtils
     {
         if (buffer.order() == ByteOrder.nativeOrder()) return buffer;
 
-        final ByteBuffer bytes = ByteBuffer.allocateDirect(buffer.capacity());
+        final ByteBuffer bytes = ByteBuffer
+            .allocateDirect(buffer.capacity() * 4);
         bytes.order(ByteOrder.nativeOrder());
         final IntBuffer ints = bytes.asIntBuffer();
         ints.put(buffer).rewind();
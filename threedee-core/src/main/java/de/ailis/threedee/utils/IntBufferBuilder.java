@@ -230,11 +230,12 @@ public class IntBufferBuilder
             {
                 if (little)
                 {
-                    v |= (values[i + b] & 0xff) << (b * 8);
+                    v |= (values[i * oldBytes + b] & 0xff) << (b * 8);
                 }
                 else
                 {
-                    v |= (values[i + b] & 0xff) << ((oldBytes - b - 1) * 8);
+                    v |= (values[i * oldBytes + b] & 0xff)
+                        << ((oldBytes - b - 1) * 8);
                 }
             }
             add(v);
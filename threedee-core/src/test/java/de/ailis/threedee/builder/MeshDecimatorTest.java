@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+
+import org.junit.Test;
+
+import de.ailis.gramath.MutableVector3f;
+import de.ailis.threedee.assets.Mesh;
+import de.ailis.threedee.assets.MeshPolygons;
+import de.ailis.threedee.utils.BufferUtils;
+import de.ailis.threedee.utils.IntBufferBuilder;
+
+
+/**
+ * Tests the MeshDecimator class.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class MeshDecimatorTest
+{
+    /**
+     * Creates a flat grid of triangles in the XY plane.
+     *
+     * @param size
+     *            The number of quads per side
+     * @param material
+     *            The material index
+     * @param offsetX
+     *            The X offset of the grid
+     * @return The polygon group
+     */
+
+    private static MeshPolygons createGrid(final int size, final int material,
+        final float offsetX)
+    {
+        final int vertexCount = (size + 1) * (size + 1);
+        final FloatBuffer vertices = BufferUtils
+            .createDirectFloatBuffer(vertexCount * 3);
+        for (int y = 0; y <= size; y++)
+            for (int x = 0; x <= size; x++)
+                vertices.put(offsetX + x).put(y).put(0);
+        vertices.rewind();
+        final IntBufferBuilder indices = new IntBufferBuilder();
+        for (int y = 0; y < size; y++)
+        {
+            for (int x = 0; x < size; x++)
+            {
+                final int i = y * (size + 1) + x;
+                indices.add(i, i + 1, i + size + 1);
+                indices.add(i + 1, i + size + 2, i + size + 1);
+            }
+        }
+        return new MeshPolygons(material, 3, indices.build(), vertices, null,
+            null);
+    }
+
+
+    /**
+     * Checks if the polygon group contains a vertex at the specified
+     * position.
+     *
+     * @param polygons
+     *            The polygon group
+     * @param x
+     *            The X coordinate
+     * @param y
+     *            The Y coordinate
+     * @return True if vertex was found
+     */
+
+    private static boolean hasVertex(final MeshPolygons polygons,
+        final float x, final float y)
+    {
+        final MutableVector3f vertex = new MutableVector3f();
+        for (int i = 0; i < polygons.getVertexCount(); i++)
+        {
+            polygons.getVertex(i, vertex);
+            if (vertex.getX() == x && vertex.getY() == y) return true;
+        }
+        return false;
+    }
+
+
+    /**
+     * Tests decimating a flat grid.
+     */
+
+    @Test
+    public void testDecimate()
+    {
+        final MeshPolygons grid = createGrid(20, 0, 0);
+        final Mesh mesh = new Mesh("grid", new MeshPolygons[] { grid },
+            new String[] { "material" });
+        final Mesh decimated = new MeshDecimator().decimate(mesh, 0.25f,
+            "grid-lod1");
+        final MeshPolygons polygons = decimated.getPolygons()[0];
+
+        assertEquals("grid-lod1", decimated.getId());
+        assertTrue(polygons.getIndexCount() / 3 <= 200);
+        assertTrue(polygons.getVertexCount() < grid.getVertexCount());
+        for (int i = 0; i <= 20; i++)
+        {
+            assertTrue(hasVertex(polygons, i, 0));
+            assertTrue(hasVertex(polygons, i, 20));
+            assertTrue(hasVertex(polygons, 0, i));
+            assertTrue(hasVertex(polygons, 20, i));
+        }
+    }
+
+
+    /**
+     * Tests that vertices on material boundaries are preserved.
+     */
+
+    @Test
+    public void testMaterialBoundary()
+    {
+        final Mesh mesh = new Mesh("grids", new MeshPolygons[] {
+            createGrid(10, 0, 0), createGrid(10, 1, 10) }, new String[] {
+            "a", "b" });
+        final Mesh decimated = new MeshDecimator().decimate(mesh, 0.5f,
+            "grids-lod1");
+        for (final MeshPolygons polygons : decimated.getPolygons())
+        {
+            assertTrue(polygons.getIndexCount() / 3 <= 100);
+            for (int y = 0; y <= 10; y++)
+                assertTrue(hasVertex(polygons, 10, y));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.builder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.ailis.threedee.assets.Mesh;
+import de.ailis.threedee.assets.MeshPolygons;
+import de.ailis.threedee.utils.BufferUtils;
+import de.ailis.threedee.utils.IntBufferBuilder;
+
+
+/**
+ * Tests the MeshOptimizer class.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class MeshOptimizerTest
+{
+    /**
+     * Returns the triangles of the specified polygon group. Each triangle is
+     * identified by the sorted X coordinates of its vertices so triangles
+     * can be compared even when vertices were reordered.
+     *
+     * @param polygons
+     *            The polygon group
+     * @return The triangles
+     */
+
+    private static Set<String> getTriangles(final MeshPolygons polygons)
+    {
+        final Set<String> triangles = new HashSet<String>();
+        final FloatBuffer vertices = polygons.getVertices();
+        for (int i = 0; i < polygons.getIndexCount(); i += 3)
+        {
+            final float[] triangle = new float[3];
+            for (int j = 0; j < 3; j++)
+                triangle[j] = vertices.get(polygons.getIndex(i + j) * 3);
+            Arrays.sort(triangle);
+            triangles.add(Arrays.toString(triangle));
+        }
+        return triangles;
+    }
+
+
+    /**
+     * Tests optimizing a grid with shuffled triangles.
+     */
+
+    @Test
+    public void testOptimize()
+    {
+        final int size = 30;
+        final int vertexCount = (size + 1) * (size + 1);
+        final FloatBuffer vertices = BufferUtils
+            .createDirectFloatBuffer(vertexCount * 3);
+        for (int i = 0; i < vertexCount; i++)
+            vertices.put(i).put(0).put(0);
+        vertices.rewind();
+
+        final List<int[]> triangles = new ArrayList<int[]>();
+        for (int y = 0; y < size; y++)
+        {
+            for (int x = 0; x < size; x++)
+            {
+                final int i = y * (size + 1) + x;
+                triangles.add(new int[] { i, i + 1, i + size + 1 });
+                triangles.add(new int[] { i + 1, i + size + 2, i + size + 1 });
+            }
+        }
+        Collections.shuffle(triangles, new Random(1));
+        final IntBufferBuilder indices = new IntBufferBuilder();
+        for (final int[] triangle : triangles)
+            indices.add(triangle);
+
+        final MeshPolygons polygons = new MeshPolygons(0, 3, indices.build(),
+            vertices, null, null);
+        final MeshOptimizer optimizer = new MeshOptimizer();
+        final Mesh mesh = optimizer.optimize(new Mesh("test",
+            new MeshPolygons[] { polygons }, new String[] { "material" }));
+        final MeshPolygons optimized = mesh.getPolygons()[0];
+
+        assertTrue(optimizer.getACMRAfter() < optimizer.getACMRBefore());
+        assertTrue(optimizer.getACMRAfter() < 1);
+        assertEquals(optimizer.getACMRAfter(), MeshOptimizer.calculateACMR(
+            optimized, MeshOptimizer.DEFAULT_CACHE_SIZE), 0.0001f);
+        assertEquals(vertexCount, optimized.getVertexCount());
+        assertEquals(getTriangles(polygons), getTriangles(optimized));
+    }
+}
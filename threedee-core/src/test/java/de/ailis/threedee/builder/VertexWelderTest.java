@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.builder;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the VertexWelder class.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class VertexWelderTest
+{
+    /**
+     * Tests welding identical and different vertices.
+     */
+
+    @Test
+    public void testWeld()
+    {
+        final VertexWelder welder = new VertexWelder();
+        assertEquals(0, welder.weld(new float[] { 1, 2, 3 }, 3));
+        assertEquals(1, welder.weld(new float[] { 1, 2, 4 }, 3));
+        assertEquals(0, welder.weld(new float[] { 1, 2, 3 }, 3));
+        assertEquals(1, welder.weld(new float[] { 1, 2, 4 }, 3));
+        assertEquals(2, welder.getCount());
+    }
+
+
+    /**
+     * Tests welding so many vertices that the hash table must grow.
+     */
+
+    @Test
+    public void testGrow()
+    {
+        final VertexWelder welder = new VertexWelder();
+        final float[] vertex = new float[8];
+        for (int i = 0; i < 10000; i++)
+        {
+            vertex[0] = i;
+            vertex[7] = -i;
+            assertEquals(i, welder.weld(vertex, 8));
+        }
+        for (int i = 0; i < 10000; i++)
+        {
+            vertex[0] = i;
+            vertex[7] = -i;
+            assertEquals(i, welder.weld(vertex, 8));
+        }
+        assertEquals(10000, welder.getCount());
+    }
+
+
+    /**
+     * Tests resetting the welder.
+     */
+
+    @Test
+    public void testReset()
+    {
+        final VertexWelder welder = new VertexWelder();
+        welder.weld(new float[] { 1, 2, 3 }, 3);
+        welder.weld(new float[] { 4, 5, 6 }, 3);
+        welder.reset();
+        assertEquals(0, welder.getCount());
+        assertEquals(0, welder.weld(new float[] { 4, 5, 6, 7, 8 }, 5));
+        assertEquals(1, welder.weld(new float[] { 1, 2, 3, 7, 8 }, 5));
+    }
+}
@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt file for licensing information.
+ */
+
+package de.ailis.threedee.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import de.ailis.gramath.MutableVector3f;
+import de.ailis.threedee.assets.Mesh;
+import de.ailis.threedee.assets.MeshPolygons;
+import de.ailis.threedee.assets.reader.mesh.TDBMeshReader;
+import de.ailis.threedee.assets.writer.mesh.TDBMeshWriter;
+import de.ailis.threedee.rendering.GL;
+
+
+/**
+ * Tests writing and reading meshes in the TDB format with the TDBMeshWriter
+ * and TDBMeshReader classes.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class TDBMeshTest
+{
+    /**
+     * Creates vertex coordinates for the specified number of vertices.
+     *
+     * @param count
+     *            The number of vertices
+     * @param offset
+     *            The offset added to all coordinates
+     * @return The vertex coordinates
+     */
+
+    private static float[] coords(final int count, final float offset)
+    {
+        final float[] coords = new float[count * 3];
+        for (int i = 0; i < coords.length; i++)
+            coords[i] = i * 0.5f + offset;
+        return coords;
+    }
+
+
+    /**
+     * Creates indices which reference all of the specified number of
+     * vertices in reverse order.
+     *
+     * @param count
+     *            The number of vertices
+     * @return The indices
+     */
+
+    private static int[] indices(final int count)
+    {
+        final int[] indices = new int[count - count % 3];
+        for (int i = 0; i < indices.length; i++)
+            indices[i] = count - 1 - i;
+        return indices;
+    }
+
+
+    /**
+     * Creates mesh polygons with the specified number of vertices and
+     * indices of the specified type.
+     *
+     * @param material
+     *            The material index
+     * @param vertexCount
+     *            The number of vertices
+     * @param indexType
+     *            The index type
+     * @param hasNormals
+     *            If the polygons have normals
+     * @return The mesh polygons
+     */
+
+    private static MeshPolygons polygons(final int material,
+        final int vertexCount, final int indexType, final boolean hasNormals)
+    {
+        final int[] values = indices(vertexCount);
+        final Buffer indices;
+        switch (indexType)
+        {
+            case GL.GL_UNSIGNED_BYTE:
+                final ByteBuffer bytes = ByteBuffer.allocate(values.length);
+                for (final int value: values)
+                    bytes.put((byte) value);
+                indices = bytes.rewind();
+                break;
+
+            case GL.GL_UNSIGNED_SHORT:
+                final ShortBuffer shorts = ShortBuffer.allocate(values.length);
+                for (final int value: values)
+                    shorts.put((short) value);
+                indices = shorts.rewind();
+                break;
+
+            default:
+                indices = IntBuffer.wrap(values);
+        }
+        return new MeshPolygons(material, 3, indices, FloatBuffer
+            .wrap(coords(vertexCount, 0)), null, hasNormals ? FloatBuffer
+            .wrap(coords(vertexCount, 1)) : null);
+    }
+
+
+    /**
+     * Writes the specified mesh in the current TDB format and reads it again.
+     *
+     * @param mesh
+     *            The mesh to write
+     * @return The read mesh
+     * @throws IOException
+     *             When writing or reading fails
+     */
+
+    private static Mesh roundTrip(final Mesh mesh) throws IOException
+    {
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        new TDBMeshWriter().write(mesh, stream);
+        final byte[] data = stream.toByteArray();
+        assertEquals(2, data[3]);
+        return new TDBMeshReader(mesh.getId()).read(new ByteArrayInputStream(
+            data), null);
+    }
+
+
+    /**
+     * Checks if the read mesh polygons match the expected ones.
+     *
+     * @param expectedIndexType
+     *            The expected index type
+     * @param vertexCount
+     *            The expected number of vertices
+     * @param hasNormals
+     *            If normals are expected
+     * @param polygons
+     *            The read mesh polygons
+     */
+
+    private static void assertPolygons(final int expectedIndexType,
+        final int vertexCount, final boolean hasNormals,
+        final MeshPolygons polygons)
+    {
+        assertEquals(expectedIndexType, polygons.getIndexType());
+        assertEquals(3, polygons.getSize());
+        assertEquals(vertexCount, polygons.getVertexCount());
+        assertEquals(hasNormals, polygons.hasNormals());
+        assertFalse(polygons.hasTexCoords());
+
+        final int[] indices = indices(vertexCount);
+        assertEquals(indices.length, polygons.getIndexCount());
+        for (int i = 0; i < indices.length; i++)
+            assertEquals(indices[i], polygons.getIndex(i));
+
+        final float[] coords = coords(vertexCount, 0);
+        final float[] normals = coords(vertexCount, 1);
+        final MutableVector3f v = new MutableVector3f();
+        for (int i = 0; i < vertexCount; i++)
+        {
+            polygons.getVertex(i, v);
+            assertEquals(coords[i * 3], v.getX(), 0);
+            assertEquals(coords[i * 3 + 1], v.getY(), 0);
+            assertEquals(coords[i * 3 + 2], v.getZ(), 0);
+            if (!hasNormals) continue;
+            polygons.getNormal(i, v);
+            assertEquals(normals[i * 3], v.getX(), 0);
+            assertEquals(normals[i * 3 + 1], v.getY(), 0);
+            assertEquals(normals[i * 3 + 2], v.getZ(), 0);
+        }
+    }
+
+
+    /**
+     * Tests writing and reading a mesh with byte, short and integer indices.
+     *
+     * @throws IOException
+     *             When writing or reading fails
+     */
+
+    @Test
+    public void testRoundTrip() throws IOException
+    {
+        final Mesh mesh = new Mesh("test", new MeshPolygons[] {
+            polygons(0, 200, GL.GL_UNSIGNED_BYTE, true),
+            polygons(1, 1000, GL.GL_UNSIGNED_SHORT, false),
+            polygons(1, 70000, GL.GL_UNSIGNED_INT, true) }, new String[] {
+            "first", "second" });
+
+        final Mesh read = roundTrip(mesh);
+        assertEquals("test", read.getId());
+        assertEquals(Arrays.asList("first", "second"), Arrays.asList(read
+            .getMaterials()));
+        final MeshPolygons[] polygons = read.getPolygons();
+        assertEquals(3, polygons.length);
+        assertEquals(0, polygons[0].getMaterial());
+        assertEquals(1, polygons[1].getMaterial());
+        assertEquals(1, polygons[2].getMaterial());
+        assertPolygons(GL.GL_UNSIGNED_BYTE, 200, true, polygons[0]);
+        assertPolygons(GL.GL_UNSIGNED_SHORT, 1000, false, polygons[1]);
+        assertPolygons(GL.GL_UNSIGNED_INT, 70000, true, polygons[2]);
+    }
+
+
+    /**
+     * Tests writing a mesh with interleaved vertex data and reading it
+     * interleaved.
+     *
+     * @throws IOException
+     *             When writing or reading fails
+     */
+
+    @Test
+    public void testInterleavedRoundTrip() throws IOException
+    {
+        final Mesh mesh = new Mesh("test", new MeshPolygons[] { polygons(0,
+            300, GL.GL_UNSIGNED_SHORT, true).toInterleaved() },
+            new String[] { "material" });
+
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        new TDBMeshWriter().write(mesh, stream);
+        final Mesh read = new TDBMeshReader("test", true).read(
+            new ByteArrayInputStream(stream.toByteArray()), null);
+        final MeshPolygons polygons = read.getPolygons()[0];
+        assertTrue(polygons.isInterleaved());
+        assertPolygons(GL.GL_UNSIGNED_SHORT, 300, true, polygons);
+    }
+
+
+    /**
+     * Tests reading a version 1 mesh file which always contains short indices
+     * without an index size.
+     *
+     * @throws IOException
+     *             When writing or reading fails
+     */
+
+    @Test
+    public void testReadVersion1() throws IOException
+    {
+        final int vertexCount = 30;
+        final float[] coords = coords(vertexCount, 0);
+        final int[] indices = indices(vertexCount);
+
+        final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        final StreamWriter writer = new StreamWriter(stream);
+        writer.writeString("TDB");
+        writer.writeByte(1);
+        writer.writeByte(1);
+        writer.setByteOrder(ByteOrder.BIG_ENDIAN);
+        writer.writeShort(1);
+        writer.writeByte(0);
+        writer.writeByte(0);
+        writer.writeByte(3);
+        writer.writeInt(vertexCount);
+        for (final float coord: coords)
+            writer.writeFloat(coord);
+        writer.writeInt(indices.length);
+        for (final int index: indices)
+            writer.writeShort(index);
+        writer.writeByte(1);
+        writer.writeByte(8);
+        writer.writeString("material");
+        writer.close();
+
+        final Mesh mesh = new TDBMeshReader("old").read(
+            new ByteArrayInputStream(stream.toByteArray()), null);
+        assertEquals(Arrays.asList("material"), Arrays.asList(mesh
+            .getMaterials()));
+        assertEquals(1, mesh.getPolygons().length);
+        assertPolygons(GL.GL_UNSIGNED_SHORT, vertexCount, false, mesh
+            .getPolygons()[0]);
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ailis.gramath.MutableMatrix4f;
+import de.ailis.gramath.MutableVector3f;
+import de.ailis.threedee.mathold.Bounds;
+
+
+/**
+ * Tests the Frustum class.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class FrustumTest
+{
+    /** The tested frustum */
+    private Frustum frustum;
+
+
+    /**
+     * Sets up a frustum looking from the origin down the negative Z axis.
+     */
+
+    @Before
+    public void setUp()
+    {
+        this.frustum = new Frustum();
+        this.frustum.update(90, 1, 1, 100, MutableMatrix4f.identity());
+    }
+
+
+    /**
+     * Creates bounds.
+     *
+     * @param x1
+     *            The minimum X coordinate
+     * @param y1
+     *            The minimum Y coordinate
+     * @param z1
+     *            The minimum Z coordinate
+     * @param x2
+     *            The maximum X coordinate
+     * @param y2
+     *            The maximum Y coordinate
+     * @param z2
+     *            The maximum Z coordinate
+     * @return The bounds
+     */
+
+    private static Bounds bounds(final float x1, final float y1,
+        final float z1, final float x2, final float y2, final float z2)
+    {
+        return new Bounds(new MutableVector3f(x1, y1, z1),
+            new MutableVector3f(x2, y2, z2));
+    }
+
+
+    /**
+     * Tests bounds completely inside of the frustum.
+     */
+
+    @Test
+    public void testInside()
+    {
+        assertEquals(Frustum.INSIDE, this.frustum.classify(bounds(-1, -1,
+            -11, 1, 1, -9)));
+    }
+
+
+    /**
+     * Tests bounds completely outside of the frustum.
+     */
+
+    @Test
+    public void testOutside()
+    {
+        // Behind the camera
+        assertEquals(Frustum.OUTSIDE, this.frustum.classify(bounds(-1, -1,
+            9, 1, 1, 11)));
+
+        // Beyond the far plane
+        assertEquals(Frustum.OUTSIDE, this.frustum.classify(bounds(-1, -1,
+            -200, 1, 1, -150)));
+
+        // Left of the left plane
+        assertEquals(Frustum.OUTSIDE, this.frustum.classify(bounds(-30, -1,
+            -11, -20, 1, -9)));
+        assertFalse(this.frustum.isVisible(bounds(-30, -1, -11, -20, 1, -9)));
+    }
+
+
+    /**
+     * Tests bounds partly inside of the frustum.
+     */
+
+    @Test
+    public void testIntersect()
+    {
+        assertEquals(Frustum.INTERSECT, this.frustum.classify(bounds(-20, -1,
+            -11, 0, 1, -9)));
+        assertTrue(this.frustum.isVisible(bounds(-20, -1, -11, 0, 1, -9)));
+    }
+
+
+    /**
+     * Tests transformed bounds.
+     */
+
+    @Test
+    public void testTransformedBounds()
+    {
+        final Bounds bounds = new Bounds();
+        assertTrue(bounds.isEmpty());
+        bounds.update(bounds(-1, -1, -1, 1, 1, 1), MutableMatrix4f.identity()
+            .translate(0, 0, -10));
+        assertFalse(bounds.isEmpty());
+        assertEquals(-11, bounds.getMin().getZ(), 0.001f);
+        assertEquals(-9, bounds.getMax().getZ(), 0.001f);
+        assertEquals(Frustum.INSIDE, this.frustum.classify(bounds));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ailis.gramath.MutableMatrix4f;
+import de.ailis.threedee.assets.Mesh;
+import de.ailis.threedee.assets.MeshPolygons;
+import de.ailis.threedee.mathold.Bounds;
+import de.ailis.threedee.utils.BufferUtils;
+import de.ailis.threedee.utils.IntBufferBuilder;
+
+
+/**
+ * Tests the OcclusionBuffer class.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class OcclusionBufferTest
+{
+    /** The tested occlusion buffer */
+    private OcclusionBuffer buffer;
+
+
+    /**
+     * Sets up an occlusion buffer looking from the origin down the negative
+     * Z axis with a wall of 4x4 units at Z=-10 as occluder.
+     */
+
+    @Before
+    public void setUp()
+    {
+        final FloatBuffer vertices = BufferUtils.createDirectFloatBuffer(12);
+        vertices.put(new float[] { -2, -2, -10, 2, -2, -10, 2, 2, -10, -2, 2,
+            -10 });
+        vertices.rewind();
+        final IntBufferBuilder indices = new IntBufferBuilder();
+        indices.add(0, 1, 2, 0, 2, 3);
+        final Mesh wall = new Mesh("wall", new MeshPolygons[] { new MeshPolygons(
+            0, 3, indices.build(), vertices, null, null) },
+            new String[] { "material" });
+
+        this.buffer = new OcclusionBuffer(64, 32);
+        this.buffer.begin(90, 2, 1, 100, MutableMatrix4f.identity());
+        this.buffer.rasterize(wall, MutableMatrix4f.identity());
+        this.buffer.buildPyramid();
+    }
+
+
+    /**
+     * Creates bounds.
+     *
+     * @param x1
+     *            The minimum X coordinate
+     * @param y1
+     *            The minimum Y coordinate
+     * @param z1
+     *            The minimum Z coordinate
+     * @param x2
+     *            The maximum X coordinate
+     * @param y2
+     *            The maximum Y coordinate
+     * @param z2
+     *            The maximum Z coordinate
+     * @return The bounds
+     */
+
+    private static Bounds createBounds(final float x1, final float y1,
+        final float z1, final float x2, final float y2, final float z2)
+    {
+        final Bounds bounds = new Bounds();
+        bounds.update(x1, y1, z1);
+        bounds.update(x2, y2, z2);
+        return bounds;
+    }
+
+
+    /**
+     * Tests the rasterized depth.
+     */
+
+    @Test
+    public void testDepth()
+    {
+        assertTrue(this.buffer.getDepth(32, 16) < 1);
+        assertEquals(1, this.buffer.getDepth(0, 0), 0);
+        assertEquals(1, this.buffer.getDepth(63, 31), 0);
+    }
+
+
+    /**
+     * Tests bounds behind the occluder.
+     */
+
+    @Test
+    public void testOccluded()
+    {
+        assertTrue(this.buffer.isOccluded(createBounds(-1, -1, -30, 1, 1, -20)));
+        assertEquals(1, this.buffer.getOccludedCount());
+    }
+
+
+    /**
+     * Tests bounds in front of the occluder, beside the occluder and
+     * crossing the near plane.
+     */
+
+    @Test
+    public void testVisible()
+    {
+        assertFalse(this.buffer.isOccluded(createBounds(-1, -1, -6, 1, 1, -5)));
+        assertFalse(this.buffer.isOccluded(createBounds(10, -1, -30, 12, 1,
+            -20)));
+        assertFalse(this.buffer.isOccluded(createBounds(-1, -1, -30, 1, 1, 5)));
+        assertFalse(this.buffer.isOccluded(createBounds(-8, -8, -30, 8, 8,
+            -20)));
+        assertEquals(4, this.buffer.getTestedCount());
+        assertEquals(0, this.buffer.getOccludedCount());
+    }
+
+
+    /**
+     * Tests that the occluder does not occlude its own bounds.
+     */
+
+    @Test
+    public void testSelfOcclusion()
+    {
+        assertFalse(this.buffer.isOccluded(createBounds(-2, -2, -10, 2, 2,
+            -10)));
+    }
+}
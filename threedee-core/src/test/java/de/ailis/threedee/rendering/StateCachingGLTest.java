@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.rendering;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+/**
+ * Tests the StateCachingGL class.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class StateCachingGLTest
+{
+    /** The names of the calls which reached the wrapped GL */
+    private List<String> calls;
+
+    /** The state caching GL to test */
+    private StateCachingGL gl;
+
+
+    /**
+     * Creates a state caching GL wrapping a GL which records the names of
+     * all called methods and does nothing else.
+     */
+
+    @Before
+    public void setUp()
+    {
+        final List<String> calls = new ArrayList<String>();
+        final GL recorder = (GL) Proxy.newProxyInstance(GL.class
+            .getClassLoader(), new Class<?>[] { GL.class },
+            new InvocationHandler()
+            {
+                @Override
+                public Object invoke(final Object proxy, final Method method,
+                    final Object[] args)
+                {
+                    calls.add(method.getName());
+                    final Class<?> type = method.getReturnType();
+                    if (type == boolean.class) return Boolean.FALSE;
+                    if (type == int.class) return Integer.valueOf(1);
+                    return null;
+                }
+            });
+        this.calls = calls;
+        this.gl = new StateCachingGL(recorder);
+    }
+
+
+    /**
+     * Returns how often the specified method of the wrapped GL was called.
+     *
+     * @param name
+     *            The method name
+     * @return The number of calls
+     */
+
+    private int count(final String name)
+    {
+        int count = 0;
+        for (final String call: this.calls)
+            if (call.equals(name)) count++;
+        return count;
+    }
+
+
+    /**
+     * Creates a buffer containing the specified IDs.
+     *
+     * @param ids
+     *            The IDs
+     * @return The buffer
+     */
+
+    private static IntBuffer ids(final int... ids)
+    {
+        return IntBuffer.wrap(ids);
+    }
+
+
+    /**
+     * Tests that redundant state changes are filtered and counted.
+     */
+
+    @Test
+    public void testRedundantCalls()
+    {
+        final StateCachingGL gl = this.gl;
+        gl.glEnable(GL.GL_LIGHTING);
+        gl.glEnable(GL.GL_LIGHTING);
+        gl.glDisable(GL.GL_LIGHTING);
+        gl.glDisable(GL.GL_LIGHTING);
+        assertEquals(1, count("glEnable"));
+        assertEquals(1, count("glDisable"));
+
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 4);
+        assertEquals(2, count("glBindTexture"));
+
+        gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+        gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+        assertEquals(1, count("glEnableClientState"));
+
+        assertEquals(4, gl.getFilteredCalls());
+        gl.resetCounters();
+        assertEquals(0, gl.getFilteredCalls());
+    }
+
+
+    /**
+     * Tests that glIsEnabled is answered from the cached state.
+     */
+
+    @Test
+    public void testIsEnabled()
+    {
+        final StateCachingGL gl = this.gl;
+
+        // Unknown state is queried once
+        assertFalse(gl.glIsEnabled(GL.GL_DITHER));
+        assertFalse(gl.glIsEnabled(GL.GL_DITHER));
+        assertEquals(1, count("glIsEnabled"));
+        assertEquals(1, gl.getAnsweredQueries());
+
+        // State set through the wrapper is never queried
+        gl.glEnable(GL.GL_LIGHTING);
+        assertTrue(gl.glIsEnabled(GL.GL_LIGHTING));
+        gl.glDisable(GL.GL_LIGHTING);
+        assertFalse(gl.glIsEnabled(GL.GL_LIGHTING));
+        assertEquals(1, count("glIsEnabled"));
+        assertEquals(3, gl.getAnsweredQueries());
+
+        // Queried state is used for filtering
+        gl.glDisable(GL.GL_DITHER);
+        assertEquals(1, count("glDisable"));
+    }
+
+
+    /**
+     * Tests that the cached state is forgotten when a display list is
+     * recorded and when the recording ends.
+     */
+
+    @Test
+    public void testNewList()
+    {
+        final StateCachingGL gl = this.gl;
+        gl.glEnable(GL.GL_LIGHTING);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+
+        // The list must contain its own state changes
+        gl.glNewList(1, GL.GL_COMPILE);
+        gl.glEnable(GL.GL_LIGHTING);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        gl.glEndList();
+        assertEquals(2, count("glEnable"));
+        assertEquals(2, count("glBindTexture"));
+
+        // The state after the recording is unknown
+        gl.glEnable(GL.GL_LIGHTING);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        assertEquals(3, count("glEnable"));
+        assertEquals(3, count("glBindTexture"));
+    }
+
+
+    /**
+     * Tests that calling a display list only forgets the state changed by the
+     * list.
+     */
+
+    @Test
+    public void testCallList()
+    {
+        final StateCachingGL gl = this.gl;
+        gl.glNewList(1, GL.GL_COMPILE);
+        gl.glEnable(GL.GL_LIGHTING);
+        gl.glEndList();
+
+        gl.glEnable(GL.GL_LIGHTING);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        gl.glCallList(1);
+        assertEquals(1, count("glCallList"));
+
+        // The list changes capabilities but no texture binding
+        gl.glEnable(GL.GL_LIGHTING);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        assertEquals(3, count("glEnable"));
+        assertEquals(1, count("glBindTexture"));
+
+        // Lists not recorded through the wrapper may change anything
+        gl.glCallList(2);
+        gl.glEnable(GL.GL_LIGHTING);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        assertEquals(4, count("glEnable"));
+        assertEquals(2, count("glBindTexture"));
+
+        // Deleted lists are unknown again
+        gl.glDeleteLists(1, 1);
+        gl.glCallList(1);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        assertEquals(3, count("glBindTexture"));
+    }
+
+
+    /**
+     * Tests that a display list calling another display list while being
+     * recorded inherits the state changes of the called list.
+     */
+
+    @Test
+    public void testNestedCallList()
+    {
+        final StateCachingGL gl = this.gl;
+        gl.glNewList(1, GL.GL_COMPILE);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        gl.glEndList();
+        gl.glNewList(2, GL.GL_COMPILE);
+        gl.glCallList(1);
+        gl.glEndList();
+
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        gl.glCallList(2);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        assertEquals(3, count("glBindTexture"));
+    }
+
+
+    /**
+     * Tests that deleting the bound texture reverts the binding to zero.
+     */
+
+    @Test
+    public void testDeleteBoundTexture()
+    {
+        final StateCachingGL gl = this.gl;
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        gl.glDeleteTextures(ids(2, 3));
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 0);
+        assertEquals(1, count("glBindTexture"));
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        assertEquals(2, count("glBindTexture"));
+    }
+
+
+    /**
+     * Tests that deleting bound buffer objects reverts the bindings to zero.
+     */
+
+    @Test
+    public void testDeleteBoundBuffers()
+    {
+        final StateCachingGL gl = this.gl;
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 3);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 4);
+        gl.glDeleteBuffers(ids(3, 4));
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 0);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 0);
+        assertEquals(2, count("glBindBuffer"));
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 3);
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, 4);
+        assertEquals(4, count("glBindBuffer"));
+    }
+
+
+    /**
+     * Tests that deleting a buffer object forgets the array pointers into
+     * this buffer object.
+     */
+
+    @Test
+    public void testDeleteBufferPointers()
+    {
+        final StateCachingGL gl = this.gl;
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 3);
+        gl.glVertexPointer(3, 0, 0);
+        gl.glNormalPointer(0, 12);
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 4);
+        gl.glTexCoordPointer(2, 0, 0);
+        gl.glDeleteBuffers(ids(3));
+
+        // The same name may be reused for a new buffer object
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 3);
+        gl.glVertexPointer(3, 0, 0);
+        gl.glNormalPointer(0, 12);
+        assertEquals(2, count("glVertexPointer"));
+        assertEquals(2, count("glNormalPointer"));
+
+        // Pointers into other buffer objects are kept
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, 4);
+        gl.glTexCoordPointer(2, 0, 0);
+        assertEquals(1, count("glTexCoordPointer"));
+    }
+
+
+    /**
+     * Tests that reset forgets the whole cached state.
+     */
+
+    @Test
+    public void testReset()
+    {
+        final StateCachingGL gl = this.gl;
+        gl.glEnable(GL.GL_LIGHTING);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        gl.reset();
+        gl.glEnable(GL.GL_LIGHTING);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, 3);
+        assertEquals(2, count("glEnable"));
+        assertEquals(2, count("glBindTexture"));
+    }
+}
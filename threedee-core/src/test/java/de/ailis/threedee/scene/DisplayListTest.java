@@ -0,0 +1,291 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import de.ailis.gramath.Color4f;
+import de.ailis.gramath.ImmutableColor4f;
+import de.ailis.gramath.MutableMatrix4f;
+import de.ailis.threedee.assets.Material;
+import de.ailis.threedee.assets.Mesh;
+import de.ailis.threedee.assets.MeshPolygons;
+import de.ailis.threedee.rendering.GL;
+import de.ailis.threedee.rendering.ViewComponent;
+import de.ailis.threedee.rendering.Viewport;
+
+
+/**
+ * Tests rendering compiled scene nodes with display lists.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class DisplayListTest
+{
+    /** The names of the called GL methods */
+    private List<String> calls;
+
+    /** The viewport rendering the scene */
+    private Viewport viewport;
+
+    /** The compiled node */
+    private Group compiled;
+
+    /** The model in the compiled sub tree */
+    private Model model;
+
+
+    /**
+     * Creates a material with the specified red component.
+     *
+     * @param red
+     *            The red component
+     * @return The material
+     */
+
+    private static Material material(final float red)
+    {
+        return new Material("test", Color4f.BLACK, new ImmutableColor4f(red,
+            1, 1, 1), Color4f.BLACK, Color4f.BLACK, 0, null, true);
+    }
+
+
+    /**
+     * Sets up a scene with a compiled group containing a model and a viewport
+     * rendering the scene with a GL which records the names of the called
+     * methods and does nothing else.
+     */
+
+    @Before
+    public void setUp()
+    {
+        final List<String> calls = new ArrayList<String>();
+        final InvocationHandler recorder = new InvocationHandler()
+        {
+            @Override
+            public Object invoke(final Object proxy, final Method method,
+                final Object[] args)
+            {
+                calls.add(method.getName());
+                final Class<?> type = method.getReturnType();
+                if (type == boolean.class) return Boolean.FALSE;
+                if (type == int.class) return Integer.valueOf(1);
+                return null;
+            }
+        };
+        final ClassLoader classLoader = GL.class.getClassLoader();
+        final GL gl = (GL) Proxy.newProxyInstance(classLoader,
+            new Class<?>[] { GL.class }, recorder);
+        final ViewComponent view = (ViewComponent) Proxy.newProxyInstance(
+            classLoader, new Class<?>[] { ViewComponent.class }, recorder);
+        this.calls = calls;
+
+        final MeshPolygons polygons = new MeshPolygons(0, 3, ByteBuffer
+            .wrap(new byte[] { 0, 1, 2 }), FloatBuffer.wrap(new float[] { 0,
+            0, 0, 1, 0, 0, 0, 1, 0 }), null, null);
+        this.model = new Model(new Mesh("mesh",
+            new MeshPolygons[] { polygons }, new String[] { "material" }));
+        this.model.bindMaterial("material", material(1));
+
+        final Group child = new Group();
+        child.appendChild(this.model);
+        this.compiled = new Group();
+        this.compiled.appendChild(child);
+        this.compiled.setCompiled(true);
+        final Group root = new Group();
+        root.appendChild(this.compiled);
+
+        final Scene scene = new Scene("scene");
+        scene.setRootNode(root);
+        this.viewport = new Viewport(view, gl);
+
+        // The model is located at the camera position so it must not be
+        // culled
+        this.viewport.setFrustumCulling(false);
+        this.viewport.setScene(scene);
+    }
+
+
+    /**
+     * Renders a frame and returns how often the specified GL method was
+     * called during this frame.
+     *
+     * @param name
+     *            The method name
+     * @return The number of calls
+     */
+
+    private int render(final String name)
+    {
+        this.calls.clear();
+        this.viewport.render();
+        return count(name);
+    }
+
+
+    /**
+     * Tests that a compiled sub tree is recorded once and then only replayed.
+     */
+
+    @Test
+    public void testRecordOnce()
+    {
+        assertEquals(1, render("glNewList"));
+        assertEquals(1, count("glDrawElements"));
+        assertEquals(0, count("glCallList"));
+
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(1, render("glCallList"));
+            assertEquals(0, count("glNewList"));
+            assertEquals(0, count("glDrawElements"));
+        }
+    }
+
+
+    /**
+     * Tests that changing the transformation of a node in the compiled sub
+     * tree records the display list again.
+     */
+
+    @Test
+    public void testChildTransformChange()
+    {
+        assertEquals(1, render("glNewList"));
+        assertEquals(0, render("glNewList"));
+
+        this.model.setTransform(MutableMatrix4f.identity().translate(1, 2, 3));
+        assertEquals(1, render("glNewList"));
+        assertEquals(0, render("glNewList"));
+    }
+
+
+    /**
+     * Tests that moving the compiled node itself doesn't record the display
+     * list again.
+     */
+
+    @Test
+    public void testCompiledTransformChange()
+    {
+        assertEquals(1, render("glNewList"));
+        this.compiled.setTransform(MutableMatrix4f.identity().translate(1, 2,
+            3));
+        assertEquals(0, render("glNewList"));
+        assertEquals(1, render("glCallList"));
+    }
+
+
+    /**
+     * Tests that changing a material in the compiled sub tree records the
+     * display list again.
+     */
+
+    @Test
+    public void testMaterialChange()
+    {
+        assertEquals(1, render("glNewList"));
+        assertEquals(0, render("glNewList"));
+
+        this.model.bindMaterial("material", material(0.5f));
+        assertEquals(1, render("glNewList"));
+        assertEquals(0, render("glNewList"));
+    }
+
+
+    /**
+     * Tests that a compiled sub tree rendered from snapshots is recorded
+     * again when a snapshot with a changed sub tree is adopted and not
+     * earlier.
+     */
+
+    @Test
+    public void testSnapshotChange()
+    {
+        final Scene scene = this.compiled.getScene();
+        scene.recordSnapshot(System.nanoTime());
+        assertEquals(1, render("glNewList"));
+        assertEquals(0, render("glNewList"));
+
+        // The change is not visible before the next snapshot
+        this.model.setTransform(MutableMatrix4f.identity().translate(1, 2, 3));
+        assertEquals(0, render("glNewList"));
+        assertEquals(1, count("glCallList"));
+
+        scene.recordSnapshot(System.nanoTime());
+        assertEquals(1, render("glNewList"));
+        assertEquals(0, render("glNewList"));
+        scene.recordSnapshot(System.nanoTime());
+        assertEquals(0, render("glNewList"));
+    }
+
+
+    /**
+     * Tests that a sub tree containing transparent content is not compiled
+     * so the transparent content can be sorted with the rest of the scene.
+     */
+
+    @Test
+    public void testTransparentSubTree()
+    {
+        assertEquals(1, render("glNewList"));
+        this.model.bindMaterial("material", new Material("test",
+            Color4f.BLACK, new ImmutableColor4f(1, 1, 1, 0.5f),
+            Color4f.BLACK, Color4f.BLACK, 0, null, true));
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(0, render("glNewList"));
+            assertEquals(0, count("glCallList"));
+            assertEquals(1, count("glDrawElements"));
+        }
+    }
+
+
+    /**
+     * Tests that a node which is no longer compiled renders its sub tree
+     * directly and deletes its display list.
+     */
+
+    @Test
+    public void testUncompile()
+    {
+        assertEquals(1, render("glNewList"));
+        this.compiled.setCompiled(false);
+        assertEquals(1, render("glDeleteLists"));
+        assertEquals(0, count("glCallList"));
+        assertEquals(1, count("glDrawElements"));
+    }
+
+
+    /**
+     * Returns how often the specified GL method was called during the last
+     * frame.
+     *
+     * @param name
+     *            The method name
+     * @return The number of calls
+     */
+
+    private int count(final String name)
+    {
+        int count = 0;
+        for (final String call: this.calls)
+            if (call.equals(name)) count++;
+        return count;
+    }
+}
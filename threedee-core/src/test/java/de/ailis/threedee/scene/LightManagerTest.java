@@ -0,0 +1,161 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.ailis.gramath.MutableMatrix4f;
+import de.ailis.threedee.scene.lights.PointLight;
+import de.ailis.threedee.scene.lights.SpotLight;
+
+
+/**
+ * Tests the LightManager class.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class LightManagerTest
+{
+    /**
+     * Creates a scene node at the specified position.
+     *
+     * @param node
+     *            The node to position
+     * @param x
+     *            The X coordinate
+     * @param y
+     *            The Y coordinate
+     * @param z
+     *            The Z coordinate
+     * @return The node
+     */
+
+    private static <T extends SceneNode> T at(final T node, final float x,
+        final float y, final float z)
+    {
+        node.setTransform(MutableMatrix4f.identity().translate(x, y, z));
+        return node;
+    }
+
+
+    /**
+     * Creates a point light with quadratic attenuation at the specified X
+     * position.
+     *
+     * @param x
+     *            The X coordinate
+     * @return The light
+     */
+
+    private static PointLight light(final float x)
+    {
+        final PointLight light = at(new PointLight(), x, 0, 0);
+        light.setAttenuation(1, 0, 1);
+        return light;
+    }
+
+
+    /**
+     * Tests that the nearest lights in range are selected.
+     */
+
+    @Test
+    public void testSelectNearest()
+    {
+        final LightManager manager = new LightManager();
+        final PointLight near = light(0);
+        final PointLight middle = light(5);
+        final PointLight far = light(100);
+        manager.addLight(far);
+        manager.addLight(middle);
+        manager.addLight(near);
+        manager.update();
+
+        final LightManager.LightSet set = manager.select(at(new Group(), 1,
+            0, 0), null);
+        assertEquals(2, set.size);
+        assertSame(near, set.lights[0]);
+        assertSame(middle, set.lights[1]);
+
+        manager.setMaxLights(1);
+        manager.update();
+        final LightManager.LightSet single = manager.select(at(new Group(),
+            1, 0, 0), null);
+        assertEquals(1, single.size);
+        assertSame(near, single.lights[0]);
+
+        assertNull(manager.select(at(new Group(), 50, 0, 0), null));
+    }
+
+
+    /**
+     * Tests that nodes outside of a spot cone are not lit by it.
+     */
+
+    @Test
+    public void testSpotCone()
+    {
+        final LightManager manager = new LightManager();
+        final SpotLight spot = new SpotLight();
+        spot.setCutOff(10);
+        manager.addLight(spot);
+        manager.update();
+        assertSame(spot, manager.select(at(new Group(), 0, 0, -10), null).lights[0]);
+        assertNull(manager.select(at(new Group(), 10, 0, 0), null));
+        assertNull(manager.select(at(new Group(), 0, 0, 10), null));
+    }
+
+
+    /**
+     * Tests that equal selections share the same light set.
+     */
+
+    @Test
+    public void testSharedLightSets()
+    {
+        final LightManager manager = new LightManager();
+        manager.addLight(light(0));
+        manager.addLight(light(3));
+        manager.update();
+        final LightManager.LightSet a = manager.select(at(new Group(), -1, 0,
+            0), null);
+        final LightManager.LightSet b = manager.select(at(new Group(), -2, 0,
+            0), null);
+        assertSame(a, b);
+    }
+
+
+    /**
+     * Tests that lights inserted into a scene are managed unless they are
+     * added to a scene node.
+     */
+
+    @Test
+    public void testSceneLights()
+    {
+        final Scene scene = new Scene("test");
+        final LightManager manager = scene.getLightManager();
+        final SceneNode root = scene.getRootNode();
+        final PointLight managed = light(0);
+        final PointLight hierarchical = light(1);
+        root.appendChild(managed);
+        root.appendChild(hierarchical);
+        assertTrue(manager.getLights().contains(hierarchical));
+        root.addLight(hierarchical);
+        assertFalse(hierarchical.isManaged());
+        assertEquals(1, manager.getLights().size());
+        assertSame(managed, manager.getLights().get(0));
+        root.removeChild(managed);
+        assertTrue(manager.getLights().isEmpty());
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.FloatBuffer;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the parallel scene update.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class ParallelUpdateTest
+{
+    /**
+     * Creates a scene with a tree of moving nodes.
+     *
+     * @return The scene
+     */
+
+    private static Scene createScene()
+    {
+        final Scene scene = new Scene("test");
+        final SceneNode root = scene.getRootNode();
+        for (int i = 0; i < 8; i++)
+        {
+            final Group group = new Group();
+            group.getPhysics().setSpinVelocity(0, i * 0.1f, 0);
+            root.appendChild(group);
+            for (int j = 0; j < 50; j++)
+            {
+                final Group child = new Group();
+                child.getPhysics().setVelocity(j, i, 1);
+                group.appendChild(child);
+            }
+        }
+        return scene;
+    }
+
+
+    /**
+     * Tests that the parallel update produces the same result as the
+     * sequential update.
+     */
+
+    @Test
+    public void testSameResult()
+    {
+        final Scene sequential = createScene();
+        final Scene parallel = createScene();
+        parallel.setUpdateThreads(4);
+        parallel.setUpdateThreshold(16);
+        assertEquals(409, parallel.getRootNode().getSubtreeSize());
+        try
+        {
+            for (int i = 0; i < 10; i++)
+                assertEquals(sequential.update(0.1f), parallel.update(0.1f));
+
+            SceneNode a = sequential.getRootNode().getFirstChild();
+            SceneNode b = parallel.getRootNode().getFirstChild();
+            while (a != null)
+            {
+                SceneNode childA = a.getFirstChild();
+                SceneNode childB = b.getFirstChild();
+                while (childA != null)
+                {
+                    final FloatBuffer expected = childA.getSceneTransform()
+                        .getBuffer();
+                    final FloatBuffer actual = childB.getSceneTransform()
+                        .getBuffer();
+                    for (int i = 0; i < 16; i++)
+                        assertEquals(expected.get(i), actual.get(i), 0.0001f);
+                    childA = childA.getNextSibling();
+                    childB = childB.getNextSibling();
+                }
+                a = a.getNextSibling();
+                b = b.getNextSibling();
+            }
+        }
+        finally
+        {
+            parallel.setUpdateThreads(1);
+        }
+    }
+
+
+    /**
+     * Tests the reduced changed flag.
+     */
+
+    @Test
+    public void testChangedFlag()
+    {
+        final Scene scene = new Scene("test");
+        final SceneNode root = scene.getRootNode();
+        for (int i = 0; i < 100; i++)
+            root.appendChild(new Group());
+        scene.setUpdateThreads(2);
+        scene.setUpdateThreshold(10);
+        try
+        {
+            assertFalse(scene.update(0.1f));
+            root.getLastChild().getPhysics().setVelocity(1, 0, 0);
+            assertTrue(scene.update(0.1f));
+        }
+        finally
+        {
+            scene.setUpdateThreads(1);
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.ailis.gramath.Color4f;
+import de.ailis.gramath.ImmutableColor4f;
+import de.ailis.gramath.MutableMatrix4f;
+import de.ailis.threedee.assets.Material;
+import de.ailis.threedee.assets.MeshPolygons;
+import de.ailis.threedee.rendering.Viewport;
+
+
+/**
+ * Tests the RenderQueue class.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class RenderQueueTest
+{
+    /**
+     * Creates a scene node at the specified distance in front of the camera.
+     * Without a camera the view looks along the negative Z axis.
+     *
+     * @param distance
+     *            The distance
+     * @return The node
+     */
+
+    private static SceneNode at(final float distance)
+    {
+        final SceneNode node = new Group();
+        node.setTransform(MutableMatrix4f.identity().translate(0, 0,
+            -distance));
+        return node;
+    }
+
+
+    /**
+     * Creates a scene node rendering transparent content at the specified
+     * distance in front of the camera.
+     *
+     * @param distance
+     *            The distance
+     * @return The node
+     */
+
+    private static SceneNode transparentAt(final float distance)
+    {
+        final SceneNode node = new Group()
+        {
+            @Override
+            protected boolean isTransparent()
+            {
+                return true;
+            }
+        };
+        node.setTransform(MutableMatrix4f.identity().translate(0, 0,
+            -distance));
+        return node;
+    }
+
+
+    /**
+     * Creates a material with the specified diffuse alpha value.
+     *
+     * @param alpha
+     *            The alpha value. Below 1 for a transparent material
+     * @return The material
+     */
+
+    private static Material material(final float alpha)
+    {
+        return new Material("test", Color4f.BLACK, new ImmutableColor4f(1,
+            1, 1, alpha), Color4f.BLACK, Color4f.BLACK, 0, null, true);
+    }
+
+
+    /**
+     * Creates a single triangle.
+     *
+     * @return The polygons
+     */
+
+    private static MeshPolygons triangle()
+    {
+        return new MeshPolygons(0, 3, ByteBuffer.wrap(new byte[] { 0, 1, 2 }),
+            FloatBuffer.wrap(new float[] { 0, 0, 0, 1, 0, 0, 0, 1, 0 }), null,
+            null);
+    }
+
+
+    /**
+     * Creates a queue collecting draw items for a viewport without camera.
+     *
+     * @return The render queue
+     */
+
+    private static RenderQueue queue()
+    {
+        final RenderQueue queue = new RenderQueue();
+        queue.begin(new Viewport(null, null));
+        return queue;
+    }
+
+
+    /**
+     * Tests sorting an empty queue and a queue with a single item.
+     */
+
+    @Test
+    public void testSortTrivial()
+    {
+        final RenderQueue queue = queue();
+        queue.sort();
+        assertEquals(0, queue.getSize());
+
+        final SceneNode node = at(5);
+        queue.add(node);
+        queue.sort();
+        assertEquals(1, queue.getSize());
+        assertSame(node, queue.getSortedNode(0));
+        assertNull(queue.getSortedMaterial(0));
+    }
+
+
+    /**
+     * Tests that opaque draw items are sorted before transparent draw items.
+     */
+
+    @Test
+    public void testOpaqueBeforeTransparent()
+    {
+        final RenderQueue queue = queue();
+        final MeshPolygons polygons = triangle();
+        final Material opaque = material(1);
+        final Material transparent = material(0.5f);
+        final SceneNode near = at(2);
+        final SceneNode far = at(50);
+
+        queue.add(near, polygons, transparent);
+        queue.add(far, polygons, opaque);
+        queue.add(far, polygons, transparent);
+        queue.add(near, polygons, opaque);
+        queue.sort();
+
+        assertSame(opaque, queue.getSortedMaterial(0));
+        assertSame(opaque, queue.getSortedMaterial(1));
+        assertSame(transparent, queue.getSortedMaterial(2));
+        assertSame(transparent, queue.getSortedMaterial(3));
+    }
+
+
+    /**
+     * Tests that transparent draw items are sorted back to front.
+     */
+
+    @Test
+    public void testTransparentBackToFront()
+    {
+        final RenderQueue queue = queue();
+        final MeshPolygons polygons = triangle();
+        final Material transparent = material(0.5f);
+        final SceneNode a = at(3);
+        final SceneNode b = at(80);
+        final SceneNode c = at(10);
+        final SceneNode d = at(1.5f);
+
+        queue.add(a, polygons, transparent);
+        queue.add(b, polygons, material(0.2f));
+        queue.add(c, polygons, transparent);
+        queue.add(d, polygons, material(0.7f));
+        queue.sort();
+
+        assertSame(b, queue.getSortedNode(0));
+        assertSame(c, queue.getSortedNode(1));
+        assertSame(a, queue.getSortedNode(2));
+        assertSame(d, queue.getSortedNode(3));
+    }
+
+
+    /**
+     * Tests that transparent nodes rendering themselves are sorted into the
+     * transparent pass together with the other transparent draw items.
+     */
+
+    @Test
+    public void testTransparentCustomNodes()
+    {
+        final RenderQueue queue = queue();
+        final MeshPolygons polygons = triangle();
+        final SceneNode opaque = at(30);
+        final SceneNode near = transparentAt(2);
+        final SceneNode middle = at(10);
+        final SceneNode far = transparentAt(60);
+
+        queue.add(opaque);
+        assertFalse(queue.hasTransparentItems());
+        queue.add(near);
+        queue.add(middle, polygons, material(0.5f));
+        queue.add(far);
+        queue.sort();
+
+        assertSame(opaque, queue.getSortedNode(0));
+        assertSame(far, queue.getSortedNode(1));
+        assertSame(middle, queue.getSortedNode(2));
+        assertSame(near, queue.getSortedNode(3));
+        assertTrue(queue.hasTransparentItems());
+    }
+
+
+    /**
+     * Tests that opaque draw items with the same state are sorted front to
+     * back.
+     */
+
+    @Test
+    public void testOpaqueFrontToBack()
+    {
+        final RenderQueue queue = queue();
+        final MeshPolygons polygons = triangle();
+        final Material opaque = material(1);
+        final SceneNode a = at(90);
+        final SceneNode b = at(2);
+        final SceneNode c = at(20);
+
+        queue.add(a, polygons, opaque);
+        queue.add(b, polygons, opaque);
+        queue.add(c, polygons, opaque);
+        queue.sort();
+
+        assertSame(b, queue.getSortedNode(0));
+        assertSame(c, queue.getSortedNode(1));
+        assertSame(a, queue.getSortedNode(2));
+    }
+
+
+    /**
+     * Tests that many opaque draw items at the same depth are grouped by
+     * material so each material is switched to only once.
+     */
+
+    @Test
+    public void testMaterialsGrouped()
+    {
+        final RenderQueue queue = queue();
+        final MeshPolygons polygons = triangle();
+        final Material[] materials = new Material[5];
+        for (int i = 0; i < materials.length; i++)
+            materials[i] = material(1);
+        final SceneNode node = at(10);
+        final Random random = new Random(1);
+        final int[] counts = new int[materials.length];
+
+        for (int i = 0; i < 1000; i++)
+        {
+            final int material = random.nextInt(materials.length);
+            counts[material]++;
+            queue.add(node, polygons, materials[material]);
+        }
+        queue.sort();
+        assertEquals(1000, queue.getSize());
+
+        int changes = 0;
+        Material current = null;
+        for (int i = 0; i < queue.getSize(); i++)
+        {
+            final Material material = queue.getSortedMaterial(i);
+            if (material != current)
+            {
+                changes++;
+                current = material;
+            }
+        }
+        assertEquals(materials.length, changes);
+
+        // Sorting must not lose or duplicate draw items
+        for (int i = 0; i < queue.getSize(); i++)
+        {
+            final Material material = queue.getSortedMaterial(i);
+            for (int j = 0; j < materials.length; j++)
+                if (materials[j] == material) counts[j]--;
+        }
+        for (final int count: counts)
+            assertEquals(0, count);
+    }
+
+
+    /**
+     * Tests that the queue can be reused after clearing it.
+     */
+
+    @Test
+    public void testClear()
+    {
+        final RenderQueue queue = queue();
+        final MeshPolygons polygons = triangle();
+        queue.add(at(5), polygons, material(0.5f));
+        queue.add(at(6), polygons, material(1));
+        queue.clear();
+        assertEquals(0, queue.getSize());
+
+        final Material opaque = material(1);
+        queue.begin(new Viewport(null, null));
+        queue.add(at(5), polygons, opaque);
+        queue.sort();
+        assertEquals(1, queue.getSize());
+        assertSame(opaque, queue.getSortedMaterial(0));
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+
+/**
+ * Tests the SceneSnapshot class.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class SceneSnapshotTest
+{
+    /** The allowed deviation of the interpolated matrix elements */
+    private static final float DELTA = 0.0001f;
+
+
+    /**
+     * Creates a transformation which scales, rotates around the Z axis and
+     * translates (In this order).
+     *
+     * @param angle
+     *            The rotation angle in degrees
+     * @param scale
+     *            The uniform scale factor
+     * @param x
+     *            The X translation
+     * @param y
+     *            The Y translation
+     * @param z
+     *            The Z translation
+     * @return The transformation (Column-major order)
+     */
+
+    private static float[] transform(final float angle, final float scale,
+        final float x, final float y, final float z)
+    {
+        final float c = (float) Math.cos(Math.toRadians(angle)) * scale;
+        final float s = (float) Math.sin(Math.toRadians(angle)) * scale;
+        return new float[] { c, s, 0, 0, -s, c, 0, 0, 0, 0, scale, 0, x, y,
+            z, 1 };
+    }
+
+
+    /**
+     * Checks if the specified matrices are equal.
+     *
+     * @param expected
+     *            The expected matrix
+     * @param actual
+     *            The actual matrix
+     */
+
+    private static void assertMatrix(final float[] expected,
+        final float[] actual)
+    {
+        for (int i = 0; i < SceneSnapshot.MATRIX_SIZE; i++)
+            assertEquals(expected[i], actual[i], DELTA);
+    }
+
+
+    /**
+     * Tests interpolating a rotation. The interpolated matrix must be a
+     * rotation by the intermediate angle and not a shrunk matrix.
+     */
+
+    @Test
+    public void testInterpolateRotation()
+    {
+        final float[] result = new float[SceneSnapshot.MATRIX_SIZE];
+        SceneSnapshot.interpolate(transform(0, 1, 0, 0, 0), 0, transform(90,
+            1, 0, 0, 0), 0, 0.5f, result);
+        assertMatrix(transform(45, 1, 0, 0, 0), result);
+
+        SceneSnapshot.interpolate(transform(0, 1, 0, 0, 0), 0, transform(
+            170, 1, 0, 0, 0), 0, 0.5f, result);
+        assertMatrix(transform(85, 1, 0, 0, 0), result);
+    }
+
+
+    /**
+     * Tests that the rotation is interpolated along the shorter arc.
+     */
+
+    @Test
+    public void testInterpolateShortArc()
+    {
+        final float[] result = new float[SceneSnapshot.MATRIX_SIZE];
+        SceneSnapshot.interpolate(transform(170, 1, 0, 0, 0), 0, transform(
+            -170, 1, 0, 0, 0), 0, 0.5f, result);
+        assertMatrix(transform(180, 1, 0, 0, 0), result);
+    }
+
+
+    /**
+     * Tests interpolating translation and scale together with a rotation.
+     */
+
+    @Test
+    public void testInterpolateTranslationAndScale()
+    {
+        final float[] result = new float[SceneSnapshot.MATRIX_SIZE];
+        final float[] from = transform(10, 1, 1, 2, 3);
+        final float[] to = transform(30, 3, 5, -2, 7);
+        SceneSnapshot.interpolate(from, 0, to, 0, 0, result);
+        assertMatrix(from, result);
+        SceneSnapshot.interpolate(from, 0, to, 0, 1, result);
+        assertMatrix(to, result);
+        SceneSnapshot.interpolate(from, 0, to, 0, 0.5f, result);
+        assertMatrix(transform(20, 2, 3, 0, 5), result);
+    }
+
+
+    /**
+     * Tests interpolating transformations stored at offsets in larger
+     * arrays.
+     */
+
+    @Test
+    public void testInterpolateOffsets()
+    {
+        final float[] from = new float[SceneSnapshot.MATRIX_SIZE * 2];
+        final float[] to = new float[SceneSnapshot.MATRIX_SIZE * 3];
+        System.arraycopy(transform(20, 2, 1, 1, 1), 0, from,
+            SceneSnapshot.MATRIX_SIZE, SceneSnapshot.MATRIX_SIZE);
+        System.arraycopy(transform(60, 2, 3, 3, 3), 0, to,
+            SceneSnapshot.MATRIX_SIZE * 2, SceneSnapshot.MATRIX_SIZE);
+        final float[] result = new float[SceneSnapshot.MATRIX_SIZE];
+        SceneSnapshot.interpolate(from, SceneSnapshot.MATRIX_SIZE, to,
+            SceneSnapshot.MATRIX_SIZE * 2, 0.5f, result);
+        assertMatrix(transform(40, 2, 2, 2, 2), result);
+    }
+
+
+    /**
+     * Tests that mirroring transformations are interpolated element by
+     * element.
+     */
+
+    @Test
+    public void testInterpolateMirror()
+    {
+        final float[] from = transform(0, 1, 0, 0, 0);
+        final float[] to = transform(0, 1, 2, 0, 0);
+        to[0] = -1;
+        final float[] result = new float[SceneSnapshot.MATRIX_SIZE];
+        SceneSnapshot.interpolate(from, 0, to, 0, 0.5f, result);
+        final float[] expected = transform(0, 1, 1, 0, 0);
+        expected[0] = 0;
+        assertMatrix(expected, result);
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.FloatBuffer;
+
+import org.junit.Test;
+
+import de.ailis.gramath.MutableMatrix4f;
+
+
+/**
+ * Tests the TransformStore class.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class TransformStoreTest
+{
+    /**
+     * Calculates the scene transformation of the specified node by
+     * multiplying the local transformations of the node and all its parent
+     * nodes.
+     *
+     * @param node
+     *            The node
+     * @return The scene transformation
+     */
+
+    private static MutableMatrix4f sceneTransform(final SceneNode node)
+    {
+        final SceneNode parentNode = node.getParentNode();
+        final MutableMatrix4f transform = parentNode == null
+            ? MutableMatrix4f.identity() : sceneTransform(parentNode);
+        return transform.multiply(node.getTransform());
+    }
+
+
+    /**
+     * Checks that the stored world transformation and the scene
+     * transformation of the specified node match the product of the local
+     * transformations.
+     *
+     * @param store
+     *            The transform store
+     * @param node
+     *            The node to check
+     */
+
+    private static void assertWorld(final TransformStore store,
+        final SceneNode node)
+    {
+        final float[] world = new float[16];
+        store.getWorldTransform(node.getTransformIndex(), world, 0);
+        final FloatBuffer expected = sceneTransform(node).getBuffer();
+        final FloatBuffer actual = node.getSceneTransform().getBuffer();
+        for (int i = 0; i < 16; i++)
+        {
+            assertEquals(expected.get(i), world[i], 0.0001f);
+            assertEquals(expected.get(i), actual.get(i), 0.0001f);
+        }
+    }
+
+
+    /**
+     * Tests the parent-before-child order and the world transformations.
+     */
+
+    @Test
+    public void testWorldTransforms()
+    {
+        final Group root = new Group();
+        final Group a = new Group();
+        final Group b = new Group();
+        final Group c = new Group();
+        root.appendChild(a);
+        a.appendChild(b);
+        root.appendChild(c);
+        root.translate(1, 0, 0);
+        a.translate(0, 2, 0);
+        b.rotateZ(0.5f);
+        b.translate(0, 0, 3);
+        c.translate(4, 0, 0);
+
+        final TransformStore store = new TransformStore(root);
+        store.update();
+        assertEquals(4, store.getSize());
+        assertSame(root, store.getNode(0));
+        assertSame(a, store.getNode(1));
+        assertSame(b, store.getNode(2));
+        assertSame(c, store.getNode(3));
+        assertEquals(-1, store.getParentIndex(0));
+        assertEquals(0, store.getParentIndex(1));
+        assertEquals(1, store.getParentIndex(2));
+        assertEquals(0, store.getParentIndex(3));
+        assertWorld(store, root);
+        assertWorld(store, a);
+        assertWorld(store, b);
+        assertWorld(store, c);
+
+        // Changes are propagated to the child nodes
+        a.rotateX(1);
+        store.update();
+        assertWorld(store, a);
+        assertWorld(store, b);
+        assertWorld(store, c);
+    }
+
+
+    /**
+     * Tests that structural changes rebuild the store.
+     */
+
+    @Test
+    public void testStructureChange()
+    {
+        final Group root = new Group();
+        final Group a = new Group();
+        root.appendChild(a);
+        final TransformStore store = new TransformStore(root);
+        store.update();
+
+        final Group b = new Group();
+        b.translate(1, 2, 3);
+        a.appendChild(b);
+        root.removeChild(a);
+        root.appendChild(b);
+        store.update();
+        assertEquals(2, store.getSize());
+        assertSame(b, store.getNode(1));
+        assertEquals(-1, a.getTransformIndex());
+        assertNull(a.getTransformStore());
+        assertWorld(store, b);
+    }
+
+
+    /**
+     * Tests that scene transformations are read from the store which is
+     * updated on demand.
+     */
+
+    @Test
+    public void testLazyUpdate()
+    {
+        final Group root = new Group();
+        final Group a = new Group();
+        final Group b = new Group();
+        root.appendChild(a);
+        a.appendChild(b);
+        final TransformStore store = new TransformStore(root);
+
+        a.translate(1, 2, 3);
+        b.rotateY(0.5f);
+        final FloatBuffer buffer = b.getSceneTransform().getBuffer();
+        final FloatBuffer expected = sceneTransform(b).getBuffer();
+        for (int i = 0; i < 16; i++)
+            assertEquals(expected.get(i), buffer.get(i), 0.0001f);
+        assertWorld(store, b);
+
+        final float[] matrix = new float[20];
+        b.getSceneTransform(matrix, 4);
+        for (int i = 0; i < 16; i++)
+            assertEquals(expected.get(i), matrix[i + 4], 0.0001f);
+    }
+
+
+    /**
+     * Tests that rebuilding a store doesn't detach nodes which have been
+     * moved into another store.
+     */
+
+    @Test
+    public void testMoveToOtherStore()
+    {
+        final Group first = new Group();
+        final Group second = new Group();
+        final Group node = new Group();
+        first.appendChild(node);
+        final TransformStore firstStore = new TransformStore(first);
+        final TransformStore secondStore = new TransformStore(second);
+
+        first.removeChild(node);
+        second.appendChild(node);
+        node.translate(1, 0, 0);
+        secondStore.update();
+        assertSame(secondStore, node.getTransformStore());
+        firstStore.update();
+        assertEquals(1, firstStore.getSize());
+        assertSame(secondStore, node.getTransformStore());
+        assertEquals(1, node.getTransformIndex());
+        assertWorld(secondStore, node);
+    }
+}
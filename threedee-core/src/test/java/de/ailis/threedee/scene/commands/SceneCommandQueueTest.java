@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.scene.commands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import de.ailis.threedee.scene.Group;
+import de.ailis.threedee.scene.SceneNode;
+
+
+/**
+ * Tests the SceneCommandQueue class.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class SceneCommandQueueTest
+{
+    /**
+     * Tests that commands are executed in the order they were posted and
+     * only when the queue is executed.
+     */
+
+    @Test
+    public void testExecute()
+    {
+        final SceneCommandQueue queue = new SceneCommandQueue();
+        final Group parent = new Group();
+        final Group child = new Group();
+        queue.appendChild(parent, child);
+        queue.removeChild(parent, child);
+        queue.appendChild(parent, child);
+        assertNull(parent.getFirstChild());
+        assertEquals(3, queue.execute());
+        assertSame(child, parent.getFirstChild());
+        assertTrue(queue.isEmpty());
+        assertEquals(0, queue.execute());
+    }
+
+
+    /**
+     * Tests that commands posted while executing the queue are executed the
+     * next time.
+     */
+
+    @Test
+    public void testPostWhileExecuting()
+    {
+        final SceneCommandQueue queue = new SceneCommandQueue();
+        final int[] executions = new int[1];
+        queue.post(new SceneCommand()
+        {
+            @Override
+            public void execute()
+            {
+                executions[0]++;
+                queue.post(this);
+            }
+        });
+        assertEquals(1, queue.execute());
+        assertEquals(1, executions[0]);
+        assertFalse(queue.isEmpty());
+        assertEquals(1, queue.execute());
+        assertEquals(2, executions[0]);
+    }
+
+
+    /**
+     * Tests posting commands from multiple threads.
+     *
+     * @throws InterruptedException
+     *             When test was interrupted
+     */
+
+    @Test
+    public void testMultipleProducers() throws InterruptedException
+    {
+        final SceneCommandQueue queue = new SceneCommandQueue();
+        final Group parent = new Group();
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int j = 0; j < 1000; j++)
+                        queue.appendChild(parent, new Group());
+                }
+            };
+            threads[i].start();
+        }
+        for (final Thread thread : threads)
+            thread.join();
+        assertEquals(4000, queue.execute());
+        int count = 0;
+        for (final SceneNode node : parent)
+        {
+            assertSame(parent, node.getParentNode());
+            count++;
+        }
+        assertEquals(4000, count);
+    }
+
+
+    /**
+     * Tests the transform batch.
+     */
+
+    @Test
+    public void testTransformBatch()
+    {
+        final SceneCommandQueue queue = new SceneCommandQueue();
+        final Group a = new Group();
+        final Group b = new Group();
+        final TransformBatch batch = new TransformBatch(1);
+        final float[] transforms = new float[32];
+        for (int i = 0; i < 32; i += 5)
+            transforms[i] = 1;
+        transforms[16 + 12] = 3;
+        batch.add(a, transforms, 0);
+        batch.add(b, transforms, 16);
+        assertEquals(2, batch.getSize());
+        queue.post(batch);
+        assertTrue(b.getTransform().isIdentity());
+        queue.execute();
+        assertTrue(a.getTransform().isIdentity());
+        assertEquals(3, b.getTransform().getBuffer().get(12), 0.0001f);
+    }
+}
@@ -6,6 +6,7 @@
 
 package de.ailis.threedee.scene.nodes;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
@@ -15,6 +16,9 @@ import static org.junit.Assert.fail;
 import org.junit.Test;
 
 import de.ailis.threedee.scene.Group;
+import de.ailis.threedee.scene.SceneNode;
+import de.ailis.threedee.scene.SceneNodeVisitor;
+import de.ailis.threedee.scene.physics.Physics;
 
 
 /**
@@ -907,4 +911,148 @@ public class GroupTest
             // Fine
         }
     }
+
+
+    /**
+     * Tests that scene transformations are only recalculated for changed
+     * nodes and their child nodes.
+     */
+
+    @Test
+    public void testSceneTransformVersion()
+    {
+        // Create the nodes
+        final Group parent = new Group();
+        final Group child = new Group();
+        parent.appendChild(child);
+        final Group sibling = new Group();
+        parent.appendChild(sibling);
+        final Group grandChild = new Group();
+        child.appendChild(grandChild);
+
+        final int parentVersion = parent.getSceneTransformVersion();
+        final int childVersion = child.getSceneTransformVersion();
+        final int siblingVersion = sibling.getSceneTransformVersion();
+        final int grandChildVersion = grandChild.getSceneTransformVersion();
+
+        // Updating the scene must not invalidate static nodes
+        parent.update(0.1f);
+        assertEquals(parentVersion, parent.getSceneTransformVersion());
+        assertEquals(grandChildVersion, grandChild.getSceneTransformVersion());
+
+        // Moving the child only changes the child and the grand child
+        child.translate(1, 2, 3);
+        assertEquals(parentVersion, parent.getSceneTransformVersion());
+        assertEquals(siblingVersion, sibling.getSceneTransformVersion());
+        assertFalse(childVersion == child.getSceneTransformVersion());
+        assertFalse(grandChildVersion == grandChild
+            .getSceneTransformVersion());
+        assertEquals(3, grandChild.getSceneTransform().getBuffer().get(14),
+            0.0001f);
+    }
+
+
+    /**
+     * Tests the traversal order and pruning of the visitor API.
+     */
+
+    @Test
+    public void testAccept()
+    {
+        // Create the nodes
+        final Group root = new Group();
+        root.setId("root");
+        final Group a = new Group();
+        a.setId("a");
+        root.appendChild(a);
+        final Group b = new Group();
+        b.setId("b");
+        a.appendChild(b);
+        final Group c = new Group();
+        c.setId("c");
+        root.appendChild(c);
+        final Group d = new Group();
+        d.setId("d");
+        c.appendChild(d);
+
+        final StringBuilder trace = new StringBuilder();
+        root.accept(new SceneNodeVisitor()
+        {
+            @Override
+            public boolean enter(final SceneNode node)
+            {
+                trace.append('+').append(node.getId());
+                return node != c;
+            }
+
+            @Override
+            public void leave(final SceneNode node)
+            {
+                trace.append('-').append(node.getId());
+            }
+        });
+        assertEquals("+root+a+b-b-a+c-c-root", trace.toString());
+    }
+
+
+    /**
+     * Tests the active counts which are used to skip static sub trees.
+     */
+
+    @Test
+    public void testActiveCount()
+    {
+        // Create the nodes
+        final Group root = new Group();
+        final Group parent = new Group();
+        root.appendChild(parent);
+        final Group child = new Group();
+        parent.appendChild(child);
+        assertEquals(0, root.getActiveCount());
+        assertFalse(root.update(0.1f));
+
+        // Moving nodes are active until they come to rest
+        child.getPhysics();
+        assertEquals(0, root.getActiveCount());
+        child.getPhysics().setVelocity(1, 0, 0);
+        assertEquals(1, root.getActiveCount());
+        assertTrue(root.update(0.1f));
+        assertEquals(0.1f, child.getTransform().getBuffer().get(12), 0.0001f);
+        child.getPhysics().setVelocity(0, 0, 0);
+        assertEquals(1, root.getActiveCount());
+        assertFalse(root.update(0.1f));
+        assertEquals(0, root.getActiveCount());
+        assertFalse(root.update(0.1f));
+
+        // Setters of a kept physics wake up a sleeping node
+        final Physics physics = child.getPhysics();
+        assertFalse(root.update(0.1f));
+        assertEquals(0, root.getActiveCount());
+        physics.setVelocity(1, 0, 0);
+        assertEquals(1, root.getActiveCount());
+        assertTrue(root.update(0.1f));
+        physics.setVelocity(0, 0, 0);
+        root.update(0.1f);
+        assertEquals(0, root.getActiveCount());
+
+        // Active counts follow structural changes
+        child.getPhysics().setSpinVelocity(0, 1, 0);
+        assertEquals(1, root.getActiveCount());
+        root.removeChild(parent);
+        assertEquals(0, root.getActiveCount());
+        assertEquals(1, parent.getActiveCount());
+        root.appendChild(parent);
+        assertEquals(1, root.getActiveCount());
+
+        // Nodes with custom update methods are always active
+        root.appendChild(new Group()
+        {
+            @Override
+            public boolean update(final float delta)
+            {
+                return super.update(delta);
+            }
+        });
+        assertEquals(2, root.getActiveCount());
+    }
 }
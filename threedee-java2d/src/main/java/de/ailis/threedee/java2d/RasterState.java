@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.java2d;
+
+
+/**
+ * Snapshot of the per-fragment state of the {@link SoftwareGL}. Primitives
+ * are rasterized later than they are submitted so each binned primitive
+ * references the state which was active when it was drawn. A new snapshot
+ * is only created when the state has changed since the last draw call.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+final class RasterState
+{
+    /** The bound texture. Null if texturing is disabled */
+    final SoftwareTexture texture;
+
+    /** The texture environment mode */
+    final int textureMode;
+
+    /** If depth test is enabled */
+    final boolean depthTest;
+
+    /** The depth function */
+    final int depthFunc;
+
+    /** If depth buffer writing is enabled */
+    final boolean depthMask;
+
+    /** If blending is enabled */
+    final boolean blend;
+
+    /** The source blend factor */
+    final int srcFactor;
+
+    /** The destination blend factor */
+    final int dstFactor;
+
+    /** The left border of the clipping rectangle (inclusive) */
+    final int clipLeft;
+
+    /** The top border of the clipping rectangle (inclusive) */
+    final int clipTop;
+
+    /** The right border of the clipping rectangle (exclusive) */
+    final int clipRight;
+
+    /** The bottom border of the clipping rectangle (exclusive) */
+    final int clipBottom;
+
+
+    /**
+     * Constructor
+     *
+     * @param texture
+     *            The bound texture. Null if texturing is disabled
+     * @param textureMode
+     *            The texture environment mode
+     * @param depthTest
+     *            If depth test is enabled
+     * @param depthFunc
+     *            The depth function
+     * @param depthMask
+     *            If depth buffer writing is enabled
+     * @param blend
+     *            If blending is enabled
+     * @param srcFactor
+     *            The source blend factor
+     * @param dstFactor
+     *            The destination blend factor
+     * @param clipLeft
+     *            The left border of the clipping rectangle (inclusive)
+     * @param clipTop
+     *            The top border of the clipping rectangle (inclusive)
+     * @param clipRight
+     *            The right border of the clipping rectangle (exclusive)
+     * @param clipBottom
+     *            The bottom border of the clipping rectangle (exclusive)
+     */
+
+    RasterState(final SoftwareTexture texture, final int textureMode,
+        final boolean depthTest, final int depthFunc, final boolean depthMask,
+        final boolean blend, final int srcFactor, final int dstFactor,
+        final int clipLeft, final int clipTop, final int clipRight,
+        final int clipBottom)
+    {
+        this.texture = texture;
+        this.textureMode = textureMode;
+        this.depthTest = depthTest;
+        this.depthFunc = depthFunc;
+        this.depthMask = depthMask;
+        this.blend = blend;
+        this.srcFactor = srcFactor;
+        this.dstFactor = dstFactor;
+        this.clipLeft = clipLeft;
+        this.clipTop = clipTop;
+        this.clipRight = clipRight;
+        this.clipBottom = clipBottom;
+    }
+}
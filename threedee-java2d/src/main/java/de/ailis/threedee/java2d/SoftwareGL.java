@@ -0,0 +1,2670 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.java2d;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Software implementation of the OpenGL fixed-function subset used by the
+ * engine. Renders into a {@link BufferedImage} without needing a display or
+ * OpenGL driver so it can be used for rendering thumbnails on servers or for
+ * render tests.
+ *
+ * Vertices are transformed and lit (Per-vertex Gouraud lighting like the
+ * fixed-function pipeline) on the calling thread when glDrawElements is
+ * called. The resulting screen-space primitives are binned into tiles of
+ * {@value TileRasterizer#TILE_SIZE} pixels. When glFlush is called (Or
+ * when the framebuffer is cleared, read or a texture is modified) the tiles
+ * are rasterized in parallel by a pool of worker threads. The worker threads
+ * are daemon threads. Call {@link #dispose()} to stop them when the GL is no
+ * longer needed.
+ *
+ * Like an OpenGL context this class must only be used by one thread at a
+ * time.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class SoftwareGL extends Java2DGL
+{
+    /** The maximum number of lights */
+    private static final int MAX_LIGHTS = 8;
+
+    /** The maximum depth of the matrix stacks */
+    private static final int MAX_STACK_DEPTH = 32;
+
+    /** The GL_COLOR_ARRAY client state (Not defined in the GL interface) */
+    private static final int GL_COLOR_ARRAY = 0x8076;
+
+    /** The GL_VIEWPORT parameter (Not defined in the GL interface) */
+    private static final int GL_VIEWPORT = 0x0ba2;
+
+    /** The GL_MODELVIEW_MATRIX parameter (Not defined in the GL interface) */
+    private static final int GL_MODELVIEW_MATRIX = 0x0ba6;
+
+    /** The GL_PROJECTION_MATRIX parameter (Not defined in the GL interface) */
+    private static final int GL_PROJECTION_MATRIX = 0x0ba7;
+
+    /** The GL_TEXTURE_MATRIX parameter (Not defined in the GL interface) */
+    private static final int GL_TEXTURE_MATRIX = 0x0ba8;
+
+    /** The GL_ONE blend factor (Not defined in the GL interface) */
+    private static final int GL_ONE = 1;
+
+    /** The GL_ZERO blend factor (Not defined in the GL interface) */
+    private static final int GL_ZERO = 0;
+
+    /** The number of clipping planes */
+    private static final int PLANES = 5;
+
+    /** The size of the guard band in normalized device coordinates */
+    private static final float GUARD_BAND = 16;
+
+    /** The number of floats per transformed vertex */
+    private static final int VERTEX_SIZE = TileRasterizer.VERTEX_SIZE;
+
+    /** Counter for naming the worker threads */
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    /** The number of rasterizer threads */
+    private final int threads;
+
+    /** The executor for the rasterizer threads. Created on first use */
+    private ExecutorService executor;
+
+    /** The tile rasterizer */
+    private final TileRasterizer rasterizer = new TileRasterizer();
+
+    /** The framebuffer width */
+    private int width;
+
+    /** The framebuffer height */
+    private int height;
+
+    /** The framebuffer image */
+    private BufferedImage image;
+
+    /** The color buffer (Shared with the image) */
+    private int[] colors;
+
+    /** The depth buffer */
+    private float[] depths;
+
+    /** The matrix stacks (Model view, projection, texture) */
+    private final float[][][] stacks = new float[3][MAX_STACK_DEPTH][16];
+
+    /** The current depths of the matrix stacks */
+    private final int[] stackDepths = new int[3];
+
+    /** The index of the current matrix stack */
+    private int matrixMode;
+
+    /** Temporary matrix used for matrix operations */
+    private final float[] tmpMatrix = new float[16];
+
+    /** Temporary matrix used for matrix multiplication results */
+    private final float[] tmpResult = new float[16];
+
+    /** The normal matrix (Inverse transpose of the model view matrix) */
+    private final float[] normalMatrix = new float[9];
+
+    /** If the normal matrix must be recalculated */
+    private boolean normalMatrixValid;
+
+    /** The viewport X position */
+    private int viewportX;
+
+    /** The viewport Y position */
+    private int viewportY;
+
+    /** The viewport width */
+    private int viewportWidth;
+
+    /** The viewport height */
+    private int viewportHeight;
+
+    /** The clear color as ARGB integer */
+    private int clearColor = 0;
+
+    /** The clear depth */
+    private float clearDepth = 1;
+
+    /** The enabled capabilities and client states */
+    private final Set<Integer> enabled = new HashSet<Integer>();
+
+    /** If lighting is enabled */
+    private boolean lighting;
+
+    /** If color material is enabled */
+    private boolean colorMaterial;
+
+    /** If 2D texturing is enabled */
+    private boolean texturing;
+
+    /** If depth test is enabled */
+    private boolean depthTest;
+
+    /** If blending is enabled */
+    private boolean blend;
+
+    /** The depth function */
+    private int depthFunc = GL_LESS;
+
+    /** If depth buffer writing is enabled */
+    private boolean depthMask = true;
+
+    /** The source blend factor */
+    private int srcFactor = GL_ONE;
+
+    /** The destination blend factor */
+    private int dstFactor = GL_ZERO;
+
+    /** The shade model */
+    private int shadeModel = GL_SMOOTH;
+
+    /** The texture environment mode */
+    private int textureMode = GL_MODULATE;
+
+    /** The row alignment of uploaded pixel data */
+    private int unpackAlignment = 4;
+
+    /** The lights */
+    private final Light[] lights = new Light[MAX_LIGHTS];
+
+    /** The light model ambient color */
+    private final float[] lightModelAmbient = { 0.2f, 0.2f, 0.2f, 1 };
+
+    /** The material ambient color */
+    private final float[] materialAmbient = { 0.2f, 0.2f, 0.2f, 1 };
+
+    /** The material diffuse color */
+    private final float[] materialDiffuse = { 0.8f, 0.8f, 0.8f, 1 };
+
+    /** The material specular color */
+    private final float[] materialSpecular = { 0, 0, 0, 1 };
+
+    /** The material emission color */
+    private final float[] materialEmission = { 0, 0, 0, 1 };
+
+    /** The material shininess */
+    private float materialShininess = 0;
+
+    /** The material colors tracking the vertex color */
+    private int colorMaterialMode = GL_AMBIENT_AND_DIFFUSE;
+
+    /** The vertex array */
+    private final VertexArray vertexArray = new VertexArray();
+
+    /** The normal array */
+    private final VertexArray normalArray = new VertexArray();
+
+    /** The texture coordinate array */
+    private final VertexArray texCoordArray = new VertexArray();
+
+    /** The color array */
+    private final VertexArray colorArray = new VertexArray();
+
+    /** The buffer objects mapped to their names */
+    private final Map<Integer, BufferObject> buffers = new HashMap<Integer, BufferObject>();
+
+    /** The next free buffer name */
+    private int nextBuffer = 1;
+
+    /** The bound array buffer. Null if none */
+    private BufferObject arrayBuffer;
+
+    /** The bound element array buffer. Null if none */
+    private BufferObject elementArrayBuffer;
+
+    /** The textures mapped to their names */
+    private final Map<Integer, SoftwareTexture> textures = new HashMap<Integer, SoftwareTexture>();
+
+    /** The next free texture name */
+    private int nextTexture = 1;
+
+    /** The bound texture */
+    private SoftwareTexture texture;
+
+    /** The current raster state. Null if it must be recreated */
+    private RasterState rasterState;
+
+    /** The transformed vertices of the current draw call */
+    private float[] vertices = new float[1024 * VERTEX_SIZE];
+
+    /** The draw call stamps of the transformed vertices */
+    private int[] vertexStamps = new int[1024];
+
+    /** The stamp of the current draw call */
+    private int stamp;
+
+    /** The clipping planes each transformed vertex is outside of */
+    private int[] vertexCodes = new int[1024];
+
+    /** The vertices of the clipped primitive */
+    private float[] clipped = new float[(3 + PLANES) * VERTEX_SIZE];
+
+    /** Buffer for clipping the vertices of the clipped primitive */
+    private float[] clipBuffer = new float[(3 + PLANES) * VERTEX_SIZE];
+
+    /** The screen-space vertices of the binned primitive */
+    private final float[] primitive = new float[3 * VERTEX_SIZE];
+
+
+    /**
+     * A light source.
+     */
+
+    private static final class Light
+    {
+        /** The ambient color */
+        final float[] ambient = { 0, 0, 0, 1 };
+
+        /** The diffuse color */
+        final float[] diffuse = { 0, 0, 0, 1 };
+
+        /** The specular color */
+        final float[] specular = { 0, 0, 0, 1 };
+
+        /** The position in eye coordinates */
+        final float[] position = { 0, 0, 1, 0 };
+
+        /** The normalized spot direction in eye coordinates */
+        final float[] spotDirection = { 0, 0, -1 };
+
+        /** The spot exponent */
+        float spotExponent = 0;
+
+        /** The spot cut-off angle */
+        float spotCutOff = 180;
+
+        /** The constant attenuation */
+        float constantAttenuation = 1;
+
+        /** The linear attenuation */
+        float linearAttenuation = 0;
+
+        /** The quadratic attenuation */
+        float quadraticAttenuation = 0;
+
+        /** If the light is enabled */
+        boolean enabled;
+    }
+
+
+    /**
+     * A buffer object.
+     */
+
+    private static final class BufferObject
+    {
+        /** The buffer data */
+        ByteBuffer data = ByteBuffer.allocate(0);
+
+        /** The float view of the buffer data. Null if not created yet */
+        FloatBuffer floats;
+
+
+        /**
+         * Returns the buffer data as floats.
+         *
+         * @return The float view of the buffer data
+         */
+
+        FloatBuffer getFloats()
+        {
+            if (this.floats == null) this.floats = this.data.asFloatBuffer();
+            return this.floats;
+        }
+    }
+
+
+    /**
+     * A vertex attribute array.
+     */
+
+    private static final class VertexArray
+    {
+        /** The number of components per vertex */
+        int size;
+
+        /** The stride in bytes */
+        int stride;
+
+        /** The client data. Null if buffer object is used */
+        FloatBuffer pointer;
+
+        /** The buffer object. Null if client data is used */
+        BufferObject buffer;
+
+        /** The offset in bytes within the buffer object */
+        int offset;
+
+        /** The resolved data for the current draw call */
+        FloatBuffer data;
+
+        /** The resolved index of the first component */
+        int base;
+
+        /** The resolved number of floats between two vertices */
+        int step;
+
+
+        /**
+         * Sets the array to client data.
+         *
+         * @param size
+         *            The number of components per vertex
+         * @param stride
+         *            The stride in bytes
+         * @param pointer
+         *            The client data
+         */
+
+        void set(final int size, final int stride, final FloatBuffer pointer)
+        {
+            this.size = size;
+            this.stride = stride;
+            this.pointer = pointer;
+            this.buffer = null;
+            this.offset = 0;
+        }
+
+
+        /**
+         * Sets the array to buffer object data.
+         *
+         * @param size
+         *            The number of components per vertex
+         * @param stride
+         *            The stride in bytes
+         * @param buffer
+         *            The buffer object
+         * @param offset
+         *            The offset in bytes within the buffer object
+         */
+
+        void set(final int size, final int stride, final BufferObject buffer,
+            final int offset)
+        {
+            this.size = size;
+            this.stride = stride;
+            this.pointer = null;
+            this.buffer = buffer;
+            this.offset = offset;
+        }
+
+
+        /**
+         * Resolves the data for a draw call.
+         *
+         * @param enabled
+         *            If the array is enabled
+         * @return True if the array provides data, false if not
+         */
+
+        boolean resolve(final boolean enabled)
+        {
+            if (!enabled)
+                this.data = null;
+            else if (this.buffer != null)
+            {
+                this.data = this.buffer.getFloats();
+                this.base = this.offset / 4;
+            }
+            else if (this.pointer != null)
+            {
+                this.data = this.pointer;
+                this.base = this.pointer.position();
+            }
+            else
+                this.data = null;
+            this.step = this.stride == 0 ? this.size : this.stride / 4;
+            return this.data != null;
+        }
+
+
+        /**
+         * Returns a component of a vertex.
+         *
+         * @param vertex
+         *            The vertex index
+         * @param component
+         *            The component index
+         * @param defaultValue
+         *            The value returned if the array has less components
+         * @return The component
+         */
+
+        float get(final int vertex, final int component,
+            final float defaultValue)
+        {
+            if (component >= this.size) return defaultValue;
+            return this.data.get(this.base + vertex * this.step + component);
+        }
+    }
+
+
+    /**
+     * Constructs a software GL which uses one rasterizer thread per available
+     * processor.
+     *
+     * @param width
+     *            The framebuffer width
+     * @param height
+     *            The framebuffer height
+     */
+
+    public SoftwareGL(final int width, final int height)
+    {
+        this(width, height, Runtime.getRuntime().availableProcessors());
+    }
+
+
+    /**
+     * Constructor
+     *
+     * @param width
+     *            The framebuffer width
+     * @param height
+     *            The framebuffer height
+     * @param threads
+     *            The number of rasterizer threads. 1 rasterizes on the thread
+     *            calling glFlush
+     */
+
+    public SoftwareGL(final int width, final int height, final int threads)
+    {
+        if (threads < 1)
+            throw new IllegalArgumentException("Invalid thread count: "
+                + threads);
+        this.threads = threads;
+        for (int i = 0; i < 3; i++)
+            identity(this.stacks[i][0]);
+        for (int i = 0; i < MAX_LIGHTS; i++)
+            this.lights[i] = new Light();
+        Arrays.fill(this.lights[0].diffuse, 1);
+        Arrays.fill(this.lights[0].specular, 1);
+        this.textures.put(0, this.texture = new SoftwareTexture());
+        setSize(width, height);
+    }
+
+
+    /**
+     * Sets the framebuffer size. Pending primitives are rasterized into the
+     * old framebuffer first. The viewport is reset to the new size.
+     *
+     * @param width
+     *            The framebuffer width
+     * @param height
+     *            The framebuffer height
+     */
+
+    public void setSize(final int width, final int height)
+    {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Invalid framebuffer size: "
+                + width + "x" + height);
+        glFlush();
+        this.width = width;
+        this.height = height;
+        this.image = new BufferedImage(width, height,
+            BufferedImage.TYPE_INT_ARGB);
+        this.colors = ((DataBufferInt) this.image.getRaster().getDataBuffer())
+            .getData();
+        this.depths = new float[width * height];
+        Arrays.fill(this.depths, 1);
+        this.rasterizer.setFramebuffer(width, height, this.colors, this.depths);
+        glViewport(0, 0, width, height);
+    }
+
+
+    /**
+     * Returns the framebuffer width.
+     *
+     * @return The framebuffer width
+     */
+
+    public int getWidth()
+    {
+        return this.width;
+    }
+
+
+    /**
+     * Returns the framebuffer height.
+     *
+     * @return The framebuffer height
+     */
+
+    public int getHeight()
+    {
+        return this.height;
+    }
+
+
+    /**
+     * Returns the number of rasterizer threads.
+     *
+     * @return The number of rasterizer threads
+     */
+
+    public int getThreads()
+    {
+        return this.threads;
+    }
+
+
+    /**
+     * Returns the framebuffer image. Pending primitives are rasterized
+     * first. The image shares its data with the framebuffer so it changes
+     * when rendering continues. It is replaced by a new image when the size
+     * is changed.
+     *
+     * @return The framebuffer image
+     */
+
+    public BufferedImage getImage()
+    {
+        glFlush();
+        return this.image;
+    }
+
+
+    /**
+     * Returns the color buffer. Pending primitives are rasterized first.
+     * The buffer contains ARGB integers starting with the top left pixel and
+     * shares its data with the framebuffer.
+     *
+     * @return The color buffer
+     */
+
+    public IntBuffer getColorBuffer()
+    {
+        glFlush();
+        return IntBuffer.wrap(this.colors);
+    }
+
+
+    /**
+     * Stops the rasterizer threads. The GL can still be used afterwards but
+     * then creates new threads.
+     */
+
+    public void dispose()
+    {
+        if (this.executor != null)
+        {
+            this.executor.shutdown();
+            this.executor = null;
+        }
+    }
+
+
+    /**
+     * Returns the executor for the rasterizer threads.
+     *
+     * @return The executor. Null if rasterizing on the calling thread
+     */
+
+    private ExecutorService getExecutor()
+    {
+        if (this.executor == null && this.threads > 1)
+        {
+            this.executor = Executors.newFixedThreadPool(this.threads,
+                new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(final Runnable runnable)
+                    {
+                        final Thread thread = new Thread(runnable,
+                            "SoftwareGL-" + threadCounter.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+        return this.executor;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glFlush()
+     */
+
+    @Override
+    public void glFlush()
+    {
+        if (!this.rasterizer.isEmpty())
+            this.rasterizer.flush(getExecutor(), this.threads);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glClear(int)
+     */
+
+    @Override
+    public void glClear(final int mask)
+    {
+        glFlush();
+        if ((mask & GL_COLOR_BUFFER_BIT) != 0)
+            Arrays.fill(this.colors, this.clearColor);
+        if ((mask & GL_DEPTH_BUFFER_BIT) != 0)
+            Arrays.fill(this.depths, this.clearDepth);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glClearColor(float, float, float,
+     *      float)
+     */
+
+    @Override
+    public void glClearColor(final float red, final float green,
+        final float blue, final float alpha)
+    {
+        this.clearColor = (toByte(alpha) << 24) | (toByte(red) << 16)
+            | (toByte(green) << 8) | toByte(blue);
+    }
+
+
+    /**
+     * Converts a color component into a byte.
+     *
+     * @param value
+     *            The color component (0-1)
+     * @return The byte (0-255)
+     */
+
+    private static int toByte(final float value)
+    {
+        return (int) (Math.max(0, Math.min(1, value)) * 255 + 0.5f);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glClearDepth(double)
+     */
+
+    @Override
+    public void glClearDepth(final double depth)
+    {
+        this.clearDepth = (float) Math.max(0, Math.min(1, depth));
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glViewport(int, int, int, int)
+     */
+
+    @Override
+    public void glViewport(final int x, final int y, final int width,
+        final int height)
+    {
+        this.viewportX = x;
+        this.viewportY = y;
+        this.viewportWidth = width;
+        this.viewportHeight = height;
+        this.rasterState = null;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glEnable(int)
+     */
+
+    @Override
+    public void glEnable(final int cap)
+    {
+        setEnabled(cap, true);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glDisable(int)
+     */
+
+    @Override
+    public void glDisable(final int cap)
+    {
+        setEnabled(cap, false);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glEnableClientState(int)
+     */
+
+    @Override
+    public void glEnableClientState(final int cap)
+    {
+        setEnabled(cap, true);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glDisableClientState(int)
+     */
+
+    @Override
+    public void glDisableClientState(final int cap)
+    {
+        setEnabled(cap, false);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glIsEnabled(int)
+     */
+
+    @Override
+    public boolean glIsEnabled(final int cap)
+    {
+        return this.enabled.contains(cap);
+    }
+
+
+    /**
+     * Enables or disables a capability or client state.
+     *
+     * @param cap
+     *            The capability or client state
+     * @param enabled
+     *            True to enable, false to disable
+     */
+
+    private void setEnabled(final int cap, final boolean enabled)
+    {
+        if (enabled)
+            this.enabled.add(cap);
+        else
+            this.enabled.remove(cap);
+        switch (cap)
+        {
+            case GL_LIGHTING:
+                this.lighting = enabled;
+                break;
+
+            case GL_COLOR_MATERIAL:
+                this.colorMaterial = enabled;
+                break;
+
+            case GL_TEXTURE_2D:
+                this.texturing = enabled;
+                this.rasterState = null;
+                break;
+
+            case GL_DEPTH_TEST:
+                this.depthTest = enabled;
+                this.rasterState = null;
+                break;
+
+            case GL_BLEND:
+                this.blend = enabled;
+                this.rasterState = null;
+                break;
+
+            default:
+                if (cap >= GL_LIGHT0 && cap < GL_LIGHT0 + MAX_LIGHTS)
+                    this.lights[cap - GL_LIGHT0].enabled = enabled;
+        }
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glDepthFunc(int)
+     */
+
+    @Override
+    public void glDepthFunc(final int func)
+    {
+        this.depthFunc = func;
+        this.rasterState = null;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glDepthMask(boolean)
+     */
+
+    @Override
+    public void glDepthMask(final boolean flag)
+    {
+        this.depthMask = flag;
+        this.rasterState = null;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glBlendFunc(int, int)
+     */
+
+    @Override
+    public void glBlendFunc(final int sfactor, final int dfactor)
+    {
+        this.srcFactor = sfactor;
+        this.dstFactor = dfactor;
+        this.rasterState = null;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glShadeModel(int)
+     */
+
+    @Override
+    public void glShadeModel(final int mode)
+    {
+        this.shadeModel = mode;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glHint(int, int)
+     */
+
+    @Override
+    public void glHint(final int target, final int mode)
+    {
+        // Perspective correction is always used
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glPixelStorei(int, int)
+     */
+
+    @Override
+    public void glPixelStorei(final int pname, final int param)
+    {
+        if (pname == GL_UNPACK_ALIGNMENT) this.unpackAlignment = param;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glGetFloatv(int,
+     *      java.nio.FloatBuffer)
+     */
+
+    @Override
+    public void glGetFloatv(final int pname, final FloatBuffer params)
+    {
+        final int position = params.position();
+        switch (pname)
+        {
+            case GL_LIGHT_MODEL_AMBIENT:
+                for (int i = 0; i < 4; i++)
+                    params.put(position + i, this.lightModelAmbient[i]);
+                break;
+
+            case GL_MODELVIEW_MATRIX:
+            case GL_PROJECTION_MATRIX:
+            case GL_TEXTURE_MATRIX:
+                final int stack = pname - GL_MODELVIEW_MATRIX;
+                final float[] matrix = this.stacks[stack][this.stackDepths[stack]];
+                for (int i = 0; i < 16; i++)
+                    params.put(position + i, matrix[i]);
+                break;
+
+            case GL_MAX_TEXTURE_MAX_ANISOTROPY_EXT:
+                params.put(position, 1);
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unsupported parameter: 0x"
+                    + Integer.toHexString(pname));
+        }
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glGetIntegerv(int,
+     *      java.nio.IntBuffer)
+     */
+
+    @Override
+    public void glGetIntegerv(final int pname, final IntBuffer params)
+    {
+        final int position = params.position();
+        switch (pname)
+        {
+            case GL_MAX_LIGHTS:
+                params.put(position, MAX_LIGHTS);
+                break;
+
+            case GL_VIEWPORT:
+                params.put(position, this.viewportX);
+                params.put(position + 1, this.viewportY);
+                params.put(position + 2, this.viewportWidth);
+                params.put(position + 3, this.viewportHeight);
+                break;
+
+            case GL_UNPACK_ALIGNMENT:
+                params.put(position, this.unpackAlignment);
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unsupported parameter: 0x"
+                    + Integer.toHexString(pname));
+        }
+    }
+
+
+    /**
+     * Returns the current matrix.
+     *
+     * @return The current matrix
+     */
+
+    private float[] getMatrix()
+    {
+        final int mode = this.matrixMode;
+        return this.stacks[mode][this.stackDepths[mode]];
+    }
+
+
+    /**
+     * Sets a matrix to the identity matrix.
+     *
+     * @param m
+     *            The matrix to set
+     */
+
+    private static void identity(final float[] m)
+    {
+        Arrays.fill(m, 0);
+        m[0] = m[5] = m[10] = m[15] = 1;
+    }
+
+
+    /**
+     * Multiplies the current matrix with the temporary matrix.
+     */
+
+    private void multMatrix()
+    {
+        final float[] a = getMatrix();
+        final float[] b = this.tmpMatrix;
+        final float[] r = this.tmpResult;
+        for (int col = 0; col < 4; col++)
+        {
+            final int c = col * 4;
+            for (int row = 0; row < 4; row++)
+            {
+                r[c + row] = a[row] * b[c] + a[4 + row] * b[c + 1]
+                    + a[8 + row] * b[c + 2] + a[12 + row] * b[c + 3];
+            }
+        }
+        System.arraycopy(r, 0, a, 0, 16);
+        this.normalMatrixValid = false;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glMatrixMode(int)
+     */
+
+    @Override
+    public void glMatrixMode(final int mode)
+    {
+        switch (mode)
+        {
+            case GL_MODELVIEW:
+                this.matrixMode = 0;
+                break;
+
+            case GL_PROJECTION:
+                this.matrixMode = 1;
+                break;
+
+            case GL_TEXTURE:
+                this.matrixMode = 2;
+                break;
+
+            default:
+                throw new IllegalArgumentException("Invalid matrix mode: 0x"
+                    + Integer.toHexString(mode));
+        }
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glPushMatrix()
+     */
+
+    @Override
+    public void glPushMatrix()
+    {
+        final int mode = this.matrixMode;
+        final int depth = this.stackDepths[mode];
+        if (depth + 1 == MAX_STACK_DEPTH)
+            throw new IllegalStateException("Matrix stack overflow");
+        final float[][] stack = this.stacks[mode];
+        System.arraycopy(stack[depth], 0, stack[depth + 1], 0, 16);
+        this.stackDepths[mode] = depth + 1;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glPopMatrix()
+     */
+
+    @Override
+    public void glPopMatrix()
+    {
+        final int mode = this.matrixMode;
+        if (this.stackDepths[mode] == 0)
+            throw new IllegalStateException("Matrix stack underflow");
+        this.stackDepths[mode]--;
+        this.normalMatrixValid = false;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glLoadIdentity()
+     */
+
+    @Override
+    public void glLoadIdentity()
+    {
+        identity(getMatrix());
+        this.normalMatrixValid = false;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glLoadMatrix(java.nio.FloatBuffer)
+     */
+
+    @Override
+    public void glLoadMatrix(final FloatBuffer m)
+    {
+        final float[] matrix = getMatrix();
+        final int position = m.position();
+        for (int i = 0; i < 16; i++)
+            matrix[i] = m.get(position + i);
+        this.normalMatrixValid = false;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glMultMatrix(java.nio.FloatBuffer)
+     */
+
+    @Override
+    public void glMultMatrix(final FloatBuffer m)
+    {
+        final int position = m.position();
+        for (int i = 0; i < 16; i++)
+            this.tmpMatrix[i] = m.get(position + i);
+        multMatrix();
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glTranslate(float, float, float)
+     */
+
+    @Override
+    public void glTranslate(final float x, final float y, final float z)
+    {
+        final float[] m = this.tmpMatrix;
+        identity(m);
+        m[12] = x;
+        m[13] = y;
+        m[14] = z;
+        multMatrix();
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glScalef(float, float, float)
+     */
+
+    @Override
+    public void glScalef(final float x, final float y, final float z)
+    {
+        final float[] m = this.tmpMatrix;
+        identity(m);
+        m[0] = x;
+        m[5] = y;
+        m[10] = z;
+        multMatrix();
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glRotatef(float, float, float,
+     *      float)
+     */
+
+    @Override
+    public void glRotatef(final float angle, final float x, final float y,
+        final float z)
+    {
+        final float length = (float) Math.sqrt(x * x + y * y + z * z);
+        if (length == 0) return;
+        final float nx = x / length, ny = y / length, nz = z / length;
+        final float radians = (float) Math.toRadians(angle);
+        final float c = (float) Math.cos(radians);
+        final float s = (float) Math.sin(radians);
+        final float t = 1 - c;
+        final float[] m = this.tmpMatrix;
+        identity(m);
+        m[0] = nx * nx * t + c;
+        m[1] = ny * nx * t + nz * s;
+        m[2] = nx * nz * t - ny * s;
+        m[4] = nx * ny * t - nz * s;
+        m[5] = ny * ny * t + c;
+        m[6] = ny * nz * t + nx * s;
+        m[8] = nx * nz * t + ny * s;
+        m[9] = ny * nz * t - nx * s;
+        m[10] = nz * nz * t + c;
+        multMatrix();
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#gluPerspective(float, float, float,
+     *      float)
+     */
+
+    @Override
+    public void gluPerspective(final float fovy, final float aspect,
+        final float zNear, final float zFar)
+    {
+        final float f = (float) (1 / Math.tan(Math.toRadians(fovy) / 2));
+        final float[] m = this.tmpMatrix;
+        Arrays.fill(m, 0);
+        m[0] = f / aspect;
+        m[5] = f;
+        m[10] = (zFar + zNear) / (zNear - zFar);
+        m[11] = -1;
+        m[14] = 2 * zFar * zNear / (zNear - zFar);
+        multMatrix();
+    }
+
+
+    /**
+     * Returns the normal matrix. This is the inverse transpose of the upper
+     * left 3x3 part of the model view matrix.
+     *
+     * @return The normal matrix in column-major order
+     */
+
+    private float[] getNormalMatrix()
+    {
+        final float[] n = this.normalMatrix;
+        if (this.normalMatrixValid) return n;
+        final float[] m = this.stacks[0][this.stackDepths[0]];
+        final float a00 = m[0], a01 = m[4], a02 = m[8];
+        final float a10 = m[1], a11 = m[5], a12 = m[9];
+        final float a20 = m[2], a21 = m[6], a22 = m[10];
+        final float c00 = a11 * a22 - a12 * a21;
+        final float c01 = a12 * a20 - a10 * a22;
+        final float c02 = a10 * a21 - a11 * a20;
+        final float det = a00 * c00 + a01 * c01 + a02 * c02;
+        final float f = det == 0 ? 1 : 1 / det;
+        n[0] = c00 * f;
+        n[3] = c01 * f;
+        n[6] = c02 * f;
+        n[1] = (a02 * a21 - a01 * a22) * f;
+        n[4] = (a00 * a22 - a02 * a20) * f;
+        n[7] = (a01 * a20 - a00 * a21) * f;
+        n[2] = (a01 * a12 - a02 * a11) * f;
+        n[5] = (a02 * a10 - a00 * a12) * f;
+        n[8] = (a00 * a11 - a01 * a10) * f;
+        this.normalMatrixValid = true;
+        return n;
+    }
+
+
+    /**
+     * Reads a color from a buffer.
+     *
+     * @param buffer
+     *            The buffer to read from
+     * @param color
+     *            The array to store the color in
+     */
+
+    private static void readColor(final FloatBuffer buffer, final float[] color)
+    {
+        final int position = buffer.position();
+        for (int i = 0; i < 4; i++)
+            color[i] = buffer.get(position + i);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glLight(int, int,
+     *      java.nio.FloatBuffer)
+     */
+
+    @Override
+    public void glLight(final int light, final int pname,
+        final FloatBuffer param)
+    {
+        final Light l = getLight(light);
+        final int p = param.position();
+        final float[] m = this.stacks[0][this.stackDepths[0]];
+        switch (pname)
+        {
+            case GL_AMBIENT:
+                readColor(param, l.ambient);
+                break;
+
+            case GL_DIFFUSE:
+                readColor(param, l.diffuse);
+                break;
+
+            case GL_SPECULAR:
+                readColor(param, l.specular);
+                break;
+
+            case GL_POSITION:
+                final float x = param.get(p), y = param.get(p + 1);
+                final float z = param.get(p + 2), w = param.get(p + 3);
+                for (int i = 0; i < 4; i++)
+                    l.position[i] = m[i] * x + m[4 + i] * y + m[8 + i] * z
+                        + m[12 + i] * w;
+                break;
+
+            case GL_SPOT_DIRECTION:
+                final float dx = param.get(p), dy = param.get(p + 1);
+                final float dz = param.get(p + 2);
+                final float[] d = l.spotDirection;
+                for (int i = 0; i < 3; i++)
+                    d[i] = m[i] * dx + m[4 + i] * dy + m[8 + i] * dz;
+                final float length = (float) Math.sqrt(d[0] * d[0] + d[1]
+                    * d[1] + d[2] * d[2]);
+                if (length != 0)
+                    for (int i = 0; i < 3; i++)
+                        d[i] /= length;
+                break;
+
+            default:
+                glLightf(light, pname, param.get(p));
+        }
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glLightf(int, int, float)
+     */
+
+    @Override
+    public void glLightf(final int light, final int pname, final float param)
+    {
+        final Light l = getLight(light);
+        switch (pname)
+        {
+            case GL_SPOT_EXPONENT:
+                l.spotExponent = param;
+                break;
+
+            case GL_SPOT_CUTOFF:
+                l.spotCutOff = param;
+                break;
+
+            case GL_CONSTANT_ATTENUATION:
+                l.constantAttenuation = param;
+                break;
+
+            case GL_LINEAR_ATTENUATION:
+                l.linearAttenuation = param;
+                break;
+
+            case GL_QUADRATIC_ATTENUATION:
+                l.quadraticAttenuation = param;
+                break;
+
+            default:
+                throw new IllegalArgumentException(
+                    "Unsupported light parameter: 0x"
+                        + Integer.toHexString(pname));
+        }
+    }
+
+
+    /**
+     * Returns the light with the specified id.
+     *
+     * @param light
+     *            The light id (GL_LIGHT0 to GL_LIGHT7)
+     * @return The light
+     */
+
+    private Light getLight(final int light)
+    {
+        if (light < GL_LIGHT0 || light >= GL_LIGHT0 + MAX_LIGHTS)
+            throw new IllegalArgumentException("Invalid light: 0x"
+                + Integer.toHexString(light));
+        return this.lights[light - GL_LIGHT0];
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glLightModelfv(int,
+     *      java.nio.FloatBuffer)
+     */
+
+    @Override
+    public void glLightModelfv(final int pname, final FloatBuffer params)
+    {
+        if (pname == GL_LIGHT_MODEL_AMBIENT)
+            readColor(params, this.lightModelAmbient);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glMaterial(int, int,
+     *      java.nio.FloatBuffer)
+     */
+
+    @Override
+    public void glMaterial(final int face, final int pname,
+        final FloatBuffer params)
+    {
+        switch (pname)
+        {
+            case GL_AMBIENT:
+                readColor(params, this.materialAmbient);
+                break;
+
+            case GL_DIFFUSE:
+                readColor(params, this.materialDiffuse);
+                break;
+
+            case GL_AMBIENT_AND_DIFFUSE:
+                readColor(params, this.materialAmbient);
+                readColor(params, this.materialDiffuse);
+                break;
+
+            case GL_SPECULAR:
+                readColor(params, this.materialSpecular);
+                break;
+
+            case GL_EMISSION:
+                readColor(params, this.materialEmission);
+                break;
+
+            default:
+                glMaterialf(face, pname, params.get(params.position()));
+        }
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glMaterialf(int, int, float)
+     */
+
+    @Override
+    public void glMaterialf(final int face, final int pname, final float param)
+    {
+        if (pname != GL_SHININESS)
+            throw new IllegalArgumentException(
+                "Unsupported material parameter: 0x"
+                    + Integer.toHexString(pname));
+        this.materialShininess = param;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glColorMaterial(int, int)
+     */
+
+    @Override
+    public void glColorMaterial(final int face, final int mode)
+    {
+        this.colorMaterialMode = mode;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glVertexPointer(int, int,
+     *      java.nio.FloatBuffer)
+     */
+
+    @Override
+    public void glVertexPointer(final int size, final int stride,
+        final FloatBuffer pointer)
+    {
+        this.vertexArray.set(size, stride, pointer);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glVertexPointer(int, int, int)
+     */
+
+    @Override
+    public void glVertexPointer(final int size, final int stride,
+        final int offset)
+    {
+        this.vertexArray.set(size, stride, this.arrayBuffer, offset);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glNormalPointer(int,
+     *      java.nio.FloatBuffer)
+     */
+
+    @Override
+    public void glNormalPointer(final int stride, final FloatBuffer pointer)
+    {
+        this.normalArray.set(3, stride, pointer);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glNormalPointer(int, int)
+     */
+
+    @Override
+    public void glNormalPointer(final int stride, final int offset)
+    {
+        this.normalArray.set(3, stride, this.arrayBuffer, offset);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glTexCoordPointer(int, int,
+     *      java.nio.FloatBuffer)
+     */
+
+    @Override
+    public void glTexCoordPointer(final int size, final int stride,
+        final FloatBuffer pointer)
+    {
+        this.texCoordArray.set(size, stride, pointer);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glTexCoordPointer(int, int, int)
+     */
+
+    @Override
+    public void glTexCoordPointer(final int size, final int stride,
+        final int offset)
+    {
+        this.texCoordArray.set(size, stride, this.arrayBuffer, offset);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glColorPointer(int, int,
+     *      java.nio.FloatBuffer)
+     */
+
+    @Override
+    public void glColorPointer(final int size, final int stride,
+        final FloatBuffer pointer)
+    {
+        this.colorArray.set(size, stride, pointer);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glGenBuffers(java.nio.IntBuffer)
+     */
+
+    @Override
+    public void glGenBuffers(final IntBuffer buffers)
+    {
+        for (int i = buffers.position(); i < buffers.limit(); i++)
+        {
+            final int name = this.nextBuffer++;
+            this.buffers.put(name, new BufferObject());
+            buffers.put(i, name);
+        }
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glDeleteBuffers(java.nio.IntBuffer)
+     */
+
+    @Override
+    public void glDeleteBuffers(final IntBuffer buffers)
+    {
+        for (int i = buffers.position(); i < buffers.limit(); i++)
+        {
+            final BufferObject buffer = this.buffers.remove(buffers.get(i));
+            if (buffer == null) continue;
+            if (buffer == this.arrayBuffer) this.arrayBuffer = null;
+            if (buffer == this.elementArrayBuffer)
+                this.elementArrayBuffer = null;
+        }
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glBindBuffer(int, int)
+     */
+
+    @Override
+    public void glBindBuffer(final int target, final int buffer)
+    {
+        BufferObject object = null;
+        if (buffer != 0)
+        {
+            object = this.buffers.get(buffer);
+            if (object == null)
+            {
+                object = new BufferObject();
+                this.buffers.put(buffer, object);
+            }
+        }
+        if (target == GL_ELEMENT_ARRAY_BUFFER)
+            this.elementArrayBuffer = object;
+        else
+            this.arrayBuffer = object;
+    }
+
+
+    /**
+     * Returns the buffer object bound to the specified target.
+     *
+     * @param target
+     *            The buffer target
+     * @return The bound buffer object
+     */
+
+    private BufferObject getBuffer(final int target)
+    {
+        final BufferObject buffer = target == GL_ELEMENT_ARRAY_BUFFER
+            ? this.elementArrayBuffer : this.arrayBuffer;
+        if (buffer == null)
+            throw new IllegalStateException("No buffer bound to target 0x"
+                + Integer.toHexString(target));
+        return buffer;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glBufferData(int, int,
+     *      java.nio.Buffer, int)
+     */
+
+    @Override
+    public void glBufferData(final int target, final int size,
+        final Buffer data, final int usage)
+    {
+        final BufferObject buffer = getBuffer(target);
+        buffer.data = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+        buffer.floats = null;
+        if (data != null) copy(data, buffer.data, 0, size);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glBufferSubData(int, int, int,
+     *      java.nio.Buffer)
+     */
+
+    @Override
+    public void glBufferSubData(final int target, final int offset,
+        final int size, final Buffer data)
+    {
+        copy(data, getBuffer(target).data, offset, size);
+    }
+
+
+    /**
+     * Copies data into a byte buffer.
+     *
+     * @param source
+     *            The source data
+     * @param target
+     *            The target buffer
+     * @param offset
+     *            The offset in bytes in the target buffer
+     * @param size
+     *            The number of bytes to copy
+     */
+
+    private static void copy(final Buffer source, final ByteBuffer target,
+        final int offset, final int size)
+    {
+        final ByteBuffer dst = target.duplicate().order(target.order());
+        dst.position(offset);
+        dst.limit(offset + size);
+        if (source instanceof ByteBuffer)
+        {
+            final ByteBuffer src = ((ByteBuffer) source).duplicate();
+            src.limit(src.position() + size);
+            dst.put(src);
+        }
+        else if (source instanceof FloatBuffer)
+        {
+            final FloatBuffer src = ((FloatBuffer) source).duplicate();
+            src.limit(src.position() + size / 4);
+            dst.asFloatBuffer().put(src);
+        }
+        else if (source instanceof ShortBuffer)
+        {
+            final ShortBuffer src = ((ShortBuffer) source).duplicate();
+            src.limit(src.position() + size / 2);
+            dst.asShortBuffer().put(src);
+        }
+        else if (source instanceof IntBuffer)
+        {
+            final IntBuffer src = ((IntBuffer) source).duplicate();
+            src.limit(src.position() + size / 4);
+            dst.asIntBuffer().put(src);
+        }
+        else
+            throw new IllegalArgumentException("Unsupported buffer type: "
+                + source.getClass().getName());
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glGenTextures(java.nio.IntBuffer)
+     */
+
+    @Override
+    public void glGenTextures(final IntBuffer textures)
+    {
+        for (int i = textures.position(); i < textures.limit(); i++)
+        {
+            final int name = this.nextTexture++;
+            this.textures.put(name, new SoftwareTexture());
+            textures.put(i, name);
+        }
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glDeleteTextures(java.nio.IntBuffer)
+     */
+
+    @Override
+    public void glDeleteTextures(final IntBuffer textures)
+    {
+        for (int i = textures.position(); i < textures.limit(); i++)
+        {
+            final int name = textures.get(i);
+            if (name == 0) continue;
+            final SoftwareTexture texture = this.textures.remove(name);
+            if (texture != null && texture == this.texture)
+                glBindTexture(GL_TEXTURE_2D, 0);
+        }
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glIsTexture(int)
+     */
+
+    @Override
+    public boolean glIsTexture(final int texture)
+    {
+        return texture != 0 && this.textures.containsKey(texture);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glBindTexture(int, int)
+     */
+
+    @Override
+    public void glBindTexture(final int target, final int texture)
+    {
+        SoftwareTexture object = this.textures.get(texture);
+        if (object == null)
+        {
+            object = new SoftwareTexture();
+            this.textures.put(texture, object);
+        }
+        this.texture = object;
+        this.rasterState = null;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glTexParameteri(int, int, int)
+     */
+
+    @Override
+    public void glTexParameteri(final int target, final int pname,
+        final int param)
+    {
+        glFlush();
+        this.texture.setParameter(pname, param);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glTexParameterf(int, int, float)
+     */
+
+    @Override
+    public void glTexParameterf(final int target, final int pname,
+        final float param)
+    {
+        glFlush();
+        this.texture.setParameter(pname, (int) param);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glTexEnvi(int, int, int)
+     */
+
+    @Override
+    public void glTexEnvi(final int target, final int pname, final int param)
+    {
+        if (pname == GL_TEXTURE_ENV_MODE)
+        {
+            this.textureMode = param;
+            this.rasterState = null;
+        }
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glTexImage2D(int, int, int, int,
+     *      int, int, int, int, java.nio.ByteBuffer)
+     */
+
+    @Override
+    public void glTexImage2D(final int target, final int level,
+        final int internalFormat, final int width, final int height,
+        final int border, final int format, final int type,
+        final ByteBuffer data)
+    {
+        // Mipmaps are not supported so only the base level is used
+        if (level != 0) return;
+        glFlush();
+        this.texture.setImage(width, height, format, type, data,
+            this.unpackAlignment);
+        this.rasterState = null;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glTexSubImage2D(int, int, int, int,
+     *      int, int, int, int, java.nio.Buffer)
+     */
+
+    @Override
+    public void glTexSubImage2D(final int target, final int level,
+        final int xOffset, final int yOffset, final int width,
+        final int height, final int format, final int type, final Buffer data)
+    {
+        if (level != 0) return;
+        glFlush();
+        this.texture.setSubImage(xOffset, yOffset, width, height, format,
+            type, data, this.unpackAlignment);
+    }
+
+
+    /**
+     * Returns the raster state for the current draw call.
+     *
+     * @return The raster state
+     */
+
+    private RasterState getRasterState()
+    {
+        if (this.rasterState == null)
+        {
+            final SoftwareTexture texture = this.texturing
+                && this.texture.isComplete() ? this.texture : null;
+            final int top = this.height - this.viewportY - this.viewportHeight;
+            this.rasterState = new RasterState(texture, this.textureMode,
+                this.depthTest, this.depthFunc, this.depthMask, this.blend,
+                this.srcFactor, this.dstFactor, Math.max(0, this.viewportX),
+                Math.max(0, top),
+                Math.min(this.width, this.viewportX + this.viewportWidth),
+                Math.min(this.height, top + this.viewportHeight));
+        }
+        return this.rasterState;
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glDrawElements(int, int,
+     *      java.nio.Buffer)
+     */
+
+    @Override
+    public void glDrawElements(final int mode, final int type,
+        final Buffer indices)
+    {
+        final Buffer slice;
+        if (indices instanceof ByteBuffer)
+            slice = ((ByteBuffer) indices).slice().order(
+                ((ByteBuffer) indices).order());
+        else if (indices instanceof ShortBuffer)
+            slice = ((ShortBuffer) indices).slice();
+        else if (indices instanceof IntBuffer)
+            slice = ((IntBuffer) indices).slice();
+        else
+            throw new IllegalArgumentException("Unsupported index buffer: "
+                + indices.getClass().getName());
+        drawElements(mode, indices.remaining(), type, slice);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glDrawElements(int, int, int, int)
+     */
+
+    @Override
+    public void glDrawElements(final int mode, final int count,
+        final int type, final int offset)
+    {
+        final ByteBuffer data = getBuffer(GL_ELEMENT_ARRAY_BUFFER).data
+            .duplicate();
+        data.position(offset);
+        drawElements(mode, count, type, data.slice().order(
+            ByteOrder.nativeOrder()));
+    }
+
+
+    /**
+     * Returns an index from an index buffer.
+     *
+     * @param indices
+     *            The index buffer
+     * @param type
+     *            The index type
+     * @param i
+     *            The position of the index
+     * @return The index
+     */
+
+    private static int getIndex(final Buffer indices, final int type,
+        final int i)
+    {
+        if (indices instanceof ByteBuffer)
+        {
+            final ByteBuffer buffer = (ByteBuffer) indices;
+            switch (type)
+            {
+                case GL_UNSIGNED_BYTE:
+                    return buffer.get(i) & 0xff;
+
+                case GL_UNSIGNED_SHORT:
+                    return buffer.getShort(i * 2) & 0xffff;
+
+                default:
+                    return buffer.getInt(i * 4);
+            }
+        }
+        if (indices instanceof ShortBuffer)
+            return ((ShortBuffer) indices).get(i) & 0xffff;
+        return ((IntBuffer) indices).get(i);
+    }
+
+
+    /**
+     * Draws primitives.
+     *
+     * @param mode
+     *            The primitive mode
+     * @param count
+     *            The number of indices
+     * @param type
+     *            The index type
+     * @param indices
+     *            The indices starting at position 0
+     */
+
+    private void drawElements(final int mode, final int count,
+        final int type, final Buffer indices)
+    {
+        if (!this.vertexArray.resolve(this.enabled.contains(GL_VERTEX_ARRAY)))
+            return;
+        this.normalArray.resolve(this.enabled.contains(GL_NORMAL_ARRAY));
+        this.texCoordArray.resolve(this.enabled
+            .contains(GL_TEXTURE_COORD_ARRAY));
+        this.colorArray.resolve(this.enabled.contains(GL_COLOR_ARRAY));
+
+        // Start a new draw call so all vertices are transformed again
+        if (++this.stamp == Integer.MAX_VALUE)
+        {
+            Arrays.fill(this.vertexStamps, 0);
+            this.stamp = 1;
+        }
+
+        switch (mode)
+        {
+            case GL_POINTS:
+                for (int i = 0; i < count; i++)
+                    point(vertex(getIndex(indices, type, i)));
+                break;
+
+            case GL_LINES:
+                for (int i = 1; i < count; i += 2)
+                    line(vertex(getIndex(indices, type, i - 1)), vertex(getIndex(
+                        indices, type, i)));
+                break;
+
+            case GL_LINE_STRIP:
+            case GL_LINE_LOOP:
+                for (int i = 1; i < count; i++)
+                    line(vertex(getIndex(indices, type, i - 1)), vertex(getIndex(
+                        indices, type, i)));
+                if (mode == GL_LINE_LOOP && count > 2)
+                    line(vertex(getIndex(indices, type, count - 1)),
+                        vertex(getIndex(indices, type, 0)));
+                break;
+
+            case GL_TRIANGLES:
+                for (int i = 2; i < count; i += 3)
+                {
+                    final int c = vertex(getIndex(indices, type, i));
+                    triangle(vertex(getIndex(indices, type, i - 2)),
+                        vertex(getIndex(indices, type, i - 1)), c, c);
+                }
+                break;
+
+            case GL_TRIANGLE_STRIP:
+                for (int i = 2; i < count; i++)
+                {
+                    final int c = vertex(getIndex(indices, type, i));
+                    triangle(vertex(getIndex(indices, type, i - 2)),
+                        vertex(getIndex(indices, type, i - 1)), c, c);
+                }
+                break;
+
+            case GL_TRIANGLE_FAN:
+            case GL_POLYGON:
+                for (int i = 2; i < count; i++)
+                {
+                    final int c = vertex(getIndex(indices, type, i));
+                    triangle(vertex(getIndex(indices, type, 0)),
+                        vertex(getIndex(indices, type, i - 1)), c, c);
+                }
+                break;
+
+            case GL_QUADS:
+                for (int i = 3; i < count; i += 4)
+                {
+                    final int a = vertex(getIndex(indices, type, i - 3));
+                    final int c = vertex(getIndex(indices, type, i - 1));
+                    final int d = vertex(getIndex(indices, type, i));
+                    triangle(a, vertex(getIndex(indices, type, i - 2)), c, d);
+                    triangle(a, c, d, d);
+                }
+                break;
+
+            case GL_QUAD_STRIP:
+                for (int i = 3; i < count; i += 2)
+                {
+                    final int a = vertex(getIndex(indices, type, i - 3));
+                    final int c = vertex(getIndex(indices, type, i));
+                    final int d = vertex(getIndex(indices, type, i - 1));
+                    triangle(a, vertex(getIndex(indices, type, i - 2)), c, c);
+                    triangle(a, c, d, c);
+                }
+                break;
+
+            default:
+                throw new IllegalArgumentException("Invalid primitive mode: 0x"
+                    + Integer.toHexString(mode));
+        }
+    }
+
+
+    /**
+     * Returns the offset of a transformed vertex. Transforms the vertex if
+     * it was not transformed in the current draw call yet.
+     *
+     * @param index
+     *            The vertex index
+     * @return The offset of the transformed vertex in the vertex cache
+     */
+
+    private int vertex(final int index)
+    {
+        if (index >= this.vertexStamps.length)
+        {
+            final int capacity = Math.max(index + 1,
+                this.vertexStamps.length * 2);
+            this.vertexStamps = Arrays.copyOf(this.vertexStamps, capacity);
+            this.vertexCodes = Arrays.copyOf(this.vertexCodes, capacity);
+            this.vertices = Arrays.copyOf(this.vertices, capacity
+                * VERTEX_SIZE);
+        }
+        final int o = index * VERTEX_SIZE;
+        if (this.vertexStamps[index] != this.stamp)
+        {
+            transform(index, o);
+            this.vertexStamps[index] = this.stamp;
+        }
+        return o;
+    }
+
+
+    /**
+     * Transforms, lights and textures a vertex.
+     *
+     * @param index
+     *            The vertex index
+     * @param o
+     *            The offset in the vertex cache to write the vertex to
+     */
+
+    private void transform(final int index, final int o)
+    {
+        final float[] v = this.vertices;
+
+        // Transform vertex into eye coordinates
+        final VertexArray va = this.vertexArray;
+        final float x = va.get(index, 0, 0);
+        final float y = va.get(index, 1, 0);
+        final float z = va.get(index, 2, 0);
+        final float w = va.get(index, 3, 1);
+        final float[] mv = this.stacks[0][this.stackDepths[0]];
+        final float ex = mv[0] * x + mv[4] * y + mv[8] * z + mv[12] * w;
+        final float ey = mv[1] * x + mv[5] * y + mv[9] * z + mv[13] * w;
+        final float ez = mv[2] * x + mv[6] * y + mv[10] * z + mv[14] * w;
+        final float ew = mv[3] * x + mv[7] * y + mv[11] * z + mv[15] * w;
+
+        // Transform vertex into clip coordinates
+        final float[] p = this.stacks[1][this.stackDepths[1]];
+        v[o + TileRasterizer.X] = p[0] * ex + p[4] * ey + p[8] * ez + p[12]
+            * ew;
+        v[o + TileRasterizer.Y] = p[1] * ex + p[5] * ey + p[9] * ez + p[13]
+            * ew;
+        v[o + TileRasterizer.Z] = p[2] * ex + p[6] * ey + p[10] * ez + p[14]
+            * ew;
+        v[o + TileRasterizer.W] = p[3] * ex + p[7] * ey + p[11] * ez + p[15]
+            * ew;
+        this.vertexCodes[index] = outcode(v, o);
+
+        // Determine the vertex color
+        final VertexArray ca = this.colorArray;
+        final boolean colored = ca.data != null;
+        final float r = colored ? ca.get(index, 0, 1) : 1;
+        final float g = colored ? ca.get(index, 1, 1) : 1;
+        final float b = colored ? ca.get(index, 2, 1) : 1;
+        final float a = colored ? ca.get(index, 3, 1) : 1;
+        if (this.lighting)
+        {
+            final float iw = ew == 0 ? 1 : 1 / ew;
+            light(index, ex * iw, ey * iw, ez * iw, r, g, b, a, o);
+        }
+        else
+        {
+            v[o + TileRasterizer.R] = r;
+            v[o + TileRasterizer.G] = g;
+            v[o + TileRasterizer.B] = b;
+            v[o + TileRasterizer.A] = a;
+        }
+
+        // Transform the texture coordinates
+        if (getRasterState().texture != null)
+        {
+            final VertexArray ta = this.texCoordArray;
+            final boolean textured = ta.data != null;
+            final float s = textured ? ta.get(index, 0, 0) : 0;
+            final float t = textured ? ta.get(index, 1, 0) : 0;
+            final float[] m = this.stacks[2][this.stackDepths[2]];
+            final float q = m[3] * s + m[7] * t + m[15];
+            final float iq = q == 0 ? 1 : 1 / q;
+            v[o + TileRasterizer.S] = (m[0] * s + m[4] * t + m[12]) * iq;
+            v[o + TileRasterizer.T] = (m[1] * s + m[5] * t + m[13]) * iq;
+        }
+        else
+        {
+            v[o + TileRasterizer.S] = 0;
+            v[o + TileRasterizer.T] = 0;
+        }
+    }
+
+
+    /**
+     * Calculates the lit color of a vertex.
+     *
+     * @param index
+     *            The vertex index
+     * @param ex
+     *            The X eye coordinate of the vertex
+     * @param ey
+     *            The Y eye coordinate of the vertex
+     * @param ez
+     *            The Z eye coordinate of the vertex
+     * @param r
+     *            The red component of the vertex color
+     * @param g
+     *            The green component of the vertex color
+     * @param b
+     *            The blue component of the vertex color
+     * @param a
+     *            The alpha component of the vertex color
+     * @param o
+     *            The offset in the vertex cache to write the color to
+     */
+
+    private void light(final int index, final float ex, final float ey,
+        final float ez, final float r, final float g, final float b,
+        final float a, final int o)
+    {
+        // Transform the normal into eye coordinates
+        final VertexArray na = this.normalArray;
+        final boolean hasNormal = na.data != null;
+        final float nx = hasNormal ? na.get(index, 0, 0) : 0;
+        final float ny = hasNormal ? na.get(index, 1, 0) : 0;
+        final float nz = hasNormal ? na.get(index, 2, 1) : 1;
+        final float[] nm = getNormalMatrix();
+        float tx = nm[0] * nx + nm[3] * ny + nm[6] * nz;
+        float ty = nm[1] * nx + nm[4] * ny + nm[7] * nz;
+        float tz = nm[2] * nx + nm[5] * ny + nm[8] * nz;
+        final float length = (float) Math.sqrt(tx * tx + ty * ty + tz * tz);
+        if (length != 0)
+        {
+            tx /= length;
+            ty /= length;
+            tz /= length;
+        }
+
+        // Determine the material colors
+        final boolean track = this.colorMaterial;
+        final int trackMode = this.colorMaterialMode;
+        final boolean trackAmbient = track
+            && (trackMode == GL_AMBIENT || trackMode == GL_AMBIENT_AND_DIFFUSE);
+        final boolean trackDiffuse = track
+            && (trackMode == GL_DIFFUSE || trackMode == GL_AMBIENT_AND_DIFFUSE);
+        final float[] ma = this.materialAmbient;
+        final float[] md = this.materialDiffuse;
+        final float[] ms = this.materialSpecular;
+        final float[] me = this.materialEmission;
+        final float mar = trackAmbient ? r : ma[0];
+        final float mag = trackAmbient ? g : ma[1];
+        final float mab = trackAmbient ? b : ma[2];
+        final float mdr = trackDiffuse ? r : md[0];
+        final float mdg = trackDiffuse ? g : md[1];
+        final float mdb = trackDiffuse ? b : md[2];
+        final float mda = trackDiffuse ? a : md[3];
+        final float[] lma = this.lightModelAmbient;
+
+        float cr = me[0] + lma[0] * mar;
+        float cg = me[1] + lma[1] * mag;
+        float cb = me[2] + lma[2] * mab;
+        for (final Light light : this.lights)
+        {
+            if (!light.enabled) continue;
+
+            // Determine light direction and attenuation
+            final float[] lp = light.position;
+            float lx, ly, lz, attenuation = 1;
+            if (lp[3] == 0)
+            {
+                lx = lp[0];
+                ly = lp[1];
+                lz = lp[2];
+                final float d = (float) Math.sqrt(lx * lx + ly * ly + lz * lz);
+                if (d != 0)
+                {
+                    lx /= d;
+                    ly /= d;
+                    lz /= d;
+                }
+            }
+            else
+            {
+                lx = lp[0] / lp[3] - ex;
+                ly = lp[1] / lp[3] - ey;
+                lz = lp[2] / lp[3] - ez;
+                final float d = (float) Math.sqrt(lx * lx + ly * ly + lz * lz);
+                if (d != 0)
+                {
+                    lx /= d;
+                    ly /= d;
+                    lz /= d;
+                }
+                attenuation = 1 / (light.constantAttenuation
+                    + light.linearAttenuation * d + light.quadraticAttenuation
+                    * d * d);
+            }
+
+            // Apply spot light cone
+            if (light.spotCutOff != 180)
+            {
+                final float[] sd = light.spotDirection;
+                final float spot = -(lx * sd[0] + ly * sd[1] + lz * sd[2]);
+                if (spot < Math.cos(Math.toRadians(light.spotCutOff)))
+                    continue;
+                if (light.spotExponent != 0)
+                    attenuation *= (float) Math.pow(spot, light.spotExponent);
+            }
+
+            final float[] la = light.ambient;
+            final float[] ld = light.diffuse;
+            float lr = la[0] * mar, lg = la[1] * mag, lb = la[2] * mab;
+            final float diffuse = tx * lx + ty * ly + tz * lz;
+            if (diffuse > 0)
+            {
+                lr += diffuse * ld[0] * mdr;
+                lg += diffuse * ld[1] * mdg;
+                lb += diffuse * ld[2] * mdb;
+
+                // Specular highlight with half vector for infinite viewer
+                float hx = lx, hy = ly, hz = lz + 1;
+                final float h = (float) Math.sqrt(hx * hx + hy * hy + hz * hz);
+                if (h != 0)
+                {
+                    hx /= h;
+                    hy /= h;
+                    hz /= h;
+                }
+                final float nh = tx * hx + ty * hy + tz * hz;
+                if (nh > 0)
+                {
+                    final float specular = (float) Math.pow(nh,
+                        this.materialShininess);
+                    final float[] ls = light.specular;
+                    lr += specular * ls[0] * ms[0];
+                    lg += specular * ls[1] * ms[1];
+                    lb += specular * ls[2] * ms[2];
+                }
+            }
+            cr += attenuation * lr;
+            cg += attenuation * lg;
+            cb += attenuation * lb;
+        }
+
+        final float[] v = this.vertices;
+        v[o + TileRasterizer.R] = cr;
+        v[o + TileRasterizer.G] = cg;
+        v[o + TileRasterizer.B] = cb;
+        v[o + TileRasterizer.A] = mda;
+    }
+
+
+    /**
+     * Returns the signed distance of a vertex to a clipping plane. Besides
+     * the near plane the vertices are clipped at a guard band far outside of
+     * the viewport so the rasterizer can work with fixed-point coordinates.
+     *
+     * @param v
+     *            The vertex data
+     * @param o
+     *            The offset of the vertex
+     * @param plane
+     *            The clipping plane (0 = near, 1 to 4 = left, right, bottom
+     *            and top border of the guard band)
+     * @return The distance. Negative if vertex is outside
+     */
+
+    private static float distance(final float[] v, final int o,
+        final int plane)
+    {
+        final float w = v[o + TileRasterizer.W];
+        switch (plane)
+        {
+            case 0:
+                return v[o + TileRasterizer.Z] + w;
+
+            case 1:
+                return GUARD_BAND * w + v[o + TileRasterizer.X];
+
+            case 2:
+                return GUARD_BAND * w - v[o + TileRasterizer.X];
+
+            case 3:
+                return GUARD_BAND * w + v[o + TileRasterizer.Y];
+
+            default:
+                return GUARD_BAND * w - v[o + TileRasterizer.Y];
+        }
+    }
+
+
+    /**
+     * Returns the clipping planes a vertex is outside of.
+     *
+     * @param v
+     *            The vertex data
+     * @param o
+     *            The offset of the vertex
+     * @return Bit mask with one bit per clipping plane
+     */
+
+    private static int outcode(final float[] v, final int o)
+    {
+        int code = 0;
+        for (int plane = 0; plane < PLANES; plane++)
+            if (distance(v, o, plane) < 0) code |= 1 << plane;
+        return code;
+    }
+
+
+    /**
+     * Interpolates two vertices.
+     *
+     * @param in
+     *            The source vertex data
+     * @param a
+     *            The offset of the first vertex
+     * @param b
+     *            The offset of the second vertex
+     * @param t
+     *            The interpolation factor
+     * @param out
+     *            The target vertex data. May be the source
+     * @param o
+     *            The offset of the target vertex
+     */
+
+    private static void interpolate(final float[] in, final int a,
+        final int b, final float t, final float[] out, final int o)
+    {
+        for (int i = 0; i < VERTEX_SIZE; i++)
+            out[o + i] = in[a + i] + (in[b + i] - in[a + i]) * t;
+    }
+
+
+    /**
+     * Clips the polygon in the clipped vertices (Sutherland-Hodgman).
+     *
+     * @param count
+     *            The number of vertices
+     * @param mask
+     *            The clipping planes to clip against
+     * @return The new number of vertices
+     */
+
+    private int clipPolygon(int count, final int mask)
+    {
+        for (int plane = 0; plane < PLANES && count > 0; plane++)
+        {
+            if ((mask & (1 << plane)) == 0) continue;
+            final float[] in = this.clipped;
+            final float[] out = this.clipBuffer;
+            int n = 0;
+            for (int i = 0; i < count; i++)
+            {
+                final int a = i * VERTEX_SIZE;
+                final int b = ((i + 1) % count) * VERTEX_SIZE;
+                final float da = distance(in, a, plane);
+                final float db = distance(in, b, plane);
+                if (da >= 0)
+                    System.arraycopy(in, a, out, n++ * VERTEX_SIZE,
+                        VERTEX_SIZE);
+                if ((da >= 0) != (db >= 0))
+                    interpolate(in, a, b, da / (da - db), out, n++
+                        * VERTEX_SIZE);
+            }
+            this.clipped = out;
+            this.clipBuffer = in;
+            count = n;
+        }
+        return count;
+    }
+
+
+    /**
+     * Clips the line in the clipped vertices.
+     *
+     * @param mask
+     *            The clipping planes to clip against
+     * @return True if part of the line is left, false if not
+     */
+
+    private boolean clipLine(final int mask)
+    {
+        final float[] c = this.clipped;
+        for (int plane = 0; plane < PLANES; plane++)
+        {
+            if ((mask & (1 << plane)) == 0) continue;
+            final float da = distance(c, 0, plane);
+            final float db = distance(c, VERTEX_SIZE, plane);
+            if (da < 0 && db < 0) return false;
+            if (da < 0)
+                interpolate(c, 0, VERTEX_SIZE, da / (da - db), c, 0);
+            else if (db < 0)
+                interpolate(c, VERTEX_SIZE, 0, db / (db - da), c,
+                    VERTEX_SIZE);
+        }
+        return true;
+    }
+
+
+    /**
+     * Copies a vertex from the vertex cache into the clipped vertices.
+     *
+     * @param o
+     *            The offset of the vertex in the vertex cache
+     * @param slot
+     *            The slot in the clipped vertices
+     */
+
+    private void copy(final int o, final int slot)
+    {
+        System.arraycopy(this.vertices, o, this.clipped, slot * VERTEX_SIZE,
+            VERTEX_SIZE);
+    }
+
+
+    /**
+     * Projects a clipped vertex into screen space.
+     *
+     * @param slot
+     *            The slot in the clipped vertices
+     * @param target
+     *            The vertex index within the primitive
+     * @param provoking
+     *            The offset of the vertex providing the color for flat
+     *            shading
+     * @return False if vertex is behind the viewer, true if not
+     */
+
+    private boolean project(final int slot, final int target,
+        final int provoking)
+    {
+        final float[] c = this.clipped;
+        final float[] p = this.primitive;
+        final int s = slot * VERTEX_SIZE;
+        final int t = target * VERTEX_SIZE;
+        final float w = c[s + TileRasterizer.W];
+        if (w <= 0) return false;
+        final float iw = 1 / w;
+        p[t + TileRasterizer.X] = this.viewportX
+            + (c[s + TileRasterizer.X] * iw + 1) * this.viewportWidth * 0.5f;
+        p[t + TileRasterizer.Y] = this.height
+            - (this.viewportY + (c[s + TileRasterizer.Y] * iw + 1)
+                * this.viewportHeight * 0.5f);
+        p[t + TileRasterizer.Z] = (c[s + TileRasterizer.Z] * iw + 1) * 0.5f;
+        p[t + TileRasterizer.W] = iw;
+        final float[] color = this.shadeModel == GL_FLAT ? this.vertices : c;
+        final int co = this.shadeModel == GL_FLAT ? provoking : s;
+        for (int i = TileRasterizer.R; i <= TileRasterizer.A; i++)
+            p[t + i] = color[co + i] * iw;
+        p[t + TileRasterizer.S] = c[s + TileRasterizer.S] * iw;
+        p[t + TileRasterizer.T] = c[s + TileRasterizer.T] * iw;
+        return true;
+    }
+
+
+    /**
+     * Bins a point.
+     *
+     * @param a
+     *            The offset of the vertex in the vertex cache
+     */
+
+    private void point(final int a)
+    {
+        if (this.vertexCodes[a / VERTEX_SIZE] != 0) return;
+        copy(a, 0);
+        if (!project(0, 0, a)) return;
+        final RasterState state = getRasterState();
+        this.rasterizer.add(TileRasterizer.POINT, state, this.primitive,
+            state.texture != null && state.texture.isLinear(false));
+    }
+
+
+    /**
+     * Clips and bins a line.
+     *
+     * @param a
+     *            The offset of the first vertex in the vertex cache
+     * @param b
+     *            The offset of the second vertex in the vertex cache
+     */
+
+    private void line(final int a, final int b)
+    {
+        final int[] codes = this.vertexCodes;
+        final int ca = codes[a / VERTEX_SIZE], cb = codes[b / VERTEX_SIZE];
+        if ((ca & cb) != 0) return;
+        copy(a, 0);
+        copy(b, 1);
+        if ((ca | cb) != 0 && !clipLine(ca | cb)) return;
+        if (!project(0, 0, b) || !project(1, 1, b)) return;
+        final RasterState state = getRasterState();
+        this.rasterizer.add(TileRasterizer.LINE, state, this.primitive,
+            state.texture != null && state.texture.isLinear(false));
+    }
+
+
+    /**
+     * Clips a triangle and bins the resulting triangles.
+     *
+     * @param a
+     *            The offset of the first vertex in the vertex cache
+     * @param b
+     *            The offset of the second vertex in the vertex cache
+     * @param c
+     *            The offset of the third vertex in the vertex cache
+     * @param provoking
+     *            The offset of the vertex providing the color for flat
+     *            shading
+     */
+
+    private void triangle(final int a, final int b, final int c,
+        final int provoking)
+    {
+        final int[] codes = this.vertexCodes;
+        final int ca = codes[a / VERTEX_SIZE], cb = codes[b / VERTEX_SIZE];
+        final int cc = codes[c / VERTEX_SIZE];
+        if ((ca & cb & cc) != 0) return;
+        copy(a, 0);
+        copy(b, 1);
+        copy(c, 2);
+        final int mask = ca | cb | cc;
+        final int count = mask == 0 ? 3 : clipPolygon(3, mask);
+        for (int i = 2; i < count; i++)
+        {
+            if (!project(0, 0, provoking) || !project(i - 1, 1, provoking)
+                || !project(i, 2, provoking)) return;
+            final RasterState state = getRasterState();
+            final SoftwareTexture texture = state.texture;
+            this.rasterizer.add(TileRasterizer.TRIANGLE, state,
+                this.primitive, texture != null
+                    && texture.isLinear(isMinified(texture, i)));
+        }
+    }
+
+
+    /**
+     * Checks if the texture of the projected triangle is minified. This is
+     * the case when the triangle covers more texels than pixels.
+     *
+     * @param texture
+     *            The texture
+     * @param last
+     *            The slot of the last clipped vertex of the triangle
+     * @return True if texture is minified, false if it is magnified
+     */
+
+    private boolean isMinified(final SoftwareTexture texture, final int last)
+    {
+        final float[] p = this.primitive;
+        final float[] c = this.clipped;
+        final int o1 = VERTEX_SIZE, o2 = 2 * VERTEX_SIZE;
+        final int s1 = (last - 1) * VERTEX_SIZE, s2 = last * VERTEX_SIZE;
+        final float pixels = Math.abs((p[o1] - p[0]) * (p[o2 + 1] - p[1])
+            - (p[o1 + 1] - p[1]) * (p[o2] - p[0]));
+        final int s = TileRasterizer.S, t = TileRasterizer.T;
+        final float texels = Math.abs((c[s1 + s] - c[s]) * (c[s2 + t] - c[t])
+            - (c[s1 + t] - c[t]) * (c[s2 + s] - c[s]))
+            * texture.getWidth() * texture.getHeight();
+        return texels > pixels;
+    }
+
+
+    /**
+     * @see GL#glGenLists(int)
+     */
+
+    @Override
+    public int glGenLists(final int range)
+    {
+        // Display lists are not supported so no names are generated
+        return 0;
+    }
+
+
+    /**
+     * @see GL#glNewList(int, int)
+     */
+
+    @Override
+    public void glNewList(final int list, final int mode)
+    {
+        // Display lists are not supported
+    }
+
+
+    /**
+     * @see GL#glEndList()
+     */
+
+    @Override
+    public void glEndList()
+    {
+        // Display lists are not supported
+    }
+
+
+    /**
+     * @see GL#glCallList(int)
+     */
+
+    @Override
+    public void glCallList(final int list)
+    {
+        // Display lists are not supported
+    }
+
+
+    /**
+     * @see GL#glDeleteLists(int, int)
+     */
+
+    @Override
+    public void glDeleteLists(final int list, final int range)
+    {
+        // Display lists are not supported
+    }
+}
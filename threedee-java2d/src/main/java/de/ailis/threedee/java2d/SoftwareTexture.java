@@ -0,0 +1,352 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.java2d;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+import de.ailis.threedee.exceptions.TextureException;
+import de.ailis.threedee.rendering.GL;
+
+
+/**
+ * A texture of the {@link SoftwareGL}. The texels are stored as ARGB
+ * integers with the first row of the uploaded image data in the first row of
+ * the texel array.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+final class SoftwareTexture
+{
+    /** The texture width */
+    private int width;
+
+    /** The texture height */
+    private int height;
+
+    /** The texels as ARGB integers */
+    private int[] texels;
+
+    /** The minification filter */
+    private int minFilter = GL.GL_NEAREST_MIPMAP_LINEAR;
+
+    /** The magnification filter */
+    private int magFilter = GL.GL_LINEAR;
+
+    /** The wrap mode in S direction */
+    private int wrapS = GL.GL_REPEAT;
+
+    /** The wrap mode in T direction */
+    private int wrapT = GL.GL_REPEAT;
+
+
+    /**
+     * Sets the texture image.
+     *
+     * @param width
+     *            The image width
+     * @param height
+     *            The image height
+     * @param format
+     *            The pixel format (GL_RGB or GL_RGBA)
+     * @param type
+     *            The pixel type (GL_UNSIGNED_BYTE or GL_UNSIGNED_SHORT_5_6_5)
+     * @param data
+     *            The pixel data. Null to allocate an empty image
+     * @param alignment
+     *            The row alignment of the pixel data
+     */
+
+    void setImage(final int width, final int height, final int format,
+        final int type, final Buffer data, final int alignment)
+    {
+        this.width = width;
+        this.height = height;
+        this.texels = new int[width * height];
+        if (data != null)
+            setSubImage(0, 0, width, height, format, type, data, alignment);
+    }
+
+
+    /**
+     * Replaces a part of the texture image.
+     *
+     * @param xOffset
+     *            The X offset of the replaced area
+     * @param yOffset
+     *            The Y offset of the replaced area
+     * @param width
+     *            The width of the replaced area
+     * @param height
+     *            The height of the replaced area
+     * @param format
+     *            The pixel format (GL_RGB or GL_RGBA)
+     * @param type
+     *            The pixel type (GL_UNSIGNED_BYTE or GL_UNSIGNED_SHORT_5_6_5)
+     * @param data
+     *            The pixel data
+     * @param alignment
+     *            The row alignment of the pixel data
+     */
+
+    void setSubImage(final int xOffset, final int yOffset, final int width,
+        final int height, final int format, final int type, final Buffer data,
+        final int alignment)
+    {
+        if (this.texels == null)
+            throw new TextureException("Texture has no image");
+        if (xOffset < 0 || yOffset < 0 || xOffset + width > this.width
+            || yOffset + height > this.height)
+            throw new TextureException("Sub image exceeds texture bounds");
+        final int[] texels = this.texels;
+        if (type == GL.GL_UNSIGNED_SHORT_5_6_5)
+        {
+            final ShortBuffer pixels = data instanceof ShortBuffer
+                ? (ShortBuffer) data : ((ByteBuffer) data).asShortBuffer();
+            final int base = pixels.position();
+            final int rowSize = align(width * 2, alignment) / 2;
+            for (int y = 0; y < height; y++)
+            {
+                int index = (yOffset + y) * this.width + xOffset;
+                int offset = base + y * rowSize;
+                for (int x = 0; x < width; x++)
+                {
+                    final int pixel = pixels.get(offset++) & 0xffff;
+                    final int r = (pixel >> 11) & 0x1f;
+                    final int g = (pixel >> 5) & 0x3f;
+                    final int b = pixel & 0x1f;
+                    texels[index++] = 0xff000000
+                        | (((r << 3) | (r >> 2)) << 16)
+                        | (((g << 2) | (g >> 4)) << 8) | (b << 3) | (b >> 2);
+                }
+            }
+            return;
+        }
+        if (type != GL.GL_UNSIGNED_BYTE)
+            throw new TextureException("Unsupported texture pixel type: 0x"
+                + Integer.toHexString(type));
+        final int components;
+        if (format == GL.GL_RGBA)
+            components = 4;
+        else if (format == GL.GL_RGB)
+            components = 3;
+        else
+            throw new TextureException("Unsupported texture format: 0x"
+                + Integer.toHexString(format));
+        final ByteBuffer pixels = (ByteBuffer) data;
+        final int base = pixels.position();
+        final int rowSize = align(width * components, alignment);
+        for (int y = 0; y < height; y++)
+        {
+            int index = (yOffset + y) * this.width + xOffset;
+            int offset = base + y * rowSize;
+            for (int x = 0; x < width; x++)
+            {
+                final int r = pixels.get(offset) & 0xff;
+                final int g = pixels.get(offset + 1) & 0xff;
+                final int b = pixels.get(offset + 2) & 0xff;
+                final int a = components == 4 ? pixels.get(offset + 3) & 0xff
+                    : 0xff;
+                texels[index++] = (a << 24) | (r << 16) | (g << 8) | b;
+                offset += components;
+            }
+        }
+    }
+
+
+    /**
+     * Aligns a row size.
+     *
+     * @param size
+     *            The row size in bytes
+     * @param alignment
+     *            The alignment
+     * @return The aligned row size
+     */
+
+    private static int align(final int size, final int alignment)
+    {
+        return (size + alignment - 1) / alignment * alignment;
+    }
+
+
+    /**
+     * Sets a texture parameter.
+     *
+     * @param pname
+     *            The parameter name
+     * @param param
+     *            The parameter value
+     */
+
+    void setParameter(final int pname, final int param)
+    {
+        switch (pname)
+        {
+            case GL.GL_TEXTURE_MIN_FILTER:
+                this.minFilter = param;
+                break;
+
+            case GL.GL_TEXTURE_MAG_FILTER:
+                this.magFilter = param;
+                break;
+
+            case GL.GL_TEXTURE_WRAP_S:
+                this.wrapS = param;
+                break;
+
+            case GL.GL_TEXTURE_WRAP_T:
+                this.wrapT = param;
+                break;
+
+            default:
+                // Other parameters (Anisotropy, mipmap generation) don't
+                // apply to a texture without mipmaps
+        }
+    }
+
+
+    /**
+     * Checks if the texture has an image.
+     *
+     * @return True if texture has an image, false if not
+     */
+
+    boolean isComplete()
+    {
+        return this.texels != null && this.width > 0 && this.height > 0;
+    }
+
+
+    /**
+     * Returns the texture width.
+     *
+     * @return The texture width
+     */
+
+    int getWidth()
+    {
+        return this.width;
+    }
+
+
+    /**
+     * Returns the texture height.
+     *
+     * @return The texture height
+     */
+
+    int getHeight()
+    {
+        return this.height;
+    }
+
+
+    /**
+     * Checks if the texture is filtered linearly.
+     *
+     * @param minified
+     *            True if the texture is minified, false if magnified
+     * @return True for linear filtering, false for nearest texel sampling
+     */
+
+    boolean isLinear(final boolean minified)
+    {
+        if (!minified) return this.magFilter == GL.GL_LINEAR;
+        return this.minFilter == GL.GL_LINEAR
+            || this.minFilter == GL.GL_LINEAR_MIPMAP_NEAREST
+            || this.minFilter == GL.GL_LINEAR_MIPMAP_LINEAR;
+    }
+
+
+    /**
+     * Wraps a texel coordinate.
+     *
+     * @param coord
+     *            The texel coordinate
+     * @param size
+     *            The texture size
+     * @param mode
+     *            The wrap mode
+     * @return The wrapped texel coordinate
+     */
+
+    private static int wrap(final int coord, final int size, final int mode)
+    {
+        if (mode == GL.GL_REPEAT)
+        {
+            final int wrapped = coord % size;
+            return wrapped < 0 ? wrapped + size : wrapped;
+        }
+        return coord < 0 ? 0 : coord >= size ? size - 1 : coord;
+    }
+
+
+    /**
+     * Samples the texture.
+     *
+     * @param s
+     *            The S texture coordinate
+     * @param t
+     *            The T texture coordinate
+     * @param linear
+     *            True for bilinear filtering, false for nearest texel
+     * @return The sampled color as ARGB integer
+     */
+
+    int sample(final float s, final float t, final boolean linear)
+    {
+        final int width = this.width;
+        final int height = this.height;
+        final int[] texels = this.texels;
+        final int wrapS = this.wrapS;
+        final int wrapT = this.wrapT;
+        if (!linear)
+        {
+            final int x = wrap((int) Math.floor(s * width), width, wrapS);
+            final int y = wrap((int) Math.floor(t * height), height, wrapT);
+            return texels[y * width + x];
+        }
+
+        final float u = s * width - 0.5f;
+        final float v = t * height - 0.5f;
+        final int x0 = (int) Math.floor(u);
+        final int y0 = (int) Math.floor(v);
+        final int fx = (int) ((u - x0) * 256);
+        final int fy = (int) ((v - y0) * 256);
+        final int x1 = wrap(x0 + 1, width, wrapS);
+        final int y1 = wrap(y0 + 1, height, wrapT) * width;
+        final int wx0 = wrap(x0, width, wrapS);
+        final int wy0 = wrap(y0, height, wrapT) * width;
+        return lerp(lerp(texels[wy0 + wx0], texels[wy0 + x1], fx), lerp(
+            texels[y1 + wx0], texels[y1 + x1], fx), fy);
+    }
+
+
+    /**
+     * Linearly interpolates two ARGB colors.
+     *
+     * @param a
+     *            The first color
+     * @param b
+     *            The second color
+     * @param f
+     *            The interpolation factor (0-256)
+     * @return The interpolated color
+     */
+
+    private static int lerp(final int a, final int b, final int f)
+    {
+        final int g = 256 - f;
+        final int rb = (((a & 0xff00ff) * g + (b & 0xff00ff) * f) >>> 8)
+            & 0xff00ff;
+        final int ag = ((((a >>> 8) & 0xff00ff) * g + ((b >>> 8) & 0xff00ff)
+            * f) & 0xff00ff00);
+        return ag | rb;
+    }
+}
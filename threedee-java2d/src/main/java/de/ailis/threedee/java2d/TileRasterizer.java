@@ -0,0 +1,971 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.java2d;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.ailis.threedee.rendering.GL;
+
+
+/**
+ * Bins screen-space primitives into tiles and rasterizes the tiles in
+ * parallel. Each tile is rasterized by exactly one thread and the primitives
+ * of a tile are rasterized in submission order so no synchronization is
+ * needed on the color and depth buffers and blending produces the same
+ * result as sequential rendering.
+ *
+ * Primitive vertices are passed in screen coordinates (Origin in the upper
+ * left corner) with the depth in the range 0 to 1, the reciprocal of the
+ * clip space W coordinate and the color and texture coordinates already
+ * multiplied by this reciprocal so they can be interpolated perspective
+ * correctly.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+final class TileRasterizer
+{
+    /** The tile size in pixels */
+    static final int TILE_SIZE = 32;
+
+    /** The primitive type for points */
+    static final int POINT = 1;
+
+    /** The primitive type for lines */
+    static final int LINE = 2;
+
+    /** The primitive type for triangles */
+    static final int TRIANGLE = 3;
+
+    /** The number of floats per vertex */
+    static final int VERTEX_SIZE = 10;
+
+    /** The offset of the X coordinate in a vertex */
+    static final int X = 0;
+
+    /** The offset of the Y coordinate in a vertex */
+    static final int Y = 1;
+
+    /** The offset of the depth in a vertex */
+    static final int Z = 2;
+
+    /** The offset of the reciprocal W coordinate in a vertex */
+    static final int W = 3;
+
+    /** The offset of the red color component in a vertex */
+    static final int R = 4;
+
+    /** The offset of the green color component in a vertex */
+    static final int G = 5;
+
+    /** The offset of the blue color component in a vertex */
+    static final int B = 6;
+
+    /** The offset of the alpha color component in a vertex */
+    static final int A = 7;
+
+    /** The offset of the S texture coordinate in a vertex */
+    static final int S = 8;
+
+    /** The offset of the T texture coordinate in a vertex */
+    static final int T = 9;
+
+    /** The number of floats per primitive */
+    private static final int PRIMITIVE_SIZE = 3 * VERTEX_SIZE;
+
+    /** The number of sub-pixel bits of fixed-point triangle coordinates */
+    private static final int SUBPIXEL_BITS = 8;
+
+    /** The size of a pixel in fixed-point coordinates */
+    private static final int ONE = 1 << SUBPIXEL_BITS;
+
+    /** The center of a pixel in fixed-point coordinates */
+    private static final int HALF = ONE / 2;
+
+    /** The flag for linear texture filtering */
+    private static final int LINEAR = 4;
+
+    /** The mask for the primitive type */
+    private static final int TYPE_MASK = 3;
+
+    /** The GL_ZERO blend factor (Not defined in the GL interface) */
+    private static final int GL_ZERO = 0;
+
+    /** The GL_ONE blend factor (Not defined in the GL interface) */
+    private static final int GL_ONE = 1;
+
+    /** The framebuffer width */
+    private int width;
+
+    /** The framebuffer height */
+    private int height;
+
+    /** The number of tile columns */
+    private int tilesX;
+
+    /** The color buffer */
+    private int[] colors;
+
+    /** The depth buffer */
+    private float[] depths;
+
+    /** The primitive vertices */
+    private float[] primitives = new float[1024 * PRIMITIVE_SIZE];
+
+    /** The primitive types and flags */
+    private int[] flags = new int[1024];
+
+    /** The primitive states */
+    private RasterState[] states = new RasterState[1024];
+
+    /** The number of binned primitives */
+    private int count;
+
+    /** The primitive indices per tile */
+    private int[][] bins;
+
+    /** The number of primitives per tile */
+    private int[] binSizes;
+
+    /** The indices of the tiles containing primitives */
+    private int[] activeTiles;
+
+    /** The number of tiles containing primitives */
+    private int activeCount;
+
+    /** The index of the next tile to rasterize in parallel */
+    private final AtomicInteger nextTile = new AtomicInteger();
+
+    /** The worker which rasterizes tiles until no tile is left */
+    private final Callable<Object> worker = new Callable<Object>()
+    {
+        @Override
+        public Object call()
+        {
+            final int[] activeTiles = TileRasterizer.this.activeTiles;
+            final int activeCount = TileRasterizer.this.activeCount;
+            int tile;
+            final AtomicInteger nextTile = TileRasterizer.this.nextTile;
+            while ((tile = nextTile.getAndIncrement()) < activeCount)
+                rasterizeTile(activeTiles[tile]);
+            return null;
+        }
+    };
+
+
+    /**
+     * Sets the framebuffer. Discards all binned primitives.
+     *
+     * @param width
+     *            The framebuffer width
+     * @param height
+     *            The framebuffer height
+     * @param colors
+     *            The color buffer
+     * @param depths
+     *            The depth buffer
+     */
+
+    void setFramebuffer(final int width, final int height, final int[] colors,
+        final float[] depths)
+    {
+        this.width = width;
+        this.height = height;
+        this.colors = colors;
+        this.depths = depths;
+        this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        final int tiles = this.tilesX * ((height + TILE_SIZE - 1) / TILE_SIZE);
+        this.bins = new int[tiles][];
+        this.binSizes = new int[tiles];
+        this.activeTiles = new int[tiles];
+        this.activeCount = 0;
+        Arrays.fill(this.states, 0, this.count, null);
+        this.count = 0;
+    }
+
+
+    /**
+     * Checks if there are binned primitives waiting for rasterization.
+     *
+     * @return True if no primitives are binned, false if not
+     */
+
+    boolean isEmpty()
+    {
+        return this.count == 0;
+    }
+
+
+    /**
+     * Bins a primitive.
+     *
+     * @param type
+     *            The primitive type (POINT, LINE or TRIANGLE)
+     * @param state
+     *            The raster state
+     * @param vertices
+     *            The vertices of the primitive
+     * @param linear
+     *            If texture is filtered linearly
+     */
+
+    void add(final int type, final RasterState state, final float[] vertices,
+        final boolean linear)
+    {
+        // Grow primitive storage if needed
+        final int index = this.count;
+        if (index == this.flags.length)
+        {
+            final int capacity = index * 2;
+            this.primitives = Arrays.copyOf(this.primitives, capacity
+                * PRIMITIVE_SIZE);
+            this.flags = Arrays.copyOf(this.flags, capacity);
+            this.states = Arrays.copyOf(this.states, capacity);
+        }
+        final float[] p = this.primitives;
+        final int o = index * PRIMITIVE_SIZE;
+        System.arraycopy(vertices, 0, p, o, type * VERTEX_SIZE);
+
+        // Determine the bounding box of covered pixels
+        float minX = p[o + X], maxX = minX, minY = p[o + Y], maxY = minY;
+        for (int i = 1; i < type; i++)
+        {
+            final float x = p[o + i * VERTEX_SIZE + X];
+            final float y = p[o + i * VERTEX_SIZE + Y];
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+        }
+        int left, top, right, bottom;
+        if (type == TRIANGLE)
+        {
+            // Orient the triangle so the edge functions are positive inside
+            final long area = area(p, o);
+            if (area == 0) return;
+            if (area < 0)
+            {
+                for (int i = 0; i < VERTEX_SIZE; i++)
+                {
+                    final float tmp = p[o + VERTEX_SIZE + i];
+                    p[o + VERTEX_SIZE + i] = p[o + 2 * VERTEX_SIZE + i];
+                    p[o + 2 * VERTEX_SIZE + i] = tmp;
+                }
+            }
+
+            // Pixels are covered when their centers are inside
+            left = ceilPixel(fixed(minX));
+            top = ceilPixel(fixed(minY));
+            right = floorPixel(fixed(maxX)) + 1;
+            bottom = floorPixel(fixed(maxY)) + 1;
+        }
+        else
+        {
+            left = (int) Math.floor(minX);
+            top = (int) Math.floor(minY);
+            right = (int) Math.floor(maxX) + 1;
+            bottom = (int) Math.floor(maxY) + 1;
+        }
+        left = Math.max(left, state.clipLeft);
+        top = Math.max(top, state.clipTop);
+        right = Math.min(right, state.clipRight);
+        bottom = Math.min(bottom, state.clipBottom);
+        if (left >= right || top >= bottom) return;
+
+        this.flags[index] = type | (linear ? LINEAR : 0);
+        this.states[index] = state;
+        this.count = index + 1;
+
+        // Add the primitive to all covered tiles
+        final int tileLeft = left / TILE_SIZE;
+        final int tileTop = top / TILE_SIZE;
+        final int tileRight = (right - 1) / TILE_SIZE;
+        final int tileBottom = (bottom - 1) / TILE_SIZE;
+        final boolean test = type == TRIANGLE
+            && (tileLeft != tileRight || tileTop != tileBottom);
+        for (int ty = tileTop; ty <= tileBottom; ty++)
+        {
+            for (int tx = tileLeft; tx <= tileRight; tx++)
+            {
+                if (test && !overlapsTile(o, tx, ty)) continue;
+                bin(ty * this.tilesX + tx, index);
+            }
+        }
+    }
+
+
+    /**
+     * Converts a screen coordinate into a fixed-point coordinate. All
+     * triangle coverage calculations are done with these snapped coordinates
+     * and exact integer arithmetic so neighbouring triangles share their
+     * edges without gaps or overlaps.
+     *
+     * @param coord
+     *            The screen coordinate
+     * @return The fixed-point coordinate
+     */
+
+    private static int fixed(final float coord)
+    {
+        return Math.round(coord * ONE);
+    }
+
+
+    /**
+     * Returns the first pixel with a center at or after the specified
+     * fixed-point coordinate.
+     *
+     * @param fixed
+     *            The fixed-point coordinate
+     * @return The pixel
+     */
+
+    private static int ceilPixel(final int fixed)
+    {
+        return (fixed - HALF + ONE - 1) >> SUBPIXEL_BITS;
+    }
+
+
+    /**
+     * Returns the last pixel with a center at or before the specified
+     * fixed-point coordinate.
+     *
+     * @param fixed
+     *            The fixed-point coordinate
+     * @return The pixel
+     */
+
+    private static int floorPixel(final int fixed)
+    {
+        return (fixed - HALF) >> SUBPIXEL_BITS;
+    }
+
+
+    /**
+     * Returns the doubled signed area of a triangle in fixed-point
+     * coordinates.
+     *
+     * @param p
+     *            The primitive data
+     * @param o
+     *            The offset of the triangle
+     * @return The doubled signed area
+     */
+
+    private static long area(final float[] p, final int o)
+    {
+        final int x0 = fixed(p[o + X]), y0 = fixed(p[o + Y]);
+        final long dx1 = fixed(p[o + VERTEX_SIZE + X]) - x0;
+        final long dy1 = fixed(p[o + VERTEX_SIZE + Y]) - y0;
+        final long dx2 = fixed(p[o + 2 * VERTEX_SIZE + X]) - x0;
+        final long dy2 = fixed(p[o + 2 * VERTEX_SIZE + Y]) - y0;
+        return dx1 * dy2 - dy1 * dx2;
+    }
+
+
+    /**
+     * Checks if the triangle at the specified offset may overlap a tile.
+     *
+     * @param o
+     *            The offset of the triangle
+     * @param tx
+     *            The tile column
+     * @param ty
+     *            The tile row
+     * @return True if triangle may overlap the tile, false if it doesn't
+     */
+
+    private boolean overlapsTile(final int o, final int tx, final int ty)
+    {
+        final float[] p = this.primitives;
+        final int minX = tx * TILE_SIZE * ONE + HALF;
+        final int minY = ty * TILE_SIZE * ONE + HALF;
+        final int maxX = minX + (TILE_SIZE - 1) * ONE;
+        final int maxY = minY + (TILE_SIZE - 1) * ONE;
+        for (int i = 0; i < 3; i++)
+        {
+            final int a = o + i * VERTEX_SIZE;
+            final int b = o + ((i + 1) % 3) * VERTEX_SIZE;
+            final int ax = fixed(p[a + X]), ay = fixed(p[a + Y]);
+            final long ex = fixed(p[b + X]) - ax;
+            final long ey = fixed(p[b + Y]) - ay;
+
+            // Test the pixel center with the largest edge function value
+            final int x = ey < 0 ? maxX : minX;
+            final int y = ex > 0 ? maxY : minY;
+            if (ex * (y - ay) - ey * (x - ax) < 0) return false;
+        }
+        return true;
+    }
+
+
+    /**
+     * Adds a primitive to a tile.
+     *
+     * @param tile
+     *            The tile index
+     * @param primitive
+     *            The primitive index
+     */
+
+    private void bin(final int tile, final int primitive)
+    {
+        final int size = this.binSizes[tile];
+        int[] bin = this.bins[tile];
+        if (bin == null)
+        {
+            bin = this.bins[tile] = new int[16];
+        }
+        else if (size == bin.length)
+        {
+            bin = this.bins[tile] = Arrays.copyOf(bin, size * 2);
+        }
+        if (size == 0) this.activeTiles[this.activeCount++] = tile;
+        bin[size] = primitive;
+        this.binSizes[tile] = size + 1;
+    }
+
+
+    /**
+     * Rasterizes all binned primitives and empties the bins.
+     *
+     * @param executor
+     *            The executor used to rasterize the tiles in parallel. Null
+     *            to rasterize on the calling thread
+     * @param threads
+     *            The number of threads of the executor
+     */
+
+    void flush(final ExecutorService executor, final int threads)
+    {
+        if (this.count == 0) return;
+        try
+        {
+            final int activeCount = this.activeCount;
+            if (executor == null || threads < 2 || activeCount < 2)
+            {
+                for (int i = 0; i < activeCount; i++)
+                    rasterizeTile(this.activeTiles[i]);
+            }
+            else
+            {
+                this.nextTile.set(0);
+                for (final Future<Object> future : executor.invokeAll(Collections
+                    .nCopies(Math.min(threads, activeCount), this.worker)))
+                    future.get();
+            }
+        }
+        catch (final InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Rasterization interrupted", e);
+        }
+        catch (final ExecutionException e)
+        {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IllegalStateException(cause.toString(), cause);
+        }
+        finally
+        {
+            for (int i = 0; i < this.activeCount; i++)
+                this.binSizes[this.activeTiles[i]] = 0;
+            this.activeCount = 0;
+            Arrays.fill(this.states, 0, this.count, null);
+            this.count = 0;
+        }
+    }
+
+
+    /**
+     * Rasterizes the primitives of a tile.
+     *
+     * @param tile
+     *            The tile index
+     */
+
+    private void rasterizeTile(final int tile)
+    {
+        final int left = (tile % this.tilesX) * TILE_SIZE;
+        final int top = (tile / this.tilesX) * TILE_SIZE;
+        final int right = Math.min(left + TILE_SIZE, this.width);
+        final int bottom = Math.min(top + TILE_SIZE, this.height);
+        final int[] bin = this.bins[tile];
+        final int size = this.binSizes[tile];
+        for (int i = 0; i < size; i++)
+        {
+            final int primitive = bin[i];
+            final RasterState state = this.states[primitive];
+            final int flags = this.flags[primitive];
+            final int minX = Math.max(left, state.clipLeft);
+            final int minY = Math.max(top, state.clipTop);
+            final int maxX = Math.min(right, state.clipRight);
+            final int maxY = Math.min(bottom, state.clipBottom);
+            final boolean linear = (flags & LINEAR) != 0;
+            switch (flags & TYPE_MASK)
+            {
+                case TRIANGLE:
+                    rasterizeTriangle(primitive * PRIMITIVE_SIZE, state,
+                        linear, minX, minY, maxX, maxY);
+                    break;
+
+                case LINE:
+                    rasterizeLine(primitive * PRIMITIVE_SIZE, state, linear,
+                        minX, minY, maxX, maxY);
+                    break;
+
+                default:
+                    rasterizePoint(primitive * PRIMITIVE_SIZE, state, linear,
+                        minX, minY, maxX, maxY);
+            }
+        }
+    }
+
+
+    /**
+     * Rasterizes a triangle. Pixels are covered when their center is inside
+     * the triangle. Pixel centers exactly on an edge are only covered by one
+     * of the two triangles sharing the edge.
+     *
+     * @param o
+     *            The offset of the triangle
+     * @param state
+     *            The raster state
+     * @param linear
+     *            If texture is filtered linearly
+     * @param left
+     *            The left border of the rasterized area (inclusive)
+     * @param top
+     *            The top border of the rasterized area (inclusive)
+     * @param right
+     *            The right border of the rasterized area (exclusive)
+     * @param bottom
+     *            The bottom border of the rasterized area (exclusive)
+     */
+
+    private void rasterizeTriangle(final int o, final RasterState state,
+        final boolean linear, final int left, final int top, final int right,
+        final int bottom)
+    {
+        final float[] p = this.primitives;
+        final int o1 = o + VERTEX_SIZE;
+        final int o2 = o1 + VERTEX_SIZE;
+        final int x0 = fixed(p[o + X]), y0 = fixed(p[o + Y]);
+        final int x1 = fixed(p[o1 + X]), y1 = fixed(p[o1 + Y]);
+        final int x2 = fixed(p[o2 + X]), y2 = fixed(p[o2 + Y]);
+
+        // Clip the rasterized area to the bounding box of the triangle
+        final int minX = Math.max(left, ceilPixel(Math.min(x0, Math.min(x1,
+            x2))));
+        final int minY = Math.max(top, ceilPixel(Math.min(y0, Math.min(y1,
+            y2))));
+        final int maxX = Math.min(right, floorPixel(Math.max(x0, Math.max(x1,
+            x2))) + 1);
+        final int maxY = Math.min(bottom, floorPixel(Math.max(y0, Math.max(
+            y1, y2))) + 1);
+        if (minX >= maxX || minY >= maxY) return;
+
+        // Edge function steps
+        final long dy0 = x2 - x1, dx0 = y1 - y2;
+        final long dy1 = x0 - x2, dx1 = y2 - y0;
+        final long dy2 = x1 - x0, dx2 = y0 - y1;
+        final float invArea = 1f / (dy2 * dx1 - dx2 * dy1);
+        final boolean own0 = dy0 < 0 || (dy0 == 0 && dx0 > 0);
+        final boolean own1 = dy1 < 0 || (dy1 == 0 && dx1 > 0);
+        final boolean own2 = dy2 < 0 || (dy2 == 0 && dx2 > 0);
+        final long stepX0 = dx0 * ONE, stepX1 = dx1 * ONE, stepX2 = dx2 * ONE;
+
+        final float z0 = p[o + Z], z1 = p[o1 + Z], z2 = p[o2 + Z];
+        final float w0 = p[o + W], w1 = p[o1 + W], w2 = p[o2 + W];
+        final int[] colors = this.colors;
+        final float[] depths = this.depths;
+        final int width = this.width;
+        final boolean depthTest = state.depthTest;
+        final int depthFunc = state.depthFunc;
+
+        for (int y = minY; y < maxY; y++)
+        {
+            final int cx = (minX << SUBPIXEL_BITS) + HALF;
+            final int cy = (y << SUBPIXEL_BITS) + HALF;
+            long e0 = dy0 * (cy - y1) + dx0 * (cx - x1);
+            long e1 = dy1 * (cy - y2) + dx1 * (cx - x2);
+            long e2 = dy2 * (cy - y0) + dx2 * (cx - x0);
+            int index = y * width + minX;
+            for (int x = minX; x < maxX; x++, index++, e0 += stepX0,
+                e1 += stepX1, e2 += stepX2)
+            {
+                if (e0 < 0 || e1 < 0 || e2 < 0) continue;
+                if ((e0 == 0 && !own0) || (e1 == 0 && !own1)
+                    || (e2 == 0 && !own2)) continue;
+                final float b0 = e0 * invArea;
+                final float b1 = e1 * invArea;
+                final float b2 = e2 * invArea;
+                final float z = b0 * z0 + b1 * z1 + b2 * z2;
+                if (z < 0 || z > 1) continue;
+                if (depthTest && !passes(depthFunc, z, depths[index]))
+                    continue;
+                final float w = 1 / (b0 * w0 + b1 * w1 + b2 * w2);
+                final float c0 = b0 * w, c1 = b1 * w, c2 = b2 * w;
+                shade(state, colors, depths, index, z, c0 * p[o + R] + c1
+                    * p[o1 + R] + c2 * p[o2 + R], c0 * p[o + G] + c1
+                    * p[o1 + G] + c2 * p[o2 + G], c0 * p[o + B] + c1
+                    * p[o1 + B] + c2 * p[o2 + B], c0 * p[o + A] + c1
+                    * p[o1 + A] + c2 * p[o2 + A], c0 * p[o + S] + c1
+                    * p[o1 + S] + c2 * p[o2 + S], c0 * p[o + T] + c1
+                    * p[o1 + T] + c2 * p[o2 + T], linear);
+            }
+        }
+    }
+
+
+    /**
+     * Rasterizes a line with one pixel width.
+     *
+     * @param o
+     *            The offset of the line
+     * @param state
+     *            The raster state
+     * @param linear
+     *            If texture is filtered linearly
+     * @param left
+     *            The left border of the rasterized area (inclusive)
+     * @param top
+     *            The top border of the rasterized area (inclusive)
+     * @param right
+     *            The right border of the rasterized area (exclusive)
+     * @param bottom
+     *            The bottom border of the rasterized area (exclusive)
+     */
+
+    private void rasterizeLine(final int o, final RasterState state,
+        final boolean linear, final int left, final int top, final int right,
+        final int bottom)
+    {
+        final float[] p = this.primitives;
+        final int o1 = o + VERTEX_SIZE;
+        final float x0 = p[o + X], y0 = p[o + Y];
+        final float dx = p[o1 + X] - x0, dy = p[o1 + Y] - y0;
+        final boolean horizontal = Math.abs(dx) >= Math.abs(dy);
+        final int steps = Math.max(1, (int) Math.ceil(horizontal ? Math
+            .abs(dx) : Math.abs(dy)));
+
+        // Limit the steps to the part of the line inside the rasterized area
+        final float start = horizontal ? x0 : y0;
+        final float delta = horizontal ? dx : dy;
+        int first = 0, last = steps;
+        if (delta != 0)
+        {
+            final float a = ((horizontal ? left : top) - start) / delta;
+            final float b = ((horizontal ? right : bottom) - start) / delta;
+            first = Math.max(0, (int) Math.floor(Math.min(a, b) * steps) - 1);
+            last = Math.min(steps, (int) Math.ceil(Math.max(a, b) * steps) + 1);
+        }
+
+        final int[] colors = this.colors;
+        final float[] depths = this.depths;
+        for (int i = first; i <= last; i++)
+        {
+            final float t = (float) i / steps;
+            final int x = (int) Math.floor(x0 + dx * t);
+            final int y = (int) Math.floor(y0 + dy * t);
+            if (x < left || x >= right || y < top || y >= bottom) continue;
+            final int index = y * this.width + x;
+            final float z = lerp(p, o, Z, t);
+            if (z < 0 || z > 1) continue;
+            if (state.depthTest && !passes(state.depthFunc, z, depths[index]))
+                continue;
+            final float w = 1 / lerp(p, o, W, t);
+            shade(state, colors, depths, index, z, lerp(p, o, R, t) * w,
+                lerp(p, o, G, t) * w, lerp(p, o, B, t) * w, lerp(p, o, A, t)
+                    * w, lerp(p, o, S, t) * w, lerp(p, o, T, t) * w, linear);
+        }
+    }
+
+
+    /**
+     * Linearly interpolates a vertex component between the two vertices of
+     * a line.
+     *
+     * @param p
+     *            The primitive data
+     * @param o
+     *            The offset of the line
+     * @param component
+     *            The offset of the component within the vertex
+     * @param t
+     *            The interpolation factor
+     * @return The interpolated value
+     */
+
+    private static float lerp(final float[] p, final int o,
+        final int component, final float t)
+    {
+        final float a = p[o + component];
+        return a + (p[o + VERTEX_SIZE + component] - a) * t;
+    }
+
+
+    /**
+     * Rasterizes a point with one pixel size.
+     *
+     * @param o
+     *            The offset of the point
+     * @param state
+     *            The raster state
+     * @param linear
+     *            If texture is filtered linearly
+     * @param left
+     *            The left border of the rasterized area (inclusive)
+     * @param top
+     *            The top border of the rasterized area (inclusive)
+     * @param right
+     *            The right border of the rasterized area (exclusive)
+     * @param bottom
+     *            The bottom border of the rasterized area (exclusive)
+     */
+
+    private void rasterizePoint(final int o, final RasterState state,
+        final boolean linear, final int left, final int top, final int right,
+        final int bottom)
+    {
+        final float[] p = this.primitives;
+        final int x = (int) Math.floor(p[o + X]);
+        final int y = (int) Math.floor(p[o + Y]);
+        if (x < left || x >= right || y < top || y >= bottom) return;
+        final int index = y * this.width + x;
+        final float z = p[o + Z];
+        if (z < 0 || z > 1) return;
+        if (state.depthTest && !passes(state.depthFunc, z, this.depths[index]))
+            return;
+        final float w = 1 / p[o + W];
+        shade(state, this.colors, this.depths, index, z, p[o + R] * w,
+            p[o + G] * w, p[o + B] * w, p[o + A] * w, p[o + S] * w,
+            p[o + T] * w, linear);
+    }
+
+
+    /**
+     * Checks if a fragment passes the depth test.
+     *
+     * @param func
+     *            The depth function
+     * @param z
+     *            The fragment depth
+     * @param depth
+     *            The depth in the depth buffer
+     * @return True if fragment passes, false if not
+     */
+
+    private static boolean passes(final int func, final float z,
+        final float depth)
+    {
+        switch (func)
+        {
+            case GL.GL_LESS:
+                return z < depth;
+
+            case GL.GL_LEQUAL:
+                return z <= depth;
+
+            case GL.GL_GREATER:
+                return z > depth;
+
+            case GL.GL_GEQUAL:
+                return z >= depth;
+
+            case GL.GL_EQUAL:
+                return z == depth;
+
+            case GL.GL_NOTEQUAL:
+                return z != depth;
+
+            case GL.GL_NEVER:
+                return false;
+
+            default:
+                return true;
+        }
+    }
+
+
+    /**
+     * Textures and blends a fragment and writes it into the framebuffer.
+     *
+     * @param state
+     *            The raster state
+     * @param colors
+     *            The color buffer
+     * @param depths
+     *            The depth buffer
+     * @param index
+     *            The pixel index
+     * @param z
+     *            The fragment depth
+     * @param r
+     *            The red color component
+     * @param g
+     *            The green color component
+     * @param b
+     *            The blue color component
+     * @param a
+     *            The alpha color component
+     * @param s
+     *            The S texture coordinate
+     * @param t
+     *            The T texture coordinate
+     * @param linear
+     *            If texture is filtered linearly
+     */
+
+    private static void shade(final RasterState state, final int[] colors,
+        final float[] depths, final int index, final float z, float r,
+        float g, float b, float a, final float s, final float t,
+        final boolean linear)
+    {
+        final SoftwareTexture texture = state.texture;
+        if (texture != null)
+        {
+            final int texel = texture.sample(s, t, linear);
+            final float ta = (texel >>> 24) / 255f;
+            final float tr = ((texel >> 16) & 0xff) / 255f;
+            final float tg = ((texel >> 8) & 0xff) / 255f;
+            final float tb = (texel & 0xff) / 255f;
+            switch (state.textureMode)
+            {
+                case GL.GL_REPLACE:
+                    r = tr;
+                    g = tg;
+                    b = tb;
+                    a = ta;
+                    break;
+
+                case GL.GL_DECAL:
+                    r += (tr - r) * ta;
+                    g += (tg - g) * ta;
+                    b += (tb - b) * ta;
+                    break;
+
+                default:
+                    r *= tr;
+                    g *= tg;
+                    b *= tb;
+                    a *= ta;
+            }
+        }
+
+        if (state.blend)
+        {
+            final int dst = colors[index];
+            final float da = (dst >>> 24) / 255f;
+            final float dr = ((dst >> 16) & 0xff) / 255f;
+            final float dg = ((dst >> 8) & 0xff) / 255f;
+            final float db = (dst & 0xff) / 255f;
+            final int sf = state.srcFactor;
+            final int df = state.dstFactor;
+            final float sa = clamp(a);
+            r = clamp(r) * factor(sf, r, sa, dr, da, false) + dr
+                * factor(df, r, sa, dr, da, false);
+            g = clamp(g) * factor(sf, g, sa, dg, da, false) + dg
+                * factor(df, g, sa, dg, da, false);
+            b = clamp(b) * factor(sf, b, sa, db, da, false) + db
+                * factor(df, b, sa, db, da, false);
+            a = sa * factor(sf, sa, sa, da, da, true) + da
+                * factor(df, sa, sa, da, da, true);
+        }
+
+        colors[index] = ((int) (clamp(a) * 255 + 0.5f) << 24)
+            | ((int) (clamp(r) * 255 + 0.5f) << 16)
+            | ((int) (clamp(g) * 255 + 0.5f) << 8)
+            | (int) (clamp(b) * 255 + 0.5f);
+        if (state.depthTest && state.depthMask) depths[index] = z;
+    }
+
+
+    /**
+     * Clamps a color component to the range 0 to 1.
+     *
+     * @param value
+     *            The color component
+     * @return The clamped color component
+     */
+
+    private static float clamp(final float value)
+    {
+        return value < 0 ? 0 : value > 1 ? 1 : value;
+    }
+
+
+    /**
+     * Returns a blend factor for one color component.
+     *
+     * @param factor
+     *            The blend factor constant
+     * @param src
+     *            The source color component
+     * @param srcAlpha
+     *            The source alpha
+     * @param dst
+     *            The destination color component
+     * @param dstAlpha
+     *            The destination alpha
+     * @param alpha
+     *            True if the factor is for the alpha component
+     * @return The blend factor
+     */
+
+    private static float factor(final int factor, final float src,
+        final float srcAlpha, final float dst, final float dstAlpha,
+        final boolean alpha)
+    {
+        switch (factor)
+        {
+            case GL_ZERO:
+                return 0;
+
+            case GL_ONE:
+                return 1;
+
+            case GL.GL_SRC_COLOR:
+                return src;
+
+            case GL.GL_ONE_MINUS_SRC_COLOR:
+                return 1 - src;
+
+            case GL.GL_SRC_ALPHA:
+                return srcAlpha;
+
+            case GL.GL_ONE_MINUS_SRC_ALPHA:
+                return 1 - srcAlpha;
+
+            case GL.GL_DST_ALPHA:
+                return dstAlpha;
+
+            case GL.GL_ONE_MINUS_DST_ALPHA:
+                return 1 - dstAlpha;
+
+            case GL.GL_DST_COLOR:
+                return dst;
+
+            case GL.GL_ONE_MINUS_DST_COLOR:
+                return 1 - dst;
+
+            case GL.GL_SRC_ALPHA_SATURATE:
+                return alpha ? 1 : Math.min(srcAlpha, 1 - dstAlpha);
+
+            default:
+                throw new IllegalArgumentException("Invalid blend factor: 0x"
+                    + Integer.toHexString(factor));
+        }
+    }
+}
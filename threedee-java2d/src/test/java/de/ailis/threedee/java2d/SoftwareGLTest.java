@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2010 Klaus Reimer <k@ailis.de>
+ * See LICENSE.txt for licensing information.
+ */
+
+package de.ailis.threedee.java2d;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+
+import de.ailis.threedee.rendering.GL;
+import de.ailis.threedee.utils.BufferUtils;
+
+
+/**
+ * Tests the SoftwareGL class.
+ *
+ * @author Klaus Reimer (k@ailis.de)
+ */
+
+public class SoftwareGLTest
+{
+    /**
+     * Creates a GL with a black framebuffer, identity matrices, disabled
+     * lighting and enabled vertex array.
+     *
+     * @param threads
+     *            The number of rasterizer threads
+     * @return The GL
+     */
+
+    private static SoftwareGL createGL(final int threads)
+    {
+        final SoftwareGL gl = new SoftwareGL(64, 64, threads);
+        gl.glClearColor(0, 0, 0, 1);
+        gl.glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+        gl.glEnableClientState(GL.GL_VERTEX_ARRAY);
+        return gl;
+    }
+
+
+    /**
+     * Draws a quad in normalized device coordinates with an emissive
+     * material color.
+     *
+     * @param gl
+     *            The GL
+     * @param x1
+     *            The left border
+     * @param y1
+     *            The bottom border
+     * @param x2
+     *            The right border
+     * @param y2
+     *            The top border
+     * @param z
+     *            The depth
+     * @param color
+     *            The color (RGBA)
+     */
+
+    private static void drawQuad(final GL gl, final float x1, final float y1,
+        final float x2, final float y2, final float z, final float... color)
+    {
+        final FloatBuffer vertices = BufferUtils.createDirectFloatBuffer(12);
+        vertices.put(new float[] { x1, y1, z, x2, y1, z, x2, y2, z, x1, y2,
+            z });
+        vertices.rewind();
+        final FloatBuffer texCoords = BufferUtils.createDirectFloatBuffer(8);
+        texCoords.put(new float[] { 0, 0, 1, 0, 1, 1, 0, 1 });
+        texCoords.rewind();
+        final ShortBuffer indices = BufferUtils.createDirectShortBuffer(6);
+        indices.put(new short[] { 0, 1, 2, 0, 2, 3 });
+        indices.rewind();
+        final FloatBuffer black = BufferUtils.createDirectFloatBuffer(4);
+        final FloatBuffer emission = BufferUtils.createDirectFloatBuffer(4);
+        emission.put(color);
+        emission.rewind();
+
+        gl.glEnable(GL.GL_LIGHTING);
+        gl.glLightModelfv(GL.GL_LIGHT_MODEL_AMBIENT, black);
+        gl.glMaterial(GL.GL_FRONT_AND_BACK, GL.GL_AMBIENT_AND_DIFFUSE, black);
+        gl.glMaterial(GL.GL_FRONT_AND_BACK, GL.GL_EMISSION, emission);
+        final FloatBuffer diffuse = BufferUtils.createDirectFloatBuffer(4);
+        diffuse.put(3, color[3]);
+        gl.glMaterial(GL.GL_FRONT_AND_BACK, GL.GL_DIFFUSE, diffuse);
+        gl.glVertexPointer(3, 0, vertices);
+        gl.glTexCoordPointer(2, 0, texCoords);
+        gl.glDrawElements(GL.GL_TRIANGLES, GL.GL_UNSIGNED_SHORT, indices);
+    }
+
+
+    /**
+     * Returns the color of a pixel.
+     *
+     * @param gl
+     *            The GL
+     * @param x
+     *            The X coordinate
+     * @param y
+     *            The Y coordinate (0 is the top row)
+     * @return The pixel color as ARGB integer
+     */
+
+    private static int getPixel(final SoftwareGL gl, final int x, final int y)
+    {
+        return gl.getColorBuffer().get(y * gl.getWidth() + x);
+    }
+
+
+    /**
+     * Tests rendering a quad.
+     */
+
+    @Test
+    public void testQuad()
+    {
+        final SoftwareGL gl = createGL(1);
+        drawQuad(gl, -1, -1, 0, 0, 0, 1, 0, 0, 1);
+        assertEquals(0xffff0000, getPixel(gl, 0, 63));
+        assertEquals(0xffff0000, getPixel(gl, 31, 32));
+        assertEquals(0xff000000, getPixel(gl, 32, 32));
+        assertEquals(0xff000000, getPixel(gl, 31, 31));
+        assertEquals(0xff000000, getPixel(gl, 0, 0));
+    }
+
+
+    /**
+     * Tests the depth test.
+     */
+
+    @Test
+    public void testDepthTest()
+    {
+        final SoftwareGL gl = createGL(1);
+        gl.glEnable(GL.GL_DEPTH_TEST);
+        gl.glDepthFunc(GL.GL_LEQUAL);
+        drawQuad(gl, -1, -1, 1, 1, -0.5f, 0, 1, 0, 1);
+        drawQuad(gl, -1, -1, 1, 1, 0.5f, 1, 0, 0, 1);
+        assertEquals(0xff00ff00, getPixel(gl, 10, 10));
+    }
+
+
+    /**
+     * Tests blending.
+     */
+
+    @Test
+    public void testBlending()
+    {
+        final SoftwareGL gl = createGL(1);
+        gl.glEnable(GL.GL_BLEND);
+        gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
+        drawQuad(gl, -1, -1, 1, 1, 0, 1, 1, 1, 0.5f);
+        assertEquals(0xbf808080, getPixel(gl, 10, 10));
+    }
+
+
+    /**
+     * Tests texturing.
+     */
+
+    @Test
+    public void testTexture()
+    {
+        final SoftwareGL gl = createGL(1);
+        final IntBuffer id = BufferUtils.createDirectIntegerBuffer(1);
+        gl.glGenTextures(id);
+        gl.glBindTexture(GL.GL_TEXTURE_2D, id.get(0));
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MIN_FILTER,
+            GL.GL_NEAREST);
+        gl.glTexParameteri(GL.GL_TEXTURE_2D, GL.GL_TEXTURE_MAG_FILTER,
+            GL.GL_NEAREST);
+        final ByteBuffer data = BufferUtils.createDirectByteBuffer(16);
+        data.put(new byte[] { -1, 0, 0, -1, 0, -1, 0, -1, 0, 0, -1, -1, -1,
+            -1, -1, -1 });
+        data.rewind();
+        gl.glTexImage2D(GL.GL_TEXTURE_2D, 0, GL.GL_RGBA, 2, 2, 0, GL.GL_RGBA,
+            GL.GL_UNSIGNED_BYTE, data);
+        gl.glEnable(GL.GL_TEXTURE_2D);
+        gl.glEnableClientState(GL.GL_TEXTURE_COORD_ARRAY);
+        drawQuad(gl, -1, -1, 1, 1, 0, 1, 1, 1, 1);
+
+        // First texel row is at T=0 which is the bottom of the quad
+        assertEquals(0xffff0000, getPixel(gl, 10, 50));
+        assertEquals(0xff00ff00, getPixel(gl, 50, 50));
+        assertEquals(0xff0000ff, getPixel(gl, 10, 10));
+        assertEquals(0xffffffff, getPixel(gl, 50, 10));
+    }
+
+
+    /**
+     * Tests that parallel rasterization produces the same image as
+     * sequential rasterization.
+     */
+
+    @Test
+    public void testParallel()
+    {
+        final SoftwareGL sequential = createGL(1);
+        final SoftwareGL parallel = createGL(4);
+        try
+        {
+            for (final SoftwareGL gl : new SoftwareGL[] { sequential, parallel })
+            {
+                final Random random = new Random(1);
+                gl.glEnable(GL.GL_DEPTH_TEST);
+                gl.glEnable(GL.GL_BLEND);
+                gl.glBlendFunc(GL.GL_SRC_ALPHA, GL.GL_ONE_MINUS_SRC_ALPHA);
+                for (int i = 0; i < 100; i++)
+                {
+                    final float x = random.nextFloat() * 2 - 1;
+                    final float y = random.nextFloat() * 2 - 1;
+                    drawQuad(gl, x, y, x + random.nextFloat(), y
+                        + random.nextFloat(), random.nextFloat() * 2 - 1,
+                        random.nextFloat(), random.nextFloat(), random
+                            .nextFloat(), random.nextFloat());
+                }
+            }
+            assertArrayEquals(sequential.getColorBuffer().array(), parallel
+                .getColorBuffer().array());
+        }
+        finally
+        {
+            parallel.dispose();
+        }
+    }
+}
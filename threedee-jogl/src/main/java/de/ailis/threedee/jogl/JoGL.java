@@ -222,6 +222,17 @@ public class JoGL extends Java2DGL
     }
 
 
+    /**
+     * @see de.ailis.threedee.rendering.GL#glLoadMatrix(java.nio.FloatBuffer)
+     */
+
+    @Override
+    public void glLoadMatrix(final FloatBuffer m)
+    {
+        this.gl.glLoadMatrixf(m);
+    }
+
+
     /**
      * @see de.ailis.threedee.rendering.GL#glMatrixMode(int)
      */
@@ -279,6 +290,17 @@ public class JoGL extends Java2DGL
     }
 
 
+    /**
+     * @see de.ailis.threedee.rendering.GL#glDepthMask(boolean)
+     */
+
+    @Override
+    public void glDepthMask(final boolean flag)
+    {
+        this.gl.glDepthMask(flag);
+    }
+
+
     /**
      * @see de.ailis.threedee.rendering.GL#glDisable(int)
      */
@@ -584,4 +606,163 @@ public class JoGL extends Java2DGL
     {
         this.gl.glTexEnvi(target, pname, param);
     }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glGenBuffers(java.nio.IntBuffer)
+     */
+
+    @Override
+    public void glGenBuffers(final IntBuffer buffers)
+    {
+        this.gl.glGenBuffers(buffers.remaining(), buffers);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glDeleteBuffers(java.nio.IntBuffer)
+     */
+
+    @Override
+    public void glDeleteBuffers(final IntBuffer buffers)
+    {
+        this.gl.glDeleteBuffers(buffers.remaining(), buffers);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glBindBuffer(int, int)
+     */
+
+    @Override
+    public void glBindBuffer(final int target, final int buffer)
+    {
+        this.gl.glBindBuffer(target, buffer);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glBufferData(int, int, java.nio.Buffer, int)
+     */
+
+    @Override
+    public void glBufferData(final int target, final int size,
+            final Buffer data, final int usage)
+    {
+        this.gl.glBufferData(target, size, data, usage);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glBufferSubData(int, int, int, java.nio.Buffer)
+     */
+
+    @Override
+    public void glBufferSubData(final int target, final int offset,
+            final int size, final Buffer data)
+    {
+        this.gl.glBufferSubData(target, offset, size, data);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glVertexPointer(int, int, int)
+     */
+
+    @Override
+    public void glVertexPointer(final int size, final int stride,
+            final int offset)
+    {
+        this.gl.glVertexPointer(size, GL_FLOAT, stride, offset);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glNormalPointer(int, int)
+     */
+
+    @Override
+    public void glNormalPointer(final int stride, final int offset)
+    {
+        this.gl.glNormalPointer(GL_FLOAT, stride, offset);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glTexCoordPointer(int, int, int)
+     */
+
+    @Override
+    public void glTexCoordPointer(final int size, final int stride,
+            final int offset)
+    {
+        this.gl.glTexCoordPointer(size, GL_FLOAT, stride, offset);
+    }
+
+
+    /**
+     * @see de.ailis.threedee.rendering.GL#glDrawElements(int, int, int, int)
+     */
+
+    @Override
+    public void glDrawElements(final int mode, final int count,
+            final int type, final int offset)
+    {
+        this.gl.glDrawElements(mode, count, type, offset);
+    }
+
+
+    /**
+     * @see GL#glGenLists(int)
+     */
+
+    @Override
+    public int glGenLists(final int range)
+    {
+        return this.gl.glGenLists(range);
+    }
+
+
+    /**
+     * @see GL#glNewList(int, int)
+     */
+
+    @Override
+    public void glNewList(final int list, final int mode)
+    {
+        this.gl.glNewList(list, mode);
+    }
+
+
+    /**
+     * @see GL#glEndList()
+     */
+
+    @Override
+    public void glEndList()
+    {
+        this.gl.glEndList();
+    }
+
+
+    /**
+     * @see GL#glCallList(int)
+     */
+
+    @Override
+    public void glCallList(final int list)
+    {
+        this.gl.glCallList(list);
+    }
+
+
+    /**
+     * @see GL#glDeleteLists(int, int)
+     */
+
+    @Override
+    public void glDeleteLists(final int list, final int range)
+    {
+        this.gl.glDeleteLists(list, range);
+    }
 }
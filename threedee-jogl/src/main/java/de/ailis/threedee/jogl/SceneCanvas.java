@@ -22,6 +22,7 @@ import com.sun.opengl.util.FPSAnimator;
 import de.ailis.gramath.Color4f;
 import de.ailis.threedee.events.TouchEvent;
 import de.ailis.threedee.events.TouchListener;
+import de.ailis.threedee.rendering.StateCachingGL;
 import de.ailis.threedee.rendering.ViewComponent;
 import de.ailis.threedee.rendering.Viewport;
 import de.ailis.threedee.scene.Scene;
@@ -68,8 +69,8 @@ public class SceneCanvas extends JComponent implements ViewComponent
         capabilities.setSampleBuffers(true);
         capabilities.setNumSamples(4);
         this.canvas = new GLCanvas(capabilities);
-        final Viewport viewport = this.viewport = new Viewport(this, new JoGL(
-                this.canvas.getGL(), new GLU()));
+        final Viewport viewport = this.viewport = new Viewport(this,
+                new StateCachingGL(new JoGL(this.canvas.getGL(), new GLU())));
         this.animator = new FPSAnimator(this.canvas, 75);
         add(this.canvas);
 